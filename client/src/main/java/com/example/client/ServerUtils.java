@@ -6,6 +6,7 @@ import java.net.http.HttpClient; // Need Java 11+
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.Locale;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,6 +19,13 @@ import com.example.client.utils.TimeUtils;
 public class ServerUtils {
   private static final Logger logger = LoggerFactory.getLogger(App.class);
 
+  // Sent with downloads: the methods this client can handle, the server picks one of them in adaptive mode.
+  // "inline" lets a presign download return a tiny object's body in place of the URL
+  public static final String TRANSFER_METHODS_HEADER = "X-Transfer-Methods";
+  public static final String SUPPORTED_TRANSFER_METHODS = "presign, streamS3ObjectViaServer, inline";
+  // Names the method the server picked for an adaptive download
+  public static final String TRANSFER_METHOD_HEADER = "X-Transfer-Method";
+
   // ------------------------------------------------------------------------
   // Check if the server is running
   // Endpoint: (GET http://localhost:3000/)
@@ -71,6 +79,48 @@ public class ServerUtils {
     }
   }
 
+  //------------------------------------------------------------------------
+  // Ask which method to upload a file of this size with ("adaptive" mode)
+  // Endpoint: (GET /files/upload-method?size=)
+  // ------------------------------------------------------------------------
+  public static String getUploadMethod(HttpClient client, long size) {
+    HttpRequest request = HttpRequest.newBuilder() //
+      .uri(URI.create("http://localhost:3000/files/upload-method?size=" + size)) //
+      .header(TRANSFER_METHODS_HEADER, SUPPORTED_TRANSFER_METHODS) //
+      .build();
+
+    try {
+      HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+
+      if (response.statusCode() == 200) {
+        return response.body();
+      } else {
+        logger.error("Failed to get upload method. Status: {}", response.statusCode());
+        return null;
+      }
+    } catch (Exception e) {
+      logger.error("Error getting upload method", e);
+      return null;
+    }
+  }
+
+  //------------------------------------------------------------------------
+  // Report how long an adaptive transfer took, so the server's policy learns from it
+  // Endpoint: (POST /files/transfer-policy/feedback)
+  // ------------------------------------------------------------------------
+  public static void reportTransfer(HttpClient client, String direction, String method, long bytes, long nanos) {
+    HttpRequest request = HttpRequest.newBuilder() //
+      .uri(URI.create(String.format(Locale.ROOT, "http://localhost:3000/files/transfer-policy/feedback?direction=%s&method=%s&bytes=%d&millis=%.3f", direction, method, bytes, nanos / 1e6))) //
+      .POST(HttpRequest.BodyPublishers.noBody()) //
+      .build();
+
+    // Not waited for: the report must not add to the next transfer's time
+    client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).exceptionally(e -> {
+      logger.warn("Failed to report transfer time: {}", e.getMessage());
+      return null;
+    });
+  }
+
   //------------------------------------------------------------------------
   // Change the current method
   // Endpoint: POST /files/method/{method}
@@ -1,10 +1,13 @@
 package com.example.client.downloadService;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,7 +32,10 @@ public class FileDownloadUtils {
   public static void downloadFile(HttpClient client, String fileName, String savePath, String clientId) {
     // Build the HTTP GET request for downloading the file
     String method = ServerUtils.getCurrentMethod(client);
-    HttpRequest request = HttpRequest.newBuilder().uri(URI.create("http://localhost:3000/files/download/" + fileName)).build();
+    HttpRequest request = HttpRequest.newBuilder() //
+      .uri(URI.create("http://localhost:3000/files/download/" + fileName)) //
+      .header(ServerUtils.TRANSFER_METHODS_HEADER, ServerUtils.SUPPORTED_TRANSFER_METHODS) //
+      .build();
 
     try {
       //Checks and applies different methods for download
@@ -39,6 +45,10 @@ public class FileDownloadUtils {
         HttpResponse<InputStream> response = null;
         response = AccessPointDownloadService.accessPointDownload(client, response, fileName, savePath, clientId);
 
+      } else if ("adaptive".equals(method)) {
+
+        adaptiveDownload(client, fileName, savePath);
+
       } else {
 
         HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
@@ -61,4 +71,34 @@ public class FileDownloadUtils {
       logger.error("Error downloading file", e);
     }
   }
+
+  /**
+   * Downloads with whichever method the server picks for this file (named in X-Transfer-Method), then reports
+   * the time from the first request to the last byte back to the server, which learns from it.
+   */
+  private static void adaptiveDownload(HttpClient client, String fileName, String savePath) throws IOException, InterruptedException {
+    long startTime = System.nanoTime();
+    HttpRequest request = HttpRequest.newBuilder() //
+      .uri(URI.create("http://localhost:3000/files/download/" + fileName)) //
+      .header(ServerUtils.TRANSFER_METHODS_HEADER, ServerUtils.SUPPORTED_TRANSFER_METHODS) //
+      .build();
+
+    HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+    if (response.statusCode() != 200) {
+      response.body().close();
+      logger.error("Download failed. Status: {}", response.statusCode());
+      return;
+    }
+
+    String transferMethod = response.headers().firstValue(ServerUtils.TRANSFER_METHOD_HEADER).orElse("streamS3ObjectViaServer");
+    if ("presign".equals(transferMethod)) {
+      if (!PresignUrlDownloadService.presignedUrlDownload(client, response, savePath)) {
+        return;
+      }
+    } else {
+      StreamServerDownloadService.streamServerDownload(response, savePath);
+    }
+
+    ServerUtils.reportTransfer(client, "download", transferMethod, Files.size(Path.of(savePath)), System.nanoTime() - startTime);
+  }
 }
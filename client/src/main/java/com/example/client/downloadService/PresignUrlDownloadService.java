@@ -28,14 +28,22 @@ public class PresignUrlDownloadService {
 
   /**
    * Downloads a file using a presigned URL extracted from a JSON response and saves it locally.
+   * A tiny object may come back inline instead (application/octet-stream), its body is then saved directly.
    *
    * @param client          the HTTP client to use
    * @param initialResponse the initial response containing the presigned URL in JSON
    * @param savePath        local path to save the downloaded file
+   * @return true if the file was downloaded
    * @throws IOException          if an I/O error occurs
    * @throws InterruptedException if the HTTP request is interrupted
    */
-  public static void presignedUrlDownload(HttpClient client, HttpResponse<InputStream> initialResponse, String savePath) throws IOException, InterruptedException {
+  public static boolean presignedUrlDownload(HttpClient client, HttpResponse<InputStream> initialResponse, String savePath) throws IOException, InterruptedException {
+
+    if (initialResponse.headers().firstValue("Content-Type").orElse("").startsWith("application/octet-stream")) {
+      downloadToFile(initialResponse.body(), Paths.get(savePath));
+      logger.info("[{}] [FileDownload] Download complete (inline) | Saved to: {}", TimeUtils.getCurrentTimestamp(), savePath);
+      return true;
+    }
 
     final ObjectMapper mapper = new ObjectMapper();
     final String json = new String(initialResponse.body().readAllBytes());
@@ -50,8 +58,10 @@ public class PresignUrlDownloadService {
     if (presignedResponse.statusCode() == 200) {
       downloadToFile(presignedResponse.body(), Paths.get(savePath));
       logger.info("[{}] [FileDownload] Download complete | Saved to: {}", TimeUtils.getCurrentTimestamp(), savePath);
+      return true;
     } else {
       logger.error("Download failed. Status: {}", presignedResponse.statusCode());
+      return false;
     }
   }
 
@@ -2,6 +2,8 @@ package com.example.client.uploadServices;
 
 import java.io.IOException;
 import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +29,14 @@ public class FileUploadUtils {
     logger.info("[" + TimeUtils.getCurrentTimestamp() + "] [FileUpload]   Upload initiated | File: " + fileName);
 
     try {
+      // In "adaptive" mode the server picks presign or stream-via-server for this file's size
+      boolean adaptive = "adaptive".equals(method);
+      long size = Files.size(Path.of(filePath));
+      if (adaptive) {
+        method = ServerUtils.getUploadMethod(client, size);
+      }
+      long startTime = System.nanoTime();
+
       //Checks and applies different methods for upload
 
       if ("presign".equals(method)) {
@@ -44,6 +54,11 @@ public class FileUploadUtils {
 
         AccessPointUploadService.accessPointUpload(client, fileName, filePath, clientId);
       }
+
+      // Reported back so the server's upload policy learns from the measured time
+      if (adaptive && method != null) {
+        ServerUtils.reportTransfer(client, "upload", method, size, System.nanoTime() - startTime);
+      }
     } catch (IOException | InterruptedException e) {
       // Handle IO and interruption exceptions, and restore the interrupt status
       logger.info("[" + TimeUtils.getCurrentTimestamp() + "] Upload failed" + e);
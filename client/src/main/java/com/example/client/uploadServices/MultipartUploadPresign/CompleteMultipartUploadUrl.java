@@ -70,4 +70,36 @@ public class CompleteMultipartUploadUrl {
       throw new IOException("Upload completion failed: " + completeResponse.statusCode() + " / " + completeResponse.body());
     }
   }
+
+  /**
+   * Finalizes the multipart upload on the server in one request.
+   *
+   * The server checks the part manifest against the parts S3 holds (part numbers, ETags and sizes) and completes
+   * the upload itself, so there is no presigned request to POST to S3 and no XML to handle here.
+   *
+   * @param client   the HTTP client used to make requests
+   * @param fileName the name of the file being uploaded
+   * @param uploadId the upload ID previously returned by S3
+   * @param parts    the uploaded parts with their ETags and sizes
+   * @return the server's JSON answer: key, eTag, size, parts, versionId and location of the object
+   * @throws IOException if the server rejects the manifest (the problems are in the message) or completion fails
+   */
+  public static JsonNode completeMultipartUploadOnServer(HttpClient client, //
+    String fileName, //
+    String uploadId, //
+    List<MultipartUploadDTO.CompletedPartDTO> parts) //
+    throws IOException, InterruptedException {
+
+    HttpResponse<String> response = client.send(HttpRequest.newBuilder() //
+      .uri(URI.create(String.format("http://localhost:3000/files/multipart-complete/%s/%s", fileName, uploadId))) //
+      .header("Content-Type", "application/json") //
+      .POST(HttpRequest.BodyPublishers.ofString(new ObjectMapper().writeValueAsString(parts))) //
+      .timeout(Duration.ofMinutes(2)) // S3 may take a while to assemble many parts
+      .build(), HttpResponse.BodyHandlers.ofString());
+
+    if (response.statusCode() != 200) {
+      throw new IOException("Upload completion failed: " + response.statusCode() + " / " + response.body());
+    }
+    return new ObjectMapper().readTree(response.body());
+  }
 }
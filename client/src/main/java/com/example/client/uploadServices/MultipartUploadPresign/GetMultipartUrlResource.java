@@ -7,8 +7,12 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 
+import com.example.client.utils.FileRegionBodyPublisher;
 import com.example.client.utils.TimeUtils;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class GetMultipartUrlResource {
@@ -44,13 +48,49 @@ public class GetMultipartUrlResource {
     return new ObjectMapper().readTree(response.body()).get("url").asText();
   }
 
+  /**
+   * Fetches presigned PUT URLs for a window of consecutive parts in a single request.
+   *
+   * Used instead of getPresignedPartUrl so that a large upload needs one control-plane call
+   * per window of parts rather than one per part.
+   *
+   * @param client     - the HTTP client used to make the request
+   * @param fileName   - the name of the file being uploaded
+   * @param uploadId   - the multipart upload session ID
+   * @param startPart  - the first part number of the window (1-based)
+   * @param count      - the number of parts in the window
+   * @return a map from part number to presigned URL
+   * @throws IOException if the HTTP request fails or the server rejects the window
+   * @throws InterruptedException if the thread is interrupted during the request
+   */
+  public static Map<Integer, String> getPresignedPartUrls(HttpClient client, String fileName, String uploadId, int startPart, int count) throws IOException, InterruptedException {
+    String url = String.format("http://localhost:3000/files/multipart-presign/%s/%s?start=%d&count=%d", fileName, uploadId, startPart, count);
+
+    HttpRequest request = HttpRequest.newBuilder() //
+      .uri(URI.create(url)) //
+      .timeout(Duration.ofSeconds(10)) //
+      .GET().build();
+
+    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    if (response.statusCode() != 200) {
+      throw new IOException("Failed to get presigned part URLs: " + response.statusCode() + " / " + response.body());
+    }
+
+    // Response: { "urls": [ { "partNumber": 1, "url": "..." }, ... ] }
+    Map<Integer, String> urls = new HashMap<>();
+    for(JsonNode part : new ObjectMapper().readTree(response.body()).get("urls")) {
+      urls.put(part.get("partNumber").asInt(), part.get("url").asText());
+    }
+    return urls;
+  }
+
   /**
    * Uploads a specific part of the file to the given presigned URL.
    *
    * This method:
-   * - Seeks to the specified position in the file
-   * - Reads the required number of bytes
-   * - Sends the data using a PUT request to the presigned URL
+   * - Maps the part's region of the file
+   * - Sends it using a PUT request to the presigned URL, streamed from the mapping in small chunks
+   *   (no byte[] of the part size is allocated, see FileRegionBodyPublisher)
    * - Optionally simulates a network failure for testing
    * - Returns the ETag (part identifier) from the response headers
    *
@@ -76,12 +116,8 @@ public class GetMultipartUrlResource {
 
     long start = System.currentTimeMillis();
 
-    // Move file pointer to start of current part
-    file.seek(position);
-
-    // Read exact part into buffer
-    byte[] buffer = new byte[(int)length];
-    file.readFully(buffer);
+    // Body streamed straight from the part's region of the file
+    FileRegionBodyPublisher body = new FileRegionBodyPublisher(file.getChannel(), position, length);
 
     // Increment part counter (used for logging and simulated error)
     partNumberInUploadPartProcess += 1;
@@ -95,7 +131,7 @@ public class GetMultipartUrlResource {
     // Create and send HTTP PUT request with file part
     HttpRequest request = HttpRequest.newBuilder() //
       .uri(URI.create(presignedUrl)) //
-      .PUT(HttpRequest.BodyPublishers.ofByteArray(buffer)) //
+      .PUT(body) //
       .build();
 
     HttpResponse<String> resp = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
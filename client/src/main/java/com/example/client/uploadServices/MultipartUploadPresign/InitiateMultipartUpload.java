@@ -6,6 +6,8 @@ import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -40,6 +42,44 @@ public class InitiateMultipartUpload {
     return parseUploadIdFromXml(initiateResponse.body());
   }
 
+  /**
+   * An upload started with {@link #startSession}: its uploadId and the presigned URLs of the first window of parts.
+   */
+  static class UploadSession {
+    final String uploadId;
+    final Map<Integer, String> partUrls;
+
+    UploadSession(String uploadId, Map<Integer, String> partUrls) {
+      this.uploadId = uploadId;
+      this.partUrls = partUrls;
+    }
+  }
+
+  /**
+   * Starts the multipart upload in one request: the server initiates it on S3 and returns the uploadId
+   * together with presigned URLs for the first window of parts.
+   *
+   * @param totalParts the number of parts that will be uploaded
+   * @param window     the number of part URLs to fetch with it
+   */
+  static UploadSession startSession(HttpClient client, String fileName, int totalParts, int window) throws IOException, InterruptedException {
+    HttpResponse<String> response = client.send(HttpRequest.newBuilder() //
+      .uri(URI.create(String.format("http://localhost:3000/files/multipart-session/%s?parts=%d&window=%d", fileName, totalParts, window))) //
+      .timeout(Duration.ofSeconds(10)) //
+      .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+    if (response.statusCode() != 200) {
+      throw new IOException("Failed to start multipart upload: " + response.statusCode() + " / " + response.body());
+    }
+
+    // Response: { "uploadId": "...", "expiresAt": "...", "urls": [ { "partNumber": 1, "url": "..." }, ... ] }
+    JsonNode responseJson = new ObjectMapper().readTree(response.body());
+    Map<Integer, String> partUrls = new HashMap<>();
+    for(JsonNode part : responseJson.get("urls")) {
+      partUrls.put(part.get("partNumber").asInt(), part.get("url").asText());
+    }
+    return new UploadSession(responseJson.get("uploadId").asText(), partUrls);
+  }
+
   /**
    * Fetches a presigned PUT URL for the given part number.
    */
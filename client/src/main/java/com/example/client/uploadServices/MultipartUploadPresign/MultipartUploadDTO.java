@@ -1,5 +1,8 @@
 package com.example.client.uploadServices.MultipartUploadPresign;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 public class MultipartUploadDTO {
   /**
    * Simple DTO (Data Transfer Object) used to store metadata for each uploaded part
@@ -9,10 +12,13 @@ public class MultipartUploadDTO {
    * It carries:
    * - partNumber:  the index of the part (required by S3)
    * - eTag: the ETag returned by S3 after uploading each part
+   * - size: the number of bytes in the part, checked by the server when it completes the upload (optional)
    */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
   public static class CompletedPartDTO {
     private int partNumber; // Index of the uploaded part
     private String eTag; // ETag for the uploaded part, used to verify integrity
+    private Long size; // Size of the uploaded part in bytes, null if unknown
 
     // Default no-arg constructor required by Jackson for JSON deserialization
     public CompletedPartDTO() {
@@ -24,6 +30,11 @@ public class MultipartUploadDTO {
       this.eTag = eTag;
     }
 
+    public CompletedPartDTO(int partNumber, String eTag, long size) {
+      this(partNumber, eTag);
+      this.size = size;
+    }
+
     // Getters and setters
     public int getPartNumber() {
       return partNumber;
@@ -33,12 +44,22 @@ public class MultipartUploadDTO {
       this.partNumber = partNumber;
     }
 
+    @JsonProperty("eTag") // The server's name; the getter alone would be serialized as "etag"
     public String getETag() {
       return eTag;
     }
 
+    @JsonProperty("eTag")
     public void setETag(String eTag) {
       this.eTag = eTag;
     }
+
+    public Long getSize() {
+      return size;
+    }
+
+    public void setSize(Long size) {
+      this.size = size;
+    }
   }
 }
@@ -8,19 +8,23 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import com.example.client.utils.TimeUtils;
+import com.fasterxml.jackson.databind.JsonNode;
 
 /**
  * Client helper that performs an S3 multipart upload via presigned URLs.
  *
  * The upload process includes:
- * 1. Initiating the upload to get an uploadId
- * 2. Splitting the file into parts and uploading each part with presigned PUT URLs
- * 3. Completing the multipart upload with a presigned POST request
+ * 1. Starting the upload on the server, which returns the uploadId and the first window of part URLs
+ * 2. Splitting the file into parts and uploading each part with presigned PUT URLs,
+ *    fetched from the server in windows of parts
+ * 3. Completing the multipart upload on the server, which checks the part manifest against S3 first
  */
 public class PresignedMultipartUploadService {
   private static int totalParts; // Used for debugging to display the total number of parts
+  private static final int PRESIGN_WINDOW_SIZE = 100; // Number of part URLs fetched per request to the server
 
   /**
    * Manage the entire multipart-upload:
@@ -41,10 +45,7 @@ public class PresignedMultipartUploadService {
     try {
       System.out.println("[" + TimeUtils.getCurrentTimestamp() + "] [FileUpload] Initiating multipart upload with presigned URL");
 
-      // Step 1: Initiate the multipart upload and receive a unique uploadId
-      uploadId = InitiateMultipartUpload.initiateMultipartUpload(client, fileName);
-
-      // Step 2: Prepare to split and upload file parts
+      // Step 1: Prepare to split the file into parts
       List<MultipartUploadDTO.CompletedPartDTO> parts = new ArrayList<>();
       Path path = Paths.get(filePath);
       long fileSize = Files.size(path);
@@ -62,7 +63,12 @@ public class PresignedMultipartUploadService {
       // From bytes to MB
       System.out.printf("[%s] [FileUpload] FileSize=%.2f mb, PartSize=%.2f mb, TotalParts=%d%n", TimeUtils.getCurrentTimestamp(), fileSize / 1024.0 / 1024.0, partSize / 1024.0 / 1024.0, totalParts);
 
+      // Step 2: Start the upload; the server initiates it and signs the first window of part URLs in the same call
+      InitiateMultipartUpload.UploadSession session = InitiateMultipartUpload.startSession(client, fileName, totalParts, PRESIGN_WINDOW_SIZE);
+      uploadId = session.uploadId;
+
       int partNumber = 1;
+      Map<Integer, String> presignedUrls = session.partUrls; // Current window of presigned part URLs
 
       // Open file and sequentially read & upload parts
       try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
@@ -71,14 +77,18 @@ public class PresignedMultipartUploadService {
           // Calculate current part's size (handle last part edge case)
           long currentPartSize = Math.min(partSize, fileSize - position);
 
-          // Request a presigned URL for the current part
-          String presignedUrl = GetMultipartUrlResource.getPresignedPartUrl(client, fileName, uploadId, partNumber);
+          // Request the next window of presigned URLs once the current window is used up
+          if (!presignedUrls.containsKey(partNumber)) {
+            int windowSize = Math.min(PRESIGN_WINDOW_SIZE, totalParts - partNumber + 1);
+            presignedUrls = GetMultipartUrlResource.getPresignedPartUrls(client, fileName, uploadId, partNumber, windowSize);
+          }
+          String presignedUrl = presignedUrls.get(partNumber);
 
           // Upload the part using the retrieved presigned URL
           String eTag = GetMultipartUrlResource.uploadPart(file, fileName, position, currentPartSize, presignedUrl, shouldSimulateAbort, totalParts);
 
           // Store ETag and part number for completion request
-          parts.add(new MultipartUploadDTO.CompletedPartDTO(partNumber, eTag));
+          parts.add(new MultipartUploadDTO.CompletedPartDTO(partNumber, eTag, currentPartSize));
 
           // Move file pointer to next part
           position += currentPartSize;
@@ -88,8 +98,8 @@ public class PresignedMultipartUploadService {
 
       // Step 3:Finalize the upload with collected parts
       System.out.println("[" + TimeUtils.getCurrentTimestamp() + "] [FileUpload] All parts uploaded. Completing multipart upload.");
-      CompleteMultipartUploadUrl.completeMultipartUpload(client, fileName, uploadId, parts);
-      System.out.println("[" + TimeUtils.getCurrentTimestamp() + "] [FileUpload] Multipart upload completed successfully ✔");
+      JsonNode completed = CompleteMultipartUploadUrl.completeMultipartUploadOnServer(client, fileName, uploadId, parts);
+      System.out.println("[" + TimeUtils.getCurrentTimestamp() + "] [FileUpload] Multipart upload completed successfully ✔ ETag: " + completed.get("eTag").asText() + ", " + completed.get("size").asLong() + " bytes");
 
     } catch (IOException | InterruptedException e) {
       System.out.println("Upload failed due to: " + e.getMessage());
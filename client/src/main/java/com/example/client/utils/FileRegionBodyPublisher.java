@@ -0,0 +1,103 @@
+package com.example.client.utils;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request body that streams one region of a file, e.g. a part of a multipart upload, straight from a memory mapping.
+ *
+ * The body is sent in read-only slices of at most {@value #CHUNK_SIZE} bytes of the mapping, so nothing is copied
+ * onto the heap: the kernel pages the file in while the HTTP client writes the slices out. Heap use stays the same
+ * whatever the part size or the number of parts in flight, unlike reading every part into a byte[] first.
+ *
+ * The body can be subscribed to more than once (the HTTP client does so when it resends a request); every
+ * subscription starts at the beginning of the region.
+ */
+public class FileRegionBodyPublisher implements HttpRequest.BodyPublisher {
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  private final MappedByteBuffer region;
+
+  /**
+   * Maps the region; the mapping stays valid after the channel is closed.
+   *
+   * @param channel  the file to read
+   * @param position offset of the region in the file
+   * @param length   size of the region, at most 2 GB (S3 parts are at most 5 GB, multipart uploads here use far less)
+   */
+  public FileRegionBodyPublisher(FileChannel channel, long position, long length) throws IOException {
+    if (length > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("A file region is limited to " + Integer.MAX_VALUE + " bytes: " + length);
+    }
+    this.region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+  }
+
+  @Override
+  public long contentLength() {
+    return region.capacity();
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+    subscriber.onSubscribe(new RegionSubscription(subscriber, region));
+  }
+
+  /**
+   * Emits the slices on demand. The subscriber may request more from inside onNext; the work-in-progress counter
+   * turns that into another turn of the running loop instead of a nested call.
+   */
+  private static final class RegionSubscription implements Flow.Subscription {
+    private final Flow.Subscriber<? super ByteBuffer> subscriber;
+    private final ByteBuffer region;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean done;
+    private int offset; // Only touched inside drain, which runs on one thread at a time
+
+    RegionSubscription(Flow.Subscriber<? super ByteBuffer> subscriber, ByteBuffer region) {
+      this.subscriber = subscriber;
+      this.region = region;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        done = true;
+        subscriber.onError(new IllegalArgumentException("Non-positive request: " + n));
+        return;
+      }
+      demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+      drain();
+    }
+
+    @Override
+    public void cancel() {
+      done = true;
+    }
+
+    private void drain() {
+      if (wip.getAndIncrement() != 0) {
+        return;
+      }
+      do {
+        while (!done && offset < region.capacity() && demand.get() > 0) {
+          int length = Math.min(CHUNK_SIZE, region.capacity() - offset);
+          ByteBuffer chunk = region.slice(offset, length).asReadOnlyBuffer();
+          offset += length;
+          demand.decrementAndGet();
+          subscriber.onNext(chunk);
+        }
+        if (!done && offset == region.capacity()) {
+          done = true;
+          subscriber.onComplete();
+        }
+      } while (wip.decrementAndGet() != 0);
+    }
+  }
+}
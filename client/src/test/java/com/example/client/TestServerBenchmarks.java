@@ -0,0 +1,924 @@
+package com.example.client;
+
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import com.example.client.utils.FileRegionBodyPublisher;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
+
+/**
+ * Throughput and concurrency benchmarks for the server's transfer paths.
+ *
+ * The endpoint benchmarks expect the server to be running on localhost:3000 (same as TestFileRestService).
+ * Results are only logged; compare the numbers between runs before and after a change.
+ */
+public class TestServerBenchmarks {
+  private static final Logger logger = LoggerFactory.getLogger(TestServerBenchmarks.class);
+  private static final String BASE_URL = "http://localhost:3000/files";
+  private static final String TEST_FILE_NAME = "file1";
+  private static final int THREADS = 32;
+  private static final int STS_LOAD_REQUESTS = 500;
+  private static final int CONCURRENT_DOWNLOADS = 1000;
+  private static final int[] UPLOAD_CONCURRENCY_LEVELS = { 16, 64, 256 };
+  private static final int[] CONNECTION_LEVELS = { 500, 2000, 5000 };
+  private static final int HEAVY_CLIENT_DOWNLOADS = 100;
+  private static final int LIGHT_CLIENT_DOWNLOADS = 5;
+  private static final int TIMED_DOWNLOADS = 20;
+  private static final int ADAPTIVE_DOWNLOADS = 50;
+  private static final int INLINE_OBJECT_BYTES = 4 * 1024;
+  private static final int MULTIPART_STARTS = 10;
+  private static final int MULTIPART_WINDOW = 100;
+  private static final int PART_BODY_FILE_MB = 64;
+  private static final int PART_BODY_PART_MB = 5;
+
+  HttpClient client = HttpClient.newHttpClient();
+
+  /**
+   * Compares presigns/sec of the old per-request presigner construction against one shared presigner.
+   * Runs in-process with dummy credentials (signing needs no network), so it isolates the presign cost.
+   */
+  @Test
+  public void benchmarkPresignThroughput() throws Exception {
+    final int iterations = 2000;
+    StaticCredentialsProvider credentials = StaticCredentialsProvider.create(AwsBasicCredentials.create("AKIDEXAMPLE", "wJalrXUtnFEMI/K7MDENG+bPxRfiCYEXAMPLEKEY"));
+
+    // Before: one presigner (and credentials lookup) per request, as the multipart endpoints used to do
+    long beforeStart = System.nanoTime();
+    for(int i = 1; i <= iterations; i++) {
+      try (S3Presigner presigner = S3Presigner.builder().region(Region.EU_NORTH_1).credentialsProvider(credentials).build()) {
+        presigner.presignUploadPart(partPresignRequest(i));
+      }
+    }
+    double beforeRate = iterations / ((System.nanoTime() - beforeStart) / 1e9);
+
+    // After: one long-lived presigner shared by every request
+    long afterStart = System.nanoTime();
+    try (S3Presigner presigner = S3Presigner.builder().region(Region.EU_NORTH_1).credentialsProvider(credentials).build()) {
+      for(int i = 1; i <= iterations; i++) {
+        presigner.presignUploadPart(partPresignRequest(i));
+      }
+    }
+    double afterRate = iterations / ((System.nanoTime() - afterStart) / 1e9);
+
+    logger.info("PRESIGN THROUGHPUT | per-request presigner: {} presigns/sec | shared presigner: {} presigns/sec", String.format("%.0f", beforeRate), String.format("%.0f", afterRate));
+    assertTrue(afterRate > beforeRate, "Shared presigner should sign faster than a presigner per request");
+  }
+
+  /**
+   * Measures presigns/sec through the server's part-presign endpoint with {@value #THREADS} concurrent callers.
+   */
+  @Test
+  public void benchmarkPresignEndpoint() throws Exception {
+    final int requests = 5000;
+    AtomicInteger failures = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    long startTime = System.nanoTime();
+    List<Future<?>> futures = new ArrayList<>();
+    for(int i = 0; i < requests; i++) {
+      int partNumber = i % 10000 + 1;
+      futures.add(executor.submit(() -> {
+        HttpRequest request = HttpRequest.newBuilder() //
+          .uri(URI.create(BASE_URL + "/multipart-presign/" + TEST_FILE_NAME + "/benchmark-upload-id/" + partNumber)) //
+          .timeout(Duration.ofSeconds(10)) //
+          .GET().build();
+        try {
+          HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+          if (response.statusCode() != 200) {
+            failures.incrementAndGet();
+          }
+        } catch (Exception e) {
+          failures.incrementAndGet();
+        }
+      }));
+    }
+    for(Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    double seconds = (System.nanoTime() - startTime) / 1e9;
+    logger.info("PRESIGN ENDPOINT | {} requests, {} threads, {} failures | {} presigns/sec", requests, THREADS, failures.get(), String.format("%.0f", requests / seconds));
+    assertTrue(failures.get() == 0, "All presign requests should succeed");
+  }
+
+  /**
+   * Load test for the access point credential endpoints while STS is slow.
+   *
+   * Start the server in "accesspoints" mode with STS_INJECTED_LATENCY_MS=2000, STS_LIMIT_INITIAL=500 and
+   * STS_LIMIT_MAX=500, so the STS limiter admits the whole run. The test keeps {@value #STS_LOAD_REQUESTS} credential
+   * requests for distinct clients in flight (each one misses the cache and waits on STS) and meanwhile samples
+   * /files/health and /files/metrics. A credential request that held its worker thread while waiting on STS would
+   * count as a busy worker for the whole wait, so the busy workers must stay below the STS calls in flight.
+   * Requests the STS limiter still rejects with 503 are counted separately; anything else is a failure.
+   */
+  @Test
+  public void loadTestAccessPointCredentialsUnderSlowSts() throws Exception {
+    List<CompletableFuture<HttpResponse<String>>> credentialRequests = new ArrayList<>();
+    long runId = System.currentTimeMillis();
+    for(int i = 0; i < STS_LOAD_REQUESTS; i++) {
+      HttpRequest request = HttpRequest.newBuilder() //
+        .uri(URI.create(BASE_URL + "/download-accesspoint/" + TEST_FILE_NAME + "/loadtest-" + runId + "-" + i)) //
+        .timeout(Duration.ofSeconds(60)) //
+        .GET().build();
+      credentialRequests.add(client.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+    }
+
+    // Sample health latency and the worker threads while the credential requests wait on STS
+    long maxHealthMillis = 0;
+    long totalHealthMillis = 0;
+    int samples = 0;
+    double maxStsInFlight = 0;
+    double maxBusyWorkers = 0;
+    HttpRequest healthRequest = HttpRequest.newBuilder().uri(URI.create(BASE_URL + "/health")).timeout(Duration.ofSeconds(30)).GET().build();
+    while (samples < 20 && credentialRequests.stream().anyMatch(future -> !future.isDone())) {
+      long startTime = System.nanoTime();
+      client.send(healthRequest, HttpResponse.BodyHandlers.ofString());
+      long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+      maxHealthMillis = Math.max(maxHealthMillis, elapsedMillis);
+      totalHealthMillis += elapsedMillis;
+      samples++;
+
+      Map<String, Double> metrics = scrapeMetrics();
+      double stsInFlight = metrics.getOrDefault("s3server_backend_in_flight{service=\"sts\",operation=\"AssumeRole\"}", 0.0);
+      if (stsInFlight > 0) {
+        maxStsInFlight = Math.max(maxStsInFlight, stsInFlight);
+        // Includes the worker serving this scrape
+        maxBusyWorkers = Math.max(maxBusyWorkers, metrics.getOrDefault("s3server_http_worker_threads_busy", 0.0));
+      }
+      Thread.sleep(100);
+    }
+
+    int succeeded = 0;
+    int rejected = 0;
+    int failures = 0;
+    for(CompletableFuture<HttpResponse<String>> future : credentialRequests) {
+      try {
+        int status = future.get().statusCode();
+        if (status == 200) {
+          succeeded++;
+        } else if (status == 503) {
+          rejected++;
+        } else {
+          failures++;
+        }
+      } catch (Exception e) {
+        failures++;
+      }
+    }
+
+    logger.info("ACCESSPOINT UNDER SLOW STS | {} credential requests, {} ok, {} rejected (503), {} failures | max STS in flight: {} | max busy workers: {} | health samples: {} | avg: {} ms | max: {} ms", //
+      STS_LOAD_REQUESTS, succeeded, rejected, failures, (long)maxStsInFlight, (long)maxBusyWorkers, samples, samples == 0 ? 0 : totalHealthMillis / samples, maxHealthMillis);
+    // Wall-clock latencies depend on the machine and STS, so a slow health check is reported rather than asserted
+    if (maxHealthMillis >= 500) {
+      logger.warn("ACCESSPOINT UNDER SLOW STS | Health checks took up to {} ms: they may be queueing behind requests waiting on STS", maxHealthMillis);
+    }
+    assertTrue(failures == 0, "Credential requests should succeed or be rejected with 503 by the STS limiter");
+    assertTrue(succeeded > 0, "Some credential requests should get through the STS limiter");
+    assertTrue(maxStsInFlight > 0, "STS calls should have been in flight while sampling (is STS_INJECTED_LATENCY_MS set?)");
+    assertTrue(maxBusyWorkers < maxStsInFlight, "Requests waiting on STS should not hold worker threads: " + (long)maxBusyWorkers + " busy workers with " + (long)maxStsInFlight + " STS calls in flight");
+  }
+
+  /**
+   * Starts {@value #CONCURRENT_DOWNLOADS} simultaneous stream-via-server downloads of the same object and
+   * reports completion time and aggregate throughput.
+   *
+   * Start the server in "streamS3ObjectViaServer" mode. Compare STREAM_DOWNLOAD_REACTIVE=true (the reactive path)
+   * with STREAM_DOWNLOAD_REACTIVE=false (the blocking path, where each download holds a worker thread).
+   */
+  @Test
+  public void benchmarkConcurrentStreamDownloads() throws Exception {
+    List<CompletableFuture<HttpResponse<Void>>> downloads = new ArrayList<>();
+    HttpRequest request = HttpRequest.newBuilder() //
+      .uri(URI.create(BASE_URL + "/download/" + TEST_FILE_NAME)) //
+      .timeout(Duration.ofMinutes(5)) //
+      .GET().build();
+
+    long startTime = System.nanoTime();
+    for(int i = 0; i < CONCURRENT_DOWNLOADS; i++) {
+      downloads.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding()));
+    }
+
+    int failures = 0;
+    long totalBytes = 0;
+    for(CompletableFuture<HttpResponse<Void>> download : downloads) {
+      try {
+        HttpResponse<Void> response = download.get();
+        if (response.statusCode() != 200) {
+          failures++;
+        } else {
+          totalBytes += response.headers().firstValueAsLong("Content-Length").orElse(0);
+        }
+      } catch (Exception e) {
+        failures++;
+      }
+    }
+
+    double seconds = (System.nanoTime() - startTime) / 1e9;
+    logger.info("CONCURRENT DOWNLOADS | {} downloads, {} failures | {} s | {} MB/s aggregate", CONCURRENT_DOWNLOADS, failures, String.format("%.2f", seconds), String.format("%.1f", totalBytes / 1e6 / seconds));
+    assertTrue(failures == 0, "All concurrent downloads should succeed");
+  }
+
+  /**
+   * Compares one GET against concurrent ranged GETs (as the server's parallel ranged fetch does) on a local
+   * S3 stand-in such as MinIO, so S3 network variance does not hide the difference.
+   *
+   * Configure with -Ds3.endpoint (default http://localhost:9000), -Ds3.accessKey and -Ds3.secretKey.
+   * To benchmark through the server, start it with AWS_S3_ENDPOINT set to the same stand-in and compare
+   * DOWNLOAD_PARALLELISM=1 with DOWNLOAD_PARALLELISM=8 using benchmarkConcurrentStreamDownloads.
+   */
+  @Test
+  public void benchmarkRangedFetchAgainstLocalS3() throws Exception {
+    final String bucket = "benchmark-bucket";
+    final String key = "ranged-fetch-benchmark";
+    final int objectSize = 128 * 1024 * 1024;
+    final int partSize = 8 * 1024 * 1024;
+    final int parallelism = 8;
+
+    StaticCredentialsProvider credentials = StaticCredentialsProvider.create(AwsBasicCredentials.create( //
+      System.getProperty("s3.accessKey", "minioadmin"), System.getProperty("s3.secretKey", "minioadmin")));
+
+    try (S3Client s3 = S3Client.builder() //
+      .endpointOverride(URI.create(System.getProperty("s3.endpoint", "http://localhost:9000"))) //
+      .forcePathStyle(true) //
+      .region(Region.EU_NORTH_1) //
+      .credentialsProvider(credentials) //
+      .build()) {
+
+      try {
+        s3.createBucket(b -> b.bucket(bucket));
+      } catch (S3Exception e) {
+        // Bucket already exists from an earlier run
+      }
+      byte[] data = new byte[objectSize];
+      ThreadLocalRandom.current().nextBytes(data);
+      s3.putObject(b -> b.bucket(bucket).key(key), RequestBody.fromBytes(data));
+
+      // Single stream: one GET for the whole object
+      long singleStart = System.nanoTime();
+      long singleBytes;
+      try (ResponseInputStream<GetObjectResponse> in = s3.getObject(b -> b.bucket(bucket).key(key))) {
+        singleBytes = in.transferTo(OutputStream.nullOutputStream());
+      }
+      double singleSeconds = (System.nanoTime() - singleStart) / 1e9;
+
+      // Multi-range: concurrent ranged GETs of partSize bytes
+      ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+      long rangedStart = System.nanoTime();
+      List<Future<Integer>> parts = new ArrayList<>();
+      for(long first = 0; first < objectSize; first += partSize) {
+        GetObjectRequest rangeRequest = GetObjectRequest.builder() //
+          .bucket(bucket) //
+          .key(key) //
+          .range("bytes=" + first + "-" + (Math.min(first + partSize, objectSize) - 1)) //
+          .build();
+        parts.add(executor.submit(() -> s3.getObjectAsBytes(rangeRequest).asByteArray().length));
+      }
+      long rangedBytes = 0;
+      for(Future<Integer> part : parts) {
+        rangedBytes += part.get();
+      }
+      double rangedSeconds = (System.nanoTime() - rangedStart) / 1e9;
+      executor.shutdown();
+
+      logger.info("RANGED FETCH | {} MB object | single stream: {} MB/s | {} x {} MB ranges: {} MB/s", objectSize / (1024 * 1024), String.format("%.1f", singleBytes / 1e6 / singleSeconds), parallelism, partSize / (1024 * 1024), String.format("%.1f", rangedBytes / 1e6 / rangedSeconds));
+      assertTrue(singleBytes == objectSize && rangedBytes == objectSize, "Both strategies should read the whole object");
+    }
+  }
+
+  /**
+   * Load test for stream-via-server uploads at increasing concurrency.
+   *
+   * Start the server in "streamS3ObjectViaServer" mode. Each level uploads that many 1 MB objects at once and
+   * reports p50/p99 latency. All uploads share the server's upload I/O pool, so its thread count stays at
+   * UPLOAD_IO_THREADS at every level: the test samples the pool from /files/metrics while each level runs and
+   * asserts that. p99 should grow far less than the concurrency does.
+   */
+  @Test
+  public void loadTestConcurrentStreamUploads() throws Exception {
+    byte[] payload = new byte[1024 * 1024];
+    ThreadLocalRandom.current().nextBytes(payload);
+    long runId = System.currentTimeMillis();
+    List<Long> p99ByLevel = new ArrayList<>();
+
+    for(int concurrency : UPLOAD_CONCURRENCY_LEVELS) {
+      List<CompletableFuture<Long>> uploads = new ArrayList<>();
+      for(int i = 0; i < concurrency; i++) {
+        HttpRequest request = HttpRequest.newBuilder() //
+          .uri(URI.create(BASE_URL + "/upload-s3stream/uploadtest-" + runId + "-" + concurrency + "-" + i)) //
+          .timeout(Duration.ofMinutes(5)) //
+          .header("Content-Type", "application/octet-stream") //
+          .POST(HttpRequest.BodyPublishers.ofByteArray(payload)).build();
+
+        long startTime = System.nanoTime();
+        uploads.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding()) //
+          .thenApply(response -> response.statusCode() == 200 ? (System.nanoTime() - startTime) / 1_000_000 : -1L));
+      }
+
+      // Sample the upload I/O pool while the level runs
+      double maxActiveThreads = 0;
+      double maxPoolThreads = 0;
+      double ioThreads = 0;
+      do {
+        Map<String, Double> metrics = scrapeMetrics();
+        maxActiveThreads = Math.max(maxActiveThreads, metrics.getOrDefault("s3server_upload_io_active_threads", 0.0));
+        maxPoolThreads = Math.max(maxPoolThreads, metrics.getOrDefault("s3server_upload_io_threads", 0.0));
+        ioThreads = metrics.getOrDefault("s3server_upload_io_max_threads", 0.0);
+        Thread.sleep(50);
+      } while (uploads.stream().anyMatch(upload -> !upload.isDone()));
+
+      List<Long> latencies = new ArrayList<>();
+      int failures = 0;
+      for(CompletableFuture<Long> upload : uploads) {
+        try {
+          long millis = upload.get();
+          if (millis < 0) {
+            failures++;
+          } else {
+            latencies.add(millis);
+          }
+        } catch (Exception e) {
+          failures++;
+        }
+      }
+
+      latencies.sort(null);
+      long p50 = percentile(latencies, 0.50);
+      long p99 = percentile(latencies, 0.99);
+      p99ByLevel.add(p99);
+      logger.info("CONCURRENT UPLOADS | concurrency: {} | failures: {} | p50: {} ms | p99: {} ms | upload I/O threads: {} active, {} in pool (max {})", //
+        concurrency, failures, p50, p99, (long)maxActiveThreads, (long)maxPoolThreads, (long)ioThreads);
+      assertTrue(failures == 0, "All uploads should succeed at concurrency " + concurrency);
+      assertTrue(ioThreads > 0, "Server should report UPLOAD_IO_THREADS");
+      assertTrue(maxActiveThreads <= ioThreads && maxPoolThreads <= ioThreads, "Upload I/O threads should stay within UPLOAD_IO_THREADS (" + (long)ioThreads + ") at concurrency " + concurrency);
+    }
+
+    long lowest = Math.max(1, p99ByLevel.get(0));
+    long highest = p99ByLevel.get(p99ByLevel.size() - 1);
+    int concurrencyGrowth = UPLOAD_CONCURRENCY_LEVELS[UPLOAD_CONCURRENCY_LEVELS.length - 1] / UPLOAD_CONCURRENCY_LEVELS[0];
+    // Wall-clock latencies depend on the machine and S3, so the growth is reported rather than asserted
+    logger.info("CONCURRENT UPLOADS | p99 grew {}x while concurrency grew {}x", String.format("%.1f", (double)highest / lowest), concurrencyGrowth);
+    if (highest >= lowest * concurrencyGrowth / 2) {
+      logger.warn("CONCURRENT UPLOADS | p99 grew by more than half the concurrency growth ({} ms -> {} ms)", lowest, highest);
+    }
+  }
+
+  /**
+   * Measures stream-via-server upload throughput for a 256 MB body, sent with Content-Length and chunked.
+   *
+   * Start the server in "streamS3ObjectViaServer" mode. Run once with UPLOAD_PIPELINE=true (pipelined multipart
+   * upload, tune UPLOAD_PARTS_IN_FLIGHT) and once with UPLOAD_PIPELINE=false (the SDK putObject call) and compare
+   * the Content-Length numbers. Chunked uploads always use the pipeline. Per-part latency is logged by the server.
+   */
+  @Test
+  public void benchmarkStreamUploadThroughput() throws Exception {
+    final int objectSize = 256 * 1024 * 1024;
+    final int runs = 3;
+    byte[] payload = new byte[objectSize];
+    ThreadLocalRandom.current().nextBytes(payload);
+
+    for(boolean chunked : new boolean[] { false, true }) {
+      double totalSeconds = 0;
+      for(int run = 0; run < runs; run++) {
+        // ofInputStream has no known length, so the body is sent chunked
+        HttpRequest.BodyPublisher body = chunked //
+          ? HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(payload)) //
+          : HttpRequest.BodyPublishers.ofByteArray(payload);
+        HttpRequest request = HttpRequest.newBuilder() //
+          .uri(URI.create(BASE_URL + "/upload-s3stream/upload-benchmark-" + run)) //
+          .timeout(Duration.ofMinutes(10)) //
+          .header("Content-Type", "application/octet-stream") //
+          .POST(body).build();
+
+        long startTime = System.nanoTime();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        totalSeconds += (System.nanoTime() - startTime) / 1e9;
+        assertTrue(response.statusCode() == 200, "Upload should succeed: " + response.body());
+      }
+      logger.info("STREAM UPLOAD | {} | {} MB x {} | {} MB/s", chunked ? "chunked" : "Content-Length", objectSize / (1024 * 1024), runs, String.format("%.1f", (double)objectSize * runs / 1e6 / totalSeconds));
+    }
+  }
+
+  /**
+   * Compares the platform-thread and virtual-thread server modes at high connection counts.
+   *
+   * Start the server in "streamS3ObjectViaServer" mode with STREAM_DOWNLOAD_REACTIVE=false, so every download
+   * blocks a request thread for its whole transfer. Run once with SERVER_THREADS=platform and once with
+   * SERVER_THREADS=virtual (Java 21+) and compare the throughput and p99 per level. In platform mode, downloads
+   * beyond the worker pool size queue behind each other; in virtual mode each connection gets its own thread.
+   */
+  @Test
+  public void benchmarkHighConnectionCount() throws Exception {
+    HttpRequest request = HttpRequest.newBuilder() //
+      .uri(URI.create(BASE_URL + "/download/" + TEST_FILE_NAME)) //
+      .timeout(Duration.ofMinutes(10)) //
+      .GET().build();
+
+    for(int connections : CONNECTION_LEVELS) {
+      List<CompletableFuture<Long>> downloads = new ArrayList<>();
+      long levelStart = System.nanoTime();
+      for(int i = 0; i < connections; i++) {
+        long startTime = System.nanoTime();
+        downloads.add(client.sendAsync(request, HttpResponse.BodyHandlers.discarding()) //
+          .thenApply(response -> response.statusCode() == 200 ? (System.nanoTime() - startTime) / 1_000_000 : -1L));
+      }
+
+      List<Long> latencies = new ArrayList<>();
+      int failures = 0;
+      for(CompletableFuture<Long> download : downloads) {
+        try {
+          long millis = download.get();
+          if (millis < 0) {
+            failures++;
+          } else {
+            latencies.add(millis);
+          }
+        } catch (Exception e) {
+          failures++;
+        }
+      }
+
+      double seconds = (System.nanoTime() - levelStart) / 1e9;
+      latencies.sort(null);
+      logger.info("HIGH CONNECTION COUNT | connections: {} | failures: {} | {} downloads/s | p50: {} ms | p99: {} ms", connections, failures, //
+        String.format("%.1f", latencies.size() / seconds), percentile(latencies, 0.50), percentile(latencies, 0.99));
+    }
+  }
+
+  /**
+   * One heavy client runs HEAVY_CLIENT_DOWNLOADS downloads at once while a light client runs one download at a
+   * time; logs the light client's throughput. Start the server with BANDWIDTH_DOWNLOAD_MBPS set (e.g. to the link
+   * speed) to see the fair share: the light client should get about half the bandwidth, however many downloads
+   * the heavy client runs. With BANDWIDTH_DOWNLOAD_MBPS=0 the light client only gets one connection's worth.
+   * Both clients come from the same address, so the server must list their ids, e.g.
+   * BANDWIDTH_CLIENT_TIERS=benchmark-heavy=standard,benchmark-light=standard; unlisted ids are scheduled by address.
+   */
+  @Test
+  public void benchmarkFairShareBetweenClients() throws Exception {
+    HttpRequest heavyRequest = HttpRequest.newBuilder() //
+      .uri(URI.create(BASE_URL + "/download/" + TEST_FILE_NAME)) //
+      .header("X-Client-Id", "benchmark-heavy") //
+      .timeout(Duration.ofMinutes(10)) //
+      .GET().build();
+    HttpRequest lightRequest = HttpRequest.newBuilder() //
+      .uri(URI.create(BASE_URL + "/download/" + TEST_FILE_NAME)) //
+      .header("X-Client-Id", "benchmark-light") //
+      .timeout(Duration.ofMinutes(10)) //
+      .GET().build();
+
+    List<CompletableFuture<HttpResponse<Void>>> heavyDownloads = new ArrayList<>();
+    for(int i = 0; i < HEAVY_CLIENT_DOWNLOADS; i++) {
+      heavyDownloads.add(client.sendAsync(heavyRequest, HttpResponse.BodyHandlers.discarding()));
+    }
+
+    // The light client downloads sequentially while the heavy downloads are running
+    long lightBytes = 0;
+    long lightStart = System.nanoTime();
+    for(int i = 0; i < LIGHT_CLIENT_DOWNLOADS; i++) {
+      HttpResponse<Void> response = client.send(lightRequest, HttpResponse.BodyHandlers.discarding());
+      assertTrue(response.statusCode() == 200, "Light client download should succeed");
+      lightBytes += response.headers().firstValueAsLong("Content-Length").orElse(0);
+    }
+    double lightSeconds = (System.nanoTime() - lightStart) / 1e9;
+
+    long heavyBytes = 0;
+    int heavyFailures = 0;
+    for(CompletableFuture<HttpResponse<Void>> download : heavyDownloads) {
+      try {
+        HttpResponse<Void> response = download.get();
+        if (response.statusCode() != 200) {
+          heavyFailures++;
+        } else {
+          heavyBytes += response.headers().firstValueAsLong("Content-Length").orElse(0);
+        }
+      } catch (Exception e) {
+        heavyFailures++;
+      }
+    }
+    double heavySeconds = (System.nanoTime() - lightStart) / 1e9;
+
+    logger.info("FAIR SHARE | light client: {} MB/s over {} downloads | heavy client: {} MB/s over {} downloads, {} failures", //
+      String.format("%.1f", lightBytes / 1e6 / lightSeconds), LIGHT_CLIENT_DOWNLOADS, //
+      String.format("%.1f", heavyBytes / 1e6 / heavySeconds), HEAVY_CLIENT_DOWNLOADS, heavyFailures);
+  }
+
+  /**
+   * Runs {@value #TIMED_DOWNLOADS} sequential downloads and splits their latency into the server's phases from the
+   * Server-Timing header (S3 time to first byte, cache, presign, STS, ...). The header is sent before the
+   * body, so its total is time to headers; the rest of the client-measured time is the body transfer.
+   */
+  @Test
+  public void benchmarkDownloadPhaseBreakdown() throws Exception {
+    HttpRequest request = HttpRequest.newBuilder() //
+      .uri(URI.create(BASE_URL + "/download/" + TEST_FILE_NAME)) //
+      .timeout(Duration.ofMinutes(5)) //
+      .GET().build();
+
+    Map<String, Double> phaseMillis = new TreeMap<>();
+    double clientMillis = 0;
+    for(int i = 0; i < TIMED_DOWNLOADS; i++) {
+      long startTime = System.nanoTime();
+      HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+      clientMillis += (System.nanoTime() - startTime) / 1e6;
+      assertTrue(response.statusCode() == 200, "Download should succeed");
+
+      // e.g. "s3-ttfb;dur=12.4, total;dur=13.1"
+      for(String metric : response.headers().firstValue("Server-Timing").orElse("").split(",")) {
+        String[] nameAndDuration = metric.trim().split(";dur=");
+        if (nameAndDuration.length == 2) {
+          phaseMillis.merge(nameAndDuration[0], Double.parseDouble(nameAndDuration[1]), Double::sum);
+        }
+      }
+    }
+
+    StringBuilder phases = new StringBuilder();
+    phaseMillis.forEach((phase, millis) -> phases.append(String.format("%s: %.1f ms | ", phase, millis / TIMED_DOWNLOADS)));
+    logger.info("DOWNLOAD PHASES | {} downloads | {}client total: {} ms", TIMED_DOWNLOADS, phases, String.format("%.1f", clientMillis / TIMED_DOWNLOADS));
+  }
+
+  /**
+   * Runs {@value #ADAPTIVE_DOWNLOADS} sequential downloads in "adaptive" mode. Each download follows the method named in
+   * X-Transfer-Method and reports its time back, as the client does, so later downloads use what the policy learned.
+   * Logs how often each method was picked and the mean time per method. The previous server method is restored.
+   */
+  @Test
+  public void benchmarkAdaptiveMethodSelection() throws Exception {
+    String previousMethod = ServerUtils.getCurrentMethod(client);
+    ServerUtils.changeCurrentMethod(client, "adaptive");
+
+    HttpRequest request = HttpRequest.newBuilder() //
+      .uri(URI.create(BASE_URL + "/download/" + TEST_FILE_NAME)) //
+      .header(ServerUtils.TRANSFER_METHODS_HEADER, ServerUtils.SUPPORTED_TRANSFER_METHODS) //
+      .timeout(Duration.ofMinutes(5)) //
+      .GET().build();
+
+    Map<String, List<Long>> nanosByMethod = new TreeMap<>();
+    try {
+      for(int i = 0; i < ADAPTIVE_DOWNLOADS; i++) {
+        long startTime = System.nanoTime();
+        HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        assertTrue(response.statusCode() == 200, "Download should succeed");
+
+        String method = response.headers().firstValue(ServerUtils.TRANSFER_METHOD_HEADER).orElse("streamS3ObjectViaServer");
+        long bytes = response.body().length;
+        if ("presign".equals(method)) {
+          bytes = followPresignedUrl(response);
+        }
+
+        long nanos = System.nanoTime() - startTime;
+        nanosByMethod.computeIfAbsent(method, key -> new ArrayList<>()).add(nanos);
+        ServerUtils.reportTransfer(client, "download", method, bytes, nanos);
+      }
+    } finally {
+      ServerUtils.changeCurrentMethod(client, previousMethod);
+    }
+
+    StringBuilder methods = new StringBuilder();
+    nanosByMethod.forEach((method, nanos) -> methods.append(String.format("%s: %d x %.1f ms | ", method, nanos.size(), nanos.stream().mapToLong(Long::longValue).average().orElse(0) / 1e6)));
+    HttpResponse<String> policy = client.send(HttpRequest.newBuilder().uri(URI.create(BASE_URL + "/transfer-policy")).GET().build(), HttpResponse.BodyHandlers.ofString());
+    logger.info("ADAPTIVE | {} downloads | {}{}", ADAPTIVE_DOWNLOADS, methods, policy.body().lines().findFirst().orElse(""));
+  }
+
+  /**
+   * Uploads a {@value #INLINE_OBJECT_BYTES}-byte object, then downloads it {@value #TIMED_DOWNLOADS} times in "presign"
+   * mode without and with "inline" in X-Transfer-Methods and logs the mean time to the last byte of each.
+   * Without it every download is the presign request plus a GET to S3; with it the server returns the body in one
+   * round trip. Needs PRESIGN_INLINE_MAX_KB of at least 4 on the server. The previous server method is restored.
+   */
+  @Test
+  public void benchmarkInlineSmallObjects() throws Exception {
+    String previousMethod = ServerUtils.getCurrentMethod(client);
+    String fileName = "inline-benchmark-" + System.currentTimeMillis();
+    byte[] payload = new byte[INLINE_OBJECT_BYTES];
+    ThreadLocalRandom.current().nextBytes(payload);
+
+    Map<String, Double> millisByCapabilities = new TreeMap<>();
+    try {
+      ServerUtils.changeCurrentMethod(client, "streamS3ObjectViaServer");
+      HttpResponse<String> upload = client.send(HttpRequest.newBuilder() //
+        .uri(URI.create(BASE_URL + "/upload-s3stream/" + fileName)) //
+        .header("Content-Type", "application/octet-stream") //
+        .POST(HttpRequest.BodyPublishers.ofByteArray(payload)).build(), HttpResponse.BodyHandlers.ofString());
+      assertTrue(upload.statusCode() == 200, "Upload should succeed: " + upload.body());
+
+      ServerUtils.changeCurrentMethod(client, "presign");
+      for(String capabilities : List.of("presign", "presign, inline")) {
+        HttpRequest request = HttpRequest.newBuilder() //
+          .uri(URI.create(BASE_URL + "/download/" + fileName)) //
+          .header(ServerUtils.TRANSFER_METHODS_HEADER, capabilities) //
+          .GET().build();
+
+        long totalNanos = 0;
+        for(int i = 0; i < TIMED_DOWNLOADS; i++) {
+          long startTime = System.nanoTime();
+          HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+          assertTrue(response.statusCode() == 200, "Download should succeed");
+          assertTrue(followPresignedUrl(response) == payload.length, "Downloaded object should be complete");
+          totalNanos += System.nanoTime() - startTime;
+        }
+        millisByCapabilities.put(capabilities, totalNanos / 1e6 / TIMED_DOWNLOADS);
+      }
+    } finally {
+      ServerUtils.changeCurrentMethod(client, previousMethod);
+    }
+
+    StringBuilder results = new StringBuilder();
+    millisByCapabilities.forEach((capabilities, millis) -> results.append(String.format("[%s]: %.1f ms | ", capabilities, millis)));
+    logger.info("INLINE | {} B object, {} downloads each | {}", INLINE_OBJECT_BYTES, TIMED_DOWNLOADS, results);
+  }
+
+  /**
+   * Compares the heap allocated to build and drain the part bodies of a {@value #PART_BODY_FILE_MB} MB file in
+   * {@value #PART_BODY_PART_MB} MB parts: before, every part was read into a new byte[] and sent with ofByteArray;
+   * after, FileRegionBodyPublisher streams each part from a memory mapping. Runs in-process against a temp file
+   * (the bodies are drained by a subscriber instead of an HTTP client), so it isolates the body's own allocations.
+   */
+  @Test
+  public void benchmarkPartBodyAllocation() throws Exception {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long partSize = PART_BODY_PART_MB * 1024L * 1024;
+
+    Path file = Files.createTempFile("part-body-benchmark", ".bin");
+    try {
+      byte[] block = new byte[1024 * 1024];
+      ThreadLocalRandom.current().nextBytes(block);
+      try (OutputStream out = Files.newOutputStream(file)) {
+        for(int i = 0; i < PART_BODY_FILE_MB; i++) {
+          out.write(block);
+        }
+      }
+      long fileSize = Files.size(file);
+
+      // Before: seek, new byte[part], readFully, ofByteArray
+      long beforeStart = System.nanoTime();
+      long beforeAllocated = threads.getThreadAllocatedBytes(threadId);
+      long beforeBytes = 0;
+      try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+        for(long position = 0; position < fileSize; position += partSize) {
+          byte[] buffer = new byte[(int)Math.min(partSize, fileSize - position)];
+          raf.seek(position);
+          raf.readFully(buffer);
+          beforeBytes += drain(HttpRequest.BodyPublishers.ofByteArray(buffer));
+        }
+      }
+      beforeAllocated = threads.getThreadAllocatedBytes(threadId) - beforeAllocated;
+      long beforeNanos = System.nanoTime() - beforeStart;
+
+      // After: each part streamed from a mapping of its region
+      long afterStart = System.nanoTime();
+      long afterAllocated = threads.getThreadAllocatedBytes(threadId);
+      long afterBytes = 0;
+      try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
+        for(long position = 0; position < fileSize; position += partSize) {
+          afterBytes += drain(new FileRegionBodyPublisher(raf.getChannel(), position, Math.min(partSize, fileSize - position)));
+        }
+      }
+      afterAllocated = threads.getThreadAllocatedBytes(threadId) - afterAllocated;
+      long afterNanos = System.nanoTime() - afterStart;
+
+      assertTrue(beforeBytes == fileSize && afterBytes == fileSize, "Both bodies should cover the whole file");
+      logger.info("PART BODY | {} MB in {} MB parts | byte[] per part: {} KB allocated, {} ms | mapped region: {} KB allocated, {} ms", PART_BODY_FILE_MB, PART_BODY_PART_MB, //
+        beforeAllocated / 1024, beforeNanos / 1_000_000, afterAllocated / 1024, afterNanos / 1_000_000);
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  // Requests and reads every chunk of a request body, as the HTTP client would; returns the bytes seen
+  private static long drain(HttpRequest.BodyPublisher body) {
+    long[] bytes = { 0 };
+    body.subscribe(new Flow.Subscriber<ByteBuffer>() {
+      private Flow.Subscription subscription;
+
+      @Override
+      public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+      }
+
+      @Override
+      public void onNext(ByteBuffer chunk) {
+        bytes[0] += chunk.remaining();
+        chunk.position(chunk.limit());
+        subscription.request(1);
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        throw new IllegalStateException(throwable);
+      }
+
+      @Override
+      public void onComplete() {
+      }
+    });
+    return bytes[0];
+  }
+
+  /**
+   * Compares the time until a presigned multipart upload has its uploadId and first window of part URLs:
+   * before, /multipart-initiate, the POST of the create URL to S3 and /multipart-presign for the window (three round
+   * trips, one of them to S3); after, one POST to /multipart-session. Each upload is aborted again right away.
+   */
+  @Test
+  public void benchmarkMultipartSessionStart() throws Exception {
+    String runId = String.valueOf(System.currentTimeMillis());
+    ObjectMapper mapper = new ObjectMapper();
+    long beforeNanos = 0;
+    long afterNanos = 0;
+
+    for(int i = 0; i < MULTIPART_STARTS; i++) {
+      // Before: presigned create, POST to S3, XML UploadId, then the first window
+      String oldKey = "session-benchmark-" + runId + "-old-" + i;
+      long startTime = System.nanoTime();
+      String createUrl = mapper.readTree(client.send(HttpRequest.newBuilder().uri(URI.create(BASE_URL + "/multipart-initiate/" + oldKey)).GET().build(), //
+        HttpResponse.BodyHandlers.ofString()).body()).get("url").asText();
+      String xml = client.send(HttpRequest.newBuilder().uri(URI.create(createUrl)).POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString()).body();
+      String oldUploadId = xml.substring(xml.indexOf("<UploadId>") + "<UploadId>".length(), xml.indexOf("</UploadId>"));
+      HttpResponse<String> window = client.send(HttpRequest.newBuilder() //
+        .uri(URI.create(BASE_URL + "/multipart-presign/" + oldKey + "/" + oldUploadId + "?start=1&count=" + MULTIPART_WINDOW)).GET().build(), HttpResponse.BodyHandlers.ofString());
+      beforeNanos += System.nanoTime() - startTime;
+      assertTrue(window.statusCode() == 200, "Part URLs should be signed");
+      abortMultipartUpload(mapper, oldKey, oldUploadId);
+
+      // After: one call
+      String newKey = "session-benchmark-" + runId + "-new-" + i;
+      startTime = System.nanoTime();
+      HttpResponse<String> session = client.send(HttpRequest.newBuilder() //
+        .uri(URI.create(BASE_URL + "/multipart-session/" + newKey + "?parts=" + MULTIPART_WINDOW + "&window=" + MULTIPART_WINDOW)) //
+        .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+      afterNanos += System.nanoTime() - startTime;
+      assertTrue(session.statusCode() == 200, "Session should start: " + session.body());
+      abortMultipartUpload(mapper, newKey, mapper.readTree(session.body()).get("uploadId").asText());
+    }
+
+    logger.info("MULTIPART START | {} uploads, {} part URLs | initiate + S3 POST + presign: {} ms | session: {} ms", MULTIPART_STARTS, MULTIPART_WINDOW, //
+      String.format("%.1f", beforeNanos / 1e6 / MULTIPART_STARTS), String.format("%.1f", afterNanos / 1e6 / MULTIPART_STARTS));
+  }
+
+  /**
+   * Compares the time to complete a one-part upload: before, /multipart-complete-presign and the POST of the signed
+   * XML payload to S3; after, one POST of the part manifest to /multipart-complete, which checks it with ListParts
+   * and completes the upload server-side. Also checks that a manifest with a wrong ETag is rejected with 409.
+   */
+  @Test
+  public void benchmarkMultipartCompletion() throws Exception {
+    String runId = String.valueOf(System.currentTimeMillis());
+    ObjectMapper mapper = new ObjectMapper();
+    byte[] part = new byte[64 * 1024];
+    ThreadLocalRandom.current().nextBytes(part);
+    long beforeNanos = 0;
+    long afterNanos = 0;
+
+    for(int i = 0; i < MULTIPART_STARTS; i++) {
+      // Before: presigned completion, the client POSTs the XML to S3
+      String oldKey = "complete-benchmark-" + runId + "-old-" + i;
+      String[] oldUpload = startOnePartUpload(mapper, oldKey, part);
+      long startTime = System.nanoTime();
+      HttpResponse<String> presigned = client.send(HttpRequest.newBuilder() //
+        .uri(URI.create(BASE_URL + "/multipart-complete-presign/" + oldKey + "/" + oldUpload[0])) //
+        .header("Content-Type", "application/json") //
+        .POST(HttpRequest.BodyPublishers.ofString(manifest(1, oldUpload[1], part.length))).build(), HttpResponse.BodyHandlers.ofString());
+      HttpResponse<String> s3Complete = client.send(HttpRequest.newBuilder() //
+        .uri(URI.create(mapper.readTree(presigned.body()).get("url").asText())) //
+        .header("Content-Type", "application/xml") //
+        .POST(HttpRequest.BodyPublishers.ofString(mapper.readTree(presigned.body()).get("payload").asText())).build(), HttpResponse.BodyHandlers.ofString());
+      beforeNanos += System.nanoTime() - startTime;
+      assertTrue(s3Complete.statusCode() == 200, "Presigned completion should succeed: " + s3Complete.body());
+
+      // After: the server checks the manifest and completes; a wrong ETag is rejected first
+      String newKey = "complete-benchmark-" + runId + "-new-" + i;
+      String[] newUpload = startOnePartUpload(mapper, newKey, part);
+      HttpResponse<String> rejected = completeOnServer(newKey, newUpload[0], manifest(1, "\"00000000000000000000000000000000\"", part.length));
+      assertTrue(rejected.statusCode() == 409, "A wrong ETag should be rejected: " + rejected.body());
+
+      startTime = System.nanoTime();
+      HttpResponse<String> completed = completeOnServer(newKey, newUpload[0], manifest(1, newUpload[1], part.length));
+      afterNanos += System.nanoTime() - startTime;
+      assertTrue(completed.statusCode() == 200, "Server completion should succeed: " + completed.body());
+      assertTrue(mapper.readTree(completed.body()).get("size").asLong() == part.length, "Completed object should have the part's size");
+    }
+
+    logger.info("MULTIPART COMPLETE | {} uploads | presign + S3 POST: {} ms | server-side: {} ms", MULTIPART_STARTS, //
+      String.format("%.1f", beforeNanos / 1e6 / MULTIPART_STARTS), String.format("%.1f", afterNanos / 1e6 / MULTIPART_STARTS));
+  }
+
+  // Starts a session for one part and uploads it; returns the uploadId and the part's ETag
+  private String[] startOnePartUpload(ObjectMapper mapper, String key, byte[] part) throws Exception {
+    HttpResponse<String> session = client.send(HttpRequest.newBuilder() //
+      .uri(URI.create(BASE_URL + "/multipart-session/" + key + "?parts=1&window=1")) //
+      .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+    assertTrue(session.statusCode() == 200, "Session should start: " + session.body());
+
+    String partUrl = mapper.readTree(session.body()).get("urls").get(0).get("url").asText();
+    HttpResponse<Void> upload = client.send(HttpRequest.newBuilder().uri(URI.create(partUrl)).PUT(HttpRequest.BodyPublishers.ofByteArray(part)).build(), HttpResponse.BodyHandlers.discarding());
+    assertTrue(upload.statusCode() == 200, "Part upload should succeed");
+    return new String[] { mapper.readTree(session.body()).get("uploadId").asText(), upload.headers().firstValue("ETag").orElseThrow() };
+  }
+
+  private HttpResponse<String> completeOnServer(String key, String uploadId, String manifest) throws Exception {
+    return client.send(HttpRequest.newBuilder() //
+      .uri(URI.create(BASE_URL + "/multipart-complete/" + key + "/" + uploadId)) //
+      .header("Content-Type", "application/json") //
+      .POST(HttpRequest.BodyPublishers.ofString(manifest)).build(), HttpResponse.BodyHandlers.ofString());
+  }
+
+  private static String manifest(int partNumber, String eTag, long size) throws Exception {
+    return new ObjectMapper().writeValueAsString(List.of(Map.of("partNumber", partNumber, "eTag", eTag, "size", size)));
+  }
+
+  private void abortMultipartUpload(ObjectMapper mapper, String key, String uploadId) throws Exception {
+    String abortUrl = mapper.readTree(client.send(HttpRequest.newBuilder().uri(URI.create(BASE_URL + "/multipart-abort-presign/" + key + "/" + uploadId)).GET().build(), //
+      HttpResponse.BodyHandlers.ofString()).body()).get("url").asText();
+    client.send(HttpRequest.newBuilder().uri(URI.create(abortUrl)).DELETE().build(), HttpResponse.BodyHandlers.discarding());
+  }
+
+  // Returns the size of a presign download's object: the body itself if it was inlined, otherwise fetched from the URL
+  private long followPresignedUrl(HttpResponse<byte[]> response) throws Exception {
+    if (response.headers().firstValue("Content-Type").orElse("").startsWith("application/octet-stream")) {
+      return response.body().length;
+    }
+    String url = new ObjectMapper().readTree(response.body()).get("url").asText();
+    HttpResponse<byte[]> s3Response = client.send(HttpRequest.newBuilder().uri(URI.create(url)).GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+    assertTrue(s3Response.statusCode() == 200, "Presigned download should succeed");
+    return s3Response.body().length;
+  }
+
+  // Returns the server's metrics as "name{labels}" -> value, read from the Prometheus text on /files/metrics
+  private Map<String, Double> scrapeMetrics() throws Exception {
+    HttpRequest request = HttpRequest.newBuilder().uri(URI.create(BASE_URL + "/metrics")).timeout(Duration.ofSeconds(30)).GET().build();
+    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+    assertTrue(response.statusCode() == 200, "Metrics should be available");
+    Map<String, Double> metrics = new TreeMap<>();
+    for(String line : response.body().split("\n")) {
+      int separator = line.lastIndexOf(' ');
+      if (!line.startsWith("#") && separator > 0) {
+        metrics.put(line.substring(0, separator), Double.parseDouble(line.substring(separator + 1)));
+      }
+    }
+    return metrics;
+  }
+
+  private static long percentile(List<Long> sortedValues, double percentile) {
+    if (sortedValues.isEmpty()) {
+      return 0;
+    }
+    int index = (int)Math.ceil(percentile * sortedValues.size()) - 1;
+    return sortedValues.get(Math.max(0, index));
+  }
+
+  private static UploadPartPresignRequest partPresignRequest(int partNumber) {
+    UploadPartRequest uploadPartRequest = UploadPartRequest.builder() //
+      .bucket("benchmark-bucket") //
+      .key(TEST_FILE_NAME) //
+      .uploadId("benchmark-upload-id") //
+      .partNumber(partNumber) //
+      .build();
+
+    return UploadPartPresignRequest.builder() //
+      .signatureDuration(Duration.ofMinutes(10)) //
+      .uploadPartRequest(uploadPartRequest) //
+      .build();
+  }
+}
@@ -2,30 +2,62 @@ package com.example.server;
 
 //Java standard library imports
 import java.io.BufferedReader; // Reads text from an input stream (used for reading command output).
+import java.io.IOException;
 import java.io.InputStreamReader; // Converts byte streams to character streams for easier processing.
 import java.net.URI;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 //Grizzly and Jersey dependencies for handling HTTP server and REST API
 import org.glassfish.grizzly.http.server.HttpServer; // Provides a lightweight HTTP server to run the REST API.
+import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpContainer; // Jersey as a Grizzly HttpHandler.
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory; // Creates and configures a Grizzly-based HTTP server.
+import org.glassfish.jersey.internal.inject.AbstractBinder; // Binds shared services so resources can @Inject them.
 import org.glassfish.jersey.media.multipart.MultiPartFeature; // Enables support for handling multipart/form-data requests (file uploads).
+import org.glassfish.jersey.server.ContainerFactory;
 import org.glassfish.jersey.server.ResourceConfig; // Configures REST resources, scans for JAX-RS endpoints, and registers features.
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.example.server.bufferUtil.DirectBufferPool;
+import com.example.server.downloadServices.AdaptiveDownloadService;
+import com.example.server.downloadServices.DownloadCoalescer;
+import com.example.server.downloadServices.HotObjectCache;
+import com.example.server.downloadServices.InlineObjectCache;
+import com.example.server.downloadServices.StreamDownloadHttpHandler;
+import com.example.server.limitUtil.BandwidthScheduler;
+import com.example.server.limitUtil.OperationLimiters;
+import com.example.server.metricsUtil.ServerMetrics;
+import com.example.server.policyUtil.TransferPolicy;
+import com.example.server.presignUtil.PresignedUrlCache;
+import com.example.server.presignUtil.PresignerService;
+import com.example.server.uploadServices.MultipartUploadPipeline;
+import com.example.server.uploadServices.MultipartUploadSessions;
+import com.example.server.uploadServices.UploadIoScheduler;
+
+import ch.qos.logback.classic.LoggerContext;
 import io.github.cdimascio.dotenv.Dotenv;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
 import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
 public class Main {
   private static S3Client s3Client = null;
 
   static Dotenv dotenv = Dotenv.load();
+
+  // logback.xml reads its settings from system properties, so the LOG_* keys of .env are carried over before logging starts
+  static {
+    dotenv.entries(Dotenv.Filter.DECLARED_IN_ENV_FILE).stream().filter(e -> e.getKey().startsWith("LOG_")) //
+      .forEach(e -> System.setProperty(e.getKey(), e.getValue()));
+  }
   private Path dynamicPath;
 
   private static Region region = Region.[REGION];
@@ -37,21 +69,90 @@ public class Main {
   private static StaticCredentialsProvider explicitCredentialsProvider = StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKeyID, secretAccessKey));
 
   private static final Logger logger = LoggerFactory.getLogger(Main.class);
+
+  // Share of requests whose detail lines and [Timing] line are logged at INFO (failed requests are always logged)
+  private static final double logSampleRate = Double.parseDouble(dotenv.get("LOG_SAMPLE_RATE", "0.01"));
   private static String bucketName = null;
   private static S3AsyncClient s3AsyncClient = null;
   private static S3AsyncClient s3AsyncMultiClient = null;
-  private static S3Presigner s3Presigner = null;
+  private static PresignerService presignerService = null;
   private static String accesspointArn = dotenv.get("AWS_ACCESSPOINT_ARN");
 
+  // Optional S3 endpoint override, e.g. a local S3 stand-in for benchmarks (path-style addressing is used)
+  private static final String s3Endpoint = dotenv.get("AWS_S3_ENDPOINT");
+
+  // Stream-via-server downloads larger than one part are fetched as this many concurrent ranged GETs
+  private static final long downloadPartSize = Long.parseLong(dotenv.get("DOWNLOAD_PART_SIZE_MB", "8")) * 1024 * 1024;
+  private static final int downloadParallelism = Integer.parseInt(dotenv.get("DOWNLOAD_PARALLELISM", "4"));
+  private static HotObjectCache hotObjectCache = null;
+  private static DownloadCoalescer downloadCoalescer = null;
+
+  // SERVER_THREADS=virtual runs requests and blocking work on virtual threads (Java 21+); 0 keeps Grizzly's pool sizes
+  private static final ServerThreads serverThreads = new ServerThreads(dotenv.get("SERVER_THREADS", "platform"), //
+    Integer.parseInt(dotenv.get("GRIZZLY_WORKER_THREADS", "0")), //
+    Integer.parseInt(dotenv.get("GRIZZLY_SELECTOR_THREADS", "0")), //
+    Integer.parseInt(dotenv.get("GRIZZLY_KERNEL_THREADS", "0")), //
+    Integer.parseInt(dotenv.get("BLOCKING_THREADS", "32")));
+
+  // Shared pool that reads stream-via-server upload bodies; sized for blocking I/O, not CPU work
+  // With virtual threads a blocked read is cheap, so the default allows many more concurrent uploads
+  private static final UploadIoScheduler uploadIoScheduler = new UploadIoScheduler( //
+    Integer.parseInt(dotenv.get("UPLOAD_IO_THREADS", String.valueOf(serverThreads.isVirtual() ? 1024 : Math.max(16, Runtime.getRuntime().availableProcessors() * 8)))), //
+    Integer.parseInt(dotenv.get("UPLOAD_IO_QUEUE", "1000")), //
+    serverThreads.threadFactory("upload-io-"));
+
+  // Stream-via-server uploads are sent as pipelined multipart uploads (chunked uploads always are)
+  private static final boolean uploadPipelineEnabled = Boolean.parseBoolean(dotenv.get("UPLOAD_PIPELINE", "true"));
+  private static MultipartUploadPipeline uploadPipeline = null;
+  private static MultipartUploadSessions multipartSessions = null;
+
+  // Adaptive concurrency limits per S3 operation type; new work above a limit is rejected with 503 + Retry-After
+  private static final OperationLimiters s3Limiters = new OperationLimiters("S3", //
+    Integer.parseInt(dotenv.get("S3_LIMIT_INITIAL", "64")), //
+    Integer.parseInt(dotenv.get("S3_LIMIT_MIN", "8")), //
+    Integer.parseInt(dotenv.get("S3_LIMIT_MAX", "2048")), //
+    Double.parseDouble(dotenv.get("LIMIT_LATENCY_TOLERANCE", "1.5")));
+
+  // Per-client fair share of stream-via-server bandwidth, by remote address or an X-Client-Id listed in BANDWIDTH_CLIENT_TIERS
+  // BANDWIDTH_*_MBPS=0 splits nothing and BANDWIDTH_TIERS caps of 0 cap nothing, so by default throughput is only measured
+  private static final Map<String, BandwidthScheduler.Tier> bandwidthTiers = BandwidthScheduler.Tier.parse(dotenv.get("BANDWIDTH_TIERS", "standard=1:0"));
+  private static final Map<String, String> bandwidthClientTiers = BandwidthScheduler.parseClientTiers(dotenv.get("BANDWIDTH_CLIENT_TIERS", ""));
+  private static final BandwidthScheduler downloadBandwidth = new BandwidthScheduler("download", //
+    Long.parseLong(dotenv.get("BANDWIDTH_DOWNLOAD_MBPS", "0")) * 1024 * 1024, //
+    bandwidthTiers, bandwidthClientTiers, dotenv.get("BANDWIDTH_DEFAULT_TIER", "standard"));
+  private static final BandwidthScheduler uploadBandwidth = new BandwidthScheduler("upload", //
+    Long.parseLong(dotenv.get("BANDWIDTH_UPLOAD_MBPS", "0")) * 1024 * 1024, //
+    bandwidthTiers, bandwidthClientTiers, dotenv.get("BANDWIDTH_DEFAULT_TIER", "standard"));
+
+  // "adaptive" mode: the method of each transfer is picked from the object size and what clients report back
+  // Priors are latencyMs:MBps per method; POLICY_EXPLORE_RATE of the transfers try the other method
+  private static final Map<String, TransferPolicy.Prior> transferPriors = Map.of( //
+    TransferPolicy.STREAM, TransferPolicy.Prior.parse(dotenv.get("POLICY_STREAM_PRIOR", "40:50")), //
+    TransferPolicy.PRESIGN, TransferPolicy.Prior.parse(dotenv.get("POLICY_PRESIGN_PRIOR", "150:100")));
+  private static final double policyExploreRate = Double.parseDouble(dotenv.get("POLICY_EXPLORE_RATE", "0.05"));
+  private static final TransferPolicy downloadPolicy = new TransferPolicy("download", transferPriors, policyExploreRate);
+  private static final TransferPolicy uploadPolicy = new TransferPolicy("upload", transferPriors, policyExploreRate);
+  private static AdaptiveDownloadService adaptiveDownloads = null;
+  private static InlineObjectCache inlineObjects = null;
+
+  // Request latency, transfer and backend metrics, served at /files/metrics
+  private static final ServerMetrics metrics = new ServerMetrics();
+
+  // Shared off-heap buffers for the data paths: 64 KB to 16 MB size classes, BUFFER_POOL_MAX_IDLE_MB kept for reuse
+  private static final DirectBufferPool bufferPool = new DirectBufferPool(64 * 1024, 16 * 1024 * 1024, //
+    Long.parseLong(dotenv.get("BUFFER_POOL_MAX_IDLE_MB", "512")) * 1024 * 1024, //
+    Long.parseLong(dotenv.get("BUFFER_POOL_LEAK_SECONDS", "300")) * 1000);
+
   // Methods
   //presign
   //iam
   //accesspoints
   //streamS3ObjectViaServer
+  //adaptive
   private static String currentMethod = "presign";
 
   // Initiating the server
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
 
     // Creating credentials for the server
     s3Client = S3Client.builder() //
@@ -60,12 +161,12 @@ public class Main {
       //.credentialsProvider(DefaultCredentialsProvider.create()) //
       .build(); //
 
-    // For presign
-    s3Presigner = S3Presigner.builder() //
-      .region(region) //
-      .credentialsProvider(explicitCredentialsProvider) //
-      //.credentialsProvider(DefaultCredentialsProvider.create()) //
-      .build();
+    // For presign: one long-lived presigner shared by every presign endpoint
+    // Signed URLs are reused while at least PRESIGN_CACHE_MIN_REMAINING_SECONDS of their 10 minutes remain
+    PresignedUrlCache presignedUrlCache = new PresignedUrlCache( //
+      Long.parseLong(dotenv.get("PRESIGN_CACHE_MAX_SIZE", "10000")), //
+      Duration.ofSeconds(Long.parseLong(dotenv.get("PRESIGN_CACHE_MIN_REMAINING_SECONDS", "300"))));
+    presignerService = new PresignerService(region, explicitCredentialsProvider, presignedUrlCache);
 
     // For streamS3ObjectViaServer
     s3AsyncClient = S3AsyncClient.builder() //
@@ -73,6 +174,7 @@ public class Main {
       .multipartEnabled(false) //
       .credentialsProvider(explicitCredentialsProvider) //
       //.credentialsProvider(DefaultCredentialsProvider.create()) //
+      .applyMutation(Main::applyEndpointOverride) //
       .build();
 
     s3AsyncMultiClient = S3AsyncClient.builder() //
@@ -80,14 +182,68 @@ public class Main {
       .multipartEnabled(true) //
       .credentialsProvider(explicitCredentialsProvider) //
       //.credentialsProvider(DefaultCredentialsProvider.create()) //
+      .applyMutation(Main::applyEndpointOverride) //
       .multipartConfiguration(b -> b //
         .thresholdInBytes(8 * 1024 * 1024L)//
         .minimumPartSizeInBytes(8 * 1024 * 1024L) //
       ).build();
 
+    // Pipelined multipart uploads: UPLOAD_PARTS_IN_FLIGHT parts of UPLOAD_PART_SIZE_MB per upload,
+    // at most UPLOAD_BUFFER_BUDGET_MB of part buffers across all uploads
+    int uploadPartsInFlight = Integer.parseInt(dotenv.get("UPLOAD_PARTS_IN_FLIGHT", "4"));
+    uploadPipeline = new MultipartUploadPipeline(s3AsyncClient, //
+      s3Limiters, //
+      Long.parseLong(dotenv.get("UPLOAD_PART_SIZE_MB", "8")) * 1024 * 1024, //
+      uploadPartsInFlight, //
+      bufferPool, //
+      Long.parseLong(dotenv.get("UPLOAD_BUFFER_BUDGET_MB", "512")) * 1024 * 1024);
+
+    // Reports pooled buffers that were never released
+    ScheduledExecutorService leakDetector = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "buffer-pool-leak-detector");
+      thread.setDaemon(true);
+      return thread;
+    });
+    leakDetector.scheduleAtFixedRate(bufferPool::detectLeaks, 1, 1, TimeUnit.MINUTES);
+
     // Test: singlepart and multipart
     bucketName = dotenv.get("AWS_BUCKET_NAME");
 
+    // Hot-object cache for streamS3ObjectViaServer downloads (DOWNLOAD_CACHE_MAX_MB=0 disables it)
+    long cacheMaxMb = Long.parseLong(dotenv.get("DOWNLOAD_CACHE_MAX_MB", "2048"));
+    if (cacheMaxMb > 0) {
+      hotObjectCache = new HotObjectCache( //
+        Path.of(dotenv.get("DOWNLOAD_CACHE_DIR", System.getProperty("java.io.tmpdir") + "/s3-hot-object-cache")), //
+        cacheMaxMb * 1024 * 1024, //
+        Long.parseLong(dotenv.get("DOWNLOAD_CACHE_MEMORY_MB", "0")) * 1024 * 1024, //
+        Long.parseLong(dotenv.get("DOWNLOAD_CACHE_MAX_OBJECT_MB", "512")) * 1024 * 1024, //
+        Long.parseLong(dotenv.get("DOWNLOAD_CACHE_FILL_QUEUE_MB", "64")) * 1024 * 1024, //
+        Duration.ofSeconds(Long.parseLong(dotenv.get("DOWNLOAD_CACHE_REVALIDATE_SECONDS", "30"))), //
+        s3AsyncClient, bucketName);
+    }
+
+    // Concurrent downloads of the same key share one S3 read (DOWNLOAD_COALESCING=false disables it)
+    if (Boolean.parseBoolean(dotenv.get("DOWNLOAD_COALESCING", "true"))) {
+      downloadCoalescer = new DownloadCoalescer(Long.parseLong(dotenv.get("DOWNLOAD_COALESCE_BUFFER_MB", "16")) * 1024 * 1024);
+    }
+
+    // Server-initiated presigned multipart uploads; those not finished within MULTIPART_SESSION_MINUTES are aborted
+    multipartSessions = new MultipartUploadSessions(s3AsyncClient, bucketName, //
+      Duration.ofMinutes(Long.parseLong(dotenv.get("MULTIPART_SESSION_MINUTES", "1440"))));
+
+    // Presign downloads return objects up to PRESIGN_INLINE_MAX_KB inline to clients that accept it (0 disables it)
+    long inlineMaxKb = Long.parseLong(dotenv.get("PRESIGN_INLINE_MAX_KB", "16"));
+    if (inlineMaxKb > 0) {
+      inlineObjects = new InlineObjectCache(inlineMaxKb * 1024, //
+        Long.parseLong(dotenv.get("PRESIGN_INLINE_CACHE_MB", "64")) * 1024 * 1024, //
+        Duration.ofSeconds(Long.parseLong(dotenv.get("PRESIGN_INLINE_CACHE_SECONDS", "30"))), //
+        s3AsyncClient, bucketName);
+    }
+
+    // Object sizes for adaptive downloads are looked up with HEAD and trusted for POLICY_SIZE_CACHE_SECONDS
+    adaptiveDownloads = new AdaptiveDownloadService(downloadPolicy, s3AsyncClient, bucketName, //
+      Duration.ofSeconds(Long.parseLong(dotenv.get("POLICY_SIZE_CACHE_SECONDS", "300"))));
+
     // -------------------------------------
 
     // Start the server
@@ -97,6 +253,14 @@ public class Main {
     // Scan this package for annotated REST resources
     config.packages("com.example.server.endpoints");
 
+    // Make the shared presigner injectable in the REST resources
+    config.register(new AbstractBinder() {
+      @Override
+      protected void configure() {
+        bind(presignerService).to(PresignerService.class);
+      }
+    });
+
     // Enable multipart/form-data support (e.g., file uploads)
     config.register(MultiPartFeature.class)//
       .register(org.glassfish.jersey.jackson.JacksonFeature.class); //
@@ -108,9 +272,18 @@ public class Main {
     // Ensure the port is not in use
     checkAndKillPortIfInUse(3000);
 
+    // Jersey serves the REST endpoints; stream-mode downloads are served by the reactive handler in front of it
+    // The handler in front also records every request's latency for /files/metrics
+    // STREAM_DOWNLOAD_REACTIVE=false falls back to the blocking Jersey download (SOLUTION 1)
+    GrizzlyHttpContainer jerseyContainer = ContainerFactory.createContainer(GrizzlyHttpContainer.class, config);
+    boolean reactiveDownloads = Boolean.parseBoolean(dotenv.get("STREAM_DOWNLOAD_REACTIVE", "true"));
+
     HttpServer server = GrizzlyHttpServerFactory.createHttpServer( //
-      URI.create("http://localhost:3000/"), config //
+      URI.create("http://localhost:3000/"), false //
     );
+    serverThreads.configure(server);
+    server.getServerConfiguration().addHttpHandler(new StreamDownloadHttpHandler(jerseyContainer, reactiveDownloads), "/");
+    server.start();
 
     logger.info("Server running at http://localhost:3000/");
 
@@ -118,6 +291,16 @@ public class Main {
     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
       logger.info("Shutting down server...");
       server.shutdownNow();
+      presignerService.close();
+      uploadIoScheduler.close();
+      if (hotObjectCache != null) {
+        hotObjectCache.close();
+      }
+      serverThreads.close();
+      downloadBandwidth.close();
+      uploadBandwidth.close();
+      // Flushes what is still queued in the async appender
+      ((LoggerContext)LoggerFactory.getILoggerFactory()).stop();
     }));
   }
 
@@ -136,8 +319,8 @@ public class Main {
     return s3AsyncMultiClient;
   }
 
-  public static S3Presigner getS3Presigner() {
-    return s3Presigner;
+  public static PresignerService getPresignerService() {
+    return presignerService;
   }
 
   public static String getCurrentMethod() {
@@ -164,6 +347,89 @@ public class Main {
     return accesspointArn;
   }
 
+  public static HotObjectCache getHotObjectCache() {
+    return hotObjectCache;
+  }
+
+  public static DownloadCoalescer getDownloadCoalescer() {
+    return downloadCoalescer;
+  }
+
+  public static ServerThreads getServerThreads() {
+    return serverThreads;
+  }
+
+  public static UploadIoScheduler getUploadIoScheduler() {
+    return uploadIoScheduler;
+  }
+
+  public static MultipartUploadPipeline getUploadPipeline() {
+    return uploadPipeline;
+  }
+
+  public static MultipartUploadSessions getMultipartSessions() {
+    return multipartSessions;
+  }
+
+  public static OperationLimiters getS3Limiters() {
+    return s3Limiters;
+  }
+
+  public static BandwidthScheduler getDownloadBandwidth() {
+    return downloadBandwidth;
+  }
+
+  public static BandwidthScheduler getUploadBandwidth() {
+    return uploadBandwidth;
+  }
+
+  public static TransferPolicy getDownloadPolicy() {
+    return downloadPolicy;
+  }
+
+  public static TransferPolicy getUploadPolicy() {
+    return uploadPolicy;
+  }
+
+  public static AdaptiveDownloadService getAdaptiveDownloads() {
+    return adaptiveDownloads;
+  }
+
+  public static InlineObjectCache getInlineObjects() {
+    return inlineObjects;
+  }
+
+  public static ServerMetrics getMetrics() {
+    return metrics;
+  }
+
+  public static DirectBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  public static boolean isUploadPipelineEnabled() {
+    return uploadPipelineEnabled;
+  }
+
+  public static double getLogSampleRate() {
+    return logSampleRate;
+  }
+
+  public static long getDownloadPartSize() {
+    return downloadPartSize;
+  }
+
+  public static int getDownloadParallelism() {
+    return downloadParallelism;
+  }
+
+  // Points an S3 client at AWS_S3_ENDPOINT when it is set
+  private static void applyEndpointOverride(S3AsyncClientBuilder builder) {
+    if (s3Endpoint != null && !s3Endpoint.isBlank()) {
+      builder.endpointOverride(URI.create(s3Endpoint)).forcePathStyle(true);
+    }
+  }
+
   // Kill the server if in use
   // --------------------------------------------------------------------
 
@@ -184,8 +450,7 @@ public class Main {
 
           // Kill the process using the extracted PID
           String killCommand = "taskkill /PID " + pid + " /F";
-          System.out.println("Port " + port + " is already in use by process with PID: " + pid);
-          System.out.println("Killing process...");
+          logger.info("Port {} is already in use by process with PID: {}, killing process...", port, pid);
 
           // Use ProcessBuilder to run taskkill
           ProcessBuilder killProcessBuilder = new ProcessBuilder("cmd.exe", "/c", killCommand);
@@ -194,7 +459,7 @@ public class Main {
         }
       }
     } catch (Exception e) {
-      e.printStackTrace();
+      logger.warn("Could not check whether port {} is in use", port, e);
     }
   }
 }
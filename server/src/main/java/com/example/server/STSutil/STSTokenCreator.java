@@ -2,19 +2,45 @@ package com.example.server.STSutil;
 
 import java.time.Duration;
 import java.time.Instant;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.server.limitUtil.OperationLimiters;
+import com.github.benmanes.caffeine.cache.AsyncCacheLoader;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 
 import io.github.cdimascio.dotenv.Dotenv;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.sts.StsClient;
+import software.amazon.awssdk.services.sts.StsAsyncClient;
 import software.amazon.awssdk.services.sts.model.AssumeRoleRequest;
 import software.amazon.awssdk.services.sts.model.AssumeRoleResponse;
 import software.amazon.awssdk.services.sts.model.Credentials;
 
+/**
+ * Creates and caches scoped temporary credentials per client for the access point endpoints.
+ *
+ * The cache loads credentials once per client even when many requests for a new client arrive together
+ * (concurrent callers wait for the same assumeRole call). Credentials are refreshed in the background
+ * before they expire, so after the first request a client is served from the cache without an STS round trip.
+ * The cache is bounded; clients that stop calling are no longer refreshed and drop out when their credentials expire.
+ *
+ * STS is called through the StsAsyncClient, and callers get a CompletableFuture. No request thread ever blocks
+ * on STS; the endpoints resume their AsyncResponse when the SDK completes the future.
+ */
 public class STSTokenCreator {
+  private static final Logger logger = LoggerFactory.getLogger(STSTokenCreator.class);
   static Dotenv dotenv = Dotenv.load();
 
   private static final String IAMrole = dotenv.get("AWS_IAM_ROLE_ACCESSPOINT");
@@ -25,21 +51,130 @@ public class STSTokenCreator {
   private static final Region region = Region.EU_NORTH_1;
   private static final String roleSessionName = "user-session-name";
   private static final String roleArnTemplate = "arn:aws:iam::%s:role/%s";
-  private static final StsClient stsClient = StsClient.builder() //
+  private static final StsAsyncClient stsAsyncClient = StsAsyncClient.builder() //
     .region(region).credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKeyId, secretAccessKey))).build();
 
-  // Cache credentials per client
-  private static final Map<String, Credentials> credentialsCache = new ConcurrentHashMap<>();
+  // Cache tuning
+  private static final int credentialsDurationSeconds = 3600; // Temporary credentials valid for 1 hour
+  private static final long maxCachedClients = Long.parseLong(dotenv.get("STS_CACHE_MAX_CLIENTS", "10000"));
+  private static final Duration expiryMargin = Duration.ofMinutes(5); // Never hand out credentials with <5 minutes left
+  private static final Duration refreshAhead = Duration.ofMinutes(15); // Refresh in the background when <15 minutes left
+  private static final Duration refreshAfterWrite = Duration.ofMinutes(40); // Refresh on access once credentials are this old
+  private static final Duration idleTimeout = Duration.ofMinutes(30); // Stop refreshing clients idle for longer than this
+
+  // Artificial STS latency for load tests (0 = disabled). Added without blocking any thread.
+  private static final long injectedLatencyMillis = Long.parseLong(dotenv.get("STS_INJECTED_LATENCY_MS", "0"));
+
+  private static final LongAdder backgroundRefreshes = new LongAdder();
+
+  // Adaptive concurrency limit on STS calls; work above it is rejected with 503 instead of queueing
+  private static final OperationLimiters stsLimiters = new OperationLimiters("STS", //
+    Integer.parseInt(dotenv.get("STS_LIMIT_INITIAL", "16")), //
+    Integer.parseInt(dotenv.get("STS_LIMIT_MIN", "2")), //
+    Integer.parseInt(dotenv.get("STS_LIMIT_MAX", "256")), //
+    Double.parseDouble(dotenv.get("LIMIT_LATENCY_TOLERANCE", "1.5")));
 
-  public static Credentials generateSTSToken(String clientId) {
-    // Check the cache for existing credentials
-    Credentials cachedCredentials = credentialsCache.get(clientId);
+  /**
+   * Cached credentials plus the last time a request used them.
+   */
+  private static final class CachedCredentials {
+    private final Credentials credentials;
+    private volatile long lastAccessNanos;
 
-    // If credentials are not cached or have expired, generate new ones
-    if (cachedCredentials != null && !areCredentialsExpired(cachedCredentials)) {
-      return cachedCredentials;
+    private CachedCredentials(Credentials credentials, long lastAccessNanos) {
+      this.credentials = credentials;
+      this.lastAccessNanos = lastAccessNanos;
     }
+  }
+
+  // Cache credentials per client, bounded and expiring before the credentials themselves do
+  private static final AsyncLoadingCache<String, CachedCredentials> credentialsCache = Caffeine.newBuilder() //
+    .maximumSize(maxCachedClients) //
+    .expireAfter(new Expiry<String, CachedCredentials>() {
+      @Override
+      public long expireAfterCreate(String clientId, CachedCredentials cached, long currentTime) {
+        return usableNanos(cached.credentials);
+      }
 
+      @Override
+      public long expireAfterUpdate(String clientId, CachedCredentials cached, long currentTime, long currentDuration) {
+        return usableNanos(cached.credentials);
+      }
+
+      @Override
+      public long expireAfterRead(String clientId, CachedCredentials cached, long currentTime, long currentDuration) {
+        return currentDuration;
+      }
+    }) //
+    .refreshAfterWrite(refreshAfterWrite) //
+    .recordStats() //
+    .buildAsync(new AsyncCacheLoader<String, CachedCredentials>() {
+      @Override
+      public CompletableFuture<CachedCredentials> asyncLoad(String clientId, Executor executor) {
+        return assumeRole(clientId).thenApply(credentials -> new CachedCredentials(credentials, System.nanoTime()));
+      }
+
+      @Override
+      public CompletableFuture<CachedCredentials> asyncReload(String clientId, CachedCredentials oldValue, Executor executor) {
+        // Keep the access time so idle clients still age out
+        return assumeRole(clientId).thenApply(credentials -> new CachedCredentials(credentials, oldValue.lastAccessNanos));
+      }
+    });
+
+  // Background refresh-ahead of credentials that are close to expiring
+  private static final ScheduledExecutorService refreshScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+    Thread thread = new Thread(r, "sts-refresh-ahead");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  static {
+    refreshScheduler.scheduleWithFixedDelay(STSTokenCreator::refreshExpiringCredentials, 1, 1, TimeUnit.MINUTES);
+  }
+
+  /**
+   * Returns cached credentials for the client, assuming the role only when none are cached.
+   * A failed assumeRole is not cached, so the next request tries again.
+   *
+   * @param clientId the client (and bucket prefix) the credentials are scoped to
+   * @return a future completed with the credentials, or exceptionally if the role could not be assumed
+   */
+  public static CompletableFuture<Credentials> generateSTSToken(String clientId) {
+    return credentialsCache.get(clientId).thenApply(cached -> {
+      cached.lastAccessNanos = System.nanoTime();
+      return cached.credentials;
+    }).whenComplete((credentials, ex) -> {
+      if (ex != null) {
+        logger.warn("[STS]  Failed to assume role: {}", ex.getMessage());
+      }
+    });
+  }
+
+  /**
+   * @return hit, miss and load-latency counters of the credentials cache
+   */
+  public static CacheStats cacheStats() {
+    return credentialsCache.synchronous().stats();
+  }
+
+  /**
+   * @return number of refreshes started by the background refresh-ahead task
+   */
+  public static long backgroundRefreshCount() {
+    return backgroundRefreshes.sum();
+  }
+
+  /**
+   * @return the adaptive concurrency limits of the STS operations
+   */
+  public static OperationLimiters limiters() {
+    return stsLimiters;
+  }
+
+  /**
+   * Calls STS asynchronously to assume the access point role with a session policy scoped to the client's prefix.
+   */
+  private static CompletableFuture<Credentials> assumeRole(String clientId) {
     // Format the role ARN and the scoped resource ARN for the access point
     String formattedRoleArn = String.format(roleArnTemplate, userID, IAMrole);
     //String scopedResourceArn = String.format("arn:aws:s3:::flippingbucket/%s/*", clientId);
@@ -59,35 +194,57 @@ public class STSTokenCreator {
       }
       """, scopedResourceArn);
 
-    System.out.println("SCOPE RESROUSE: " + scopedResourceArn);
+    logger.debug("[STS]  Scoped resource: {}", scopedResourceArn);
     // Build the AssumeRoleRequest with the session policy
     AssumeRoleRequest assumeRoleRequest = AssumeRoleRequest.builder() //
       .roleArn(formattedRoleArn) //
       .policy(sessionPolicy) //
       .roleSessionName(roleSessionName + "-" + clientId) //
-      .durationSeconds(3600) // Temporary credentials valid for 1 hour
+      .durationSeconds(credentialsDurationSeconds) //
       .build();
 
-    try {
-      // Assume the role and get temporary credentials
-      AssumeRoleResponse assumeRoleResponse = stsClient.assumeRole(assumeRoleRequest);
-      Credentials newCredentials = assumeRoleResponse.credentials();
+    // Assume the role and get temporary credentials, optionally delayed to simulate a slow STS
+    // Calls beyond the adaptive STS limit fail fast with LimitExceededException (503) instead of queueing
+    CompletableFuture<AssumeRoleResponse> assumeRoleFuture = stsLimiters.call("AssumeRole", () -> injectedLatencyMillis > 0 //
+      ? CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(injectedLatencyMillis, TimeUnit.MILLISECONDS)) //
+        .thenCompose(ignored -> stsAsyncClient.assumeRole(assumeRoleRequest)) //
+      : stsAsyncClient.assumeRole(assumeRoleRequest));
+
+    return assumeRoleFuture.thenApply(assumeRoleResponse -> {
+      logger.debug("[STS]  Generated new temporary credentials for client: {}", clientId);
+      return assumeRoleResponse.credentials();
+    });
+  }
 
-      // Cache the credentials for the client
-      credentialsCache.put(clientId, newCredentials);
+  /**
+   * Starts an asynchronous reload for every recently used client whose credentials expire within the refresh-ahead window.
+   * The old credentials keep being served until the reload completes.
+   */
+  private static void refreshExpiringCredentials() {
+    try {
+      long now = System.nanoTime();
+      credentialsCache.synchronous().asMap().forEach((clientId, cached) -> {
+        boolean recentlyUsed = now - cached.lastAccessNanos < idleTimeout.toNanos();
+        boolean expiringSoon = timeLeft(cached.credentials).compareTo(refreshAhead) < 0;
 
-      System.out.println("Generated new temporary credentials for client: " + clientId);
-      return newCredentials;
+        if (recentlyUsed && expiringSoon) {
+          backgroundRefreshes.increment();
+          credentialsCache.synchronous().refresh(clientId);
+        }
+      });
     } catch (Exception e) {
-      System.err.println("Failed to assume role: " + e.getMessage());
-      e.printStackTrace();
-      return null;
+      // Never let an exception cancel the scheduled task
+      logger.warn("[STS]  Refresh-ahead failed: {}", e.getMessage());
     }
   }
 
-  private static boolean areCredentialsExpired(Credentials credentials) {
-    Instant expiration = credentials.expiration();
-    Duration timeLeft = Duration.between(Instant.now(), expiration);
-    return timeLeft.isNegative() || timeLeft.toMinutes() < 5; // Refresh if <5 minutes remaining
+  private static Duration timeLeft(Credentials credentials) {
+    return Duration.between(Instant.now(), credentials.expiration());
+  }
+
+  // Time until the credentials have less than the expiry margin left
+  private static long usableNanos(Credentials credentials) {
+    Duration usable = timeLeft(credentials).minus(expiryMargin);
+    return usable.isNegative() ? 0 : usable.toNanos();
   }
 }
@@ -0,0 +1,135 @@
+package com.example.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.nio.transport.TCPNIOTransport;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Thread model of the server.
+ *
+ * In "platform" mode (default) Grizzly uses a worker pool of platform threads, and blocking work runs on a
+ * fixed pool. In "virtual" mode (Java 21+) every request and every blocking task gets its own virtual thread,
+ * so a request blocked on S3 or STS no longer holds one of a few worker threads. The build targets Java 17,
+ * so virtual threads are created through reflection; on an older runtime the server falls back to platform mode.
+ *
+ * Worker, selector and kernel pool sizes apply to the Grizzly transport; 0 keeps Grizzly's default.
+ */
+public class ServerThreads {
+  private static final Logger logger = LoggerFactory.getLogger(ServerThreads.class);
+
+  private final boolean virtual;
+  private final int workerThreads;
+  private final int selectorThreads;
+  private final int kernelThreads;
+  private final ExecutorService blockingExecutor;
+
+  /**
+   * @param mode            "platform" or "virtual"
+   * @param workerThreads   Grizzly worker threads in platform mode
+   * @param selectorThreads Grizzly selector runners
+   * @param kernelThreads   Grizzly kernel threads (at least the number of selector runners)
+   * @param blockingThreads threads for blocking tasks in platform mode
+   */
+  public ServerThreads(String mode, int workerThreads, int selectorThreads, int kernelThreads, int blockingThreads) {
+    boolean virtualRequested = "virtual".equalsIgnoreCase(mode);
+    if (virtualRequested && Runtime.version().feature() < 21) {
+      logger.warn("SERVER_THREADS=virtual needs Java 21 or later (running {}), using platform threads", Runtime.version());
+    }
+    this.virtual = virtualRequested && Runtime.version().feature() >= 21;
+    this.workerThreads = workerThreads;
+    this.selectorThreads = selectorThreads;
+    this.kernelThreads = kernelThreads;
+    this.blockingExecutor = virtual //
+      ? threadPerTaskExecutor(threadFactory("blocking-")) //
+      : Executors.newFixedThreadPool(blockingThreads, threadFactory("blocking-"));
+  }
+
+  public boolean isVirtual() {
+    return virtual;
+  }
+
+  /**
+   * @return the shared executor for blocking work that must not run on Grizzly or SDK threads
+   */
+  public ExecutorService blockingExecutor() {
+    return blockingExecutor;
+  }
+
+  /**
+   * @return a factory for named daemon threads, virtual in virtual mode
+   */
+  public ThreadFactory threadFactory(String namePrefix) {
+    if (virtual) {
+      return virtualThreadFactory(namePrefix);
+    }
+    AtomicInteger threadNumber = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, namePrefix + threadNumber.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Applies the thread model to the server's transports. Must be called before the server is started.
+   */
+  public void configure(HttpServer server) {
+    for(NetworkListener listener : server.getListeners()) {
+      TCPNIOTransport transport = listener.getTransport();
+
+      if (selectorThreads > 0) {
+        transport.setSelectorRunnersCount(selectorThreads);
+      }
+      if (kernelThreads > 0) {
+        int kernel = Math.max(kernelThreads, transport.getSelectorRunnersCount());
+        transport.setKernelThreadPoolConfig(ThreadPoolConfig.defaultConfig().setPoolName("grizzly-kernel").setCorePoolSize(kernel).setMaxPoolSize(kernel));
+      }
+
+      if (virtual) {
+        transport.setWorkerThreadPool(threadPerTaskExecutor(virtualThreadFactory("grizzly-worker-")));
+      } else if (workerThreads > 0) {
+        transport.setWorkerThreadPoolConfig(ThreadPoolConfig.defaultConfig().setPoolName("grizzly-worker").setCorePoolSize(workerThreads).setMaxPoolSize(workerThreads));
+      }
+    }
+
+    logger.info("Server threads: {} | Workers: {} | Selectors: {} | Kernel: {}", virtual ? "virtual" : "platform", //
+      virtual ? "virtual per request" : describe(workerThreads), describe(selectorThreads), describe(kernelThreads));
+  }
+
+  public void close() {
+    blockingExecutor.shutdownNow();
+  }
+
+  private static String describe(int threads) {
+    return threads > 0 ? String.valueOf(threads) : "default";
+  }
+
+  // Executors.newThreadPerTaskExecutor(threadFactory), called reflectively because the build targets Java 17
+  private static ExecutorService threadPerTaskExecutor(ThreadFactory threadFactory) {
+    try {
+      return (ExecutorService)Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, threadFactory);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Virtual threads are not available", e);
+    }
+  }
+
+  // Thread.ofVirtual().name(prefix, 0).factory(), called reflectively because the build targets Java 17
+  private static ThreadFactory virtualThreadFactory(String namePrefix) {
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder$OfVirtual");
+      builder = builderType.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+      return (ThreadFactory)builderType.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Virtual threads are not available", e);
+    }
+  }
+}
@@ -0,0 +1,220 @@
+package com.example.server.bufferUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared pool of off-heap (direct) ByteBuffers for the upload and download data paths.
+ *
+ * Buffers come in power-of-two size classes from {@code minClassSize} to {@code maxClassSize}; a request is served
+ * from the smallest class that fits, with the limit set to the requested size. Released buffers are kept for reuse
+ * up to {@code maxIdleBytes} in total. Requests above the largest class are allocated unpooled.
+ *
+ * Every buffer handed out is tracked until it is released. {@link #detectLeaks} reports buffers held longer than
+ * the leak threshold (e.g. an error path that never released them) and stops tracking them, so they are freed by
+ * the garbage collector instead of returning to the pool.
+ */
+public class DirectBufferPool {
+  private static final Logger logger = LoggerFactory.getLogger(DirectBufferPool.class);
+  private final int minClassShift;
+  private final int maxClassShift;
+  private final long maxIdleBytes;
+  private final long leakThresholdNanos;
+  private final long createdAt = System.nanoTime();
+
+  private final ConcurrentLinkedQueue<ByteBuffer>[] idle;
+  private final AtomicLong idleBytes = new AtomicLong();
+
+  // Buffers currently handed out, by identity (ByteBuffer.equals compares contents)
+  private final Map<Identity, Outstanding> outstanding = new ConcurrentHashMap<>();
+  private final AtomicLong inUseBytes = new AtomicLong();
+
+  private final LongAdder acquires = new LongAdder();
+  private final LongAdder reuses = new LongAdder();
+  private final LongAdder allocations = new LongAdder();
+  private final LongAdder allocatedBytes = new LongAdder();
+  private final LongAdder leaks = new LongAdder();
+
+  /**
+   * @param minClassSize     smallest buffer size handed out
+   * @param maxClassSize     largest pooled buffer size; larger requests are allocated unpooled
+   * @param maxIdleBytes     total size of released buffers kept for reuse
+   * @param leakThresholdMs  how long a buffer may be held before it is reported as leaked
+   */
+  @SuppressWarnings("unchecked")
+  public DirectBufferPool(int minClassSize, int maxClassSize, long maxIdleBytes, long leakThresholdMs) {
+    this.minClassShift = shiftFor(Math.max(minClassSize, 1));
+    this.maxClassShift = Math.max(minClassShift, shiftFor(maxClassSize));
+    this.maxIdleBytes = maxIdleBytes;
+    this.leakThresholdNanos = leakThresholdMs * 1_000_000;
+
+    idle = new ConcurrentLinkedQueue[maxClassShift - minClassShift + 1];
+    for(int i = 0; i < idle.length; i++) {
+      idle[i] = new ConcurrentLinkedQueue<>();
+    }
+  }
+
+  /**
+   * @param size  bytes needed
+   * @param owner short description of the user, reported if the buffer leaks
+   * @return a cleared direct buffer with its limit set to {@code size}
+   */
+  public ByteBuffer acquire(int size, String owner) {
+    acquires.increment();
+    int shift = shiftFor(Math.max(size, 1 << minClassShift));
+
+    ByteBuffer buffer = null;
+    if (shift <= maxClassShift) {
+      buffer = idle[shift - minClassShift].poll();
+      if (buffer != null) {
+        idleBytes.addAndGet(-buffer.capacity());
+        reuses.increment();
+      }
+    }
+    if (buffer == null) {
+      int capacity = shift <= maxClassShift ? 1 << shift : size;
+      buffer = ByteBuffer.allocateDirect(capacity);
+      allocations.increment();
+      allocatedBytes.add(capacity);
+    }
+
+    buffer.clear().limit(size);
+    outstanding.put(new Identity(buffer), new Outstanding(owner, System.nanoTime()));
+    inUseBytes.addAndGet(buffer.capacity());
+    return buffer;
+  }
+
+  /**
+   * @return the capacity of the buffer {@link #acquire} hands out for {@code size} bytes, i.e. the direct memory it holds
+   */
+  public int capacityFor(int size) {
+    int shift = shiftFor(Math.max(size, 1 << minClassShift));
+    return shift <= maxClassShift ? 1 << shift : size;
+  }
+
+  /**
+   * @return true if the buffer was handed out by this pool and not yet released
+   */
+  public boolean isOutstanding(ByteBuffer buffer) {
+    return outstanding.containsKey(new Identity(buffer));
+  }
+
+  /**
+   * Returns a buffer to the pool. Releasing a buffer twice, or one this pool does not track, is ignored.
+   * The buffer must not be used after it was released.
+   */
+  public void release(ByteBuffer buffer) {
+    if (outstanding.remove(new Identity(buffer)) == null) {
+      return;
+    }
+    inUseBytes.addAndGet(-buffer.capacity());
+
+    int shift = shiftFor(buffer.capacity());
+    boolean pooledSize = buffer.capacity() == 1 << shift && shift >= minClassShift && shift <= maxClassShift;
+    if (pooledSize && idleBytes.addAndGet(buffer.capacity()) <= maxIdleBytes) {
+      idle[shift - minClassShift].offer(buffer);
+    } else if (pooledSize) {
+      idleBytes.addAndGet(-buffer.capacity());
+    }
+  }
+
+  /**
+   * Reports and stops tracking buffers held for longer than the leak threshold.
+   *
+   * @return the number of buffers reported
+   */
+  public int detectLeaks() {
+    long now = System.nanoTime();
+    int found = 0;
+    for(Map.Entry<Identity, Outstanding> entry : outstanding.entrySet()) {
+      Outstanding held = entry.getValue();
+      long heldNanos = now - held.acquiredAt();
+      if (heldNanos >= leakThresholdNanos && outstanding.remove(entry.getKey(), held)) {
+        ByteBuffer buffer = entry.getKey().buffer();
+        inUseBytes.addAndGet(-buffer.capacity());
+        leaks.increment();
+        found++;
+        logger.warn("[BufferPool]  LEAK: {} KB buffer acquired by {} not released after {} s", buffer.capacity() / 1024, held.owner(), heldNanos / 1_000_000_000);
+      }
+    }
+    return found;
+  }
+
+  /**
+   * @return a one-line summary of the pool metrics, for logging
+   */
+  public String summary() {
+    double seconds = (System.nanoTime() - createdAt) / 1e9;
+    return String.format("In use: %d MB | Idle: %d MB | Utilization: %.0f%% | Reuse: %.1f%% | Allocated: %d MB (%.1f MB/s) | Leaks: %d", //
+      inUseBytes() / (1024 * 1024), idleBytes() / (1024 * 1024), utilization() * 100, //
+      acquires.sum() == 0 ? 0.0 : reuses.sum() * 100.0 / acquires.sum(), //
+      allocatedBytes.sum() / (1024 * 1024), allocatedBytes.sum() / 1e6 / seconds, leaks.sum());
+  }
+
+  public long inUseBytes() {
+    return inUseBytes.get();
+  }
+
+  public long idleBytes() {
+    return idleBytes.get();
+  }
+
+  /**
+   * @return the share of the pool's memory that is currently handed out
+   */
+  public double utilization() {
+    long inUse = inUseBytes();
+    long total = inUse + idleBytes();
+    return total == 0 ? 0 : (double)inUse / total;
+  }
+
+  public long acquires() {
+    return acquires.sum();
+  }
+
+  public long reuses() {
+    return reuses.sum();
+  }
+
+  public long allocations() {
+    return allocations.sum();
+  }
+
+  /**
+   * @return total bytes of direct memory allocated so far, for the allocation rate
+   */
+  public long allocatedBytes() {
+    return allocatedBytes.sum();
+  }
+
+  public long leaks() {
+    return leaks.sum();
+  }
+
+  // Smallest shift with (1 << shift) >= size
+  private static int shiftFor(int size) {
+    return size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+  }
+
+  private record Identity(ByteBuffer buffer) {
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Identity identity && identity.buffer == buffer;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(buffer);
+    }
+  }
+
+  private record Outstanding(String owner, long acquiredAt) {
+  }
+}
@@ -0,0 +1,150 @@
+package com.example.server.downloadServices;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.glassfish.grizzly.http.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.server.Main;
+import com.example.server.limitUtil.LimitExceededException;
+import com.example.server.metricsUtil.RequestTiming;
+import com.example.server.policyUtil.TransferPolicy;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+
+/**
+ * Downloads in "adaptive" mode: every GET /files/download/{fileName} is answered with whichever method the
+ * {@link TransferPolicy} expects to be fastest for that object and client, either streamed through the server
+ * or as a presigned URL. The picked method is returned in the X-Transfer-Method header.
+ *
+ * The object size comes from a HEAD request; sizes are cached for a while, so a hot key costs one HEAD per period
+ * rather than one per download.
+ */
+public class AdaptiveDownloadService {
+  private static final Logger logger = LoggerFactory.getLogger(AdaptiveDownloadService.class);
+  private static final String METHOD_ATTRIBUTE = AdaptiveDownloadService.class.getName() + ".method";
+
+  private final TransferPolicy policy;
+  private final AsyncLoadingCache<String, Long> objectSizes;
+
+  /**
+   * @param policy        the download policy
+   * @param s3AsyncClient client used for the HEAD requests
+   * @param bucketName    bucket of the downloads
+   * @param sizeTtl       how long an object size is trusted
+   */
+  public AdaptiveDownloadService(TransferPolicy policy, S3AsyncClient s3AsyncClient, String bucketName, Duration sizeTtl) {
+    this.policy = policy;
+    this.objectSizes = Caffeine.newBuilder() //
+      .maximumSize(100_000) //
+      .expireAfterWrite(sizeTtl) //
+      .buildAsync((key, executor) -> Main.getS3Limiters() //
+        .call("HeadObject", () -> s3AsyncClient.headObject(HeadObjectRequest.builder().bucket(bucketName).key(key).build())) //
+        .thenApply(HeadObjectResponse::contentLength));
+  }
+
+  /**
+   * Picks the method of one download and names it in the response's X-Transfer-Method header.
+   * Range requests and objects in the hot-object cache are streamed when the client can take a stream:
+   * the server answers them without a further request by the client.
+   * If the size cannot be looked up, the download is streamed, which reports S3 errors such as 404 to the client.
+   *
+   * @return a future with {@link TransferPolicy#STREAM} or {@link TransferPolicy#PRESIGN} (never completes exceptionally)
+   */
+  public CompletableFuture<String> choose(String fileName, Request request) {
+    Set<String> allowed = TransferPolicy.capabilities(request.getHeader(TransferPolicy.CAPABILITIES_HEADER));
+    String fallback = allowed.contains(TransferPolicy.STREAM) ? TransferPolicy.STREAM : TransferPolicy.PRESIGN;
+
+    HotObjectCache hotObjectCache = Main.getHotObjectCache();
+    boolean servedLocally = request.getHeader("Range") != null || (hotObjectCache != null && hotObjectCache.contains(fileName));
+    CompletableFuture<String> chosen = servedLocally || allowed.size() == 1 //
+      ? CompletableFuture.completedFuture(fallback) //
+      : RequestTiming.of(request).time("policy", objectSizes.get(fileName)).handle((size, ex) -> {
+        if (ex != null) {
+          logger.debug("[Adaptive]  No size for {}, streaming: {}", fileName, ex.getMessage());
+          return fallback;
+        }
+        return policy.choose(size, allowed);
+      });
+
+    return chosen.thenApply(method -> {
+      request.setAttribute(METHOD_ATTRIBUTE, method);
+      request.getResponse().setHeader(TransferPolicy.METHOD_HEADER, method);
+      return method;
+    });
+  }
+
+  /**
+   * @return the method picked for this request, or null if it was not an adaptive download
+   */
+  public static String chosenMethod(Request request) {
+    return (String)request.getAttribute(METHOD_ATTRIBUTE);
+  }
+
+  /**
+   * Serves an adaptive download on the reactive path, directly on the suspended Grizzly response.
+   * If anything fails before the response is finished, it is answered with 503 (over a limit) or 500 and resumed.
+   */
+  public void serve(String fileName, Request request, org.glassfish.grizzly.http.server.Response response) {
+    response.suspend();
+    RequestTiming timing = RequestTiming.of(request);
+    choose(fileName, request).thenCompose(method -> {
+      if (TransferPolicy.STREAM.equals(method)) {
+        StreamServerDownloadService.reactiveStreamS3ObjectViaServer(fileName, request, response);
+        return CompletableFuture.<Void>completedFuture(null);
+      }
+      return PresignUrlDownloadService.handlePresignedMethod(fileName, TransferPolicy.accepts(request.getHeader(TransferPolicy.CAPABILITIES_HEADER), TransferPolicy.INLINE), timing) //
+        .thenAccept(presigned -> write(presigned, response));
+    }).exceptionally(ex -> {
+      // The stream path resumes the response itself once it has started, also on errors
+      if (response.isSuspended()) {
+        write(errorResponse(ex, fileName, timing), response);
+      }
+      return null;
+    });
+  }
+
+  public TransferPolicy policy() {
+    return policy;
+  }
+
+  private static Response errorResponse(Throwable ex, String fileName, RequestTiming timing) {
+    LimitExceededException limitExceeded = LimitExceededException.find(ex);
+    if (limitExceeded != null) {
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", limitExceeded.retryAfterSeconds()).header(RequestTiming.HEADER, timing.header()) //
+        .type(MediaType.TEXT_PLAIN_TYPE).entity("Server busy, retry later").build();
+    }
+    logger.warn("[Adaptive]  Failed to serve download | Key: {} | Error: {}", fileName, ex.getMessage());
+    return Response.status(Response.Status.INTERNAL_SERVER_ERROR).header(RequestTiming.HEADER, timing.header()) //
+      .type(MediaType.TEXT_PLAIN_TYPE).entity("Error retrieving file: " + ex.getMessage()).build();
+  }
+
+  // Writes a small JAX-RS response (the presigned URL JSON or an inlined object) to a suspended Grizzly response and finishes it
+  private static void write(Response presigned, org.glassfish.grizzly.http.server.Response response) {
+    try {
+      response.setStatus(presigned.getStatus());
+      presigned.getStringHeaders().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+      response.setContentType(presigned.getMediaType() != null ? presigned.getMediaType().toString() : "application/json");
+      if (presigned.getEntity() instanceof byte[] body) {
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+      } else {
+        response.getWriter().write(String.valueOf(presigned.getEntity()));
+      }
+    } catch (IOException e) {
+      logger.warn("[Adaptive]  Failed to write presigned URL response: {}", e.getMessage());
+    } finally {
+      response.resume();
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package com.example.server.downloadServices;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A satisfiable, inclusive byte range of an object, plus parsing of the HTTP Range header.
+ *
+ * @param first offset of the first byte
+ * @param last  offset of the last byte (inclusive)
+ */
+public record ByteRange(long first, long last) {
+  // More ranges than this in one request are ignored and the full object is sent
+  private static final int MAX_RANGES = 32;
+
+  /**
+   * One range from the Range header, before the object size is known.
+   * A suffix range ("-500") has first = -1; an open-ended range ("100-") has last = -1.
+   */
+  public record Spec(long first, long last) {
+
+    /**
+     * @return this range as an S3 Range request header value, e.g. "bytes=100-199"
+     */
+    public String toHeaderValue() {
+      if (first < 0) {
+        return "bytes=-" + last;
+      }
+      return last < 0 ? "bytes=" + first + "-" : "bytes=" + first + "-" + last;
+    }
+  }
+
+  /**
+   * @return number of bytes in the range
+   */
+  public long length() {
+    return last - first + 1;
+  }
+
+  /**
+   * @return this range as an S3 Range request header value, e.g. "bytes=100-199"
+   */
+  public String toHeaderValue() {
+    return "bytes=" + first + "-" + last;
+  }
+
+  /**
+   * @param size total size of the object
+   * @return the Content-Range response header value, e.g. "bytes 100-199/1000"
+   */
+  public String contentRange(long size) {
+    return "bytes " + first + "-" + last + "/" + size;
+  }
+
+  /**
+   * Parses a Range header such as "bytes=0-99,200-,-50".
+   *
+   * @param header the Range header value, may be null
+   * @return the requested ranges, or null if there is no usable header (the full object should then be sent)
+   */
+  public static List<Spec> parse(String header) {
+    if (header == null || !header.regionMatches(true, 0, "bytes=", 0, 6)) {
+      return null;
+    }
+
+    String[] parts = header.substring(6).split(",");
+    if (parts.length > MAX_RANGES) {
+      return null;
+    }
+
+    List<Spec> specs = new ArrayList<>();
+    for(String part : parts) {
+      String range = part.trim();
+      int dash = range.indexOf('-');
+      if (dash < 0) {
+        return null;
+      }
+
+      try {
+        String first = range.substring(0, dash);
+        String last = range.substring(dash + 1);
+
+        if (first.isEmpty()) {
+          // Suffix range: the last N bytes
+          specs.add(new Spec(-1, parseOffset(last)));
+        } else if (last.isEmpty()) {
+          specs.add(new Spec(parseOffset(first), -1));
+        } else {
+          long firstOffset = parseOffset(first);
+          long lastOffset = parseOffset(last);
+          if (lastOffset < firstOffset) {
+            return null;
+          }
+          specs.add(new Spec(firstOffset, lastOffset));
+        }
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    return specs;
+  }
+
+  /**
+   * Resolves the requested ranges against the object size, dropping unsatisfiable ranges and
+   * merging overlapping or adjacent ones.
+   *
+   * @param specs the parsed Range header
+   * @param size  total size of the object
+   * @return the satisfiable ranges in ascending order; empty if none can be satisfied (416)
+   */
+  public static List<ByteRange> resolve(List<Spec> specs, long size) {
+    List<ByteRange> ranges = new ArrayList<>();
+    for(Spec spec : specs) {
+      if (size == 0) {
+        break;
+      }
+
+      if (spec.first() < 0) {
+        if (spec.last() > 0) {
+          ranges.add(new ByteRange(Math.max(0, size - spec.last()), size - 1));
+        }
+      } else if (spec.first() < size) {
+        long last = spec.last() < 0 ? size - 1 : Math.min(spec.last(), size - 1);
+        ranges.add(new ByteRange(spec.first(), last));
+      }
+    }
+
+    ranges.sort(Comparator.comparingLong(ByteRange::first));
+
+    List<ByteRange> merged = new ArrayList<>();
+    for(ByteRange range : ranges) {
+      ByteRange previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+      if (previous != null && range.first() <= previous.last() + 1) {
+        merged.set(merged.size() - 1, new ByteRange(previous.first(), Math.max(previous.last(), range.last())));
+      } else {
+        merged.add(range);
+      }
+    }
+    return merged;
+  }
+
+  private static long parseOffset(String value) {
+    if (value.isEmpty() || !value.chars().allMatch(Character::isDigit)) {
+      throw new NumberFormatException("Invalid range offset: " + value);
+    }
+    return Long.parseLong(value);
+  }
+}
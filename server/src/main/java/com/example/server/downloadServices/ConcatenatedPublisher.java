@@ -0,0 +1,239 @@
+package com.example.server.downloadServices;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Emits the buffers of several publishers one after another, as a single {@code Publisher<ByteBuffer>}.
+ *
+ * Each source is opened lazily (e.g. one ranged S3 GET) when the previous one completes, and downstream
+ * demand is carried over from one source to the next, so backpressure is preserved across sources.
+ * A failing source fails the whole stream. Single use: it can be subscribed to only once.
+ */
+public class ConcatenatedPublisher implements Publisher<ByteBuffer> {
+  private final Iterator<Supplier<CompletableFuture<? extends Publisher<ByteBuffer>>>> sources;
+
+  /**
+   * @param sources opens each source in order; called only when the previous source has completed
+   */
+  public ConcatenatedPublisher(List<Supplier<CompletableFuture<? extends Publisher<ByteBuffer>>>> sources) {
+    this.sources = sources.iterator();
+  }
+
+  /**
+   * Wraps a fixed buffer (e.g. a multipart boundary) as a source.
+   */
+  public static Supplier<CompletableFuture<? extends Publisher<ByteBuffer>>> ofBytes(byte[] bytes) {
+    return () -> CompletableFuture.completedFuture(singleBuffer(ByteBuffer.wrap(bytes)));
+  }
+
+  /**
+   * @return a publisher that emits the given buffer and completes
+   */
+  public static Publisher<ByteBuffer> singleBuffer(ByteBuffer byteBuffer) {
+    return buffers(List.of(byteBuffer));
+  }
+
+  /**
+   * @return a publisher that emits the given buffers in order, one per requested item, and completes
+   */
+  public static Publisher<ByteBuffer> buffers(List<ByteBuffer> byteBuffers) {
+    return subscriber -> subscriber.onSubscribe(new Subscription() {
+      private final Iterator<ByteBuffer> remaining = byteBuffers.iterator();
+
+      // Guarded by this
+      private long demand;
+      private boolean emitting;
+      private boolean done;
+
+      @Override
+      public void request(long n) {
+        synchronized (this) {
+          if (n <= 0 || done) {
+            return;
+          }
+          demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+          if (emitting) {
+            // The running loop below picks up the new demand, so a subscriber requesting from onNext does not recurse
+            return;
+          }
+          emitting = true;
+        }
+
+        while (true) {
+          ByteBuffer next;
+          synchronized (this) {
+            if (done) {
+              emitting = false;
+              return;
+            }
+            if (!remaining.hasNext()) {
+              done = true;
+              next = null;
+            } else if (demand == 0) {
+              emitting = false;
+              return;
+            } else {
+              demand--;
+              next = remaining.next();
+            }
+          }
+
+          if (next == null) {
+            subscriber.onComplete();
+            return;
+          }
+          subscriber.onNext(next);
+        }
+      }
+
+      @Override
+      public synchronized void cancel() {
+        done = true;
+      }
+    });
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super ByteBuffer> downstream) {
+    downstream.onSubscribe(new ConcatSubscription(downstream));
+  }
+
+  private final class ConcatSubscription implements Subscription, Subscriber<ByteBuffer> {
+    private final Subscriber<? super ByteBuffer> downstream;
+
+    // Guarded by this
+    private long demand;
+    private Subscription upstream;
+    private boolean started;
+    private boolean done;
+
+    private ConcatSubscription(Subscriber<? super ByteBuffer> downstream) {
+      this.downstream = downstream;
+    }
+
+    @Override
+    public void request(long n) {
+      if (n <= 0) {
+        cancel();
+        downstream.onError(new IllegalArgumentException("Requested " + n + " buffers"));
+        return;
+      }
+
+      Subscription current;
+      boolean startFirst = false;
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+        current = upstream;
+        if (current == null && !started) {
+          started = true;
+          startFirst = true;
+        }
+      }
+
+      // Outside the lock, since the source may emit synchronously
+      if (current != null) {
+        current.request(n);
+      } else if (startFirst) {
+        subscribeNext();
+      }
+    }
+
+    @Override
+    public void cancel() {
+      Subscription current;
+      synchronized (this) {
+        done = true;
+        current = upstream;
+        upstream = null;
+      }
+      if (current != null) {
+        current.cancel();
+      }
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      long outstanding;
+      synchronized (this) {
+        if (done) {
+          subscription.cancel();
+          return;
+        }
+        upstream = subscription;
+        outstanding = demand;
+      }
+      if (outstanding > 0) {
+        subscription.request(outstanding);
+      }
+    }
+
+    @Override
+    public void onNext(ByteBuffer byteBuffer) {
+      synchronized (this) {
+        demand--;
+      }
+      downstream.onNext(byteBuffer);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        done = true;
+        upstream = null;
+      }
+      downstream.onError(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      synchronized (this) {
+        upstream = null;
+      }
+      subscribeNext();
+    }
+
+    // Opens the next source, or completes the stream when there is none left
+    private void subscribeNext() {
+      boolean finished;
+      synchronized (this) {
+        if (done) {
+          return;
+        }
+        finished = !sources.hasNext();
+        done = finished;
+      }
+
+      if (finished) {
+        downstream.onComplete();
+        return;
+      }
+
+      try {
+        sources.next().get().whenComplete((publisher, ex) -> {
+          if (ex != null) {
+            onError(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+          } else {
+            publisher.subscribe(this);
+          }
+        });
+      } catch (RuntimeException e) {
+        onError(e);
+      }
+    }
+  }
+}
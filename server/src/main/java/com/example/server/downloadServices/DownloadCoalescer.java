@@ -0,0 +1,507 @@
+package com.example.server.downloadServices;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces concurrent full-object downloads of the same key onto one upstream S3 read.
+ *
+ * The first download of a key becomes the shared download. Downloads of the same key that arrive while
+ * it is running subscribe to it, and every buffer read from S3 is fanned out to all of them. Buffers are
+ * kept in a bounded replay buffer, so a client that joins late starts from byte 0 while the start of the
+ * object is still buffered. Once it has been dropped, the next download starts a new shared download.
+ *
+ * The upstream is read at the pace of the slowest client, but never more than {@code replayBufferBytes}
+ * ahead of it. If one client falls a whole buffer behind while others wait for data, that client leaves
+ * the shared download and continues with its own ranged GET from its current offset (pinned to the same ETag),
+ * so one slow connection cannot stall the herd.
+ */
+public class DownloadCoalescer {
+  private static final Logger logger = LoggerFactory.getLogger(DownloadCoalescer.class);
+  private final ConcurrentHashMap<String, SharedDownload> inFlight = new ConcurrentHashMap<>();
+  private final long replayBufferBytes;
+  private final ObjectSource source;
+
+  private final LongAdder upstreamDownloads = new LongAdder();
+  private final LongAdder coalescedDownloads = new LongAdder();
+  private final LongAdder laggardFallbacks = new LongAdder();
+
+  /**
+   * Where the coalescer reads objects from; S3 in the server, in-memory publishers in tests.
+   */
+  interface ObjectSource {
+    /**
+     * Starts reading the whole object.
+     */
+    CompletableFuture<ObjectBody> openFullObject(String fileName);
+
+    /**
+     * Starts reading the object from {@code offset} to its end, only if it still has the given ETag.
+     */
+    CompletableFuture<? extends Publisher<ByteBuffer>> openFrom(String fileName, long offset, String eTag);
+  }
+
+  private static final ObjectSource S3 = new ObjectSource() {
+    @Override
+    public CompletableFuture<ObjectBody> openFullObject(String fileName) {
+      return StreamServerDownloadService.openFullObject(fileName);
+    }
+
+    @Override
+    public CompletableFuture<? extends Publisher<ByteBuffer>> openFrom(String fileName, long offset, String eTag) {
+      return StreamServerDownloadService.openFrom(fileName, offset, eTag);
+    }
+  };
+
+  /**
+   * @param replayBufferBytes bytes kept per shared download for late joiners and slower clients
+   */
+  public DownloadCoalescer(long replayBufferBytes) {
+    this(replayBufferBytes, S3);
+  }
+
+  DownloadCoalescer(long replayBufferBytes, ObjectSource source) {
+    this.replayBufferBytes = replayBufferBytes;
+    this.source = source;
+  }
+
+  /**
+   * Opens a full-object download, joining an in-flight download of the same key when possible.
+   *
+   * @param fileName the key (object name)
+   * @return a future with this client's body
+   */
+  public CompletableFuture<ObjectBody> open(String fileName) {
+    while (true) {
+      SharedDownload existing = inFlight.get(fileName);
+      if (existing != null) {
+        Follower follower = existing.tryJoin();
+        if (follower != null) {
+          coalescedDownloads.increment();
+          return existing.body(follower);
+        }
+        // The start of the object is no longer buffered; start a new shared download
+        inFlight.remove(fileName, existing);
+        continue;
+      }
+
+      SharedDownload created = new SharedDownload(fileName);
+      Follower leader = created.tryJoin();
+      if (inFlight.putIfAbsent(fileName, created) == null) {
+        upstreamDownloads.increment();
+        created.start();
+        return created.body(leader);
+      }
+    }
+  }
+
+  /**
+   * @return downloads that opened their own upstream S3 read
+   */
+  public long upstreamDownloads() {
+    return upstreamDownloads.sum();
+  }
+
+  /**
+   * @return downloads served from another download's upstream read (S3 GETs saved)
+   */
+  public long coalescedDownloads() {
+    return coalescedDownloads.sum();
+  }
+
+  /**
+   * @return clients that fell too far behind and continued with their own ranged GET
+   */
+  public long laggardFallbacks() {
+    return laggardFallbacks.sum();
+  }
+
+  /**
+   * One upstream read of an object, fanned out to its followers.
+   */
+  private final class SharedDownload implements Subscriber<ByteBuffer> {
+    private final String fileName;
+    private final CompletableFuture<ObjectBody> opened = new CompletableFuture<>();
+
+    // Guarded by this
+    private final Map<Long, ByteBuffer> chunks = new HashMap<>(); // Buffered chunks by sequence number
+    private final List<Follower> followers = new ArrayList<>();
+    private long firstSeq; // Chunks firstSeq..nextSeq-1 are buffered
+    private long nextSeq;
+    private long bufferedBytes;
+    private long receivedBytes;
+    private boolean trimmed; // The start of the object has been dropped, so nobody can join any more
+    private boolean upstreamDone;
+    private boolean upstreamCancelled;
+    private boolean upstreamRequested;
+    private Throwable upstreamError;
+    private Subscription upstream;
+
+    private SharedDownload(String fileName) {
+      this.fileName = fileName;
+    }
+
+    private synchronized Follower tryJoin() {
+      if (trimmed || upstreamCancelled || upstreamError != null) {
+        return null;
+      }
+      Follower follower = new Follower(this);
+      followers.add(follower);
+      return follower;
+    }
+
+    private CompletableFuture<ObjectBody> body(Follower follower) {
+      return opened.thenApply(object -> new ObjectBody(object.size(), object.eTag(), follower, follower::cancel));
+    }
+
+    private void start() {
+      source.openFullObject(fileName).whenComplete((object, ex) -> {
+        if (ex != null) {
+          synchronized (this) {
+            upstreamError = StreamServerDownloadService.unwrap(ex);
+            followers.clear();
+          }
+          inFlight.remove(fileName, this);
+          opened.completeExceptionally(ex);
+          return;
+        }
+
+        opened.complete(object);
+        object.body().subscribe(this);
+      });
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      boolean cancel;
+      synchronized (this) {
+        upstream = subscription;
+        cancel = upstreamCancelled;
+      }
+      if (cancel) {
+        subscription.cancel();
+        return;
+      }
+      trimAndRequest();
+    }
+
+    @Override
+    public void onNext(ByteBuffer byteBuffer) {
+      synchronized (this) {
+        chunks.put(nextSeq++, byteBuffer);
+        bufferedBytes += byteBuffer.remaining();
+        receivedBytes += byteBuffer.remaining();
+        upstreamRequested = false;
+      }
+      drainAll();
+      trimAndRequest();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      synchronized (this) {
+        upstreamError = throwable;
+      }
+      inFlight.remove(fileName, this);
+      drainAll();
+    }
+
+    @Override
+    public void onComplete() {
+      synchronized (this) {
+        upstreamDone = true;
+      }
+      drainAll();
+      trimAndRequest();
+    }
+
+    private void drainAll() {
+      List<Follower> snapshot;
+      synchronized (this) {
+        snapshot = new ArrayList<>(followers);
+      }
+      for(Follower follower : snapshot) {
+        follower.drain();
+      }
+    }
+
+    /**
+     * Drops consumed chunks beyond the replay budget, detaches laggards, and requests the next chunk
+     * from S3 when the slowest follower is less than a buffer behind.
+     */
+    private void trimAndRequest() {
+      Subscription toRequest = null;
+      Subscription toCancel = null;
+      boolean unregister = false;
+      List<Follower> laggards = new ArrayList<>();
+
+      synchronized (this) {
+        if (followers.isEmpty()) {
+          // Everybody finished or left
+          unregister = true;
+          if (!upstreamDone && upstream != null && !upstreamCancelled) {
+            upstreamCancelled = true;
+            toCancel = upstream;
+          }
+        } else {
+          long minSeq = Long.MAX_VALUE;
+          long minOffset = Long.MAX_VALUE;
+          long maxOffset = 0;
+          for(Follower follower : followers) {
+            minSeq = Math.min(minSeq, follower.seq);
+            minOffset = Math.min(minOffset, follower.offset);
+            maxOffset = Math.max(maxOffset, follower.offset);
+          }
+
+          while (bufferedBytes > replayBufferBytes && firstSeq < minSeq) {
+            bufferedBytes -= chunks.remove(firstSeq++).remaining();
+            trimmed = true;
+          }
+          unregister = trimmed;
+
+          if (!upstreamDone && !upstreamRequested && upstream != null) {
+            boolean bufferFull = receivedBytes - minOffset >= replayBufferBytes;
+            if (bufferFull && maxOffset == receivedBytes) {
+              // Someone is waiting for data, held back by followers a whole buffer behind
+              for(Follower follower : followers) {
+                if (receivedBytes - follower.offset >= replayBufferBytes) {
+                  follower.detached = true;
+                  laggards.add(follower);
+                }
+              }
+              followers.removeAll(laggards);
+              bufferFull = false;
+            }
+
+            if (!bufferFull) {
+              upstreamRequested = true;
+              toRequest = upstream;
+            }
+          }
+        }
+      }
+
+      if (unregister) {
+        inFlight.remove(fileName, this);
+      }
+      if (toCancel != null) {
+        toCancel.cancel();
+        opened.getNow(null).abort().run();
+      }
+      for(Follower laggard : laggards) {
+        laggardFallbacks.increment();
+        laggard.fallBackToOwnGet();
+      }
+      if (toRequest != null) {
+        toRequest.request(1);
+      }
+    }
+  }
+
+  /**
+   * One client's view of a shared download.
+   */
+  private final class Follower implements Publisher<ByteBuffer>, Subscription {
+    private final SharedDownload shared;
+    private final AtomicInteger wip = new AtomicInteger();
+
+    // Guarded by shared
+    private Subscriber<? super ByteBuffer> downstream;
+    private Subscription ownUpstream; // Set after falling back to an own GET
+    private long demand;
+    private long seq;
+    private long offset;
+    private boolean detached;
+    private boolean done;
+
+    private Follower(SharedDownload shared) {
+      this.shared = shared;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+      synchronized (shared) {
+        downstream = subscriber;
+      }
+      subscriber.onSubscribe(this);
+    }
+
+    @Override
+    public void request(long n) {
+      Subscription own = null;
+      boolean fromShared;
+      synchronized (shared) {
+        if (done) {
+          return;
+        }
+        fromShared = !detached;
+        if (detached && ownUpstream != null) {
+          own = ownUpstream;
+        } else {
+          demand += n;
+        }
+      }
+
+      if (own != null) {
+        own.request(n);
+      } else if (fromShared) {
+        drain();
+        shared.trimAndRequest();
+      }
+    }
+
+    @Override
+    public void cancel() {
+      Subscription own;
+      synchronized (shared) {
+        if (done) {
+          return;
+        }
+        done = true;
+        shared.followers.remove(this);
+        own = ownUpstream;
+      }
+      if (own != null) {
+        own.cancel();
+      }
+      shared.trimAndRequest();
+    }
+
+    // Delivers buffered chunks up to the current demand; runs on one thread at a time
+    private void drain() {
+      if (wip.getAndIncrement() != 0) {
+        return;
+      }
+
+      int missed = 1;
+      do {
+        while (true) {
+          ByteBuffer next = null;
+          Throwable error = null;
+          boolean complete = false;
+
+          synchronized (shared) {
+            if (done || detached || downstream == null) {
+              break;
+            }
+
+            ByteBuffer chunk = shared.chunks.get(seq);
+            if (chunk != null && demand > 0) {
+              next = chunk.duplicate();
+              seq++;
+              offset += next.remaining();
+              demand--;
+            } else if (chunk == null && shared.upstreamError != null) {
+              error = shared.upstreamError;
+            } else if (chunk == null && shared.upstreamDone && seq == shared.nextSeq) {
+              complete = true;
+            } else {
+              break;
+            }
+
+            if (error != null || complete) {
+              done = true;
+              shared.followers.remove(this);
+            }
+          }
+
+          if (next != null) {
+            downstream.onNext(next);
+          } else if (error != null) {
+            downstream.onError(error);
+            break;
+          } else {
+            downstream.onComplete();
+            shared.trimAndRequest();
+            break;
+          }
+        }
+        missed = wip.addAndGet(-missed);
+      } while (missed != 0);
+    }
+
+    // Continues this client with its own ranged GET from the first byte it has not received
+    private void fallBackToOwnGet() {
+      ObjectBody object = shared.opened.getNow(null);
+      long from;
+      synchronized (shared) {
+        from = offset;
+      }
+
+      logger.info("[Coalescing]  Slow client left shared download | Key: {} | Offset: {}", shared.fileName, from);
+
+      if (from >= object.size()) {
+        finish(null);
+        return;
+      }
+
+      source.openFrom(shared.fileName, from, object.eTag()).whenComplete((publisher, ex) -> {
+        if (ex != null) {
+          finish(StreamServerDownloadService.unwrap(ex));
+          return;
+        }
+
+        publisher.subscribe(new Subscriber<ByteBuffer>() {
+          @Override
+          public void onSubscribe(Subscription subscription) {
+            long pending;
+            boolean cancelled;
+            synchronized (shared) {
+              cancelled = done;
+              ownUpstream = subscription;
+              pending = demand;
+              demand = 0;
+            }
+            if (cancelled) {
+              subscription.cancel();
+            } else if (pending > 0) {
+              subscription.request(pending);
+            }
+          }
+
+          @Override
+          public void onNext(ByteBuffer byteBuffer) {
+            downstream.onNext(byteBuffer);
+          }
+
+          @Override
+          public void onError(Throwable throwable) {
+            finish(throwable);
+          }
+
+          @Override
+          public void onComplete() {
+            finish(null);
+          }
+        });
+      });
+    }
+
+    private void finish(Throwable error) {
+      synchronized (shared) {
+        if (done) {
+          return;
+        }
+        done = true;
+      }
+      if (error != null) {
+        downstream.onError(error);
+      } else {
+        downstream.onComplete();
+      }
+    }
+  }
+}
@@ -0,0 +1,264 @@
+package com.example.server.downloadServices;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passes a {@code Publisher<ByteBuffer>} through unchanged while copying every buffer into a file.
+ *
+ * Used to fill the hot-object cache from a download that is already going to a client, so filling the
+ * cache costs no extra S3 request. The file is only handed over when the whole object was written;
+ * on an error, a cancel or a short body it is deleted. A failing disk never affects the client stream.
+ *
+ * The signals arrive on the event loop, so the file is never touched there: every buffer is queued to a
+ * {@link Writer} thread shared by all fills. When the writer is behind by more than its queue allows, the fill
+ * is abandoned instead of slowing the client down.
+ */
+public class FileTeePublisher implements Publisher<ByteBuffer> {
+  private static final Logger logger = LoggerFactory.getLogger(FileTeePublisher.class);
+  private final Publisher<ByteBuffer> upstream;
+  private final Path file;
+  private final long expectedSize;
+  private final Writer writer;
+  private final Consumer<Path> onFilled;
+  private final Runnable onAbandoned;
+
+  /**
+   * Single thread that does the file I/O of all fills, in the order it was queued.
+   */
+  public static final class Writer {
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+      Thread thread = new Thread(r, "cache-fill-writer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    private final long maxQueuedBytes;
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final LongAdder droppedFills = new LongAdder();
+
+    /**
+     * @param maxQueuedBytes bytes of buffers that may wait to be written before new fills are dropped
+     */
+    public Writer(long maxQueuedBytes) {
+      this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    // Queues a write of the given size; returns false, and counts a dropped fill, if the queue is full
+    private boolean tryWrite(long bytes, Runnable write) {
+      if (queuedBytes.addAndGet(bytes) > maxQueuedBytes) {
+        queuedBytes.addAndGet(-bytes);
+        droppedFills.increment();
+        return false;
+      }
+      try {
+        executor.execute(() -> {
+          try {
+            write.run();
+          } finally {
+            queuedBytes.addAndGet(-bytes);
+          }
+        });
+        return true;
+      } catch (RejectedExecutionException e) {
+        queuedBytes.addAndGet(-bytes);
+        return false;
+      }
+    }
+
+    // Opening, finishing and deleting files are always queued, so they run after the writes queued before them
+    private void run(Runnable task) {
+      try {
+        executor.execute(task);
+      } catch (RejectedExecutionException e) {
+        // Shut down: the server is stopping and the cache directory is emptied at the next start
+      }
+    }
+
+    /**
+     * @return bytes of buffers waiting to be written
+     */
+    public long queuedBytes() {
+      return queuedBytes.get();
+    }
+
+    /**
+     * @return fills abandoned because the writer was too far behind
+     */
+    public long droppedFills() {
+      return droppedFills.sum();
+    }
+
+    public void close() {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @param upstream     the body being sent to the client
+   * @param file         file to copy the body into
+   * @param expectedSize size of the complete body
+   * @param writer       thread the file is written on
+   * @param onFilled     called on the writer with the file once the complete body is written
+   * @param onAbandoned  called on the writer after the file was deleted because the copy is incomplete
+   */
+  public FileTeePublisher(Publisher<ByteBuffer> upstream, Path file, long expectedSize, Writer writer, Consumer<Path> onFilled, Runnable onAbandoned) {
+    this.upstream = upstream;
+    this.file = file;
+    this.expectedSize = expectedSize;
+    this.writer = writer;
+    this.onFilled = onFilled;
+    this.onAbandoned = onAbandoned;
+  }
+
+  @Override
+  public void subscribe(Subscriber<? super ByteBuffer> downstream) {
+    upstream.subscribe(new Subscriber<ByteBuffer>() {
+      // Set once the fill is either finishing or abandoned; later buffers are not queued
+      private final AtomicBoolean finished = new AtomicBoolean();
+      private volatile boolean abandoned;
+      // Only used on the writer thread
+      private FileChannel channel;
+      private long written;
+
+      @Override
+      public void onSubscribe(Subscription subscription) {
+        writer.run(this::open);
+
+        downstream.onSubscribe(new Subscription() {
+          @Override
+          public void request(long n) {
+            subscription.request(n);
+          }
+
+          @Override
+          public void cancel() {
+            subscription.cancel();
+            abandon();
+          }
+        });
+      }
+
+      @Override
+      public void onNext(ByteBuffer byteBuffer) {
+        if (!finished.get()) {
+          // Write a view so the client still gets the buffer at its original position
+          ByteBuffer copy = byteBuffer.duplicate();
+          if (!writer.tryWrite(copy.remaining(), () -> write(copy))) {
+            abandon();
+          }
+        }
+        downstream.onNext(byteBuffer);
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        abandon();
+        downstream.onError(throwable);
+      }
+
+      @Override
+      public void onComplete() {
+        if (finished.compareAndSet(false, true)) {
+          writer.run(this::finish);
+        }
+        downstream.onComplete();
+      }
+
+      private void abandon() {
+        if (finished.compareAndSet(false, true)) {
+          abandoned = true;
+          writer.run(this::discard);
+        }
+      }
+
+      // The methods below run on the writer thread
+
+      private void open() {
+        try {
+          channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+          failed();
+        }
+      }
+
+      private void write(ByteBuffer data) {
+        if (abandoned || channel == null) {
+          return;
+        }
+        try {
+          while (data.hasRemaining()) {
+            written += channel.write(data);
+          }
+        } catch (IOException e) {
+          failed();
+        }
+      }
+
+      private void finish() {
+        if (channel == null || written != expectedSize) {
+          discard();
+          return;
+        }
+        try {
+          channel.close();
+          onFilled.accept(file);
+        } catch (IOException e) {
+          deleteQuietly();
+          onAbandoned.run();
+        }
+      }
+
+      // A disk error: discarded now if the stream is still running, otherwise by the queued finish
+      private void failed() {
+        if (finished.compareAndSet(false, true)) {
+          abandoned = true;
+          discard();
+        } else {
+          closeQuietly();
+        }
+      }
+
+      private void discard() {
+        closeQuietly();
+        deleteQuietly();
+        onAbandoned.run();
+      }
+
+      private void closeQuietly() {
+        try {
+          if (channel != null) {
+            channel.close();
+          }
+        } catch (IOException e) {
+          // Deleted either way
+        }
+        channel = null;
+      }
+    });
+  }
+
+  private void deleteQuietly() {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      logger.warn("[HotCache]  Failed to delete incomplete cache file {}: {}", file, e.getMessage());
+    }
+  }
+}
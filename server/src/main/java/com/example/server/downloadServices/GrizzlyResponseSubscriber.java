@@ -0,0 +1,165 @@
+package com.example.server.downloadServices;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.glassfish.grizzly.WriteHandler;
+import org.glassfish.grizzly.http.io.NIOOutputStream;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.memory.Buffers;
+import org.glassfish.grizzly.memory.MemoryManager;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.example.server.limitUtil.BandwidthScheduler;
+
+/**
+ * Writes a {@code Publisher<ByteBuffer>} to a suspended Grizzly response without blocking any thread.
+ *
+ * Demand is driven by the connection: one buffer is requested at a time, and only while Grizzly's
+ * non-blocking output can accept more data. When the client reads slowly, the subscriber waits for
+ * {@link NIOOutputStream#notifyCanWrite} instead of requesting more, so at most one buffer per
+ * download is queued on the server regardless of the object size.
+ *
+ * With a {@link BandwidthScheduler} the download is also paced to the client's fair share: after each buffer
+ * the next request is delayed by the pause the client's token bucket asks for, on the scheduler's timer
+ * rather than a blocked thread.
+ *
+ * The status and headers must be set on the response before subscribing. The response is resumed
+ * (finished) when the publisher completes or fails.
+ */
+public class GrizzlyResponseSubscriber implements Subscriber<ByteBuffer> {
+  private final Response response;
+  private final NIOOutputStream outputStream;
+  private final BandwidthScheduler.Transfer transfer;
+  private final CompletableFuture<Long> completion = new CompletableFuture<>();
+  private final AtomicBoolean done = new AtomicBoolean();
+
+  private volatile Subscription subscription;
+  private volatile long bytesWritten;
+
+  /**
+   * @param response a suspended Grizzly response whose headers are already set
+   */
+  public GrizzlyResponseSubscriber(Response response) {
+    this(response, null);
+  }
+
+  /**
+   * @param response  a suspended Grizzly response whose headers are already set
+   * @param bandwidth paces the download to the requesting client's share, or null for no pacing
+   */
+  public GrizzlyResponseSubscriber(Response response, BandwidthScheduler bandwidth) {
+    this.response = response;
+    this.outputStream = response.getNIOOutputStream();
+    this.transfer = bandwidth != null ? bandwidth.open(clientId(bandwidth, response.getRequest())) : null;
+  }
+
+  // The id the request is scheduled under: a listed X-Client-Id, or the remote address
+  private static String clientId(BandwidthScheduler bandwidth, Request request) {
+    return bandwidth.clientId(request.getHeader(BandwidthScheduler.CLIENT_ID_HEADER), request.getRemoteAddr());
+  }
+
+  /**
+   * @return a future completed with the number of bytes written, or exceptionally if the transfer failed
+   */
+  public CompletableFuture<Long> completion() {
+    return completion;
+  }
+
+  @Override
+  public void onSubscribe(Subscription subscription) {
+    this.subscription = subscription;
+    requestWhenWritable();
+  }
+
+  @Override
+  public void onNext(ByteBuffer byteBuffer) {
+    try {
+      int length = byteBuffer.remaining();
+      bytesWritten += length;
+      outputStream.write(Buffers.wrap(MemoryManager.DEFAULT_MEMORY_MANAGER, byteBuffer));
+
+      long pauseNanos = transfer != null ? transfer.consume(length) : 0;
+      if (pauseNanos > 0) {
+        // Over the client's share: ask for the next buffer once the bucket has refilled
+        transfer.schedule(() -> {
+          if (!done.get()) {
+            requestWhenWritable();
+          }
+        }, pauseNanos);
+      } else {
+        requestWhenWritable();
+      }
+    } catch (IOException e) {
+      // Client went away; stop reading from S3
+      subscription.cancel();
+      fail(e);
+    }
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    fail(throwable);
+  }
+
+  @Override
+  public void onComplete() {
+    if (done.compareAndSet(false, true)) {
+      try {
+        outputStream.close();
+      } catch (IOException e) {
+        // The response is finished below either way
+      }
+      closeTransfer();
+      response.resume();
+      completion.complete(bytesWritten);
+    }
+  }
+
+  // Request the next buffer now if the connection can take it, otherwise once it drains
+  private void requestWhenWritable() {
+    if (outputStream.canWrite()) {
+      subscription.request(1);
+      return;
+    }
+
+    outputStream.notifyCanWrite(new WriteHandler() {
+      @Override
+      public void onWritePossible() {
+        subscription.request(1);
+      }
+
+      @Override
+      public void onError(Throwable throwable) {
+        subscription.cancel();
+        fail(throwable);
+      }
+    });
+  }
+
+  private void fail(Throwable throwable) {
+    if (done.compareAndSet(false, true)) {
+      if (!response.isCommitted()) {
+        // Nothing sent yet, so the client can still get a proper error status
+        response.reset();
+        response.setStatus(502, "Bad Gateway");
+      } else {
+        // Headers (and Content-Length) already sent; drop the connection so the client sees a truncated body
+        response.getRequest().getContext().getConnection().closeSilently();
+      }
+      closeTransfer();
+      response.resume();
+      completion.completeExceptionally(throwable);
+    }
+  }
+
+  private void closeTransfer() {
+    if (transfer != null) {
+      transfer.close();
+    }
+  }
+}
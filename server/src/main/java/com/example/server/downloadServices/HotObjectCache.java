@@ -0,0 +1,381 @@
+package com.example.server.downloadServices;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import org.glassfish.grizzly.CompletionHandler;
+import org.glassfish.grizzly.WriteResult;
+import org.glassfish.grizzly.http.server.Response;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.server.Main;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+
+/**
+ * Local cache of hot objects for stream-via-server downloads: a disk tier plus an optional off-heap memory tier.
+ *
+ * Admission is frequency aware: an object is only written to disk once it has been requested
+ * {@value #ADMIT_AFTER_REQUESTS} times recently (a doorkeeper in front of the cache), so one-off downloads
+ * never churn the disk. Among cached objects, Caffeine's W-TinyLFU policy evicts by size and frequency
+ * once the byte budget is reached, keeping the small hot set resident.
+ *
+ * The cache is filled from a download that is already streaming to a client (see {@link FileTeePublisher}),
+ * so filling it costs no extra S3 request. The files are written on one writer thread; a fill that falls more than
+ * {@code maxFillQueueBytes} behind the client is dropped. A cached copy older than {@code revalidateAfter} is checked
+ * against the object's current ETag with a HEAD before it is served; a changed object is evicted.
+ *
+ * Hits are written with Grizzly's sendfile (FileChannel.transferTo), so the bytes go from the page cache
+ * to the socket without being copied through the JVM. Small objects can also be held in direct memory.
+ * Only full-object downloads are served from the cache; Range requests always go to S3.
+ */
+public class HotObjectCache {
+  private static final Logger logger = LoggerFactory.getLogger(HotObjectCache.class);
+  private static final int ADMIT_AFTER_REQUESTS = 2;
+  private static final long MEMORY_TIER_MAX_OBJECT_BYTES = 1024 * 1024;
+
+  /**
+   * A cached object on disk.
+   */
+  public static final class CachedObject {
+    private final Path file;
+    private final long size;
+    private final String eTag;
+    private volatile long validatedAtNanos;
+
+    private CachedObject(Path file, long size, String eTag) {
+      this.file = file;
+      this.size = size;
+      this.eTag = eTag;
+      this.validatedAtNanos = System.nanoTime();
+    }
+
+    public long size() {
+      return size;
+    }
+
+    public String eTag() {
+      return eTag;
+    }
+  }
+
+  private record MemoryEntry(String eTag, ByteBuffer data) {
+  }
+
+  private final Path directory;
+  private final long maxObjectBytes;
+  private final Duration revalidateAfter;
+  private final S3AsyncClient s3AsyncClient;
+  private final String bucketName;
+
+  private final Cache<String, CachedObject> diskTier;
+  private final Cache<String, MemoryEntry> memoryTier;
+  private final Cache<String, LongAdder> doorkeeper;
+  private final Set<String> filling = ConcurrentHashMap.newKeySet();
+  private final FileTeePublisher.Writer fillWriter;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder bytesSaved = new LongAdder();
+  private final LongAdder admissions = new LongAdder();
+  private final LongAdder diskBytes = new LongAdder();
+
+  /**
+   * @param directory         directory for cached files (local NVMe); emptied at startup
+   * @param maxDiskBytes      byte budget of the disk tier
+   * @param maxMemoryBytes    byte budget of the off-heap memory tier, 0 to disable it
+   * @param maxObjectBytes    larger objects are never cached
+   * @param maxFillQueueBytes bytes of downloaded data that may wait to be written to disk
+   * @param revalidateAfter   cached copies older than this are checked against S3 before being served
+   * @param s3AsyncClient     client used for the ETag checks
+   * @param bucketName        the bucket the downloads come from
+   */
+  public HotObjectCache(Path directory, long maxDiskBytes, long maxMemoryBytes, long maxObjectBytes, long maxFillQueueBytes, Duration revalidateAfter, S3AsyncClient s3AsyncClient, String bucketName) throws IOException {
+    this.directory = directory;
+    this.maxObjectBytes = maxObjectBytes;
+    this.revalidateAfter = revalidateAfter;
+    this.s3AsyncClient = s3AsyncClient;
+    this.bucketName = bucketName;
+    this.fillWriter = new FileTeePublisher.Writer(maxFillQueueBytes);
+
+    // The index lives in memory only, so files from an earlier run are unusable
+    Files.createDirectories(directory);
+    try (Stream<Path> leftovers = Files.list(directory)) {
+      leftovers.forEach(HotObjectCache::deleteQuietly);
+    }
+
+    this.diskTier = Caffeine.newBuilder() //
+      .maximumWeight(Math.max(1, maxDiskBytes / 1024)) //
+      .weigher((String key, CachedObject cached) -> weightInKb(cached.size)) //
+      .removalListener((String key, CachedObject cached, RemovalCause cause) -> {
+        if (cached != null) {
+          diskBytes.add(-cached.size);
+          deleteQuietly(cached.file);
+        }
+      }) //
+      .build();
+
+    this.memoryTier = maxMemoryBytes <= 0 ? null : Caffeine.newBuilder() //
+      .maximumWeight(Math.max(1, maxMemoryBytes / 1024)) //
+      .weigher((String key, MemoryEntry entry) -> weightInKb(entry.data.capacity())) //
+      .build();
+
+    // Recent request counts per key, for admission
+    this.doorkeeper = Caffeine.newBuilder() //
+      .maximumSize(100_000) //
+      .expireAfterWrite(Duration.ofMinutes(10)) //
+      .build();
+  }
+
+  /**
+   * Looks up a cached copy, revalidating its ETag when it is older than {@code revalidateAfter}.
+   * Also counts the request towards admission.
+   *
+   * @return a future with the cached object, or null on a miss (never completes exceptionally)
+   */
+  public CompletableFuture<CachedObject> lookup(String key) {
+    doorkeeper.get(key, k -> new LongAdder()).increment();
+
+    CachedObject cached = diskTier.getIfPresent(key);
+    if (cached == null) {
+      misses.increment();
+      return CompletableFuture.completedFuture(null);
+    }
+
+    if (System.nanoTime() - cached.validatedAtNanos < revalidateAfter.toNanos()) {
+      hits.increment();
+      return CompletableFuture.completedFuture(cached);
+    }
+
+    return Main.getS3Limiters().track("HeadObject", () -> s3AsyncClient.headObject(HeadObjectRequest.builder().bucket(bucketName).key(key).build())).handle((head, ex) -> {
+      if (ex == null && cached.eTag.equals(head.eTag())) {
+        cached.validatedAtNanos = System.nanoTime();
+        hits.increment();
+        return cached;
+      }
+
+      if (ex == null) {
+        // The object changed in S3; drop the stale copy
+        diskTier.asMap().remove(key, cached);
+        if (memoryTier != null) {
+          memoryTier.invalidate(key);
+        }
+      }
+      misses.increment();
+      return null;
+    });
+  }
+
+  /**
+   * @return true if a copy of the key is cached, without revalidating it or counting a lookup
+   */
+  public boolean contains(String key) {
+    return diskTier.asMap().containsKey(key);
+  }
+
+  /**
+   * Writes a cached object as the response body. Status and headers must already be set.
+   *
+   * @return a future completed with the number of bytes sent
+   */
+  public CompletableFuture<Long> serve(String key, CachedObject cached, Response response) {
+    CompletableFuture<Long> completion;
+
+    MemoryEntry memory = memoryTier != null ? memoryTier.getIfPresent(key) : null;
+    if (memory != null && memory.eTag.equals(cached.eTag)) {
+      completion = writeBuffer(memory.data.duplicate(), response);
+    } else if (response.getOutputBuffer().isSendfileEnabled()) {
+      completion = sendfile(cached, response);
+    } else {
+      completion = writeMapped(cached, response);
+    }
+
+    return completion.whenComplete((bytes, ex) -> {
+      if (ex == null) {
+        bytesSaved.add(bytes);
+      }
+    });
+  }
+
+  /**
+   * Wraps a download body so that it also fills the cache, if the object qualifies for admission:
+   * requested often enough recently, not too large, and not already being filled by another download.
+   *
+   * @return the body, unchanged for the client
+   */
+  public Publisher<ByteBuffer> fillOnMiss(String key, String eTag, long size, Publisher<ByteBuffer> body) {
+    LongAdder requests = doorkeeper.getIfPresent(key);
+    if (eTag == null || size > maxObjectBytes || requests == null || requests.sum() < ADMIT_AFTER_REQUESTS || !filling.add(key)) {
+      return body;
+    }
+
+    Path tempFile = directory.resolve(UUID.randomUUID() + ".tmp");
+    return new FileTeePublisher(body, tempFile, size, fillWriter, file -> admit(key, eTag, size, file), () -> filling.remove(key));
+  }
+
+  // Moves a completely written file into the cache
+  private void admit(String key, String eTag, long size, Path tempFile) {
+    try {
+      Path file = directory.resolve(UUID.randomUUID().toString());
+      Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+
+      diskBytes.add(size);
+      diskTier.put(key, new CachedObject(file, size, eTag));
+      admissions.increment();
+
+      if (memoryTier != null && size <= MEMORY_TIER_MAX_OBJECT_BYTES) {
+        memoryTier.put(key, new MemoryEntry(eTag, readDirect(file, size)));
+      }
+
+      logger.debug("[HotCache]  Cached | Key: {} | Bytes: {}", key, size);
+    } catch (IOException e) {
+      deleteQuietly(tempFile);
+      logger.warn("[HotCache]  Failed to cache {}: {}", key, e.getMessage());
+    } finally {
+      filling.remove(key);
+    }
+  }
+
+  // Zero-copy write from the file to the socket
+  private CompletableFuture<Long> sendfile(CachedObject cached, Response response) {
+    CompletableFuture<Long> completion = new CompletableFuture<>();
+    File file = cached.file.toFile();
+
+    response.getOutputBuffer().sendfile(file, 0, cached.size, new CompletionHandler<WriteResult>() {
+      @Override
+      public void cancelled() {
+        failed(new IOException("sendfile cancelled"));
+      }
+
+      @Override
+      public void failed(Throwable throwable) {
+        response.getRequest().getContext().getConnection().closeSilently();
+        response.resume();
+        completion.completeExceptionally(throwable);
+      }
+
+      @Override
+      public void completed(WriteResult result) {
+        response.resume();
+        completion.complete(cached.size);
+      }
+
+      @Override
+      public void updated(WriteResult result) {
+      }
+    });
+    return completion;
+  }
+
+  // Used when sendfile is not available: the mapped file is written without copying it onto the heap
+  private CompletableFuture<Long> writeMapped(CachedObject cached, Response response) {
+    try (FileChannel channel = FileChannel.open(cached.file, StandardOpenOption.READ)) {
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, cached.size);
+      return writeBuffer(mapped, response);
+    } catch (IOException e) {
+      response.getRequest().getContext().getConnection().closeSilently();
+      response.resume();
+      return CompletableFuture.failedFuture(e);
+    }
+  }
+
+  private static CompletableFuture<Long> writeBuffer(ByteBuffer data, Response response) {
+    GrizzlyResponseSubscriber subscriber = new GrizzlyResponseSubscriber(response, Main.getDownloadBandwidth());
+    ConcatenatedPublisher.singleBuffer(data).subscribe(subscriber);
+    return subscriber.completion();
+  }
+
+  private static ByteBuffer readDirect(Path file, long size) throws IOException {
+    ByteBuffer data = ByteBuffer.allocateDirect((int)size);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      while (data.hasRemaining() && channel.read(data) >= 0) {
+        // Keep reading until the buffer is full
+      }
+    }
+    return data.flip();
+  }
+
+  private static int weightInKb(long bytes) {
+    return (int)Math.min(Integer.MAX_VALUE, bytes / 1024 + 1);
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      logger.warn("[HotCache]  Failed to delete cache file {}: {}", file, e.getMessage());
+    }
+  }
+
+  /**
+   * @return share of full-object downloads served from the cache
+   */
+  public double hitRatio() {
+    long total = hits.sum() + misses.sum();
+    return total == 0 ? 0 : (double)hits.sum() / total;
+  }
+
+  public long hits() {
+    return hits.sum();
+  }
+
+  public long misses() {
+    return misses.sum();
+  }
+
+  /**
+   * @return bytes sent to clients from the cache instead of from S3
+   */
+  public long bytesSaved() {
+    return bytesSaved.sum();
+  }
+
+  public long admissions() {
+    return admissions.sum();
+  }
+
+  /**
+   * @return bytes currently held in the disk tier
+   */
+  public long diskBytes() {
+    return diskBytes.sum();
+  }
+
+  /**
+   * @return fills dropped because writing them to disk fell too far behind the download
+   */
+  public long droppedFills() {
+    return fillWriter.droppedFills();
+  }
+
+  /**
+   * @return downloaded bytes waiting to be written to disk
+   */
+  public long fillQueueBytes() {
+    return fillWriter.queuedBytes();
+  }
+
+  public void close() {
+    fillWriter.close();
+  }
+}
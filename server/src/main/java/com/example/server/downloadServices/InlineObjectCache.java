@@ -0,0 +1,150 @@
+package com.example.server.downloadServices;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.example.server.Main;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+/**
+ * Bodies of tiny objects, returned inline by the presign method instead of a URL. For an object of a few KB a URL
+ * costs the client a second round trip (to S3) to fetch fewer bytes than the JSON around the URL.
+ *
+ * A miss is one ranged GET for the first {@code maxObjectBytes}: its Content-Range gives the object size, so a small
+ * object is fetched whole in the same round trip that finds out it is small. Larger objects are remembered as such,
+ * so they cost one short read per expiry period and are answered with a URL as before.
+ *
+ * Missing or forbidden objects (404/403) are remembered the same way, so repeated requests for a key that does not
+ * exist cost one GET per expiry period rather than one per request.
+ *
+ * Entries expire after {@code ttl}, so an overwritten object is served stale for at most that long.
+ */
+public class InlineObjectCache {
+
+  /**
+   * A looked-up object: its body if it is small enough to inline, otherwise null. The size is -1 if the object
+   * could not be read (404/403).
+   */
+  private record Entry(byte[] body, long size) {
+    private static final Entry UNAVAILABLE = new Entry(null, -1);
+
+    boolean unavailable() {
+      return size < 0;
+    }
+  }
+
+  private final long maxObjectBytes;
+  private final S3AsyncClient s3AsyncClient;
+  private final String bucketName;
+  private final AsyncLoadingCache<String, Entry> entries;
+
+  private final LongAdder inlined = new LongAdder();
+  private final LongAdder tooLarge = new LongAdder();
+  private final LongAdder unavailable = new LongAdder();
+
+  /**
+   * @param maxObjectBytes objects up to this size are inlined
+   * @param maxCacheBytes  byte budget of the cached bodies
+   * @param ttl            how long a body (or the knowledge that an object is too large or unavailable) is kept
+   * @param s3AsyncClient  client used for the GETs
+   * @param bucketName     the bucket the downloads come from
+   */
+  public InlineObjectCache(long maxObjectBytes, long maxCacheBytes, Duration ttl, S3AsyncClient s3AsyncClient, String bucketName) {
+    this.maxObjectBytes = maxObjectBytes;
+    this.s3AsyncClient = s3AsyncClient;
+    this.bucketName = bucketName;
+    this.entries = Caffeine.newBuilder() //
+      .maximumWeight(Math.max(1, maxCacheBytes / 1024)) //
+      .weigher((String key, Entry entry) -> entry.body() == null ? 1 : entry.body().length / 1024 + 1) //
+      .expireAfterWrite(ttl) //
+      .buildAsync((key, executor) -> load(key));
+  }
+
+  /**
+   * @return a future with the object's body if it is small enough to inline, or null if it is larger or could not be
+   *         read (the caller then falls back to a URL, which reports errors such as 404 itself); never completes exceptionally
+   */
+  public CompletableFuture<byte[]> lookup(String key) {
+    return entries.get(key).handle((entry, ex) -> {
+      if (ex != null) {
+        return null;
+      }
+      if (entry.unavailable()) {
+        unavailable.increment();
+        return null;
+      }
+      if (entry.body() == null) {
+        tooLarge.increment();
+        return null;
+      }
+      inlined.increment();
+      return entry.body();
+    });
+  }
+
+  public long maxObjectBytes() {
+    return maxObjectBytes;
+  }
+
+  public long inlinedCount() {
+    return inlined.sum();
+  }
+
+  public long tooLargeCount() {
+    return tooLarge.sum();
+  }
+
+  /**
+   * @return lookups answered from a cached 404/403
+   */
+  public long unavailableCount() {
+    return unavailable.sum();
+  }
+
+  private CompletableFuture<Entry> load(String key) {
+    GetObjectRequest request = GetObjectRequest.builder() //
+      .bucket(bucketName) //
+      .key(key) //
+      .range("bytes=0-" + (maxObjectBytes - 1)) //
+      .build();
+
+    return Main.getS3Limiters().callTransfer("GetObject", () -> s3AsyncClient.getObject(request, AsyncResponseTransformer.toBytes())) //
+      .handle((bytes, ex) -> {
+        if (ex == null) {
+          long size = objectSize(bytes);
+          return size <= maxObjectBytes ? new Entry(bytes.asByteArrayUnsafe(), size) : new Entry(null, size);
+        }
+        // S3 answers a range on an empty object with 416
+        S3Exception s3Error = ex.getCause() instanceof S3Exception ? (S3Exception)ex.getCause() : ex instanceof S3Exception ? (S3Exception)ex : null;
+        if (s3Error != null && s3Error.statusCode() == 416) {
+          return new Entry(new byte[0], 0);
+        }
+        // Missing or forbidden: the URL the caller falls back to reports the error to the client
+        if (s3Error != null && (s3Error.statusCode() == 404 || s3Error.statusCode() == 403)) {
+          return Entry.UNAVAILABLE;
+        }
+        throw ex instanceof RuntimeException ? (RuntimeException)ex : new RuntimeException(ex);
+      });
+  }
+
+  // The total after the slash of "bytes 0-1023/52428800", or the length of a response that was not ranged
+  private static long objectSize(ResponseBytes<GetObjectResponse> bytes) {
+    String contentRange = bytes.response().contentRange();
+    if (contentRange != null && contentRange.indexOf('/') > 0) {
+      String total = contentRange.substring(contentRange.indexOf('/') + 1).trim();
+      if (!"*".equals(total)) {
+        return Long.parseLong(total);
+      }
+    }
+    return bytes.asByteArrayUnsafe().length;
+  }
+}
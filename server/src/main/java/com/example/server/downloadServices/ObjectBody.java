@@ -0,0 +1,16 @@
+package com.example.server.downloadServices;
+
+import java.nio.ByteBuffer;
+
+import org.reactivestreams.Publisher;
+
+/**
+ * The body of a full-object download that is ready to be sent.
+ *
+ * @param size  total object size (the Content-Length)
+ * @param eTag  ETag of the object
+ * @param body  the object's bytes, in order
+ * @param abort releases upstream work (e.g. parts fetched ahead) when the body is not read to the end
+ */
+public record ObjectBody(long size, String eTag, Publisher<ByteBuffer> body, Runnable abort) {
+}
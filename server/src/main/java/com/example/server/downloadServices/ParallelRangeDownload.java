@@ -0,0 +1,193 @@
+package com.example.server.downloadServices;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import com.example.server.Main;
+
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+/**
+ * Downloads one large object as concurrent ranged GETs and emits the parts in order.
+ *
+ * The object is split into parts of {@code partSize} bytes. The first part is streamed straight from its GET,
+ * while the following parts are fetched ahead. At most {@code parallelism} parts are in flight or buffered at
+ * any time (the reorder window): a new part is only started when the client has consumed one, so memory per
+ * download stays around {@code parallelism * partSize} however large the object is and however slowly the
+ * client reads. Every ranged GET is pinned to the first part's ETag, so the parts always belong to one version.
+ *
+ * A buffered part keeps the buffers the SDK received, instead of copying them into one growing byte array.
+ */
+public class ParallelRangeDownload {
+  private final S3AsyncClient s3AsyncClient;
+  private final String bucketName;
+  private final String fileName;
+  private final String eTag;
+  private final long size;
+  private final long partSize;
+  private final int parallelism;
+  private final int partCount;
+
+  // Guarded by this
+  private final List<CompletableFuture<List<ByteBuffer>>> parts = new ArrayList<>();
+  private int nextToStart = 1;
+  private boolean cancelled;
+
+  /**
+   * @param s3AsyncClient client used for the ranged GETs
+   * @param bucketName    the name of the S3 bucket
+   * @param fileName      the key (object name)
+   * @param eTag          ETag of the object, taken from the first part's response
+   * @param size          total object size
+   * @param partSize      bytes per ranged GET
+   * @param parallelism   maximum number of parts in flight or buffered
+   */
+  public ParallelRangeDownload(S3AsyncClient s3AsyncClient, String bucketName, String fileName, String eTag, long size, long partSize, int parallelism) {
+    this.s3AsyncClient = s3AsyncClient;
+    this.bucketName = bucketName;
+    this.fileName = fileName;
+    this.eTag = eTag;
+    this.size = size;
+    this.partSize = partSize;
+    this.parallelism = Math.max(1, parallelism);
+    this.partCount = (int)((size + partSize - 1) / partSize);
+
+    for(int i = 0; i < partCount; i++) {
+      parts.add(null);
+    }
+  }
+
+  /**
+   * @param firstPart the body of the already started GET for bytes 0 to partSize - 1
+   * @return the whole object, in order
+   */
+  public Publisher<ByteBuffer> publisher(Publisher<ByteBuffer> firstPart) {
+    List<Supplier<CompletableFuture<? extends Publisher<ByteBuffer>>>> sources = new ArrayList<>();
+
+    sources.add(() -> {
+      startThrough(parallelism - 1);
+      return CompletableFuture.completedFuture(firstPart);
+    });
+
+    for(int i = 1; i < partCount; i++) {
+      int index = i;
+      sources.add(() -> {
+        // This part is now being sent, so the window moves on by one
+        startThrough(index + parallelism - 1);
+        return takePart(index).thenApply(ConcatenatedPublisher::buffers);
+      });
+    }
+    return new ConcatenatedPublisher(sources);
+  }
+
+  /**
+   * Aborts every part still in flight, e.g. when the client disconnects.
+   */
+  public synchronized void cancel() {
+    cancelled = true;
+    for(CompletableFuture<List<ByteBuffer>> part : parts) {
+      if (part != null) {
+        part.cancel(true);
+      }
+    }
+  }
+
+  // Starts the GETs for all parts up to and including lastPart
+  private synchronized void startThrough(int lastPart) {
+    int last = Math.min(lastPart, partCount - 1);
+    while (!cancelled && nextToStart <= last) {
+      parts.set(nextToStart, fetchPart(nextToStart));
+      nextToStart++;
+    }
+  }
+
+  // Hands a part to the response and drops the reference, so its buffer can be freed once written
+  private synchronized CompletableFuture<List<ByteBuffer>> takePart(int index) {
+    CompletableFuture<List<ByteBuffer>> part = parts.set(index, null);
+    return part != null ? part : CompletableFuture.failedFuture(new IllegalStateException("Download cancelled"));
+  }
+
+  private CompletableFuture<List<ByteBuffer>> fetchPart(int index) {
+    long first = index * partSize;
+    long last = Math.min(first + partSize, size) - 1;
+
+    GetObjectRequest partRequest = GetObjectRequest.builder() //
+      .bucket(bucketName) //
+      .key(fileName) //
+      .range("bytes=" + first + "-" + last) //
+      .ifMatch(eTag) //
+      .build();
+
+    // Parts of an admitted download are counted by the S3 limiter but never rejected; the future completes after the
+    // whole part, so its time is not a latency sample
+    return Main.getS3Limiters().trackTransfer("GetObject", () -> s3AsyncClient.getObject(partRequest, new PartBuffersTransformer()));
+  }
+
+  /**
+   * @param contentRange a Content-Range value such as "bytes 0-8388607/123456789"
+   * @return the total size after the slash
+   */
+  public static long totalSize(String contentRange) {
+    return Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+  }
+
+  // Collects a part as the list of buffers the SDK emitted; a retried request starts a new list
+  private static class PartBuffersTransformer implements AsyncResponseTransformer<GetObjectResponse, List<ByteBuffer>> {
+    private volatile CompletableFuture<List<ByteBuffer>> future;
+
+    @Override
+    public CompletableFuture<List<ByteBuffer>> prepare() {
+      future = new CompletableFuture<>();
+      return future;
+    }
+
+    @Override
+    public void onResponse(GetObjectResponse response) {
+    }
+
+    @Override
+    public void onStream(SdkPublisher<ByteBuffer> publisher) {
+      CompletableFuture<List<ByteBuffer>> result = future;
+      List<ByteBuffer> buffers = new ArrayList<>();
+
+      // The part is at most partSize bytes and the reorder window bounds how many are buffered
+      publisher.subscribe(new Subscriber<ByteBuffer>() {
+        @Override
+        public void onSubscribe(Subscription subscription) {
+          subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(ByteBuffer byteBuffer) {
+          buffers.add(byteBuffer);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+          result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+          result.complete(buffers);
+        }
+      });
+    }
+
+    @Override
+    public void exceptionOccurred(Throwable error) {
+      future.completeExceptionally(error);
+    }
+  }
+}
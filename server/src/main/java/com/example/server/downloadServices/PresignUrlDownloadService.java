@@ -1,57 +1,75 @@
 package com.example.server.downloadServices;
 
-import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.example.server.Main;
-import com.example.server.TimeUtils;
+import com.example.server.metricsUtil.RequestTiming;
+import com.example.server.presignUtil.PresignerService;
 
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
-import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.S3Exception;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
-import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
-import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
 
 public class PresignUrlDownloadService {
   private static final Logger logger = LoggerFactory.getLogger(PresignUrlDownloadService.class);
-  private static final S3Presigner s3Presigner = Main.getS3Presigner(); // AWS S3 presigner used to generate presigned URLs
-
-  // Dedicated thread pool for running blocking S3 operations asynchronously
-  private static final ExecutorService executorService = Executors.newFixedThreadPool(3); // Adjust pool size as needed
+  private static final PresignerService presignerService = Main.getPresignerService(); // Shared presigner used to generate presigned URLs
 
   /**
    * Handles an incoming request to generate a presigned URL asynchronously.
-   * @param fileName the key (object name) of the file in the S3 bucket
-   * @return a CompletableFuture that resolves to a JAX-RS Response containing the presigned URL
+   *
+   * If the client accepts inline bodies and the object is at most PRESIGN_INLINE_MAX_KB, the object itself is
+   * returned (application/octet-stream) instead of the URL JSON, which saves the client its round trip to S3.
+   *
+   * @param fileName       the key (object name) of the file in the S3 bucket
+   * @param inlineAccepted true if the client listed "inline" in X-Transfer-Methods
+   * @param timing         the request's phase timing; the inline lookup, the wait for a blocking thread and the signing are added to it
+   * @return a CompletableFuture that resolves to a JAX-RS Response containing the presigned URL or the inlined object
    */
-  public static CompletableFuture<Response> handlePresignedMethod(String fileName) {
+  public static CompletableFuture<Response> handlePresignedMethod(String fileName, boolean inlineAccepted, RequestTiming timing) {
+    InlineObjectCache inlineObjects = Main.getInlineObjects();
+    if (!inlineAccepted || inlineObjects == null) {
+      return presign(fileName, timing);
+    }
+
+    return timing.time("inline", inlineObjects.lookup(fileName)).thenCompose(body -> {
+      if (body == null) {
+        return presign(fileName, timing);
+      }
+      timing.detail(logger, "[PresignedURL]  Inlined small object | Key: {} | Bytes: {}", fileName, body.length);
+      return CompletableFuture.completedFuture(Response.ok(body, MediaType.APPLICATION_OCTET_STREAM) //
+        .header("Content-Disposition", "attachment; filename=\"" + fileName + "\"") //
+        .header(RequestTiming.HEADER, timing.header()) //
+        .build());
+    });
+  }
+
+  private static CompletableFuture<Response> presign(String fileName, RequestTiming timing) {
+    timing.begin("queue");
     return CompletableFuture.supplyAsync(() -> {
+      timing.end("queue");
       try {
         String bucketName = Main.getBucketName();
-        logger.info(String.format("Running in thread: %s", Thread.currentThread().getName()));
-        System.out.println(String.format("[%s] [PresignedURL]  Generating presigned download URL | Bucket: %s | Key: %s", TimeUtils.getCurrentTimestamp(), bucketName, fileName));
+        timing.detail(logger, "[PresignedURL]  Generating presigned download URL | Bucket: {} | Key: {} | Thread: {}", bucketName, fileName, Thread.currentThread().getName());
 
         // Generate the presigned URL for downloading a file from the specified bucket and key
+        long presignStart = System.nanoTime();
         String presignedUrl = generatePresignedGetURLForDirectoryBucket(bucketName, fileName);
+        timing.record("presign", System.nanoTime() - presignStart);
 
-        System.out.println(presignedUrl);
-        System.out.println(String.format("[%s] [PresignedURL]  Completed generation ✔", TimeUtils.getCurrentTimestamp()));
+        // The URL itself is not logged: it is a bearer credential until it expires
+        timing.detail(logger, "[PresignedURL]  Completed generation ✔");
 
         // Return the presigned URL in a JSON response format with an HTTP 200 status (OK)
-        return Response.ok("{\"url\": \"" + presignedUrl + "\"}", MediaType.APPLICATION_JSON).build();
+        return Response.ok("{\"url\": \"" + presignedUrl + "\"}", MediaType.APPLICATION_JSON).header(RequestTiming.HEADER, timing.header()).build();
 
       } catch (Exception e) {
         // Handle any exceptions and return a meaningful error response
         return handleException(e);
       }
-    }, executorService);
+    }, Main.getServerThreads().blockingExecutor()); // Shared blocking executor (virtual threads in SERVER_THREADS=virtual)
   }
 
   /**
@@ -62,20 +80,8 @@ public class PresignUrlDownloadService {
    */
   private static String generatePresignedGetURLForDirectoryBucket(String bucketName, String objectKey) {
     try {
-      // Create a GetObjectRequest
-      GetObjectRequest getObjectRequest = GetObjectRequest.builder() //
-        .bucket(bucketName) //
-        .key(objectKey) //
-        .build();
-
-      // Create the presign request with a signature valid for 10 minutes
-      GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder() //
-        .signatureDuration(Duration.ofMinutes(10)) //
-        .getObjectRequest(getObjectRequest).build();
-
-      // Generate the presigned URL
-      PresignedGetObjectRequest presignedRequest = s3Presigner.presignGetObject(presignRequest);
-      return presignedRequest.url().toString();
+      // Reuse a cached presigned URL or generate a new one (signature valid for 10 minutes)
+      return presignerService.getObjectUrl(bucketName, objectKey);
 
     } catch (S3Exception e) {
       logger.error("Failed to generate presigned URL: {} - Error code: {}", e.awsErrorDetails() //
@@ -98,11 +104,4 @@ public class PresignUrlDownloadService {
     }
     return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("Error retrieving file: " + cause.getMessage()).build();
   }
-
-  // Currently unused, but may be useful for production
-  // Handles cleanup during application shutdown
-  //  public static void shutdown() {
-  //      s3Presigner.close();
-  //      executorService.shutdown();
-  //  }
 }
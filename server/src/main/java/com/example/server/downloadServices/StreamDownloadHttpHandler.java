@@ -0,0 +1,95 @@
+package com.example.server.downloadServices;
+
+import org.glassfish.grizzly.http.Method;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+
+import com.example.server.Main;
+import com.example.server.metricsUtil.RequestTiming;
+import com.example.server.metricsUtil.ServerMetrics;
+
+/**
+ * Grizzly handler placed in front of the Jersey container.
+ *
+ * In "streamS3ObjectViaServer" mode, GET /files/download/{fileName} is served here by the reactive,
+ * non-blocking download path. Going through Jersey would need a blocking OutputStream for the body.
+ * In "adaptive" mode, downloads are served here too, by whichever method the {@link AdaptiveDownloadService} picks.
+ * Every other request, and every request when STREAM_DOWNLOAD_REACTIVE=false, is passed on to Jersey unchanged.
+ *
+ * Since every request passes through here, this is also where request latency is recorded for {@link ServerMetrics}
+ * and the {@link RequestTiming} of each request is started and logged.
+ */
+public class StreamDownloadHttpHandler extends HttpHandler {
+  private static final String DOWNLOAD_PATH = "/files/download/";
+
+  private final HttpHandler jerseyHandler;
+  private final boolean reactiveEnabled;
+
+  /**
+   * @param jerseyHandler   the Jersey container that serves all other requests
+   * @param reactiveEnabled false to serve downloads through the blocking Jersey endpoint instead
+   */
+  public StreamDownloadHttpHandler(HttpHandler jerseyHandler, boolean reactiveEnabled) {
+    this.jerseyHandler = jerseyHandler;
+    this.reactiveEnabled = reactiveEnabled;
+  }
+
+  @Override
+  public void start() {
+    jerseyHandler.start();
+  }
+
+  @Override
+  public void destroy() {
+    jerseyHandler.destroy();
+  }
+
+  @Override
+  public void service(Request request, Response response) throws Exception {
+    // Recorded once the response is finished, so suspended requests count their whole transfer
+    long startTime = System.nanoTime();
+    String method = Main.getCurrentMethod();
+    String endpoint = ServerMetrics.endpointLabel(request.getRequestURI());
+    RequestTiming timing = RequestTiming.start(request);
+    request.addAfterServiceListener(finished -> {
+      int status = finished.getResponse().getStatus();
+      // Adaptive downloads are labelled with the method they got, e.g. "adaptive/presign"
+      String chosen = AdaptiveDownloadService.chosenMethod(finished);
+      String label = chosen != null ? method + "/" + chosen : method;
+      Main.getMetrics().recordRequest(endpoint, label, status, System.nanoTime() - startTime);
+      timing.log(finished, label, status);
+    });
+
+    String fileName = downloadFileName(request);
+
+    // Counts the time this worker thread spends in the handler, not the suspended part of the request
+    Main.getMetrics().workerStarted();
+    try {
+      if (fileName != null && reactiveEnabled && "streamS3ObjectViaServer".equals(method)) {
+        StreamServerDownloadService.reactiveStreamS3ObjectViaServer(fileName, request, response);
+      } else if (fileName != null && reactiveEnabled && "adaptive".equals(method)) {
+        Main.getAdaptiveDownloads().serve(fileName, request, response);
+      } else {
+        jerseyHandler.service(request, response);
+      }
+    } finally {
+      Main.getMetrics().workerFinished();
+    }
+  }
+
+  // Returns the file name for GET /files/download/{fileName}, or null for any other request
+  private static String downloadFileName(Request request) throws Exception {
+    if (!Method.GET.equals(request.getMethod())) {
+      return null;
+    }
+
+    String path = request.getDecodedRequestURI();
+    if (!path.startsWith(DOWNLOAD_PATH)) {
+      return null;
+    }
+
+    String fileName = path.substring(DOWNLOAD_PATH.length());
+    return fileName.isEmpty() || fileName.contains("/") ? null : fileName;
+  }
+}
@@ -2,9 +2,30 @@ package com.example.server.downloadServices;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.glassfish.grizzly.http.server.Request;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.example.server.Main;
-import com.example.server.TimeUtils;
+import com.example.server.limitUtil.BandwidthScheduler;
+import com.example.server.limitUtil.LimitExceededException;
+import com.example.server.metricsUtil.RequestTiming;
 
 import jakarta.ws.rs.container.AsyncResponse;
 import jakarta.ws.rs.core.Response;
@@ -14,38 +35,431 @@ import software.amazon.awssdk.core.async.AsyncResponseTransformer;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 
 public class StreamServerDownloadService {
+  private static final Logger logger = LoggerFactory.getLogger(StreamServerDownloadService.class);
+
+  /**
+   * REACTIVE SOLUTION (default):
+   * Streams from S3 to the client without holding a thread for the duration of the download.
+   * The SDK's Publisher<ByteBuffer> is subscribed by a {@link GrizzlyResponseSubscriber}, which only requests
+   * the next buffer when Grizzly's non-blocking output can take it, so memory stays bounded per connection and
+   * concurrent downloads scale with connections rather than threads.
+   *
+   * Range requests are mapped onto ranged GetObjectRequests and answered with 206 Partial Content:
+   * a single range becomes one ranged GET, multiple ranges become a multipart/byteranges body fetched
+   * range by range. If-Range is honoured; when the validator no longer matches, the full object is sent.
+   *
+   * Called by {@link StreamDownloadHttpHandler} directly on the Grizzly request, ahead of Jersey.
+   *
+   * @param fileName The name (key) of the file in the S3 bucket.
+   * @param request  The Grizzly request.
+   * @param response The Grizzly response; it is suspended here and resumed when the transfer ends.
+   */
+  public static void reactiveStreamS3ObjectViaServer(String fileName, Request request, org.glassfish.grizzly.http.server.Response response) {
+    List<ByteRange.Spec> specs = ByteRange.parse(request.getHeader("Range"));
+    String ifRange = request.getHeader("If-Range");
+
+    RequestTiming.of(request).detail(logger, "[FileDownload]  Starting reactive S3 download request | Bucket: {} | Key: {}{}", Main.getBucketName(), fileName, //
+      specs != null ? " | Range: " + request.getHeader("Range") : "");
+
+    // Adaptive downloads are already suspended while their method is picked
+    if (!response.isSuspended()) {
+      response.suspend();
+    }
+
+    HotObjectCache hotObjectCache = Main.getHotObjectCache();
+    if (specs == null && hotObjectCache != null) {
+      serveFromCacheOrS3(hotObjectCache, fileName, response);
+    } else if (specs == null) {
+      streamFullObject(fileName, response);
+    } else if (specs.size() == 1) {
+      streamSingleRange(fileName, specs.get(0), ifRange, response);
+    } else {
+      streamMultipleRanges(fileName, specs, ifRange, response);
+    }
+  }
+
+  /**
+   * Sends a full-object download from the hot-object cache on a hit, or from S3 (filling the cache) on a miss.
+   */
+  private static void serveFromCacheOrS3(HotObjectCache hotObjectCache, String fileName, org.glassfish.grizzly.http.server.Response response) {
+    RequestTiming.of(response.getRequest()).time("cache", hotObjectCache.lookup(fileName)).whenComplete((cached, ex) -> {
+      if (cached == null) {
+        streamFullObject(fileName, response);
+        return;
+      }
+
+      response.setStatus(200);
+      response.setContentType("application/octet-stream");
+      response.setContentLengthLong(cached.size());
+      setDownloadHeaders(response, fileName, cached.eTag());
+
+      RequestTiming.of(response.getRequest()).time("transfer", hotObjectCache.serve(fileName, cached, response)).whenComplete((bytes, writeEx) -> {
+        if (writeEx != null) {
+          logger.warn("[HotCache]  Download to Client failed: {}", writeEx.getMessage());
+        } else {
+          RequestTiming.of(response.getRequest()).detail(logger, "[HotCache]  Served from cache ✔ | Key: {} | Bytes: {} | Hit ratio: {} | Bytes saved: {}", fileName, bytes, //
+            hotObjectCache.hitRatio(), hotObjectCache.bytesSaved());
+        }
+      });
+    });
+  }
+
+  /**
+   * Sends the whole object with 200 OK.
+   * Concurrent downloads of the same key share one upstream read through the {@link DownloadCoalescer}.
+   */
+  private static void streamFullObject(String fileName, org.glassfish.grizzly.http.server.Response response) {
+    DownloadCoalescer downloadCoalescer = Main.getDownloadCoalescer();
+    CompletableFuture<ObjectBody> opened = RequestTiming.of(response.getRequest()).time("s3-ttfb", //
+      downloadCoalescer != null ? downloadCoalescer.open(fileName) : openFullObject(fileName));
+
+    opened.whenComplete((object, ex) -> {
+      if (ex != null) {
+        writeError(response, unwrap(ex));
+        return;
+      }
+
+      // Headers go out with the first buffer; the body follows at the pace the client reads
+      response.setStatus(200);
+      response.setContentType("application/octet-stream");
+      response.setContentLengthLong(object.size());
+      setDownloadHeaders(response, fileName, object.eTag());
+
+      sendBody(response, object.body()).whenComplete((bytes, writeEx) -> {
+        if (writeEx != null) {
+          object.abort().run();
+        }
+      });
+    });
+  }
+
+  /**
+   * Starts reading the whole object from S3.
+   *
+   * With DOWNLOAD_PARALLELISM above 1 the first part is requested as a ranged GET. Its Content-Range gives the
+   * object size, so no HEAD is needed. Objects that fit in one part are streamed from that single GET. Larger
+   * objects are fetched as concurrent ranged GETs by {@link ParallelRangeDownload} and reassembled in order,
+   * so one download is no longer limited to the throughput of a single S3 connection.
+   *
+   * @return a future with the body, which also fills the hot-object cache when the object qualifies
+   */
+  static CompletableFuture<ObjectBody> openFullObject(String fileName) {
+    S3AsyncClient s3AsyncClient = Main.getAsyncS3Client();
+    String bucketName = Main.getBucketName();
+    long partSize = Main.getDownloadPartSize();
+    int parallelism = Main.getDownloadParallelism();
+
+    if (parallelism <= 1) {
+      return openSingleGet(fileName);
+    }
+
+    GetObjectRequest firstPartRequest = GetObjectRequest.builder().key(fileName).bucket(bucketName).range("bytes=0-" + (partSize - 1)).build();
+
+    return Main.getS3Limiters().call("GetObject", () -> s3AsyncClient.getObject(firstPartRequest, AsyncResponseTransformer.toPublisher())).handle((publisher, ex) -> {
+      if (ex != null) {
+        Throwable cause = unwrap(ex);
+        if (cause instanceof S3Exception && ((S3Exception)cause).statusCode() == 416) {
+          // Empty object: there is no first byte to range over
+          return openSingleGet(fileName);
+        }
+        return CompletableFuture.<ObjectBody>failedFuture(cause);
+      }
+
+      GetObjectResponse firstPart = publisher.response();
+      long size = ParallelRangeDownload.totalSize(firstPart.contentRange());
+
+      if (size <= partSize) {
+        return CompletableFuture.completedFuture(new ObjectBody(size, firstPart.eTag(), fillCache(fileName, firstPart.eTag(), size, publisher), () -> {}));
+      }
+
+      ParallelRangeDownload download = new ParallelRangeDownload(s3AsyncClient, bucketName, fileName, firstPart.eTag(), size, partSize, parallelism);
+      return CompletableFuture.completedFuture(new ObjectBody(size, firstPart.eTag(), fillCache(fileName, firstPart.eTag(), size, download.publisher(publisher)), download::cancel));
+    }).thenCompose(Function.identity());
+  }
+
+  /**
+   * Starts reading the whole object from one GET.
+   */
+  private static CompletableFuture<ObjectBody> openSingleGet(String fileName) {
+    GetObjectRequest objectRequest = GetObjectRequest.builder().key(fileName).bucket(Main.getBucketName()).build();
+
+    return Main.getS3Limiters().call("GetObject", () -> Main.getAsyncS3Client().getObject(objectRequest, AsyncResponseTransformer.toPublisher())).thenApply(publisher -> {
+      GetObjectResponse objectResponse = publisher.response();
+      return new ObjectBody(objectResponse.contentLength(), objectResponse.eTag(), fillCache(fileName, objectResponse.eTag(), objectResponse.contentLength(), publisher), () -> {});
+    });
+  }
+
+  /**
+   * Starts reading an object from {@code offset} to its end, only if it still has the given ETag.
+   */
+  static CompletableFuture<? extends Publisher<ByteBuffer>> openFrom(String fileName, long offset, String eTag) {
+    GetObjectRequest rangeRequest = GetObjectRequest.builder() //
+      .bucket(Main.getBucketName()) //
+      .key(fileName) //
+      .range("bytes=" + offset + "-") //
+      .ifMatch(eTag) //
+      .build();
+
+    return Main.getS3Limiters().track("GetObject", () -> Main.getAsyncS3Client().getObject(rangeRequest, AsyncResponseTransformer.toPublisher()));
+  }
+
+  // Lets a full-object download also fill the hot-object cache when the object qualifies
+  private static Publisher<ByteBuffer> fillCache(String fileName, String eTag, long size, Publisher<ByteBuffer> body) {
+    HotObjectCache hotObjectCache = Main.getHotObjectCache();
+    return hotObjectCache != null ? hotObjectCache.fillOnMiss(fileName, eTag, size, body) : body;
+  }
+
+  /**
+   * Sends one range with 206 Partial Content, using the Range header as-is on the S3 request.
+   * If-Range is checked by S3 (If-Match / If-Unmodified-Since); on a mismatch the full object is sent instead.
+   */
+  private static void streamSingleRange(String fileName, ByteRange.Spec spec, String ifRange, org.glassfish.grizzly.http.server.Response response) {
+    GetObjectRequest.Builder objectRequest = GetObjectRequest.builder().key(fileName).bucket(Main.getBucketName()).range(spec.toHeaderValue());
+
+    if (ifRange != null && !applyIfRange(objectRequest, ifRange)) {
+      streamFullObject(fileName, response);
+      return;
+    }
+
+    RequestTiming.of(response.getRequest()).time("s3-ttfb", //
+      Main.getS3Limiters().call("GetObject", () -> Main.getAsyncS3Client().getObject(objectRequest.build(), AsyncResponseTransformer.toPublisher()))).whenComplete((publisher, ex) -> {
+      if (ex != null) {
+        Throwable cause = unwrap(ex);
+        int status = cause instanceof S3Exception ? ((S3Exception)cause).statusCode() : 0;
+
+        if (status == 412) {
+          // If-Range validator no longer matches: the client's partial copy is stale
+          streamFullObject(fileName, response);
+        } else if (status == 416) {
+          sendRangeNotSatisfiable(fileName, response);
+        } else {
+          writeError(response, cause);
+        }
+        return;
+      }
+
+      GetObjectResponse objectResponse = publisher.response();
+      response.setStatus(206);
+      response.setContentType("application/octet-stream");
+      response.setContentLengthLong(objectResponse.contentLength());
+      response.setHeader("Content-Range", objectResponse.contentRange());
+      setDownloadHeaders(response, fileName, objectResponse.eTag());
+
+      sendBody(response, publisher);
+    });
+  }
+
+  /**
+   * Sends several ranges as a multipart/byteranges body with 206 Partial Content.
+   * The object size and ETag are read first so the ranges can be resolved and the exact body length sent;
+   * each range is then fetched with its own ranged GET (pinned to that ETag) as the client reads.
+   */
+  private static void streamMultipleRanges(String fileName, List<ByteRange.Spec> specs, String ifRange, org.glassfish.grizzly.http.server.Response response) {
+    S3AsyncClient s3AsyncClient = Main.getAsyncS3Client();
+    String bucketName = Main.getBucketName();
+
+    RequestTiming.of(response.getRequest()).time("s3-head", //
+      Main.getS3Limiters().call("HeadObject", () -> s3AsyncClient.headObject(HeadObjectRequest.builder().key(fileName).bucket(bucketName).build()))).whenComplete((head, ex) -> {
+      if (ex != null) {
+        writeError(response, unwrap(ex));
+        return;
+      }
+
+      if (!ifRangeMatches(ifRange, head)) {
+        streamFullObject(fileName, response);
+        return;
+      }
+
+      long size = head.contentLength();
+      List<ByteRange> ranges = ByteRange.resolve(specs, size);
+
+      if (ranges.isEmpty()) {
+        writeRangeNotSatisfiable(response, size);
+        return;
+      }
+
+      if (ranges.size() == 1) {
+        // The requested ranges overlapped and were merged into one
+        ByteRange range = ranges.get(0);
+        streamSingleRange(fileName, new ByteRange.Spec(range.first(), range.last()), head.eTag(), response);
+        return;
+      }
+
+      String boundary = UUID.randomUUID().toString().replace("-", "");
+      List<Supplier<CompletableFuture<? extends Publisher<ByteBuffer>>>> parts = new ArrayList<>();
+      long contentLength = 0;
+
+      for(ByteRange range : ranges) {
+        byte[] partHeader = ("\r\n--" + boundary + "\r\nContent-Type: application/octet-stream\r\nContent-Range: " + range.contentRange(size) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+        GetObjectRequest rangeRequest = GetObjectRequest.builder().key(fileName).bucket(bucketName).range(range.toHeaderValue()).ifMatch(head.eTag()).build();
+
+        parts.add(ConcatenatedPublisher.ofBytes(partHeader));
+        parts.add(() -> Main.getS3Limiters().track("GetObject", () -> s3AsyncClient.getObject(rangeRequest, AsyncResponseTransformer.toPublisher())));
+        contentLength += partHeader.length + range.length();
+      }
+
+      byte[] closingBoundary = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+      parts.add(ConcatenatedPublisher.ofBytes(closingBoundary));
+      contentLength += closingBoundary.length;
+
+      response.setStatus(206);
+      response.setContentType("multipart/byteranges; boundary=" + boundary);
+      response.setContentLengthLong(contentLength);
+      setDownloadHeaders(response, fileName, head.eTag());
+
+      sendBody(response, new ConcatenatedPublisher(parts));
+    });
+  }
+
+  /**
+   * Answers 416 with the object size, so the client can correct its range.
+   */
+  private static void sendRangeNotSatisfiable(String fileName, org.glassfish.grizzly.http.server.Response response) {
+    RequestTiming.of(response.getRequest()).time("s3-head", //
+      Main.getS3Limiters().track("HeadObject", () -> Main.getAsyncS3Client().headObject(HeadObjectRequest.builder().key(fileName).bucket(Main.getBucketName()).build()))).whenComplete((head, ex) -> {
+      if (ex != null) {
+        writeError(response, unwrap(ex));
+      } else {
+        writeRangeNotSatisfiable(response, head.contentLength());
+      }
+    });
+  }
+
+  private static void writeRangeNotSatisfiable(org.glassfish.grizzly.http.server.Response response, long size) {
+    response.setStatus(416);
+    response.setHeader("Content-Range", "bytes */" + size);
+    response.setHeader(RequestTiming.HEADER, RequestTiming.of(response.getRequest()).header());
+    response.setContentLengthLong(0);
+    response.resume();
+  }
+
+  // Headers shared by full and partial downloads
+  private static void setDownloadHeaders(org.glassfish.grizzly.http.server.Response response, String fileName, String eTag) {
+    response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+    response.setHeader("Accept-Ranges", "bytes");
+    if (eTag != null) {
+      response.setHeader("ETag", eTag);
+    }
+    response.setHeader("Cache-Control", "no-store, must-revalidate");
+    response.setHeader("Pragma", "no-cache");
+    response.setHeader(RequestTiming.HEADER, RequestTiming.of(response.getRequest()).header());
+  }
+
+  // Streams the body with backpressure and logs the outcome
+  private static CompletableFuture<Long> sendBody(org.glassfish.grizzly.http.server.Response response, Publisher<ByteBuffer> body) {
+    RequestTiming timing = RequestTiming.of(response.getRequest());
+    timing.begin("transfer");
+    if (RequestTiming.acceptsTrailers(response.getRequest())) {
+      // Chunked instead of Content-Length, so the timing including the transfer to the client can follow the body
+      response.setContentLengthLong(-1);
+      response.setHeader("Trailer", RequestTiming.HEADER);
+      response.setTrailers(() -> {
+        timing.end("transfer");
+        return Map.of(RequestTiming.HEADER, timing.header());
+      });
+    }
+
+    GrizzlyResponseSubscriber subscriber = new GrizzlyResponseSubscriber(response, Main.getDownloadBandwidth());
+    subscriber.completion().whenComplete((bytes, writeEx) -> {
+      timing.end("transfer");
+      if (writeEx != null) {
+        logger.warn("[FileDownload]  Download to Client failed: {}", writeEx.getMessage());
+      } else if (timing.sampled() || logger.isDebugEnabled()) {
+        timing.detail(logger, "[FileDownload]  Download to Client complete ✔ | Bytes: {} | {}", bytes, Main.getDownloadBandwidth().summary());
+      }
+    });
+    body.subscribe(subscriber);
+    return subscriber.completion();
+  }
+
+  /**
+   * Maps If-Range onto the S3 request: an ETag becomes If-Match, an HTTP date becomes If-Unmodified-Since.
+   *
+   * @return false if the validator can never match (weak ETag or unparseable date), so the full object must be sent
+   */
+  private static boolean applyIfRange(GetObjectRequest.Builder objectRequest, String ifRange) {
+    if (ifRange.startsWith("\"")) {
+      objectRequest.ifMatch(ifRange);
+      return true;
+    }
+
+    Instant date = parseHttpDate(ifRange);
+    if (date == null) {
+      return false;
+    }
+    objectRequest.ifUnmodifiedSince(date);
+    return true;
+  }
+
+  private static boolean ifRangeMatches(String ifRange, HeadObjectResponse head) {
+    if (ifRange == null) {
+      return true;
+    }
+    if (ifRange.startsWith("\"")) {
+      return ifRange.equals(head.eTag());
+    }
+
+    Instant date = parseHttpDate(ifRange);
+    return date != null && !head.lastModified().isAfter(date);
+  }
+
+  // Weak ETags ("W/...") and anything else that is not an HTTP date return null
+  private static Instant parseHttpDate(String value) {
+    try {
+      return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  static Throwable unwrap(Throwable ex) {
+    return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+  }
 
   /**
-   * SOLUTION 1:
+   * SOLUTION 1 (fallback, STREAM_DOWNLOAD_REACTIVE=false):
    * Streams directly from S3 using a blocking InputStream, minimizing memory use (best for large files).
    * Uses .join(), which blocks the thread until the download completes.
    *
    * Asynchronously streams a file from S3 to the client using JAX-RS async response.
+   * Only a single range without If-Range is honoured here; anything else gets the full object.
    *
    * @param fileName       The name (key) of the file in the S3 bucket.
+   * @param rangeHeader    The Range request header, or null.
+   * @param ifRangeHeader  The If-Range request header, or null.
+   * @param clientId       The client the download is paced for (see {@link BandwidthScheduler}).
+   * @param timing         The request's phase timing, returned as Server-Timing.
    * @param asyncResponse  The JAX-RS async response object to stream data back to the client.
    */
-  public static void asyncStreamS3ObjectViaServer(String fileName, AsyncResponse asyncResponse) throws IOException {
+  public static void asyncStreamS3ObjectViaServer(String fileName, String rangeHeader, String ifRangeHeader, String clientId, RequestTiming timing, AsyncResponse asyncResponse) throws IOException {
     // Get AWS S3 client and bucket name from the application's configuration
     S3AsyncClient s3AsyncClient = Main.getAsyncS3Client();
     String bucketName = Main.getBucketName();
 
-    // Prepare a GetObjectRequest to fetch the file from S3
-    GetObjectRequest objectRequest = GetObjectRequest.builder().key(fileName).bucket(bucketName).build();
+    // Prepare a GetObjectRequest to fetch the file (or the requested range) from S3
+    List<ByteRange.Spec> specs = ByteRange.parse(rangeHeader);
+    boolean ranged = specs != null && specs.size() == 1 && ifRangeHeader == null;
+    GetObjectRequest objectRequest = GetObjectRequest.builder().key(fileName).bucket(bucketName).range(ranged ? specs.get(0).toHeaderValue() : null).build();
 
-    System.out.println("[" + TimeUtils.getCurrentTimestamp() + "] [FileDownload]  Starting S3 download request | Bucket: " + bucketName + " | Key: " + fileName);
+    timing.detail(logger, "[FileDownload]  Starting S3 download request | Bucket: {} | Key: {}", bucketName, fileName);
 
     ResponseInputStream<GetObjectResponse> s3InputStream;
     try {
       // Asynchronously fetch the object from S3 and convert it to a blocking input stream
-      s3InputStream = s3AsyncClient.getObject(objectRequest, AsyncResponseTransformer.toBlockingInputStream()) //
+      s3InputStream = timing.time("s3-ttfb", Main.getS3Limiters().call("GetObject", () -> s3AsyncClient.getObject(objectRequest, AsyncResponseTransformer.toBlockingInputStream()))) //
         .exceptionally(ex -> {
+          // Rejected by the concurrency limiter: answered with 503 below instead of being logged as an S3 error
+          LimitExceededException limitExceeded = LimitExceededException.find(ex);
+          if (limitExceeded != null) {
+            throw limitExceeded;
+          }
           // Handle async exception and log the error
-          System.err.println("Async S3 error: " + ex.getMessage());
-          ex.printStackTrace();
+          logger.warn("[FileDownload]  Async S3 error: {}", ex.getMessage());
           return null;
         }).join(); // Block until the operation completes
 
@@ -54,18 +468,22 @@ public class StreamServerDownloadService {
       }
 
       // Define a StreamingOutput that transfers data from the S3 input stream to the HTTP output stream
+      // Reads are paced to the client's bandwidth share, so the copy loop slows down instead of the whole server
       StreamingOutput stream = output -> {
-        try (InputStream in = s3InputStream) {
+        try (BandwidthScheduler.Transfer transfer = Main.getDownloadBandwidth().open(clientId); InputStream in = transfer.pace(s3InputStream)) {
           in.transferTo(output); // Stream the entire file content to the client
-          System.out.println("[" + TimeUtils.getCurrentTimestamp() + "] [FileDownload]  Download to Client complete ✔");
+          timing.detail(logger, "[FileDownload]  Download to Client complete ✔");
         }
       };
 
       // Build the HTTP response with headers for file download
-      Response response = Response.ok(stream).header("Content-Disposition", "attachment; filename=\"" + fileName + "\"") //
+      Response response = Response.status(ranged ? 206 : 200).entity(stream).header("Content-Disposition", "attachment; filename=\"" + fileName + "\"") //
         .header("Content-Length", s3InputStream.response().contentLength()) //
+        .header("Content-Range", ranged ? s3InputStream.response().contentRange() : null) //
+        .header("Accept-Ranges", "bytes") //
         .header("Cache-Control", "no-store, must-revalidate") //
         .header("Pragma", "no-cache") //
+        .header(RequestTiming.HEADER, timing.header()) //
         .build();
 
       // Resume the async response with the built response object
@@ -73,10 +491,29 @@ public class StreamServerDownloadService {
 
     } catch (Exception e) {
       // Handle any exceptions during the S3 request or streaming
-      System.err.println("Final exception: " + e.getMessage());
-      System.err.println("[" + TimeUtils.getCurrentTimestamp() + "] [FileDownload]  Final exception: " + e.getMessage());
-      e.printStackTrace();
-      asyncResponse.resume(handleException(e));
+      logger.error("[FileDownload]  Final exception: {}", e.getMessage(), e);
+      asyncResponse.resume(Response.fromResponse(handleException(e)).header(RequestTiming.HEADER, timing.header()).build());
+    }
+  }
+
+  /**
+   * Writes an error status straight to a suspended Grizzly response and finishes it.
+   */
+  private static void writeError(org.glassfish.grizzly.http.server.Response response, Throwable cause) {
+    logger.warn("[FileDownload]  S3 error: {}", cause.getMessage());
+    try {
+      Response errorResponse = handleException(cause);
+      response.setStatus(errorResponse.getStatus());
+      response.setHeader(RequestTiming.HEADER, RequestTiming.of(response.getRequest()).header());
+      if (errorResponse.getHeaderString("Retry-After") != null) {
+        response.setHeader("Retry-After", errorResponse.getHeaderString("Retry-After"));
+      }
+      response.setContentType("text/plain");
+      response.getWriter().write(String.valueOf(errorResponse.getEntity()));
+    } catch (IOException e) {
+      logger.warn("[FileDownload]  Failed to write error response: {}", e.getMessage());
+    } finally {
+      response.resume();
     }
   }
 
@@ -87,6 +524,11 @@ public class StreamServerDownloadService {
    * @return A Response with the relevant status and error message.
    */
   private static Response handleException(Throwable cause) {
+    LimitExceededException limitExceeded = LimitExceededException.find(cause);
+    if (limitExceeded != null) {
+      // Over the S3 concurrency limit: reject quickly instead of queueing behind slow S3 calls
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", limitExceeded.retryAfterSeconds()).entity(limitExceeded.getMessage()).build();
+    }
     if (cause instanceof S3Exception) {
       S3Exception s3Ex = (S3Exception)cause;
       return Response.status(s3Ex.statusCode()).entity(s3Ex.getMessage()).build();
@@ -2,17 +2,23 @@ package com.example.server.endpoints;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
+import org.glassfish.grizzly.http.server.Request;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.example.server.Main;
-import com.example.server.TimeUtils;
+import com.example.server.limitUtil.BandwidthScheduler;
+import com.example.server.limitUtil.LimitExceededException;
+import com.example.server.metricsUtil.RequestTiming;
+import com.example.server.policyUtil.TransferPolicy;
 import com.example.server.STSutil.STSTokenCreator;
 import com.example.server.downloadServices.PresignUrlDownloadService;
 import com.example.server.downloadServices.StreamServerDownloadService;
 
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
@@ -23,7 +29,6 @@ import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import software.amazon.awssdk.services.s3.model.S3Exception;
-import software.amazon.awssdk.services.sts.model.Credentials;
 
 /**
  * RESTful service for handling file downloads.
@@ -35,15 +40,32 @@ public class DownloadEndpoints {
   @GET
   @Path("/download/{fileName}")
   @Produces(MediaType.APPLICATION_OCTET_STREAM)
-  public void downloadFile(@PathParam("fileName") String fileName, @Suspended AsyncResponse asyncResponse) {
+  public void downloadFile(@PathParam("fileName") String fileName, @HeaderParam("Range") String range, @HeaderParam("If-Range") String ifRange, @HeaderParam(BandwidthScheduler.CLIENT_ID_HEADER) String clientIdHeader, @Suspended AsyncResponse asyncResponse, @Context Request request) {
+    String currentMethod = Main.getCurrentMethod();
+
+    if ("adaptive".equals(currentMethod)) {
+      // The blocking stream (SOLUTION 1) must not run on the SDK thread that completes the size lookup
+      Main.getAdaptiveDownloads().choose(fileName, request) //
+        .thenAcceptAsync(method -> download(method, fileName, range, ifRange, clientIdHeader, asyncResponse, request), Main.getServerThreads().blockingExecutor()) //
+        .exceptionally(ex -> {
+          // download() answers its own errors; this is reached if it could not be started, e.g. the blocking pool rejected it
+          asyncResponse.resume(adaptiveErrorResponse(ex, fileName, RequestTiming.of(request)));
+          return null;
+        });
+    } else {
+      download(currentMethod, fileName, range, ifRange, clientIdHeader, asyncResponse, request);
+    }
+  }
 
+  private void download(String method, String fileName, String range, String ifRange, String clientIdHeader, AsyncResponse asyncResponse, Request request) {
     try {
-      String currentMethod = Main.getCurrentMethod();
+      RequestTiming timing = RequestTiming.of(request);
 
-      if ("streamS3ObjectViaServer".equals(currentMethod)) {
-        StreamServerDownloadService.asyncStreamS3ObjectViaServer(fileName, asyncResponse);
-      } else if ("presign".equals(currentMethod)) {
-        PresignUrlDownloadService.handlePresignedMethod(fileName) //
+      if ("streamS3ObjectViaServer".equals(method)) {
+        StreamServerDownloadService.asyncStreamS3ObjectViaServer(fileName, range, ifRange, Main.getDownloadBandwidth().clientId(clientIdHeader, request.getRemoteAddr()), timing, asyncResponse);
+      } else if ("presign".equals(method)) {
+        boolean inlineAccepted = TransferPolicy.accepts(request.getHeader(TransferPolicy.CAPABILITIES_HEADER), TransferPolicy.INLINE);
+        PresignUrlDownloadService.handlePresignedMethod(fileName, inlineAccepted, timing) //
           .thenAccept(asyncResponse::resume) //
           .exceptionally(ex -> {
             asyncResponse.resume(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("Failed to generate presigned URL: " + ex.getMessage()).build());
@@ -51,11 +73,10 @@ public class DownloadEndpoints {
           });
 
       } else {
-        asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).entity("Unsupported method: " + currentMethod).build());
+        asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).entity("Unsupported method: " + method).build());
       }
     } catch (Exception e) {
-      System.err.println("Unexpected error: " + e.getMessage());
-      e.printStackTrace();
+      logger.error("Unexpected error: {}", e.getMessage(), e);
       asyncResponse.resume(handleException(e));
     }
   }
@@ -63,36 +84,59 @@ public class DownloadEndpoints {
   @GET
   @Path("/download-accesspoint/{fileName}/{clientId}")
   @Produces(MediaType.APPLICATION_JSON)
-  public void asyncAccesspointUploadController(@PathParam("fileName") String fileName, @PathParam("clientId") String clientId, @Suspended AsyncResponse asyncResponse, @Context HttpHeaders headers) {
+  public void asyncAccesspointUploadController(@PathParam("fileName") String fileName, @PathParam("clientId") String clientId, @Suspended AsyncResponse asyncResponse, @Context HttpHeaders headers, @Context Request request) {
 
     String accesspointArn = Main.accesspointArn();
 
-    Map<String, String> response = new HashMap<>();
-    try {
-      Credentials credential = STSTokenCreator.generateSTSToken(clientId);
-
-      if (credential == null || accesspointArn == null || fileName == null || fileName.isBlank()) {
-        throw new IllegalArgumentException("Missing required parameters or credentials.");
-      }
-
-      logger.info(String.format("[%s] [AccessPoint]   Initiating download via access point | AccessPointAlias: %s | Key: %s", TimeUtils.getCurrentTimestamp(), accesspointArn, fileName));
-
-      response.put("accesspointArn", accesspointArn);
-      response.put("accessKeyId", credential.accessKeyId());
-      response.put("secretAccessKey", credential.secretAccessKey());
-      response.put("sessionToken", credential.sessionToken());
-
-      logger.info(String.format("[%s] [AccessPoint]   Successfully retrieved access point alias | AccessPointAlias: %s | for file: %s", TimeUtils.getCurrentTimestamp(), accesspointArn, fileName));
-
-      asyncResponse.resume(Response.ok(response).build());
-
-    } catch (Exception e) {
-      e.printStackTrace();
+    if (accesspointArn == null || fileName == null || fileName.isBlank()) {
+      logger.warn("[AccessPoint]   Missing required parameters | File: {}", fileName);
+      asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).entity(Map.of("error", "Missing required parameters")).type(MediaType.APPLICATION_JSON).build());
+      return;
+    }
 
-      logger.info(String.format("[%s] [AccessPoint]   Failed to retrieve credentials or access point alias | Error: %s | File: %s", TimeUtils.getCurrentTimestamp(), e.getMessage(), fileName));
+    RequestTiming timing = RequestTiming.of(request);
+    timing.detail(logger, "[AccessPoint]   Initiating download via access point | AccessPointAlias: {} | Key: {}", accesspointArn, fileName);
+
+    // Resume from the STS completion instead of blocking the worker thread
+    timing.time("sts", STSTokenCreator.generateSTSToken(clientId)) //
+      .thenApply(credential -> {
+        Map<String, String> response = new HashMap<>();
+        response.put("accesspointArn", accesspointArn);
+        response.put("accessKeyId", credential.accessKeyId());
+        response.put("secretAccessKey", credential.secretAccessKey());
+        response.put("sessionToken", credential.sessionToken());
+
+        timing.detail(logger, "[AccessPoint]   Successfully retrieved access point alias | AccessPointAlias: {} | for file: {}", accesspointArn, fileName);
+
+        return Response.ok(response).header(RequestTiming.HEADER, timing.header()).build();
+      }) //
+      .exceptionally(ex -> {
+        LimitExceededException limitExceeded = LimitExceededException.find(ex);
+        if (limitExceeded != null) {
+          // STS is at its concurrency limit: tell the client when to retry instead of queueing the request
+          return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", limitExceeded.retryAfterSeconds()).header(RequestTiming.HEADER, timing.header()).entity(Map.of("error", "Server busy, retry later")).type(MediaType.APPLICATION_JSON).build();
+        }
+        logger.warn("[AccessPoint]   Failed to retrieve credentials or access point alias | Error: {} | File: {}", ex.getMessage(), fileName);
+
+        return Response.status(Response.Status.INTERNAL_SERVER_ERROR).header(RequestTiming.HEADER, timing.header()).entity(Map.of("error", "Failed to retrieve credentials or access point")).type(MediaType.APPLICATION_JSON).build();
+      }) //
+      .thenAccept(asyncResponse::resume);
+  }
 
-      asyncResponse.resume(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(Map.of("error", "Failed to retrieve credentials or access point")).type(MediaType.APPLICATION_JSON).build());
+  // Overload (full blocking pool or S3 concurrency limit) is answered with 503 so the client retries later
+  private static Response adaptiveErrorResponse(Throwable ex, String fileName, RequestTiming timing) {
+    LimitExceededException limitExceeded = LimitExceededException.find(ex);
+    if (limitExceeded != null) {
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", limitExceeded.retryAfterSeconds()).header(RequestTiming.HEADER, timing.header()).entity("Server busy, retry later").build();
+    }
+    for(Throwable cause = ex; cause != null; cause = cause.getCause()) {
+      if (cause instanceof RejectedExecutionException) {
+        logger.warn("Download rejected, blocking pool is saturated | Key: {}", fileName);
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", "1").header(RequestTiming.HEADER, timing.header()).entity("Server busy, retry later").build();
+      }
     }
+    logger.error("Adaptive download failed | Key: {}", fileName, ex);
+    return Response.status(Response.Status.INTERNAL_SERVER_ERROR).header(RequestTiming.HEADER, timing.header()).entity("Error retrieving file: " + ex.getMessage()).build();
   }
 
   private Response handleException(Throwable cause) {
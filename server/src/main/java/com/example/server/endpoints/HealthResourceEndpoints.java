@@ -1,6 +1,7 @@
 package com.example.server.endpoints;
 
-import com.example.server.TimeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 // Jakarta
 import jakarta.ws.rs.GET; // Annotation to define a GET HTTP endpoint.
@@ -14,6 +15,7 @@ import jakarta.ws.rs.core.Response; // Represents an HTTP response, used to retu
  */
 @Path("/files")
 public class HealthResourceEndpoints {
+  private static final Logger logger = LoggerFactory.getLogger(HealthResourceEndpoints.class);
 
   /**
    * Health check endpoint to verify that the server is running.
@@ -25,7 +27,7 @@ public class HealthResourceEndpoints {
   @Path("/health")
   @Produces(MediaType.TEXT_PLAIN)
   public Response healthCheck() {
-    System.out.println("[" + TimeUtils.getCurrentTimestamp() + "] [HealthCheck]   Server is healthy");
+    logger.debug("[HealthCheck]   Server is healthy");
 
     return Response.ok("Server is healthy").build();
   }
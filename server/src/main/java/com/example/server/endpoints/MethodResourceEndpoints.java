@@ -2,8 +2,10 @@ package com.example.server.endpoints;
 
 import java.util.Set;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.example.server.Main;
-import com.example.server.TimeUtils;
 
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.POST;
@@ -18,6 +20,8 @@ import jakarta.ws.rs.core.Response;
  */
 @Path("/files")
 public class MethodResourceEndpoints {
+  private static final Logger logger = LoggerFactory.getLogger(MethodResourceEndpoints.class);
+
   /**
    * Endpoint to change the current method.
    * This endpoint updates the method used in the server logic dynamically.
@@ -29,14 +33,15 @@ public class MethodResourceEndpoints {
   @Path("/method/{method}")
   @Produces(MediaType.TEXT_PLAIN)
   public Response updateCurrentMethod(@PathParam("method") String method) {
-    System.out.println("[" + TimeUtils.getCurrentTimestamp() + "] [ChangeMethod]  Changing method to: " + method);
+    logger.info("[ChangeMethod]  Changing method to: {}", method);
 
     //List of allowed methods
-    Set<String> allowedMethods = Set.of("presign", "iam", "accesspoints", "streamS3ObjectViaServer");
+    // "adaptive" picks presign or streamS3ObjectViaServer per request, see TransferPolicy
+    Set<String> allowedMethods = Set.of("presign", "iam", "accesspoints", "streamS3ObjectViaServer", "adaptive");
 
     if (!allowedMethods.contains(method)) {
       String message = "Invalid method: " + method + ". Allowed values are: " + String.join(", ", allowedMethods);
-      System.out.println("[" + TimeUtils.getCurrentTimestamp() + "] [ChangeMethod]   " + message);
+      logger.warn("[ChangeMethod]   {}", message);
       return Response.status(Response.Status.BAD_REQUEST).entity(message).build();
     }
 
@@ -60,7 +65,7 @@ public class MethodResourceEndpoints {
     //String message = "presign";
     String message = Main.getCurrentMethod();
 
-    System.out.println("[" + TimeUtils.getCurrentTimestamp() + "] [ModeSelection] Active file retrieval method = " + message);
+    logger.debug("[ModeSelection] Active file retrieval method = {}", message);
 
     return Response.ok(message).build();
   }
@@ -0,0 +1,29 @@
+package com.example.server.endpoints;
+
+import com.example.server.Main;
+
+// Jakarta
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * RESTful service exposing server metrics for Prometheus
+ */
+@Path("/files")
+public class MetricsResourceEndpoints {
+
+  /**
+   * Metrics endpoint in the Prometheus text exposition format: request latency histograms per endpoint and
+   * method, transfer bytes, in-flight transfers, STS cache, backend errors and limits.
+   *
+   * @return HTTP 200 OK with all metrics.
+   */
+  @GET
+  @Path("/metrics")
+  @Produces("text/plain; version=0.0.4; charset=utf-8")
+  public Response metrics() {
+    return Response.ok(Main.getMetrics().scrape()).build();
+  }
+}
@@ -1,29 +1,32 @@
 package com.example.server.endpoints.MultipartUploadPresign;
 
-import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.example.server.Main;
-import com.example.server.TimeUtils;
+import com.example.server.presignUtil.PresignerService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import jakarta.inject.Inject;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
 import software.amazon.awssdk.services.s3.model.S3Exception;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
-import software.amazon.awssdk.services.s3.presigner.model.AbortMultipartUploadPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedAbortMultipartUploadRequest;
 
 @Path("/files")
 public class AbortMultipartUploadResource {
+  private static final Logger logger = LoggerFactory.getLogger(AbortMultipartUploadResource.class);
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  @Inject
+  private PresignerService presignerService; // Shared presigner, bound in Main
+
   /**
    * Returns a presigned AbortMultipartUploadRequest.
    *
@@ -39,16 +42,15 @@ public class AbortMultipartUploadResource {
   public Response abortMultipartUploadPresign(@PathParam("fileName") String fileName, @PathParam("uploadId") String uploadId) {
 
     try {
-      System.out.println(String.format("[%s] [PresignedURL] Generating abort presigned URL for Upload ID: %s", TimeUtils.getCurrentTimestamp(), uploadId));
+      logger.debug("[PresignedURL] Generating abort presigned URL for Upload ID: {}", uploadId);
 
-      // Generate the presigned URL for aborting the multipart upload
+      // Generate the presigned URL for aborting the multipart upload (valid for 10 minutes)
       PresignedAbortMultipartUploadRequest presignedRequest = //
-        generateAbortMultipartUploadPresignedUrl(Main.getRegion(), Main.getBucketName(), fileName, uploadId);
+        presignerService.presignAbortMultipartUpload(Main.getBucketName(), fileName, uploadId);
 
       String url = presignedRequest.url().toString();
 
       // Build the JSON response containing the URL
-      ObjectMapper mapper = new ObjectMapper();
       ObjectNode responseJson = mapper.createObjectNode();
       responseJson.put("url", url);
 
@@ -57,37 +59,4 @@ public class AbortMultipartUploadResource {
       return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("{\"error\": \"Failed to generate abort presigned URL: " + e.getMessage() + "\"}").build();
     }
   }
-
-  /**
-   * Builds and presigns an AbortMultipartUploadRequest (valid for 10 minutes).
-   *
-   * @param region     AWS region of the target bucket
-   * @param bucketName target S3 bucket
-   * @param keyName    object key (i.e., file name) associated with the upload
-   * @param uploadId   multipart upload ID to abort
-   * @return presigned request that can be executed by a client to abort the upload
-   */
-  public static PresignedAbortMultipartUploadRequest generateAbortMultipartUploadPresignedUrl(Region region, String bucketName, String keyName, String uploadId) {
-
-    try (S3Presigner s3presigner = S3Presigner.builder() //
-      .region(region) //
-      .credentialsProvider(DefaultCredentialsProvider.create()) //
-      .build()) {
-
-      // Build the original abort request
-      AbortMultipartUploadRequest abortRequest = AbortMultipartUploadRequest.builder() //
-        .bucket(bucketName) //
-        .key(keyName) //
-        .uploadId(uploadId) //
-        .build();
-
-      // Wrap it in a presign request with a short expiration
-      AbortMultipartUploadPresignRequest presignRequest = AbortMultipartUploadPresignRequest.builder() //
-        .signatureDuration(Duration.ofMinutes(10)) //
-        .abortMultipartUploadRequest(abortRequest) //
-        .build();
-
-      return s3presigner.presignAbortMultipartUpload(presignRequest);
-    }
-  }
 }
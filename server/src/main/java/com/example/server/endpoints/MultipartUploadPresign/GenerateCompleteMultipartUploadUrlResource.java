@@ -1,14 +1,18 @@
 package com.example.server.endpoints.MultipartUploadPresign;
 
-import java.time.Duration;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import org.glassfish.grizzly.http.server.Request;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.example.server.Main;
-import com.example.server.TimeUtils;
+import com.example.server.limitUtil.LimitExceededException;
+import com.example.server.metricsUtil.RequestTiming;
+import com.example.server.presignUtil.PresignerService;
+import com.example.server.uploadServices.InvalidPartManifestException;
+import com.example.server.uploadServices.MultipartUploadSessions;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -16,26 +20,28 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import jakarta.inject.Inject;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
-import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
 import software.amazon.awssdk.services.s3.model.CompletedPart;
 import software.amazon.awssdk.services.s3.model.S3Exception;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
-import software.amazon.awssdk.services.s3.presigner.model.CompleteMultipartUploadPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedCompleteMultipartUploadRequest;
 
 @Path("/files")
 public class GenerateCompleteMultipartUploadUrlResource {
-  private static final Logger logger = LoggerFactory.getLogger(AbortMultipartUploadResource.class);
+  private static final Logger logger = LoggerFactory.getLogger(GenerateCompleteMultipartUploadUrlResource.class);
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  @Inject
+  private PresignerService presignerService; // Shared presigner, bound in Main
 
   /**
    * Endpoint to generate a presigned URL and its signed payload for completing a multipart upload to S3.
@@ -45,7 +51,7 @@ public class GenerateCompleteMultipartUploadUrlResource {
    *
    * 1. Convert the list of part DTOs (CompletedPartDTO) to AWS SDK CompletedPart objects.
    * 2. Build an S3 CompleteMultipartUploadRequest with the given parts and uploadId.
-   * 3. Use AWS S3Presigner to generate a presigned URL and its signed payload to complete the multipart upload.
+   * 3. Use the shared presigner to generate a presigned URL and its signed payload to complete the multipart upload.
    * 4. Return a JSON response containing both the presigned URL and the signed payload.
    *
    * Example usage:
@@ -76,13 +82,14 @@ public class GenerateCompleteMultipartUploadUrlResource {
           .build()) //
         .collect(Collectors.toList()); // Collect to list
 
-      String truncatedUploadId = uploadId.length() > 20 ? uploadId.substring(0, 20) + "..." : uploadId;
-      System.out.println(String.format("[%s] [PresignedURL]  Completing multipart upload for file '%s', uploadId '%s', total parts: %d", TimeUtils.getCurrentTimestamp(), fileName, truncatedUploadId, parts.size()));
-      System.out.println(String.format("Received parts details:  %s", new ObjectMapper().writeValueAsString(partsDto)));
+      if (logger.isDebugEnabled()) {
+        String truncatedUploadId = uploadId.length() > 20 ? uploadId.substring(0, 20) + "..." : uploadId;
+        logger.debug("[PresignedURL]  Completing multipart upload for file '{}', uploadId '{}', total parts: {}", fileName, truncatedUploadId, parts.size());
+      }
 
-      // 2) Generate the presigned request
+      // 2) Generate the presigned request (signature valid for 10 minutes)
       PresignedCompleteMultipartUploadRequest presignedRequest = //
-        generateCompleteMultipartUploadPresignedUrl(Main.getRegion(), Main.getBucketName(), fileName, uploadId, parts);
+        presignerService.presignCompleteMultipartUpload(Main.getBucketName(), fileName, uploadId, parts);
 
       //Extract the signed payload if present, which will be the parts that was added
       String signedPayload = presignedRequest.signedPayload() //
@@ -90,14 +97,14 @@ public class GenerateCompleteMultipartUploadUrlResource {
         .orElseThrow(() -> new RuntimeException("No signed payload")); // Fail if missing
 
       // Build the JSON response
-      ObjectMapper mapper = new ObjectMapper();
       ObjectNode responseJson = mapper.createObjectNode();
       responseJson.put("url", presignedRequest.url().toString()); // Add presigned URL
       responseJson.put("payload", signedPayload); // Add signed payload
 
-      System.out.println(String.format("[%s] [PresignedURL]  Completing upload with parts:", TimeUtils.getCurrentTimestamp()));
-      parts.forEach(part -> //
-      System.out.println(String.format("Part %d: ETag %s", part.partNumber(), part.eTag())));
+      // One line per part is only worth its cost when tracing a single upload
+      if (logger.isTraceEnabled()) {
+        parts.forEach(part -> logger.trace("[PresignedURL]  Part {}: ETag {}", part.partNumber(), part.eTag()));
+      }
 
       // Return successful response with JSON
       return Response.ok(mapper.writeValueAsString(responseJson)).build();
@@ -107,67 +114,82 @@ public class GenerateCompleteMultipartUploadUrlResource {
     }
   }
 
-  // ---------------------------------------------------------
-
   /**
-  * Builds and presigns a CompleteMultipartUploadRequest for AWS S3.
-  *
-  * This utility method:
-  * - Constructs a CompletedMultipartUpload object with the given parts.
-  * - Creates a CompleteMultipartUploadRequest with bucket, key, uploadId, and the parts payload.
-  * - Signs the request using the AWS S3Presigner with a 10-minute expiration.
-  *
-  * This presigned request can be used by clients to finalize the multipart upload to S3
-  * without needing AWS credentials directly.
-  *
-  * @param region      AWS region where the bucket is hosted.
-  * @param bucketName  The name of the S3 bucket.
-  * @param keyName     The key (filename) of the object being uploaded.
-  * @param uploadId    The ID of the multipart upload session.
-  * @param parts       List of CompletedPart objects representing uploaded parts.
-  * @return A PresignedCompleteMultipartUploadRequest containing URL and optional payload.
-  */
-  public static PresignedCompleteMultipartUploadRequest generateCompleteMultipartUploadPresignedUrl( //
-    Region region, String bucketName, String keyName, String uploadId, List<CompletedPart> parts) {
-
-    try (S3Presigner s3presigner = S3Presigner.builder().credentialsProvider(DefaultCredentialsProvider.create()).region(region).build()) {
-
-//      System.out.println("Part that is used for CompleteMultipartUpload");
-//      System.out.println(parts);
-//
-//      Collection<CompletedPart> cleanedParts = parts.stream() //
-//        .map(p -> CompletedPart.builder() //
-//          .partNumber(p.partNumber()) //
-//          .eTag(p.eTag().replace("\"", "")) //
-//          .build()) //
-//        .collect(Collectors.toList());
-//
-//      cleanedParts.forEach(System.out::println);
-//      System.out.println(cleanedParts);
-
-      // Build the CompletedMultipartUpload object with provided parts
-      CompletedMultipartUpload completedUpload = CompletedMultipartUpload.builder() //
-        .parts(parts) //
-        .build();
-
-      // Build the CompleteMultipartUploadRequest with all necessary fields
-      CompleteMultipartUploadRequest completeRequest = CompleteMultipartUploadRequest.builder() //
-        .bucket(bucketName) //
-        .key(keyName) //
-        .uploadId(uploadId) //
-        .multipartUpload(completedUpload) //
-        .build();
-
-      // Build the request to presign, setting a signature validity of 10 minutes
-      CompleteMultipartUploadPresignRequest presignRequest = //
-        CompleteMultipartUploadPresignRequest.builder() //
-          .signatureDuration(Duration.ofMinutes(10)) //
-          .completeMultipartUploadRequest(completeRequest) //
-          .build();
-
-      // Return the presigned request object
-      return s3presigner.presignCompleteMultipartUpload(presignRequest);
+   * Endpoint to complete a multipart upload on the server, instead of presigning the completion for the client.
+   *
+   * The client sends its part manifest once; the server checks it against the parts S3 lists for the upload
+   * (part numbers, ETags and, when given, sizes), completes the upload with the async S3 client and returns the
+   * result. This saves the client the presign round trip, the POST of the XML payload to S3 and parsing S3's answer.
+   *
+   * Example usage:
+   * POST /multipart-complete/myFile.txt/UPLOAD_ID
+   * Body: [ { "partNumber": 1, "eTag": "etag1", "size": 5242880 }, { "partNumber": 2, "eTag": "etag2", "size": 1024 } ]
+   *
+   * @param fileName - The name of the file (object key) in the S3 bucket.
+   * @param uploadId - The unique identifier for the multipart upload session.
+   * @param partsDto - List of DTOs representing each uploaded part (part number + ETag, optionally its size).
+   * @return HTTP 200 with JSON: { "key": "...", "eTag": "...", "size": 5243904, "parts": 2, "versionId": ..., "location": "..." },
+   *         409 with the problems if the manifest does not match the upload, 404 if there is no such upload, 503 if S3 is busy
+   */
+  @POST
+  @Path("/multipart-complete/{fileName}/{uploadId}")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  public void completeMultipartUpload( //
+    @PathParam("fileName") String fileName, //
+    @PathParam("uploadId") String uploadId, //
+    List<CompletedPartDTO> partsDto, //
+    @Suspended AsyncResponse asyncResponse, //
+    @Context Request request) {
+
+    if (partsDto == null) {
+      asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).entity("{\"error\": \"Missing part manifest\"}").build());
+      return;
     }
+
+    List<MultipartUploadSessions.ManifestPart> manifest = partsDto.stream() //
+      .map(dto -> new MultipartUploadSessions.ManifestPart(dto.getPartNumber(), dto.getETag(), dto.getSize() != null ? dto.getSize() : -1)) //
+      .collect(Collectors.toList());
+
+    RequestTiming timing = RequestTiming.of(request);
+    timing.time("complete", Main.getMultipartSessions().complete(fileName, uploadId, manifest)) //
+      .thenApply(completion -> {
+        timing.detail(logger, "[MultipartComplete]  Completed upload | Key: {} | Parts: {} | Bytes: {}", fileName, completion.parts(), completion.size());
+
+        ObjectNode responseJson = mapper.createObjectNode();
+        responseJson.put("key", completion.key());
+        responseJson.put("eTag", completion.eTag());
+        responseJson.put("size", completion.size());
+        responseJson.put("parts", completion.parts());
+        responseJson.put("versionId", completion.versionId());
+        responseJson.put("location", completion.location());
+        return Response.ok(responseJson.toString()).header(RequestTiming.HEADER, timing.header()).build();
+      }) //
+      .exceptionally(ex -> completionErrorResponse(ex, fileName, timing)) //
+      .thenAccept(asyncResponse::resume);
+  }
+
+  private static Response completionErrorResponse(Throwable ex, String fileName, RequestTiming timing) {
+    InvalidPartManifestException invalidManifest = InvalidPartManifestException.find(ex);
+    if (invalidManifest != null) {
+      logger.warn("[MultipartComplete]  Rejected part manifest | Key: {} | {}", fileName, invalidManifest.getMessage());
+      ObjectNode responseJson = mapper.createObjectNode();
+      responseJson.put("error", "Part manifest does not match the upload");
+      invalidManifest.problems().forEach(responseJson.putArray("problems")::add);
+      return Response.status(Response.Status.CONFLICT).entity(responseJson.toString()).header(RequestTiming.HEADER, timing.header()).build();
+    }
+
+    LimitExceededException limitExceeded = LimitExceededException.find(ex);
+    if (limitExceeded != null) {
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", limitExceeded.retryAfterSeconds()).header(RequestTiming.HEADER, timing.header()) //
+        .entity("{\"error\": \"Server busy, retry later\"}").build();
+    }
+
+    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+    logger.warn("[MultipartComplete]  Failed to complete upload | Key: {} | Error: {}", fileName, cause.getMessage());
+    int status = cause instanceof S3Exception && ((S3Exception)cause).statusCode() >= 400 ? ((S3Exception)cause).statusCode() : Response.Status.INTERNAL_SERVER_ERROR.getStatusCode();
+    return Response.status(status).header(RequestTiming.HEADER, timing.header()) //
+      .entity(mapper.createObjectNode().put("error", "Failed to complete multipart upload: " + cause.getMessage()).toString()).build();
   }
 
   // ---------------------------------------------------------
@@ -181,9 +203,12 @@ public class GenerateCompleteMultipartUploadUrlResource {
    * Example incoming JSON:
    * {
    *   "partNumber": 1,
-   *   "eTag": "etag-from-s3"
+   *   "eTag": "etag-from-s3",
+   *   "size": 5242880
    * }
    *
+   * The size is optional; /multipart-complete checks it against S3 when it is given.
+   *
    * Jackson is configured to use direct field access (ignoring getters), except where explicitly annotated.
    */
   @JsonAutoDetect( //
@@ -196,6 +221,8 @@ public class GenerateCompleteMultipartUploadUrlResource {
     @JsonProperty("eTag") // Explicitly map to lowercase field
     private String eTag;
 
+    private Long size; // Part size in bytes, null if the client did not send it
+
     // Getter for partNumber, required for serialization
     // and for mapping to AWS SDK's CompletedPart in generateCompleteMultipartUploadPresignedUrl.
     public int getPartNumber() {
@@ -208,6 +235,11 @@ public class GenerateCompleteMultipartUploadUrlResource {
       return eTag;
     }
 
+    // Getter for the part size, null when it was not sent
+    public Long getSize() {
+      return size;
+    }
+
     // Setter for partNumber, used by Jackson when deserializing incoming JSON into this DTO
     // Consumed in generateCompleteMultipartUploadPresignedUrl
     public void setPartNumber(int partNumber) {
@@ -219,6 +251,11 @@ public class GenerateCompleteMultipartUploadUrlResource {
     public void setETag(String eTag) {
       this.eTag = eTag;
     }
+
+    // Setter for the part size, used by Jackson when deserializing incoming JSON into this DTO
+    public void setSize(Long size) {
+      this.size = size;
+    }
   }
 
 }
@@ -1,29 +1,39 @@
 package com.example.server.endpoints.MultipartUploadPresign;
 
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.example.server.Main;
+import com.example.server.presignUtil.PresignerService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import jakarta.inject.Inject;
+import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.model.S3Exception;
-import software.amazon.awssdk.services.s3.model.UploadPartRequest;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
-import software.amazon.awssdk.services.s3.presigner.model.PresignedUploadPartRequest;
-import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
 
 @Path("/files")
 public class GetMultipartUrlResource {
-  private static final Logger logger = LoggerFactory.getLogger(AbortMultipartUploadResource.class);
+  private static final Logger logger = LoggerFactory.getLogger(GetMultipartUrlResource.class);
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private static final int MAX_PART_NUMBER = 10000; // S3 limit for parts in a multipart upload
+  private static final int MAX_BATCH_SIZE = 1000; // Upper bound of URLs signed in one batch request
+
+  @Inject
+  private PresignerService presignerService; // Shared presigner, bound in Main
 
   /**
    * Endpoint to generate a presigned URL for uploading a single part of a multipart S3 upload.
@@ -48,23 +58,121 @@ public class GetMultipartUrlResource {
     @PathParam("partNumber") int partNumber) {
 
     // Generate a presigned URL for this specific part of the upload
-    String presignedUrl = generatePresignedPartUrl(Main.getRegion(), Main.getBucketName(), fileName, uploadId, partNumber);
+    String presignedUrl = generatePresignedPartUrl(presignerService, Main.getBucketName(), fileName, uploadId, partNumber);
 
     // Truncated (shorten) upload id for nicer debugging
-    String truncatedUploadId = uploadId.length() > 20 ? uploadId.substring(0, 20) + "..." : uploadId;
-    System.out.println(String.format("   Generating presigned URL for part %d, of file %s\n" + "   Upload ID: %s", partNumber, fileName, truncatedUploadId));
+    if (logger.isDebugEnabled()) {
+      String truncatedUploadId = uploadId.length() > 20 ? uploadId.substring(0, 20) + "..." : uploadId;
+      logger.debug("[PresignedURL]  Generating presigned URL for part {}, of file {} | Upload ID: {}", partNumber, fileName, truncatedUploadId);
+    }
 
     // Return the presigned URL as a JSON response
     return Response.ok("{\"url\": \"" + presignedUrl + "\"}").build();
   }
 
+  /**
+   * Endpoint to generate presigned part URLs for several parts of a multipart S3 upload in one call.
+   *
+   * Clients request a window of parts up front instead of one round trip per part.
+   * The parts are given either as a range (start + count) or as a comma separated list.
+   *
+   * Example URLs:
+   *  /files/multipart-presign/myfile.txt/abc123uploadid?start=1&count=100
+   *  /files/multipart-presign/myfile.txt/abc123uploadid?partNumbers=3,7,8
+   *
+   * @param fileName    - The key (file name) to be stored in the S3 bucket
+   * @param uploadId    - The ID of the multipart upload session
+   * @param start       - The first part number of the range (1-based)
+   * @param count       - The number of parts in the range
+   * @param partNumbers - Comma separated part numbers, used instead of start/count when present
+   * @return A JSON response: { "urls": [ { "partNumber": 1, "url": "..." }, ... ] }, or 400 on invalid parts
+   */
+  @GET
+  @Path("/multipart-presign/{fileName}/{uploadId}")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getMultipartPresignedUrls( //
+    @PathParam("fileName") String fileName, //
+    @PathParam("uploadId") String uploadId, //
+    @QueryParam("start") @DefaultValue("1") int start, //
+    @QueryParam("count") @DefaultValue("0") int count, //
+    @QueryParam("partNumbers") String partNumbers) {
+
+    List<Integer> requestedParts;
+    try {
+      requestedParts = parsePartNumbers(start, count, partNumbers);
+    } catch (IllegalArgumentException e) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("{\"error\": \"" + e.getMessage() + "\"}").build();
+    }
+
+    if (logger.isDebugEnabled()) {
+      String truncatedUploadId = uploadId.length() > 20 ? uploadId.substring(0, 20) + "..." : uploadId;
+      logger.debug("[PresignedURL]  Generating presigned URLs for {} parts ({}..{}), of file {} | Upload ID: {}", requestedParts.size(), requestedParts.get(0), //
+        requestedParts.get(requestedParts.size() - 1), fileName, truncatedUploadId);
+    }
+
+    try {
+      ObjectNode responseJson = mapper.createObjectNode();
+      ArrayNode urls = responseJson.putArray("urls");
+      for(int partNumber : requestedParts) {
+        urls.addObject() //
+          .put("partNumber", partNumber) //
+          .put("url", generatePresignedPartUrl(presignerService, Main.getBucketName(), fileName, uploadId, partNumber));
+      }
+      return Response.ok(mapper.writeValueAsString(responseJson)).build();
+    } catch (S3Exception | JsonProcessingException e) {
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("{\"error\": \"Failed to generate presigned URLs: " + e.getMessage() + "\"}").build();
+    }
+  }
+
+  /**
+   * Resolves the requested part numbers of a batch request and validates them against S3's limits.
+   *
+   * @throws IllegalArgumentException if the parts are missing, out of range or exceed the batch size
+   */
+  private static List<Integer> parsePartNumbers(int start, int count, String partNumbers) {
+    List<Integer> parts = new ArrayList<>();
+
+    if (partNumbers != null && !partNumbers.isBlank()) {
+      for(String part : partNumbers.split(",")) {
+        try {
+          parts.add(Integer.parseInt(part.trim()));
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Invalid part number: " + part.trim());
+        }
+      }
+    } else {
+      if (count <= 0) {
+        throw new IllegalArgumentException("Either count or partNumbers is required");
+      }
+      if (count > MAX_BATCH_SIZE) {
+        throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " parts per request");
+      }
+      for(int partNumber = start; partNumber < start + count; partNumber++) {
+        parts.add(partNumber);
+      }
+    }
+
+    if (parts.isEmpty()) {
+      throw new IllegalArgumentException("No part numbers given");
+    }
+    if (parts.size() > MAX_BATCH_SIZE) {
+      throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " parts per request");
+    }
+    for(int partNumber : parts) {
+      if (partNumber < 1 || partNumber > MAX_PART_NUMBER) {
+        throw new IllegalArgumentException("Part numbers must be between 1 and " + MAX_PART_NUMBER);
+      }
+    }
+    return parts;
+  }
+
   /**
    * Helper method to generate a presigned PUT URL for uploading a specific part to S3.
    *
-   * This method creates an UploadPartRequest, then uses an S3Presigner to sign it,
+   * This method signs an UploadPartRequest with the shared presigner,
    * returning a URL that the client can use to upload the part directly to S3.
    *
-   * @param region     - The AWS region where the S3 bucket is hosted
+   * @param presigner  - The shared presigner service
    * @param bucketName - The S3 bucket name
    * @param keyName    - The key (file name) being uploaded
    * @param uploadId   - The multipart upload ID
@@ -72,31 +180,15 @@ public class GetMultipartUrlResource {
    * @return A presigned PUT URL as a string
    */
   public static String generatePresignedPartUrl( //
-    Region region, //
+    PresignerService presigner, //
     String bucketName, //
     String keyName, //
     String uploadId, //
     int partNumber) {
 
-    // Create the presigner with default AWS credentials and target region
-    try (S3Presigner s3presigner = S3Presigner.builder().credentialsProvider(DefaultCredentialsProvider.create()).region(region).build()) {
-
-      // Build the actual UploadPartRequest that will be signed
-      UploadPartRequest uploadPartRequest = UploadPartRequest.builder() //
-        .bucket(bucketName) //
-        .key(keyName) //
-        .uploadId(uploadId) //
-        .partNumber(partNumber).build();
-
-      // Create the presign request with a 10 min expiration
-      PresignedUploadPartRequest presignedRequest = s3presigner.presignUploadPart( //
-        UploadPartPresignRequest.builder() //
-          .signatureDuration(Duration.ofMinutes(10)) //
-          .uploadPartRequest(uploadPartRequest) //
-          .build());
-
-      // Return the presigned URL as a string
-      return presignedRequest.url().toString();
+    try {
+      // Reuse a cached URL or sign the UploadPartRequest with a 10 min expiration
+      return presigner.uploadPartUrl(bucketName, keyName, uploadId, partNumber);
     } catch (S3Exception e) {
       logger.error("Failed to generate presigned URL for part {}: {}", partNumber, e.getMessage(), e);
       throw e;
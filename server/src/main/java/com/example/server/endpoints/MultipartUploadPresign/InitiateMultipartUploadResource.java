@@ -1,25 +1,22 @@
 package com.example.server.endpoints.MultipartUploadPresign;
 
-import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.example.server.Main;
-import com.example.server.TimeUtils;
+import com.example.server.presignUtil.PresignerService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import jakarta.inject.Inject;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
-import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
 import software.amazon.awssdk.services.s3.model.S3Exception;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
-import software.amazon.awssdk.services.s3.presigner.model.CreateMultipartUploadPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedCreateMultipartUploadRequest;
 
 //Uploads are now aborted if the client encounters an error.
@@ -34,14 +31,22 @@ import software.amazon.awssdk.services.s3.presigner.model.PresignedCreateMultipa
 * Exposes the following endpoints:
 * <ul>
 *     <li><b>GET</b>  /files/multipart-initiate/{fileName} - Starts a multipart upload</li>
+*     <li><b>POST</b> /files/multipart-session/{fileName}?parts=&window= - Starts a multipart upload server-side and returns the uploadId with the first part URLs</li>
 *     <li><b>GET</b>  /files/multipart-presign/{fileName}/{uploadId}/{partNumber} - Returns a presigned PUT URL for each part of the upload</li>
+*     <li><b>GET</b>  /files/multipart-presign/{fileName}/{uploadId}?start=&count= - Returns presigned PUT URLs for a window of parts</li>
 *     <li><b>POST</b> /files/multipart-complete-presign/{fileName}/{uploadId} - Returns a presigned complete-upload request</li>
+*     <li><b>POST</b> /files/multipart-complete/{fileName}/{uploadId} - Checks the part manifest against S3 and completes the upload server-side</li>
 *     <li><b>GET</b>  /files/multipart-abort-presign/{fileName}/{uploadId} - Abort multipart upload")
 </li>
 * </ul>
 */
 @Path("/files")
 public class InitiateMultipartUploadResource {
+  private static final Logger logger = LoggerFactory.getLogger(InitiateMultipartUploadResource.class);
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  @Inject
+  private PresignerService presignerService; // Shared presigner, bound in Main
 
   /**
    * Initiates a multipart upload in S3 and returns a presigned POST URL + payload.
@@ -60,17 +65,17 @@ public class InitiateMultipartUploadResource {
   @Produces(MediaType.APPLICATION_JSON)
   public Response initiateMultipartUpload(@PathParam("fileName") String fileName) {
     try {
-      System.out.println(String.format("[%s] [PresignedURL]  Initiating multipart upload with presigned URL | Bucket: %s | Key: %s", TimeUtils.getCurrentTimestamp(), Main.getBucketName(), fileName));
+      logger.debug("[PresignedURL]  Initiating multipart upload with presigned URL | Bucket: {} | Key: {}", Main.getBucketName(), fileName);
 
       // Generate a presigned request to initiate a multipart upload
+      // CreateMultipartUploadPresignRequest requires a POST method. The client will send a POST request with no body.
       PresignedCreateMultipartUploadRequest presignedRequest = //
-        generateCreateMultipartUploadPresignedUrl(Main.getRegion(), Main.getBucketName(), fileName);
+        presignerService.presignCreateMultipartUpload(Main.getBucketName(), fileName);
 
       // Extract the presigned URL
       String url = presignedRequest.url().toString();
 
       // Prepare JSON response
-      ObjectMapper mapper = new ObjectMapper();
       ObjectNode responseJson = mapper.createObjectNode();
       responseJson.put("url", url);
 
@@ -80,43 +85,6 @@ public class InitiateMultipartUploadResource {
       return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("{\"error\": \"Failed to generate presigned URL: " + e.getMessage() + "\"}").build();
     }
   }
-
-  /**
-   * Generates a presigned CreateMultipartUploadRequest using the AWS SDK.
-   *
-   * This helper method builds the S3 request to start a multipart upload and signs it
-   * with a 10-minute expiration time. It uses the AWS SDK's S3Presigner with default credentials..
-   *
-   * @param region     the AWS region (e.g., us-east-1)
-   * @param bucketName the name of the S3 bucket
-   * @param keyName    the key (object name) for the upload
-   * @return a presigned request that can be used by a client to initiate a multipart upload
-   */
-  public static PresignedCreateMultipartUploadRequest generateCreateMultipartUploadPresignedUrl(Region region, String bucketName, String keyName) {
-
-    try (S3Presigner s3presigner = S3Presigner.builder() //
-      .credentialsProvider(DefaultCredentialsProvider //
-        .create()) //
-      .region(region) //
-      .build()) {
-
-      // Create the upload initiation request
-      CreateMultipartUploadRequest createRequest = CreateMultipartUploadRequest.builder() //
-        .bucket(bucketName) //
-        .key(keyName) //
-        .build();
-
-      // Build a presign request that includes the upload initiation and expiration
-      // CreateMultipartUploadPresignRequest requires a POST method. The client will send a POST request with no body.
-      CreateMultipartUploadPresignRequest presignRequest = CreateMultipartUploadPresignRequest.builder() //
-        .signatureDuration(Duration.ofMinutes(10)) //
-        .createMultipartUploadRequest(createRequest) //
-        .build();
-
-      // Return the fully signed request
-      return s3presigner.presignCreateMultipartUpload(presignRequest);
-    }
-  }
 }
 
 //List aborted parts in powershell:
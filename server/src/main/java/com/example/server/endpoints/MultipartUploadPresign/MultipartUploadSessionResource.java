@@ -0,0 +1,116 @@
+package com.example.server.endpoints.MultipartUploadPresign;
+
+import org.glassfish.grizzly.http.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.server.Main;
+import com.example.server.limitUtil.LimitExceededException;
+import com.example.server.metricsUtil.RequestTiming;
+import com.example.server.presignUtil.PresignerService;
+import com.example.server.uploadServices.MultipartUploadSessions;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+@Path("/files")
+public class MultipartUploadSessionResource {
+  private static final Logger logger = LoggerFactory.getLogger(MultipartUploadSessionResource.class);
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private static final int MAX_PART_NUMBER = 10000; // S3 limit for parts in a multipart upload
+  private static final int MAX_WINDOW_SIZE = 1000; // Same bound as a batch request to /multipart-presign
+
+  @Inject
+  private PresignerService presignerService; // Shared presigner, bound in Main
+
+  /**
+   * Starts a presigned multipart upload in one call: the server initiates the upload with its own credentials and
+   * returns the uploadId together with presigned PUT URLs for the first window of parts.
+   *
+   * Replaces /multipart-initiate, the client's POST to S3 and the first /multipart-presign request. Further windows
+   * are fetched from /multipart-presign as before. The session is kept until it expires
+   * (MULTIPART_SESSION_MINUTES); an upload that has not been finished by then is aborted.
+   *
+   * Example URL: POST /files/multipart-session/myfile.txt?parts=40&window=100
+   *
+   * @param fileName the object key to create in the S3 bucket
+   * @param parts    the number of parts the client will upload, 0 if unknown
+   * @param window   the number of part URLs to return, starting at part 1 (capped by parts)
+   * @return HTTP 200 with JSON { "uploadId": "...", "expiresAt": "...", "urls": [ { "partNumber": 1, "url": "..." }, ... ] },
+   *         400 on invalid parameters, 503 if S3 is at its concurrency limit, or the S3 error
+   */
+  @POST
+  @Path("/multipart-session/{fileName}")
+  @Produces(MediaType.APPLICATION_JSON)
+  public void startMultipartSession( //
+    @PathParam("fileName") String fileName, //
+    @QueryParam("parts") @DefaultValue("0") int parts, //
+    @QueryParam("window") @DefaultValue("100") int window, //
+    @Suspended AsyncResponse asyncResponse, //
+    @Context Request request) {
+
+    if (parts < 0 || parts > MAX_PART_NUMBER || window < 0 || window > MAX_WINDOW_SIZE) {
+      asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST) //
+        .entity("{\"error\": \"parts must be between 0 and " + MAX_PART_NUMBER + ", window between 0 and " + MAX_WINDOW_SIZE + "\"}").build());
+      return;
+    }
+
+    MultipartUploadSessions sessions = Main.getMultipartSessions();
+    RequestTiming timing = RequestTiming.of(request);
+    int urlCount = parts > 0 ? Math.min(window, parts) : window;
+
+    timing.time("initiate", sessions.start(fileName, parts)) //
+      .thenApply(session -> {
+        timing.begin("sign");
+        try {
+          ObjectNode responseJson = mapper.createObjectNode();
+          responseJson.put("uploadId", session.uploadId());
+          responseJson.put("expiresAt", sessions.expiresAt(session).toString());
+          ArrayNode urls = responseJson.putArray("urls");
+          for(int partNumber = 1; partNumber <= urlCount; partNumber++) {
+            urls.addObject() //
+              .put("partNumber", partNumber) //
+              .put("url", GetMultipartUrlResource.generatePresignedPartUrl(presignerService, Main.getBucketName(), fileName, session.uploadId(), partNumber));
+          }
+          timing.end("sign");
+
+          timing.detail(logger, "[MultipartSession]  Initiated upload with {} part URLs | Key: {} | {}", urlCount, fileName, sessions.summary());
+          return Response.ok(mapper.writeValueAsString(responseJson)).header(RequestTiming.HEADER, timing.header()).build();
+        } catch (JsonProcessingException e) {
+          throw new IllegalStateException(e);
+        }
+      }) //
+      .exceptionally(ex -> errorResponse(ex, fileName, timing)) //
+      .thenAccept(asyncResponse::resume);
+  }
+
+  private static Response errorResponse(Throwable ex, String fileName, RequestTiming timing) {
+    LimitExceededException limitExceeded = LimitExceededException.find(ex);
+    if (limitExceeded != null) {
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", limitExceeded.retryAfterSeconds()).header(RequestTiming.HEADER, timing.header()) //
+        .entity("{\"error\": \"Server busy, retry later\"}").build();
+    }
+
+    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+    logger.warn("[MultipartSession]  Failed to initiate upload | Key: {} | Error: {}", fileName, cause.getMessage());
+    int status = cause instanceof S3Exception && ((S3Exception)cause).statusCode() >= 400 ? ((S3Exception)cause).statusCode() : Response.Status.INTERNAL_SERVER_ERROR.getStatusCode();
+    return Response.status(status).header(RequestTiming.HEADER, timing.header()) //
+      .entity("{\"error\": \"Failed to initiate multipart upload: " + cause.getMessage() + "\"}").build();
+  }
+}
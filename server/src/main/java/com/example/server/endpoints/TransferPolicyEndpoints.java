@@ -0,0 +1,53 @@
+package com.example.server.endpoints;
+
+import com.example.server.Main;
+import com.example.server.policyUtil.TransferPolicy;
+
+// Jakarta
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+/**
+ * RESTful service for the per-request transfer method choice of "adaptive" mode
+ */
+@Path("/files")
+public class TransferPolicyEndpoints {
+
+  /**
+   * Shows what the download and upload policies have learned: the size from which presigned URLs win and the
+   * expected time of each method per size bucket.
+   *
+   * @return HTTP 200 OK with one block per direction.
+   */
+  @GET
+  @Path("/transfer-policy")
+  @Produces(MediaType.TEXT_PLAIN)
+  public Response describe() {
+    return Response.ok(Main.getDownloadPolicy().describe() + Main.getUploadPolicy().describe()).build();
+  }
+
+  /**
+   * Reports one finished adaptive transfer, timed by the client from its first request to the last byte.
+   * This is what the policies learn from: only the client sees the whole time of a presigned transfer.
+   *
+   * Example: POST /files/transfer-policy/feedback?direction=download&method=presign&bytes=1048576&millis=84
+   *
+   * @return HTTP 204 No Content, or 400 for an unknown direction or method.
+   */
+  @POST
+  @Path("/transfer-policy/feedback")
+  public Response feedback(@QueryParam("direction") String direction, @QueryParam("method") String method, @QueryParam("bytes") long bytes, @QueryParam("millis") double millis) {
+    TransferPolicy policy = "upload".equals(direction) ? Main.getUploadPolicy() : "download".equals(direction) ? Main.getDownloadPolicy() : null;
+    if (policy == null || !TransferPolicy.METHODS.contains(method)) {
+      return Response.status(Response.Status.BAD_REQUEST).entity("Unknown direction or method").build();
+    }
+
+    policy.report(method, bytes, (long)(millis * 1_000_000));
+    return Response.noContent().build();
+  }
+}
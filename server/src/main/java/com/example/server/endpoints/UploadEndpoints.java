@@ -4,22 +4,29 @@ import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.glassfish.grizzly.http.server.Request;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.example.server.Main;
-import com.example.server.TimeUtils;
+import com.example.server.limitUtil.BandwidthScheduler;
+import com.example.server.limitUtil.LimitExceededException;
+import com.example.server.metricsUtil.RequestTiming;
+import com.example.server.policyUtil.TransferPolicy;
 import com.example.server.STSutil.STSTokenCreator;
 import com.example.server.uploadServices.PresignedUrlUploadService;
 import com.example.server.uploadServices.StreamServerUploadService;
 
 // Import JAX-RS annotations
 import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.DefaultValue;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
 import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.PathParam;
 import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.container.AsyncResponse;
 import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.core.Context;
@@ -29,7 +36,6 @@ import jakarta.ws.rs.core.Response;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.S3Exception;
-import software.amazon.awssdk.services.sts.model.Credentials;
 
 /**
  * RESTful service for handling file uploads.
@@ -44,17 +50,20 @@ public class UploadEndpoints {
   @GET
   @Path("/upload-presign/{fileName}")
   @Produces(MediaType.APPLICATION_JSON)
-  public Response getPresignedUrlUploadController(@PathParam("fileName") String fileName) {
+  public Response getPresignedUrlUploadController(@PathParam("fileName") String fileName, @Context Request request) {
 
-    // Use "presign" mode only
-    if ("presign".equals(Main.getCurrentMethod())) {
+    // Use "presign" mode only (or "adaptive", where the client asked /upload-method first)
+    if ("presign".equals(Main.getCurrentMethod()) || "adaptive".equals(Main.getCurrentMethod())) {
       try {
         String bucketName = Main.getBucketName();
         Region region = Main.getRegion();
+        RequestTiming timing = RequestTiming.of(request);
+        long presignStart = System.nanoTime();
         String presignedUrl = PresignedUrlUploadService.createPresignedUrlUpload(region, bucketName, fileName);
+        timing.record("presign", System.nanoTime() - presignStart);
 
         // Return the presigned URL as a JSON response
-        return Response.ok("{\"url\": \"" + presignedUrl + "\"}").build();
+        return Response.ok("{\"url\": \"" + presignedUrl + "\"}").header(RequestTiming.HEADER, timing.header()).build();
       } catch (S3Exception e) {
         // Handle S3 errors
         return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("{\"error\": \"Error generating presigned URL: " + e.getMessage() + "\"}").build();
@@ -71,22 +80,56 @@ public class UploadEndpoints {
   @POST
   @Path("/upload-s3stream/{fileName}")
   @Consumes(MediaType.APPLICATION_OCTET_STREAM)
-  public void postStreamServerUploadController(@PathParam("fileName") String fileName, InputStream uploadedInputStream, @Suspended AsyncResponse asyncResponse, @Context HttpHeaders headers) {
+  public void postStreamServerUploadController(@PathParam("fileName") String fileName, InputStream uploadedInputStream, @Suspended AsyncResponse asyncResponse, @Context HttpHeaders headers, @Context Request request) {
 
-    String lengthHeader = headers.getHeaderString("Content-Length");
-    long contentLength = Long.parseLong(lengthHeader);
-
-    // Allow only if server is in "streamS3ObjectViaServer" mode
-    if (!"streamS3ObjectViaServer".equals(Main.getCurrentMethod())) {
+    // Allow only if server is in "streamS3ObjectViaServer" (or "adaptive") mode
+    if (!"streamS3ObjectViaServer".equals(Main.getCurrentMethod()) && !"adaptive".equals(Main.getCurrentMethod())) {
       asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).entity("Invalid upload method").build());
       return;
     }
 
     String bucketName = Main.getBucketName();
+    String lengthHeader = headers.getHeaderString("Content-Length");
+    String clientId = Main.getUploadBandwidth().clientId(headers.getHeaderString(BandwidthScheduler.CLIENT_ID_HEADER), request.getRemoteAddr());
+    RequestTiming timing = RequestTiming.of(request);
+
+    // Without Content-Length (chunked) the size is unknown (-1), so parts are cut from the stream as it arrives
+    long contentLength = -1;
+    if (lengthHeader != null && !lengthHeader.isBlank()) {
+      try {
+        contentLength = Long.parseLong(lengthHeader.trim());
+      } catch (NumberFormatException e) {
+        asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).entity("Invalid Content-Length").build());
+        return;
+      }
+    }
+
+    // UPLOAD_PIPELINE=false sends uploads with a known length through the SDK's putObject instead
+    if (contentLength < 0 || Main.isUploadPipelineEnabled()) {
+      StreamServerUploadService.asyncPipelinedUpload(Main.getUploadPipeline(), bucketName, fileName, uploadedInputStream, contentLength, clientId, timing, asyncResponse);
+      return;
+    }
+
     S3AsyncClient asyncClient = Main.getAsyncS3MultiClient();
 
     // Upload the stream to S3 asynchronously
-    StreamServerUploadService.asyncMultipartUpload(asyncClient, bucketName, fileName, uploadedInputStream, contentLength, asyncResponse);
+    StreamServerUploadService.asyncMultipartUpload(asyncClient, bucketName, fileName, uploadedInputStream, contentLength, clientId, timing, asyncResponse);
+  }
+
+  /**
+   * Picks the upload method for a file of the given size. In "adaptive" mode the upload {@link TransferPolicy} picks
+   * presign or streamS3ObjectViaServer (stream when the size is unknown); in any other mode the server's method is returned.
+   * The client then uses the endpoint of that method.
+   */
+  @GET
+  @Path("/upload-method")
+  @Produces(MediaType.TEXT_PLAIN)
+  public Response getUploadMethod(@QueryParam("size") @DefaultValue("-1") long size, @HeaderParam(TransferPolicy.CAPABILITIES_HEADER) String capabilities) {
+    String method = Main.getCurrentMethod();
+    if ("adaptive".equals(method)) {
+      method = size < 0 ? TransferPolicy.STREAM : Main.getUploadPolicy().choose(size, TransferPolicy.capabilities(capabilities));
+    }
+    return Response.ok(method).header(TransferPolicy.METHOD_HEADER, method).build();
   }
 
   /**
@@ -95,36 +138,42 @@ public class UploadEndpoints {
   @GET
   @Path("/upload-accesspoint/{fileName}/{clientId}")
   @Produces(MediaType.APPLICATION_JSON)
-  public void getAccessPointUploadController(@PathParam("fileName") String fileName, @PathParam("clientId") String clientId, @Suspended AsyncResponse asyncResponse, @Context HttpHeaders headers) {
+  public void getAccessPointUploadController(@PathParam("fileName") String fileName, @PathParam("clientId") String clientId, @Suspended AsyncResponse asyncResponse, @Context HttpHeaders headers, @Context Request request) {
 
-    Map<String, String> response = new HashMap<>();
     String accesspointArn = Main.accesspointArn();
 
-    try {
-      // Generate temporary credentials using STS
-      Credentials credential = STSTokenCreator.generateSTSToken(clientId);
-
-      // Validate required parameters
-      if (credential == null || accesspointArn == null || fileName == null || fileName.isBlank()) {
-        throw new IllegalArgumentException("Missing required parameters or credentials.");
-      }
-
-      // Prepare response with credentials and access point info
-      response.put("accesspointArn", accesspointArn);
-      response.put("accessKeyId", credential.accessKeyId());
-      response.put("secretAccessKey", credential.secretAccessKey());
-      response.put("sessionToken", credential.sessionToken());
-
-      asyncResponse.resume(Response.ok(response).build());
-
-    } catch (Exception e) {
-      e.printStackTrace();
-
-      logger.info(String.format("[%s] [AccessPoint]   Failed to retrieve credentials or access point alias | Error: %s | File: %s", TimeUtils.getCurrentTimestamp(), e.getMessage(), fileName));
-
-      // Return error response
-      asyncResponse.resume(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(Map.of("error", "Failed to retrieve credentials or access point")).type(MediaType.APPLICATION_JSON).build());
+    // Validate required parameters before calling STS
+    if (accesspointArn == null || fileName == null || fileName.isBlank()) {
+      logger.warn("[AccessPoint]   Missing required parameters | File: {}", fileName);
+      asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).entity(Map.of("error", "Missing required parameters")).type(MediaType.APPLICATION_JSON).build());
+      return;
     }
+
+    // Generate temporary credentials using STS; the worker thread is released while STS responds
+    RequestTiming timing = RequestTiming.of(request);
+    timing.time("sts", STSTokenCreator.generateSTSToken(clientId)) //
+      .thenApply(credential -> {
+        // Prepare response with credentials and access point info
+        Map<String, String> response = new HashMap<>();
+        response.put("accesspointArn", accesspointArn);
+        response.put("accessKeyId", credential.accessKeyId());
+        response.put("secretAccessKey", credential.secretAccessKey());
+        response.put("sessionToken", credential.sessionToken());
+
+        return Response.ok(response).header(RequestTiming.HEADER, timing.header()).build();
+      }) //
+      .exceptionally(ex -> {
+        LimitExceededException limitExceeded = LimitExceededException.find(ex);
+        if (limitExceeded != null) {
+          // STS is at its concurrency limit: tell the client when to retry instead of queueing the request
+          return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", limitExceeded.retryAfterSeconds()).header(RequestTiming.HEADER, timing.header()).entity(Map.of("error", "Server busy, retry later")).type(MediaType.APPLICATION_JSON).build();
+        }
+        logger.warn("[AccessPoint]   Failed to retrieve credentials or access point alias | Error: {} | File: {}", ex.getMessage(), fileName);
+
+        // Return error response
+        return Response.status(Response.Status.INTERNAL_SERVER_ERROR).header(RequestTiming.HEADER, timing.header()).entity(Map.of("error", "Failed to retrieve credentials or access point")).type(MediaType.APPLICATION_JSON).build();
+      }) //
+      .thenAccept(asyncResponse::resume);
   }
 
 }
@@ -0,0 +1,173 @@
+package com.example.server.limitUtil;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive concurrency limit for one operation type, in the style of a gradient (Vegas-like) limiter.
+ *
+ * The limit follows the ratio between the lowest latency seen and the current smoothed latency: while latency
+ * stays near the minimum the limit grows by about sqrt(limit) per update, and when requests start queueing
+ * (latency rises) it shrinks towards the concurrency the backend can serve at that latency. Throttling and
+ * timeouts cut the limit multiplicatively. Requests above the limit are rejected at once instead of queueing.
+ * Whole-body transfers carry no latency sample; their successes only grow the limit additively.
+ *
+ * The minimum latency is re-learned every {@value #MIN_RTT_RESET_SAMPLES} samples, so a lasting change in
+ * backend latency is picked up.
+ */
+public class AdaptiveLimiter {
+  private static final int MIN_RTT_RESET_SAMPLES = 1000;
+  private static final double SMOOTHING = 0.2;
+  private static final double RTT_SMOOTHING = 0.1;
+  private static final double BACKOFF_RATIO = 0.9;
+
+  private final String operation;
+  private final int minLimit;
+  private final int maxLimit;
+  private final double tolerance;
+
+  // Guarded by this
+  private double limit;
+  private int inFlight;
+  private long minRttNanos = Long.MAX_VALUE;
+  private double smoothedRttNanos;
+  private long samples;
+
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+
+  /**
+   * @param operation    operation type, e.g. "GetObject"
+   * @param initialLimit starting limit
+   * @param minLimit     the limit never drops below this
+   * @param maxLimit     the limit never grows above this
+   * @param tolerance    how far latency may rise above the minimum before the limit shrinks (e.g. 1.5)
+   */
+  public AdaptiveLimiter(String operation, int initialLimit, int minLimit, int maxLimit, double tolerance) {
+    this.operation = operation;
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.tolerance = Math.max(1.0, tolerance);
+    this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+  }
+
+  /**
+   * Takes a slot if the limit allows it.
+   *
+   * @return false if the operation must be rejected
+   */
+  public synchronized boolean tryAcquire() {
+    if (inFlight >= (int)limit) {
+      rejected.increment();
+      return false;
+    }
+    inFlight++;
+    return true;
+  }
+
+  /**
+   * Takes a slot even above the limit, for work that belongs to an already admitted request.
+   */
+  public synchronized void acquire() {
+    inFlight++;
+  }
+
+  /**
+   * Releases a slot and feeds the latency of a completed operation into the limit.
+   */
+  public synchronized void onSuccess(long rttNanos) {
+    boolean limitInUse = inFlight >= limit / 2;
+    inFlight--;
+    completed.increment();
+
+    if (++samples % MIN_RTT_RESET_SAMPLES == 0) {
+      minRttNanos = rttNanos;
+    }
+    minRttNanos = Math.min(minRttNanos, rttNanos);
+    smoothedRttNanos = smoothedRttNanos == 0 ? rttNanos : smoothedRttNanos * (1 - RTT_SMOOTHING) + rttNanos * RTT_SMOOTHING;
+
+    // Only adjust while the limit is actually used, otherwise an idle server would raise it forever
+    if (!limitInUse) {
+      return;
+    }
+    double gradient = Math.max(0.5, Math.min(1.0, tolerance * minRttNanos / smoothedRttNanos));
+    double newLimit = limit * gradient + Math.sqrt(limit);
+    limit = clamp(limit * (1 - SMOOTHING) + newLimit * SMOOTHING);
+  }
+
+  /**
+   * Releases a slot after a successful whole-body transfer, whose duration is not a latency sample. While the limit
+   * is in use it grows by the same additive step as at the minimum latency, so the limit of an operation that only
+   * transfers bodies recovers after throttling instead of staying backed off.
+   */
+  public synchronized void onTransferSuccess() {
+    boolean limitInUse = inFlight >= limit / 2;
+    inFlight--;
+    completed.increment();
+    if (limitInUse) {
+      limit = clamp(limit * (1 - SMOOTHING) + (limit + Math.sqrt(limit)) * SMOOTHING);
+    }
+  }
+
+  /**
+   * Releases a slot after throttling or a timeout, and backs the limit off.
+   */
+  public synchronized void onDropped() {
+    inFlight--;
+    dropped.increment();
+    limit = clamp(limit * BACKOFF_RATIO);
+  }
+
+  /**
+   * Releases a slot without a latency sample, e.g. after a client error or a cancel.
+   */
+  public synchronized void onIgnore() {
+    inFlight--;
+  }
+
+  /**
+   * @return seconds a rejected client should wait, about one smoothed latency and at least 1
+   */
+  public synchronized long retryAfterSeconds() {
+    return Math.max(1, (long)Math.ceil(smoothedRttNanos / 1e9));
+  }
+
+  public String operation() {
+    return operation;
+  }
+
+  public synchronized int limit() {
+    return (int)limit;
+  }
+
+  public synchronized int inFlight() {
+    return inFlight;
+  }
+
+  /**
+   * @return the lowest latency in the current sample window, or 0 before the first sample
+   */
+  public synchronized long minRttNanos() {
+    return minRttNanos == Long.MAX_VALUE ? 0 : minRttNanos;
+  }
+
+  public synchronized long smoothedRttNanos() {
+    return (long)smoothedRttNanos;
+  }
+
+  public long completedCount() {
+    return completed.sum();
+  }
+
+  public long rejectedCount() {
+    return rejected.sum();
+  }
+
+  public long droppedCount() {
+    return dropped.sum();
+  }
+
+  private double clamp(double value) {
+    return Math.min(maxLimit, Math.max(minLimit, value));
+  }
+}
@@ -0,0 +1,421 @@
+package com.example.server.limitUtil;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Per-client fair share of the bandwidth of one direction (downloads or uploads) of the stream-via-server paths.
+ *
+ * Every client has a token bucket that all of its transfers draw from, so a client running 100 transfers gets no
+ * more than a client running one. The bucket rates are a weighted fair split of the configured total over the
+ * clients that currently have a transfer running: each client gets total * weight / sum of active weights, capped
+ * at its tier's maximum, and whatever a capped client leaves is split among the others. Rates are recomputed
+ * when a client starts or finishes its transfers. With a total of 0 only the tier caps apply, and a tier cap of 0
+ * means no cap, so by default nothing is paced and the scheduler only measures.
+ *
+ * Transfers report the bytes they moved and get back how long to pause: the reactive download path delays its
+ * next request by that long, blocking upload reads sleep.
+ *
+ * Clients are scheduled by remote address. The X-Client-Id header is only honoured for ids listed in the client
+ * tiers, so a client cannot escape its share by sending a new id with every transfer. The header is not
+ * authenticated: anyone who knows a listed id can claim its tier, so in deployments where that matters it has to be
+ * set (and stripped from client requests) by an authenticating proxy in front of the server.
+ */
+public class BandwidthScheduler {
+  public static final String CLIENT_ID_HEADER = "X-Client-Id";
+
+  private static final int MAX_CLIENT_ID_LENGTH = 128;
+  private static final long MIN_BURST_BYTES = 256 * 1024;
+  private static final double RATE_SMOOTHING = 0.3;
+  private static final long IDLE_EVICT_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+  private final String direction;
+  private final long totalBytesPerSecond;
+  private final Map<String, Tier> tiers;
+  private final Map<String, String> clientTiers;
+  private final Tier defaultTier;
+  private final Map<String, Client> clients = new ConcurrentHashMap<>();
+  private final LongAdder totalBytes = new LongAdder();
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * A client tier: its weight in the fair split and its own cap.
+   *
+   * @param weight            share of the total relative to other active clients
+   * @param maxBytesPerSecond cap per client of this tier, 0 for none
+   */
+  public record Tier(String name, int weight, long maxBytesPerSecond) {
+
+    /**
+     * Parses "name=weight:maxMBps,..." e.g. "standard=1:0,premium=4:200".
+     */
+    public static Map<String, Tier> parse(String spec) {
+      Map<String, Tier> tiers = new LinkedHashMap<>();
+      for(String entry : spec.split(",")) {
+        if (entry.isBlank()) {
+          continue;
+        }
+        String[] nameAndValues = entry.trim().split("=", 2);
+        String[] values = nameAndValues.length == 2 ? nameAndValues[1].split(":", 2) : new String[0];
+        if (values.length != 2) {
+          throw new IllegalArgumentException("Invalid bandwidth tier (expected name=weight:maxMBps): " + entry);
+        }
+        String name = nameAndValues[0].trim();
+        tiers.put(name, new Tier(name, Math.max(1, Integer.parseInt(values[0].trim())), Long.parseLong(values[1].trim()) * 1024 * 1024));
+      }
+      return tiers;
+    }
+  }
+
+  /**
+   * Throughput of one client, for logging and metrics.
+   */
+  public record ClientStats(String clientId, String tier, int activeTransfers, long bytes, long bytesPerSecond, long allocatedBytesPerSecond) {
+  }
+
+  /**
+   * @param direction           "download" or "upload", for logging
+   * @param totalBytesPerSecond bandwidth shared by all clients, 0 for no total limit
+   * @param tiers               client tiers by name
+   * @param clientTiers         tier name per client id; other clients get the default tier
+   * @param defaultTier         tier of clients not listed in clientTiers
+   */
+  public BandwidthScheduler(String direction, long totalBytesPerSecond, Map<String, Tier> tiers, Map<String, String> clientTiers, String defaultTier) {
+    this.direction = direction;
+    this.totalBytesPerSecond = totalBytesPerSecond;
+    this.tiers = tiers;
+    this.clientTiers = clientTiers;
+    this.defaultTier = tiers.getOrDefault(defaultTier, new Tier(defaultTier, 1, 0));
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "bandwidth-" + direction);
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Samples per-client throughput once a second and forgets clients idle for a while
+    scheduler.scheduleAtFixedRate(this::sample, 1, 1, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Parses "clientId=tier,..." e.g. "batch-job=standard,dashboard=premium".
+   */
+  public static Map<String, String> parseClientTiers(String spec) {
+    Map<String, String> clientTiers = new HashMap<>();
+    for(String entry : spec.split(",")) {
+      String[] clientAndTier = entry.trim().split("=", 2);
+      if (clientAndTier.length == 2) {
+        clientTiers.put(clientAndTier[0].trim(), clientAndTier[1].trim());
+      }
+    }
+    return clientTiers;
+  }
+
+  /**
+   * @param headerValue   the X-Client-Id request header, or null
+   * @param remoteAddress the client's address, used when the header is missing or names no listed client
+   * @return the id the client is scheduled under
+   */
+  public String clientId(String headerValue, String remoteAddress) {
+    if (headerValue != null && !headerValue.isBlank()) {
+      String clientId = headerValue.trim();
+      if (clientId.length() <= MAX_CLIENT_ID_LENGTH && isListed(clientId)) {
+        return clientId;
+      }
+    }
+    return remoteAddress != null ? remoteAddress : "anonymous";
+  }
+
+  /**
+   * @return true if the client id has its own entry in the client tiers
+   */
+  public boolean isListed(String clientId) {
+    return clientTiers.containsKey(clientId);
+  }
+
+  /**
+   * Starts a transfer for the client. It must be closed when the transfer ends.
+   */
+  public Transfer open(String clientId) {
+    Client client;
+    synchronized (this) {
+      client = clients.computeIfAbsent(clientId, id -> new Client(id, tiers.getOrDefault(clientTiers.get(id), defaultTier)));
+      if (client.activeTransfers++ == 0) {
+        allocate();
+      }
+    }
+    return new Transfer(client);
+  }
+
+  /**
+   * @return throughput per client, busiest first
+   */
+  public synchronized List<ClientStats> clientStats() {
+    return clients.values().stream() //
+      .map(Client::stats) //
+      .sorted(Comparator.comparingLong(ClientStats::bytesPerSecond).reversed()) //
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * @return a one-line summary of the busiest clients, for logging
+   */
+  public String summary() {
+    List<ClientStats> stats = clientStats();
+    return String.format("%s bandwidth: %d clients | ", direction, stats.size()) + stats.stream().limit(5) //
+      .map(s -> String.format("%s (%s) %.1f MB/s of %s, %d active", s.clientId(), s.tier(), s.bytesPerSecond() / 1048576.0, describeAllocation(s), s.activeTransfers())) //
+      .collect(Collectors.joining(" | "));
+  }
+
+  private static String describeAllocation(ClientStats stats) {
+    if (stats.activeTransfers() == 0) {
+      return "idle";
+    }
+    return stats.allocatedBytesPerSecond() > 0 ? String.format("%.1f MB/s", stats.allocatedBytesPerSecond() / 1048576.0) : "unlimited";
+  }
+
+  /**
+   * @return bytes moved by all clients since startup, including clients that have since been forgotten
+   */
+  public long totalBytes() {
+    return totalBytes.sum();
+  }
+
+  /**
+   * @return transfers running right now, over all clients
+   */
+  public synchronized int activeTransfers() {
+    return clients.values().stream().mapToInt(client -> client.activeTransfers).sum();
+  }
+
+  public String direction() {
+    return direction;
+  }
+
+  public void close() {
+    scheduler.shutdownNow();
+  }
+
+  private synchronized void release(Client client) {
+    if (--client.activeTransfers == 0) {
+      allocate();
+    }
+  }
+
+  // Weighted max-min fair split of the total over the active clients (water-filling); guarded by this
+  private void allocate() {
+    List<Client> active = new ArrayList<>();
+    for(Client client : clients.values()) {
+      if (client.activeTransfers > 0) {
+        active.add(client);
+      } else {
+        client.bucket.setRate(0);
+      }
+    }
+
+    if (totalBytesPerSecond <= 0) {
+      active.forEach(client -> client.bucket.setRate(client.tier.maxBytesPerSecond()));
+      return;
+    }
+
+    // Clients whose cap is below their fair share get the cap; the rest split what is left by weight
+    long remaining = totalBytesPerSecond;
+    boolean capped = true;
+    while (capped && !active.isEmpty()) {
+      capped = false;
+      long weights = active.stream().mapToLong(client -> client.tier.weight()).sum();
+      for(Client client : new ArrayList<>(active)) {
+        long cap = client.tier.maxBytesPerSecond();
+        if (cap > 0 && cap < remaining * client.tier.weight() / weights) {
+          client.bucket.setRate(cap);
+          remaining -= cap;
+          active.remove(client);
+          capped = true;
+        }
+      }
+    }
+    long weights = active.stream().mapToLong(client -> client.tier.weight()).sum();
+    for(Client client : active) {
+      client.bucket.setRate(Math.max(1, remaining * client.tier.weight() / weights));
+    }
+  }
+
+  private void sample() {
+    long now = System.nanoTime();
+    synchronized (this) {
+      for(Client client : clients.values()) {
+        client.sample(now);
+        if (client.activeTransfers == 0 && now - client.lastActiveNanos > IDLE_EVICT_NANOS) {
+          clients.remove(client.clientId);
+        }
+      }
+    }
+  }
+
+  /**
+   * One running transfer of a client.
+   */
+  public final class Transfer implements AutoCloseable {
+    private final Client client;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private Transfer(Client client) {
+      this.client = client;
+    }
+
+    public String clientId() {
+      return client.clientId;
+    }
+
+    /**
+     * Records bytes sent or received.
+     *
+     * @return nanoseconds to wait before moving more data, 0 to continue at once
+     */
+    public long consume(long bytes) {
+      client.bytes.add(bytes);
+      totalBytes.add(bytes);
+      return client.bucket.consume(bytes);
+    }
+
+    /**
+     * Records bytes and blocks the calling thread for the pause they earn.
+     */
+    public void pace(long bytes) throws InterruptedIOException {
+      long pauseNanos = consume(bytes);
+      if (pauseNanos > 0) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(pauseNanos);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while pacing " + direction + " of client " + client.clientId);
+        }
+      }
+    }
+
+    /**
+     * Runs the task after the given pause, without blocking the caller.
+     */
+    public void schedule(Runnable task, long pauseNanos) {
+      scheduler.schedule(task, pauseNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the stream, with every read paced by this transfer
+     */
+    public InputStream pace(InputStream in) {
+      return new FilterInputStream(in) {
+        @Override
+        public int read() throws IOException {
+          int b = super.read();
+          if (b >= 0) {
+            pace(1);
+          }
+          return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+          int read = super.read(b, off, len);
+          if (read > 0) {
+            pace(read);
+          }
+          return read;
+        }
+      };
+    }
+
+    @Override
+    public void close() {
+      if (closed.compareAndSet(false, true)) {
+        release(client);
+      }
+    }
+  }
+
+  // Per-client state; everything but the bucket and the byte count is guarded by the scheduler
+  private static final class Client {
+    private final String clientId;
+    private final Tier tier;
+    private final TokenBucket bucket = new TokenBucket();
+    private final LongAdder bytes = new LongAdder();
+    private int activeTransfers;
+    private long lastActiveNanos = System.nanoTime();
+    private long bytesPerSecond;
+    private long lastSampleBytes;
+    private long lastSampleNanos = System.nanoTime();
+
+    private Client(String clientId, Tier tier) {
+      this.clientId = clientId;
+      this.tier = tier;
+    }
+
+    private void sample(long now) {
+      long total = bytes.sum();
+      double seconds = (now - lastSampleNanos) / 1e9;
+      double rate = seconds > 0 ? (total - lastSampleBytes) / seconds : 0;
+      bytesPerSecond = (long)(bytesPerSecond * (1 - RATE_SMOOTHING) + rate * RATE_SMOOTHING);
+      if (total != lastSampleBytes || activeTransfers > 0) {
+        lastActiveNanos = now;
+      }
+      lastSampleBytes = total;
+      lastSampleNanos = now;
+    }
+
+    private ClientStats stats() {
+      return new ClientStats(clientId, tier.name(), activeTransfers, bytes.sum(), bytesPerSecond, bucket.rate());
+    }
+  }
+
+  // Token bucket refilled at the allocated rate; a rate of 0 means unlimited. Tokens may go negative, so a large
+  // buffer is always let through and paid for by the pause that follows it.
+  private static final class TokenBucket {
+    private long rate;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    private synchronized void setRate(long bytesPerSecond) {
+      refill(System.nanoTime());
+      rate = bytesPerSecond;
+      tokens = Math.min(tokens, burst());
+    }
+
+    private synchronized long rate() {
+      return rate;
+    }
+
+    private synchronized long consume(long bytes) {
+      if (rate <= 0) {
+        return 0;
+      }
+      refill(System.nanoTime());
+      tokens -= bytes;
+      return tokens >= 0 ? 0 : (long)(-tokens * 1e9 / rate);
+    }
+
+    private void refill(long now) {
+      if (rate > 0) {
+        tokens = Math.min(burst(), tokens + (now - lastRefillNanos) * rate / 1e9);
+      }
+      lastRefillNanos = now;
+    }
+
+    // About 100 ms of traffic, so a paused transfer can catch up briefly but not hog the link
+    private long burst() {
+      return Math.max(MIN_BURST_BYTES, rate / 10);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package com.example.server.limitUtil;
+
+/**
+ * Thrown (or used to fail a future) when an operation is rejected because its concurrency limit is reached.
+ * Mapped to 503 Service Unavailable with a Retry-After header.
+ */
+public class LimitExceededException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  private final String operation;
+  private final long retryAfterSeconds;
+
+  public LimitExceededException(String operation, int limit, long retryAfterSeconds) {
+    super(operation + " concurrency limit of " + limit + " reached");
+    this.operation = operation;
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+
+  public String operation() {
+    return operation;
+  }
+
+  public long retryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  /**
+   * @return the LimitExceededException in the cause chain (futures wrap it), or null if there is none
+   */
+  public static LimitExceededException find(Throwable throwable) {
+    for(Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      if (cause instanceof LimitExceededException limitExceeded) {
+        return limitExceeded;
+      }
+    }
+    return null;
+  }
+}
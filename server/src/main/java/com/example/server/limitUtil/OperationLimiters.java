@@ -0,0 +1,189 @@
+package com.example.server.limitUtil;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+/**
+ * One {@link AdaptiveLimiter} per operation type of a service (S3 or STS), created on first use.
+ *
+ * {@link #call} admits new work and fails fast with {@link LimitExceededException} when the operation is at its
+ * limit. {@link #track} is for calls that belong to an already admitted request (e.g. the further parts of a
+ * download): they are counted and measured, but never rejected, so a transfer is not failed halfway.
+ *
+ * For streaming GETs the future completes when the response headers arrive, so the measured latency is
+ * time to first byte and the slot is free while the body streams.
+ *
+ * Calls whose future completes only after the whole body moved (a PutObject streaming the client's upload, a GET
+ * into memory) go through {@link #callTransfer} / {@link #trackTransfer}: they hold a slot for the transfer and
+ * still back the limit off on throttling, but their duration is not a latency sample. It depends on the size and
+ * on the client, so one large or paced transfer would otherwise read as a slow backend and shrink the limit.
+ * A successful transfer grows the limit additively instead, so it recovers once throttling stops.
+ */
+public class OperationLimiters {
+  private final String service;
+  private final int initialLimit;
+  private final int minLimit;
+  private final int maxLimit;
+  private final double tolerance;
+  private final Map<String, AdaptiveLimiter> limiters = new ConcurrentHashMap<>();
+  private final Map<Failure, LongAdder> errors = new ConcurrentHashMap<>();
+
+  /**
+   * A kind of failed call: the HTTP status of a service error, "timeout", or "client" for anything else
+   * (connection and SDK errors).
+   */
+  public record Failure(String operation, String code) {
+  }
+
+  /**
+   * @param service      service name for logging, e.g. "S3"
+   * @param initialLimit starting limit of each operation
+   * @param minLimit     lowest limit of each operation
+   * @param maxLimit     highest limit of each operation
+   * @param tolerance    latency rise over the minimum that is tolerated before limits shrink
+   */
+  public OperationLimiters(String service, int initialLimit, int minLimit, int maxLimit, double tolerance) {
+    this.service = service;
+    this.initialLimit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.tolerance = tolerance;
+  }
+
+  /**
+   * Starts the call if the operation is below its limit.
+   *
+   * @return the call's future, or a future failed with {@link LimitExceededException}
+   */
+  public <T> CompletableFuture<T> call(String operation, Supplier<CompletableFuture<T>> call) {
+    AdaptiveLimiter limiter = limiter(operation);
+    if (!limiter.tryAcquire()) {
+      return CompletableFuture.failedFuture(new LimitExceededException(service + " " + operation, limiter.limit(), limiter.retryAfterSeconds()));
+    }
+    return measure(operation, limiter, call, true);
+  }
+
+  /**
+   * Starts the call regardless of the limit, but counts and measures it.
+   */
+  public <T> CompletableFuture<T> track(String operation, Supplier<CompletableFuture<T>> call) {
+    AdaptiveLimiter limiter = limiter(operation);
+    limiter.acquire();
+    return measure(operation, limiter, call, true);
+  }
+
+  /**
+   * Like {@link #call}, for a call whose future completes after its body was transferred: admitted against the
+   * limit, but its duration is not fed into it; a success only grows the limit.
+   */
+  public <T> CompletableFuture<T> callTransfer(String operation, Supplier<CompletableFuture<T>> call) {
+    AdaptiveLimiter limiter = limiter(operation);
+    if (!limiter.tryAcquire()) {
+      return CompletableFuture.failedFuture(new LimitExceededException(service + " " + operation, limiter.limit(), limiter.retryAfterSeconds()));
+    }
+    return measure(operation, limiter, call, false);
+  }
+
+  /**
+   * Like {@link #track}, for a call whose future completes after its body was transferred: counted, never
+   * rejected, and its duration is not fed into the limit; a success only grows it.
+   */
+  public <T> CompletableFuture<T> trackTransfer(String operation, Supplier<CompletableFuture<T>> call) {
+    AdaptiveLimiter limiter = limiter(operation);
+    limiter.acquire();
+    return measure(operation, limiter, call, false);
+  }
+
+  public AdaptiveLimiter limiter(String operation) {
+    return limiters.computeIfAbsent(operation, op -> new AdaptiveLimiter(op, initialLimit, minLimit, maxLimit, tolerance));
+  }
+
+  public Collection<AdaptiveLimiter> limiters() {
+    return limiters.values();
+  }
+
+  /**
+   * @return failed calls per operation and error code since startup (rejections by the limit are not included)
+   */
+  public Map<Failure, Long> errorCounts() {
+    return errors.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().sum()));
+  }
+
+  /**
+   * @return a one-line summary of the limit and in-flight count per operation, for logging
+   */
+  public String summary() {
+    return service + " limits: " + limiters.values().stream() //
+      .map(l -> String.format("%s %d/%d (min %.0f ms, rejected %d)", l.operation(), l.inFlight(), l.limit(), l.minRttNanos() / 1e6, l.rejectedCount())) //
+      .collect(Collectors.joining(" | "));
+  }
+
+  // sampleLatency is false for whole-body transfers, whose duration says nothing about the backend's queueing
+  private <T> CompletableFuture<T> measure(String operation, AdaptiveLimiter limiter, Supplier<CompletableFuture<T>> call, boolean sampleLatency) {
+    long startTime = System.nanoTime();
+    CompletableFuture<T> future;
+    try {
+      future = call.get();
+    } catch (RuntimeException e) {
+      limiter.onIgnore();
+      throw e;
+    }
+
+    future.whenComplete((result, ex) -> {
+      if (ex == null) {
+        if (sampleLatency) {
+          limiter.onSuccess(System.nanoTime() - startTime);
+        } else {
+          limiter.onTransferSuccess();
+        }
+        return;
+      }
+      countError(operation, ex);
+      if (isOverload(ex)) {
+        limiter.onDropped();
+      } else {
+        limiter.onIgnore();
+      }
+    });
+    return future;
+  }
+
+  private void countError(String operation, Throwable ex) {
+    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    if (cause instanceof CancellationException) {
+      return;
+    }
+    String code;
+    if (cause instanceof SdkServiceException serviceException) {
+      code = String.valueOf(serviceException.statusCode());
+    } else if (cause instanceof ApiCallTimeoutException || cause instanceof ApiCallAttemptTimeoutException) {
+      code = "timeout";
+    } else {
+      code = "client";
+    }
+    errors.computeIfAbsent(new Failure(operation, code), key -> new LongAdder()).increment();
+  }
+
+  // Throttling, server errors and timeouts mean the backend is overloaded; client errors and cancels say nothing about it
+  private static boolean isOverload(Throwable ex) {
+    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    if (cause instanceof CancellationException) {
+      return false;
+    }
+    if (cause instanceof SdkServiceException serviceException) {
+      return serviceException.isThrottlingException() || serviceException.statusCode() >= 500;
+    }
+    return cause instanceof ApiCallTimeoutException || cause instanceof ApiCallAttemptTimeoutException;
+  }
+}
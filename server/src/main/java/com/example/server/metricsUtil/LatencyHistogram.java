@@ -0,0 +1,46 @@
+package com.example.server.metricsUtil;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency distribution of one series, recorded in microseconds.
+ *
+ * Request threads write into an HdrHistogram {@link Recorder}, which is wait-free for writers. A scrape swaps
+ * out the interval histogram and adds it to the running total, so readers never block the request path.
+ */
+public class LatencyHistogram {
+  private static final int SIGNIFICANT_DIGITS = 3;
+
+  private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+  private final LongAdder sumMicros = new LongAdder();
+
+  // Guarded by this; only touched by scrapes
+  private final Histogram total = new Histogram(SIGNIFICANT_DIGITS);
+  private Histogram interval;
+
+  public void record(long nanos) {
+    long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+    recorder.recordValue(micros);
+    sumMicros.add(micros);
+  }
+
+  /**
+   * @return all values recorded since startup; the caller must not modify it
+   */
+  public synchronized Histogram snapshot() {
+    interval = recorder.getIntervalHistogram(interval);
+    total.add(interval);
+    return total;
+  }
+
+  /**
+   * @return the exact sum of the recorded values in microseconds
+   */
+  public long sumMicros() {
+    return sumMicros.sum();
+  }
+}
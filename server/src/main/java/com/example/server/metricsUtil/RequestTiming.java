@@ -0,0 +1,149 @@
+package com.example.server.metricsUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+import org.glassfish.grizzly.http.server.Request;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.server.Main;
+
+/**
+ * Phase durations of one request (S3 time to first byte, presigning, STS, transfer to the client, ...),
+ * sent back as a Server-Timing header and logged as one compact line when the request finishes.
+ *
+ * A timing is started for every request by the handler in front of Jersey and kept as a request attribute,
+ * so services add phases to it through {@link #of(Request)}. Phases may be recorded from any thread.
+ * A phase recorded more than once (e.g. one S3 call per range) adds up.
+ *
+ * Each request is also sampled for logging once, at LOG_SAMPLE_RATE: a sampled request logs its detail lines
+ * ({@link #detail}) and its [Timing] line at INFO, others only at DEBUG, so a busy server logs a small share of requests.
+ */
+public class RequestTiming {
+  public static final String HEADER = "Server-Timing";
+
+  private static final Logger logger = LoggerFactory.getLogger(RequestTiming.class);
+  private static final String ATTRIBUTE = RequestTiming.class.getName();
+
+  private final long startNanos = System.nanoTime();
+  private final boolean sampled;
+
+  // Guarded by this; insertion order is the order phases started in
+  private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+  private final Map<String, Long> openPhases = new LinkedHashMap<>();
+
+  private RequestTiming(boolean sampled) {
+    this.sampled = sampled;
+  }
+
+  /**
+   * Starts the timing of a request and decides whether its logs are sampled.
+   */
+  public static RequestTiming start(Request request) {
+    RequestTiming timing = new RequestTiming(ThreadLocalRandom.current().nextDouble() < Main.getLogSampleRate());
+    request.setAttribute(ATTRIBUTE, timing);
+    return timing;
+  }
+
+  /**
+   * @return the request's timing, or a detached one if the request did not come through the handler
+   */
+  public static RequestTiming of(Request request) {
+    Object timing = request != null ? request.getAttribute(ATTRIBUTE) : null;
+    return timing instanceof RequestTiming ? (RequestTiming)timing : new RequestTiming(false);
+  }
+
+  /**
+   * @return true if the client sent "TE: trailers", so timing can also follow a streamed body as a trailer
+   */
+  public static boolean acceptsTrailers(Request request) {
+    String te = request.getHeader("TE");
+    return te != null && te.toLowerCase(Locale.ROOT).contains("trailers");
+  }
+
+  public boolean sampled() {
+    return sampled;
+  }
+
+  /**
+   * Logs a per-request detail line at INFO if this request is sampled, otherwise at DEBUG.
+   * Arguments are only formatted when the line is enabled.
+   */
+  public void detail(Logger log, String format, Object... args) {
+    if (sampled) {
+      log.info(format, args);
+    } else {
+      log.debug(format, args);
+    }
+  }
+
+  public synchronized void record(String phase, long nanos) {
+    phaseNanos.merge(phase, nanos, Long::sum);
+  }
+
+  /**
+   * Marks the start of a phase that is ended by {@link #end}.
+   */
+  public synchronized void begin(String phase) {
+    openPhases.putIfAbsent(phase, System.nanoTime());
+  }
+
+  /**
+   * Ends a phase started by {@link #begin}; ending it again has no effect.
+   */
+  public synchronized void end(String phase) {
+    Long begun = openPhases.remove(phase);
+    if (begun != null) {
+      record(phase, System.nanoTime() - begun);
+    }
+  }
+
+  /**
+   * Records the time from now until the future completes, successfully or not.
+   *
+   * @return a future completed after the phase is recorded
+   */
+  public <T> CompletableFuture<T> time(String phase, CompletableFuture<T> future) {
+    long phaseStart = System.nanoTime();
+    return future.whenComplete((result, ex) -> record(phase, System.nanoTime() - phaseStart));
+  }
+
+  /**
+   * @return the Server-Timing value, e.g. "s3;dur=12.4, total;dur=13.1" (durations in milliseconds)
+   */
+  public synchronized String header() {
+    StringBuilder header = new StringBuilder();
+    phaseNanos.forEach((phase, nanos) -> header.append(phase).append(";dur=").append(millis(nanos)).append(", "));
+    return header.append("total;dur=").append(millis(System.nanoTime() - startNanos)).toString();
+  }
+
+  /**
+   * Logs one line per finished request, e.g. "GET /files/download/file1 | method=presign | status=200 | queue=0.1ms presign=1.8ms total=2.3ms".
+   * The line is logged at INFO for sampled and failed (5xx) requests, otherwise at DEBUG.
+   */
+  public void log(Request request, String method, int status) {
+    boolean info = sampled || status >= 500;
+    if (!(info ? logger.isInfoEnabled() : logger.isDebugEnabled())) {
+      return;
+    }
+    String phases;
+    synchronized (this) {
+      phases = phaseNanos.entrySet().stream().map(e -> e.getKey() + "=" + millis(e.getValue()) + "ms").collect(Collectors.joining(" "));
+    }
+    Object[] args = { request.getMethod(), request.getRequestURI(), method, status, phases, phases.isEmpty() ? "" : " ", millis(System.nanoTime() - startNanos) };
+    if (info) {
+      logger.info("[Timing]  {} {} | method={} | status={} | {}{}total={}ms", args);
+    } else {
+      logger.debug("[Timing]  {} {} | method={} | status={} | {}{}total={}ms", args);
+    }
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+  }
+}
@@ -0,0 +1,367 @@
+package com.example.server.metricsUtil;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.HdrHistogram.Histogram;
+
+import com.example.server.Main;
+import com.example.server.STSutil.STSTokenCreator;
+import com.example.server.bufferUtil.DirectBufferPool;
+import com.example.server.downloadServices.DownloadCoalescer;
+import com.example.server.downloadServices.HotObjectCache;
+import com.example.server.downloadServices.InlineObjectCache;
+import com.example.server.limitUtil.BandwidthScheduler;
+import com.example.server.limitUtil.OperationLimiters;
+import com.example.server.policyUtil.TransferPolicy;
+import com.example.server.uploadServices.MultipartUploadPipeline;
+import com.example.server.uploadServices.MultipartUploadSessions;
+import com.example.server.uploadServices.UploadIoScheduler;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+/**
+ * Server metrics in the Prometheus text format, served by /files/metrics.
+ *
+ * Request latency and status are recorded per endpoint and per transfer method (presign, accesspoints,
+ * streamS3ObjectViaServer, ...) on the request path through lock-free recorders. Everything else
+ * (bytes, in-flight transfers, STS cache, S3 errors, limits, pools) is read from the components when scraped.
+ *
+ * Latency is exported as a cumulative histogram, so quantiles can be computed over any window with
+ * histogram_quantile() in Prometheus.
+ */
+public class ServerMetrics {
+  private static final String PREFIX = "s3server_";
+  private static final int MAX_ENDPOINTS = 64;
+  // Unlisted clients (scheduled by remote address) with their own series, busiest first; the rest are "other"
+  private static final int MAX_UNLISTED_CLIENTS = 10;
+  private static final Pattern ENDPOINT_SEGMENT = Pattern.compile("[a-z-]{1,40}");
+  private static final double[] LATENCY_BUCKETS_SECONDS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300 };
+
+  private record Series(String endpoint, String method) {
+  }
+
+  private record StatusSeries(String endpoint, String method, int status) {
+  }
+
+  private final Map<Series, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+  private final Map<StatusSeries, LongAdder> requests = new ConcurrentHashMap<>();
+  private final AtomicInteger busyWorkers = new AtomicInteger();
+
+  /**
+   * Records one finished request.
+   *
+   * @param endpoint endpoint label from {@link #endpointLabel}
+   * @param method   transfer method the server was in when the request arrived
+   * @param status   HTTP status sent
+   * @param nanos    time from arrival until the response was finished
+   */
+  public void recordRequest(String endpoint, String method, int status, long nanos) {
+    Series series = new Series(endpoint, method);
+    LatencyHistogram histogram = latencies.get(series);
+    if (histogram == null) {
+      // Bounded number of series: unknown endpoints beyond the limit share one label
+      if (latencies.size() >= MAX_ENDPOINTS) {
+        series = new Series("other", method);
+      }
+      histogram = latencies.computeIfAbsent(series, key -> new LatencyHistogram());
+    }
+    histogram.record(nanos);
+    requests.computeIfAbsent(new StatusSeries(series.endpoint(), method, status), key -> new LongAdder()).increment();
+  }
+
+  /**
+   * Called when a Grizzly worker thread starts handling a request. Paired with {@link #workerFinished()} when the
+   * handler returns, which for suspended requests is before the response is finished.
+   */
+  public void workerStarted() {
+    busyWorkers.incrementAndGet();
+  }
+
+  public void workerFinished() {
+    busyWorkers.decrementAndGet();
+  }
+
+  /**
+   * Maps a request path onto its endpoint without the path parameters, e.g. /files/download/file1 to
+   * /files/download, so file names and client ids do not become labels.
+   */
+  public static String endpointLabel(String path) {
+    if (path == null || !path.startsWith("/files/")) {
+      return "other";
+    }
+    int end = path.indexOf('/', "/files/".length());
+    String segment = path.substring("/files/".length(), end < 0 ? path.length() : end);
+    return ENDPOINT_SEGMENT.matcher(segment).matches() ? "/files/" + segment : "other";
+  }
+
+  /**
+   * @return all metrics in the Prometheus text exposition format (version 0.0.4)
+   */
+  public synchronized String scrape() {
+    PrometheusWriter out = new PrometheusWriter();
+    writeRequests(out);
+    writeTransfers(out, List.of(Main.getDownloadBandwidth(), Main.getUploadBandwidth()));
+    writePolicies(out, List.of(Main.getDownloadPolicy(), Main.getUploadPolicy()));
+    writeStsCache(out);
+    writeBackend(out, Map.of("s3", Main.getS3Limiters(), "sts", STSTokenCreator.limiters()));
+    writePools(out);
+    return out.toString();
+  }
+
+  private void writeRequests(PrometheusWriter out) {
+    String name = "http_request_duration_seconds";
+    out.type(name, "histogram", "Time from request arrival until the response is finished, per endpoint and transfer method");
+    latencies.forEach((series, latency) -> {
+      Histogram histogram = latency.snapshot();
+      String labels = out.labels("endpoint", series.endpoint(), "method", series.method());
+      for(double bucket : LATENCY_BUCKETS_SECONDS) {
+        out.sample(name + "_bucket", labels + ",le=\"" + bucket + "\"", histogram.getCountBetweenValues(0, (long)(bucket * 1_000_000)));
+      }
+      out.sample(name + "_bucket", labels + ",le=\"+Inf\"", histogram.getTotalCount());
+      out.sample(name + "_sum", labels, latency.sumMicros() / 1e6);
+      out.sample(name + "_count", labels, histogram.getTotalCount());
+    });
+
+    out.type("http_requests_total", "counter", "Finished requests per endpoint, transfer method and status");
+    requests.forEach((series, count) -> out.sample("http_requests_total", //
+      out.labels("endpoint", series.endpoint(), "method", series.method(), "status", String.valueOf(series.status())), count.sum()));
+  }
+
+  private void writeTransfers(PrometheusWriter out, List<BandwidthScheduler> directions) {
+    out.type("transfer_bytes_total", "counter", "Bytes streamed through the server (download: to clients, upload: from clients)");
+    for(BandwidthScheduler bandwidth : directions) {
+      out.sample("transfer_bytes_total", out.labels("direction", bandwidth.direction()), bandwidth.totalBytes());
+    }
+
+    out.type("transfers_in_flight", "gauge", "Stream-via-server transfers running right now");
+    for(BandwidthScheduler bandwidth : directions) {
+      out.sample("transfers_in_flight", out.labels("direction", bandwidth.direction()), bandwidth.activeTransfers());
+    }
+
+    Map<String, List<BandwidthScheduler.ClientStats>> clients = new LinkedHashMap<>();
+    directions.forEach(bandwidth -> clients.put(bandwidth.direction(), clientSeries(bandwidth)));
+
+    out.type("client_throughput_bytes_per_second", "gauge", "Recent throughput per client");
+    clients.forEach((direction, stats) -> stats.forEach(client -> out.sample("client_throughput_bytes_per_second", //
+      out.labels("direction", direction, "client", client.clientId(), "tier", client.tier()), client.bytesPerSecond())));
+
+    out.type("client_bandwidth_allocation_bytes_per_second", "gauge", "Fair-share rate allocated per client, 0 for unpaced");
+    clients.forEach((direction, stats) -> stats.forEach(client -> out.sample("client_bandwidth_allocation_bytes_per_second", //
+      out.labels("direction", direction, "client", client.clientId(), "tier", client.tier()), client.allocatedBytesPerSecond())));
+  }
+
+  // Clients listed in BANDWIDTH_CLIENT_TIERS and the busiest others keep their id; all remaining clients are summed
+  // into client="other", so addresses do not make the number of series unbounded
+  private static List<BandwidthScheduler.ClientStats> clientSeries(BandwidthScheduler bandwidth) {
+    List<BandwidthScheduler.ClientStats> series = new ArrayList<>();
+    int unlisted = 0;
+    int otherTransfers = 0;
+    long otherBytes = 0;
+    long otherBytesPerSecond = 0;
+    long otherAllocation = 0;
+    String otherTier = null;
+    for(BandwidthScheduler.ClientStats client : bandwidth.clientStats()) {
+      if (bandwidth.isListed(client.clientId()) || unlisted++ < MAX_UNLISTED_CLIENTS) {
+        series.add(client);
+      } else {
+        otherTransfers += client.activeTransfers();
+        otherBytes += client.bytes();
+        otherBytesPerSecond += client.bytesPerSecond();
+        otherAllocation += client.allocatedBytesPerSecond();
+        otherTier = client.tier();
+      }
+    }
+    if (otherTier != null) {
+      series.add(new BandwidthScheduler.ClientStats("other", otherTier, otherTransfers, otherBytes, otherBytesPerSecond, otherAllocation));
+    }
+    return series;
+  }
+
+  private void writePolicies(PrometheusWriter out, List<TransferPolicy> directions) {
+    out.type("transfer_policy_choices_total", "counter", "Transfers per method picked in adaptive mode");
+    directions.forEach(policy -> TransferPolicy.METHODS.forEach(method -> out.sample("transfer_policy_choices_total", //
+      out.labels("direction", policy.direction(), "method", method), policy.choiceCount(method))));
+
+    out.type("transfer_policy_explorations_total", "counter", "Adaptive transfers sent to a method other than the predicted fastest");
+    directions.forEach(policy -> out.sample("transfer_policy_explorations_total", out.labels("direction", policy.direction()), policy.explorationCount()));
+
+    out.type("transfer_policy_presign_threshold_bytes", "gauge", "Learned object size from which presigned URLs are expected to be faster, -1 for never");
+    directions.forEach(policy -> out.sample("transfer_policy_presign_threshold_bytes", out.labels("direction", policy.direction()), policy.presignThresholdBytes()));
+  }
+
+  private void writeStsCache(PrometheusWriter out) {
+    CacheStats stats = STSTokenCreator.cacheStats();
+    out.type("sts_cache_requests_total", "counter", "Credential cache lookups by result");
+    out.sample("sts_cache_requests_total", out.labels("result", "hit"), stats.hitCount());
+    out.sample("sts_cache_requests_total", out.labels("result", "miss"), stats.missCount());
+    out.type("sts_cache_load_failures_total", "counter", "AssumeRole calls that failed to load credentials");
+    out.sample("sts_cache_load_failures_total", "", stats.loadFailureCount());
+    out.type("sts_cache_load_seconds_total", "counter", "Total time spent loading credentials");
+    out.sample("sts_cache_load_seconds_total", "", stats.totalLoadTime() / 1e9);
+    out.type("sts_cache_evictions_total", "counter", "Credentials evicted from the cache");
+    out.sample("sts_cache_evictions_total", "", stats.evictionCount());
+    out.type("sts_cache_background_refreshes_total", "counter", "Refresh-ahead loads started before credentials expired");
+    out.sample("sts_cache_background_refreshes_total", "", STSTokenCreator.backgroundRefreshCount());
+  }
+
+  private void writeBackend(PrometheusWriter out, Map<String, OperationLimiters> services) {
+    out.type("backend_errors_total", "counter", "Failed backend calls per operation and error code (HTTP status, timeout or client)");
+    services.forEach((service, limiters) -> limiters.errorCounts().forEach((failure, count) -> out.sample("backend_errors_total", //
+      out.labels("service", service, "operation", failure.operation(), "code", failure.code()), count)));
+
+    out.type("backend_concurrency_limit", "gauge", "Current adaptive concurrency limit per operation");
+    services.forEach((service, limiters) -> limiters.limiters().forEach(limiter -> out.sample("backend_concurrency_limit", //
+      out.labels("service", service, "operation", limiter.operation()), limiter.limit())));
+
+    out.type("backend_in_flight", "gauge", "Backend calls in flight per operation");
+    services.forEach((service, limiters) -> limiters.limiters().forEach(limiter -> out.sample("backend_in_flight", //
+      out.labels("service", service, "operation", limiter.operation()), limiter.inFlight())));
+
+    out.type("backend_rejected_total", "counter", "Calls rejected with 503 because the operation was at its limit");
+    services.forEach((service, limiters) -> limiters.limiters().forEach(limiter -> out.sample("backend_rejected_total", //
+      out.labels("service", service, "operation", limiter.operation()), limiter.rejectedCount())));
+  }
+
+  private void writePools(PrometheusWriter out) {
+    out.type("http_worker_threads_busy", "gauge", "Grizzly worker threads inside a request handler right now");
+    out.sample("http_worker_threads_busy", "", busyWorkers.get());
+
+    UploadIoScheduler uploadIo = Main.getUploadIoScheduler();
+    out.type("upload_io_active_threads", "gauge", "Upload I/O threads reading a request body");
+    out.sample("upload_io_active_threads", "", uploadIo.activeThreads());
+    out.type("upload_io_threads", "gauge", "Upload I/O threads in the pool, idle or reading");
+    out.sample("upload_io_threads", "", uploadIo.poolSize());
+    out.type("upload_io_max_threads", "gauge", "Configured upload I/O threads (UPLOAD_IO_THREADS)");
+    out.sample("upload_io_max_threads", "", uploadIo.maxThreads());
+    out.type("upload_io_queue_depth", "gauge", "Uploads waiting for an upload I/O thread");
+    out.sample("upload_io_queue_depth", "", uploadIo.queueDepth());
+    out.type("upload_io_rejected_total", "counter", "Uploads rejected because the upload I/O queue was full");
+    out.sample("upload_io_rejected_total", "", uploadIo.rejectedCount());
+
+    MultipartUploadSessions multipartSessions = Main.getMultipartSessions();
+    out.type("multipart_sessions_active", "gauge", "Server-initiated multipart uploads not yet finished or expired");
+    out.sample("multipart_sessions_active", "", multipartSessions.activeCount());
+    out.type("multipart_sessions_started_total", "counter", "Multipart uploads initiated by the server");
+    out.sample("multipart_sessions_started_total", "", multipartSessions.startedCount());
+    out.type("multipart_sessions_abandoned_total", "counter", "Expired multipart uploads that the server aborted");
+    out.sample("multipart_sessions_abandoned_total", "", multipartSessions.abandonedCount());
+    out.type("multipart_completions_total", "counter", "Server-side multipart completions by result");
+    out.sample("multipart_completions_total", out.labels("result", "completed"), multipartSessions.completedCount());
+    out.sample("multipart_completions_total", out.labels("result", "rejected_manifest"), multipartSessions.rejectedManifestCount());
+
+    MultipartUploadPipeline uploadPipeline = Main.getUploadPipeline();
+    if (uploadPipeline != null) {
+      out.type("upload_pipeline_uploads_total", "counter", "Stream-via-server uploads finished by the multipart pipeline");
+      out.sample("upload_pipeline_uploads_total", "", uploadPipeline.uploads());
+      out.type("upload_pipeline_parts_total", "counter", "Parts uploaded by the multipart pipeline");
+      out.sample("upload_pipeline_parts_total", "", uploadPipeline.partsUploaded());
+      out.type("upload_pipeline_bytes_total", "counter", "Bytes uploaded by the multipart pipeline");
+      out.sample("upload_pipeline_bytes_total", "", uploadPipeline.bytesUploaded());
+      out.type("upload_pipeline_upload_seconds_total", "counter", "Time finished pipelined uploads took; bytes_total over this is the throughput");
+      out.sample("upload_pipeline_upload_seconds_total", "", uploadPipeline.uploadNanos() / 1e9);
+      out.type("upload_pipeline_part_seconds_total", "counter", "Time UploadPart calls took; over parts_total this is the average part latency");
+      out.sample("upload_pipeline_part_seconds_total", "", uploadPipeline.partLatencyNanos() / 1e9);
+      out.type("upload_pipeline_wait_seconds_total", "counter", "Time reads waited before buffering a part, by cause");
+      out.sample("upload_pipeline_wait_seconds_total", out.labels("cause", "window"), uploadPipeline.backpressureNanos() / 1e9);
+      out.sample("upload_pipeline_wait_seconds_total", out.labels("cause", "memory"), uploadPipeline.memoryWaitNanos() / 1e9);
+      out.type("upload_pipeline_memory_bytes", "gauge", "Part buffer memory held by pipelined uploads, and the budget for it");
+      out.sample("upload_pipeline_memory_bytes", out.labels("state", "in_use"), uploadPipeline.memoryInUseBytes());
+      out.sample("upload_pipeline_memory_bytes", out.labels("state", "budget"), uploadPipeline.memoryBudgetBytes());
+    }
+
+    DirectBufferPool bufferPool = Main.getBufferPool();
+    out.type("buffer_pool_bytes", "gauge", "Pooled direct buffer memory by state");
+    out.sample("buffer_pool_bytes", out.labels("state", "in_use"), bufferPool.inUseBytes());
+    out.sample("buffer_pool_bytes", out.labels("state", "idle"), bufferPool.idleBytes());
+    out.type("buffer_pool_acquires_total", "counter", "Buffers handed out by the pool, by source");
+    out.sample("buffer_pool_acquires_total", out.labels("source", "reused"), bufferPool.reuses());
+    out.sample("buffer_pool_acquires_total", out.labels("source", "allocated"), bufferPool.allocations());
+    out.type("buffer_pool_allocated_bytes_total", "counter", "Direct memory allocated by the pool; its rate is the allocation rate");
+    out.sample("buffer_pool_allocated_bytes_total", "", bufferPool.allocatedBytes());
+    out.type("buffer_pool_leaks_total", "counter", "Pooled buffers reported as never released");
+    out.sample("buffer_pool_leaks_total", "", bufferPool.leaks());
+
+    HotObjectCache hotObjectCache = Main.getHotObjectCache();
+    if (hotObjectCache != null) {
+      out.type("hot_cache_requests_total", "counter", "Hot-object cache lookups by result");
+      out.sample("hot_cache_requests_total", out.labels("result", "hit"), hotObjectCache.hits());
+      out.sample("hot_cache_requests_total", out.labels("result", "miss"), hotObjectCache.misses());
+      out.type("hot_cache_saved_bytes_total", "counter", "Bytes served from the hot-object cache instead of S3");
+      out.sample("hot_cache_saved_bytes_total", "", hotObjectCache.bytesSaved());
+      out.type("hot_cache_fills_dropped_total", "counter", "Cache fills dropped because the disk writer fell behind the download");
+      out.sample("hot_cache_fills_dropped_total", "", hotObjectCache.droppedFills());
+      out.type("hot_cache_fill_queue_bytes", "gauge", "Downloaded bytes waiting to be written to the cache");
+      out.sample("hot_cache_fill_queue_bytes", "", hotObjectCache.fillQueueBytes());
+    }
+
+    DownloadCoalescer downloadCoalescer = Main.getDownloadCoalescer();
+    if (downloadCoalescer != null) {
+      out.type("coalescer_upstream_downloads_total", "counter", "S3 reads started by the download coalescer");
+      out.sample("coalescer_upstream_downloads_total", "", downloadCoalescer.upstreamDownloads());
+    }
+
+    InlineObjectCache inlineObjects = Main.getInlineObjects();
+    if (inlineObjects != null) {
+      out.type("presign_inline_lookups_total", "counter", "Presign downloads by inline lookup result: inlined, too large for inlining, or missing/forbidden");
+      out.sample("presign_inline_lookups_total", out.labels("result", "inlined"), inlineObjects.inlinedCount());
+      out.sample("presign_inline_lookups_total", out.labels("result", "too_large"), inlineObjects.tooLargeCount());
+      out.sample("presign_inline_lookups_total", out.labels("result", "unavailable"), inlineObjects.unavailableCount());
+    }
+  }
+
+  // Builds the exposition text; TYPE and HELP are written once per metric name
+  private static final class PrometheusWriter {
+    private final StringBuilder text = new StringBuilder(8192);
+    private final Set<String> declared = new HashSet<>();
+
+    void type(String name, String type, String help) {
+      if (declared.add(name)) {
+        text.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+      }
+    }
+
+    void sample(String name, String labels, double value) {
+      text.append(PREFIX).append(name);
+      if (!labels.isEmpty()) {
+        text.append('{').append(labels).append('}');
+      }
+      text.append(' ');
+      if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+        text.append((long)value);
+      } else {
+        text.append(value);
+      }
+      text.append('\n');
+    }
+
+    String labels(String... namesAndValues) {
+      StringBuilder labels = new StringBuilder();
+      for(int i = 0; i < namesAndValues.length; i += 2) {
+        if (i > 0) {
+          labels.append(',');
+        }
+        labels.append(namesAndValues[i]).append("=\"").append(escape(namesAndValues[i + 1])).append('"');
+      }
+      return labels.toString();
+    }
+
+    private static String escape(String value) {
+      return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    @Override
+    public String toString() {
+      return text.toString();
+    }
+  }
+}
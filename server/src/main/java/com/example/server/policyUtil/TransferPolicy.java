@@ -0,0 +1,253 @@
+package com.example.server.policyUtil;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Picks the transfer method of one request, "streamS3ObjectViaServer" or "presign", from the object size, the
+ * methods the client supports and how fast each method has been lately. Used when the server method is "adaptive".
+ *
+ * The expected time of a method is its prior, latency + size / throughput, times a correction factor learned from
+ * the end-to-end times clients report back. Factors are kept per size bucket (buckets grow by a factor of 4 from
+ * 64 KB) as an exponentially weighted average of reported / prior time, starting at 1. The method with the lowest
+ * expected time wins, so the size at which presigned URLs take over moves as reports come in.
+ * A small share of requests explores another method, so a method that got faster is noticed.
+ *
+ * One policy per direction; it is safe for concurrent use.
+ */
+public class TransferPolicy {
+  public static final String STREAM = "streamS3ObjectViaServer";
+  public static final String PRESIGN = "presign";
+  public static final List<String> METHODS = List.of(STREAM, PRESIGN);
+
+  // Request header listing the methods a client can handle, e.g. "presign, streamS3ObjectViaServer"
+  public static final String CAPABILITIES_HEADER = "X-Transfer-Methods";
+  // Response header naming the method that was picked
+  public static final String METHOD_HEADER = "X-Transfer-Method";
+  // Listed in X-Transfer-Methods by clients that take a small object's body in place of its presigned URL
+  public static final String INLINE = "inline";
+
+  private static final long FIRST_BUCKET_BYTES = 64 * 1024;
+  private static final int BUCKETS = 12; // 64 KB, 256 KB, ..., the last bucket takes everything from 256 GB
+  private static final double REPORT_WEIGHT = 0.2;
+  // Bounds of a correction factor, so one outlier cannot take a method out of the running
+  private static final double MIN_FACTOR = 0.05;
+  private static final double MAX_FACTOR = 20;
+
+  /**
+   * Time of a transfer before anything was learned: a fixed latency plus size over throughput.
+   */
+  public record Prior(double latencySeconds, double bytesPerSecond) {
+    /**
+     * @param value "latencyMs:MBps", e.g. "40:50"
+     */
+    public static Prior parse(String value) {
+      String[] parts = value.trim().split(":");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Invalid transfer prior, expected latencyMs:MBps: " + value);
+      }
+      return new Prior(Double.parseDouble(parts[0].trim()) / 1000, Double.parseDouble(parts[1].trim()) * 1024 * 1024);
+    }
+
+    double seconds(long bytes) {
+      return latencySeconds + bytes / bytesPerSecond;
+    }
+  }
+
+  private static final class Bucket {
+    // Guarded by this
+    private double factor = 1;
+    private long reports;
+  }
+
+  private final String direction;
+  private final Map<String, Prior> priors;
+  private final double exploreRate;
+  private final Map<String, Bucket[]> buckets = new LinkedHashMap<>();
+  private final Map<String, LongAdder> choices = new LinkedHashMap<>();
+  private final LongAdder explorations = new LongAdder();
+
+  /**
+   * @param direction   "download" or "upload", used in summaries
+   * @param priors      prior of every method in {@link #METHODS}
+   * @param exploreRate share of requests sent to a method other than the predicted fastest
+   */
+  public TransferPolicy(String direction, Map<String, Prior> priors, double exploreRate) {
+    this.direction = direction;
+    this.priors = Map.copyOf(priors);
+    this.exploreRate = exploreRate;
+
+    for(String method : METHODS) {
+      if (!priors.containsKey(method)) {
+        throw new IllegalArgumentException("No transfer prior for method " + method);
+      }
+      Bucket[] methodBuckets = new Bucket[BUCKETS];
+      for(int i = 0; i < BUCKETS; i++) {
+        methodBuckets[i] = new Bucket();
+      }
+      buckets.put(method, methodBuckets);
+      choices.put(method, new LongAdder());
+    }
+  }
+
+  /**
+   * Parses the capabilities header of a client.
+   *
+   * @return the known methods it lists; all methods when the header is missing, stream-via-server when it lists none we know
+   */
+  public static Set<String> capabilities(String header) {
+    if (header == null || header.isBlank()) {
+      return new LinkedHashSet<>(METHODS);
+    }
+
+    Set<String> methods = new LinkedHashSet<>();
+    for(String method : header.split(",")) {
+      if (METHODS.contains(method.trim())) {
+        methods.add(method.trim());
+      }
+    }
+    return methods.isEmpty() ? Set.of(STREAM) : methods;
+  }
+
+  /**
+   * @return true if the capabilities header lists the method
+   */
+  public static boolean accepts(String header, String method) {
+    if (header == null) {
+      return false;
+    }
+    for(String listed : header.split(",")) {
+      if (listed.trim().equals(method)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the method with the lowest expected time for an object of this size, or now and then another one to explore
+   */
+  public String choose(long bytes, Set<String> allowed) {
+    List<String> candidates = new ArrayList<>(METHODS);
+    candidates.retainAll(allowed);
+    if (candidates.isEmpty()) {
+      candidates.add(STREAM);
+    }
+
+    String best = candidates.get(0);
+    for(String method : candidates) {
+      if (expectedSeconds(method, bytes) < expectedSeconds(best, bytes)) {
+        best = method;
+      }
+    }
+
+    if (candidates.size() > 1 && ThreadLocalRandom.current().nextDouble() < exploreRate) {
+      candidates.remove(best);
+      best = candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+      explorations.increment();
+    }
+
+    choices.get(best).increment();
+    return best;
+  }
+
+  /**
+   * Learns from one finished transfer, as measured end to end by the client.
+   */
+  public void report(String method, long bytes, long nanos) {
+    Bucket[] methodBuckets = buckets.get(method);
+    if (methodBuckets == null || bytes < 0 || nanos <= 0) {
+      return;
+    }
+
+    double ratio = (nanos / 1e9) / priors.get(method).seconds(bytes);
+    Bucket bucket = methodBuckets[bucketIndex(bytes)];
+    synchronized (bucket) {
+      bucket.factor = Math.max(MIN_FACTOR, Math.min(MAX_FACTOR, bucket.factor + REPORT_WEIGHT * (ratio - bucket.factor)));
+      bucket.reports++;
+    }
+  }
+
+  public double expectedSeconds(String method, long bytes) {
+    Bucket bucket = buckets.get(method)[bucketIndex(bytes)];
+    synchronized (bucket) {
+      return priors.get(method).seconds(bytes) * bucket.factor;
+    }
+  }
+
+  /**
+   * @return the smallest bucket size from which presigned URLs are expected to be faster, or -1 if they never are
+   */
+  public long presignThresholdBytes() {
+    for(int i = 0; i < BUCKETS; i++) {
+      long bytes = bucketBytes(i);
+      if (expectedSeconds(PRESIGN, bytes) < expectedSeconds(STREAM, bytes)) {
+        return bytes;
+      }
+    }
+    return -1;
+  }
+
+  public String direction() {
+    return direction;
+  }
+
+  public long choiceCount(String method) {
+    return choices.get(method).sum();
+  }
+
+  public long explorationCount() {
+    return explorations.sum();
+  }
+
+  /**
+   * @return one line per size bucket with the expected time and number of reports per method
+   */
+  public String describe() {
+    StringBuilder out = new StringBuilder(summary()).append('\n');
+    for(int i = 0; i < BUCKETS; i++) {
+      long bytes = bucketBytes(i);
+      out.append(String.format(Locale.ROOT, "  %-9s", formatBytes(bytes)));
+      for(String method : METHODS) {
+        Bucket bucket = buckets.get(method)[i];
+        synchronized (bucket) {
+          out.append(String.format(Locale.ROOT, " | %s %.1f ms (%d reports)", method, priors.get(method).seconds(bytes) * bucket.factor * 1000, bucket.reports));
+        }
+      }
+      out.append('\n');
+    }
+    return out.toString();
+  }
+
+  public String summary() {
+    long threshold = presignThresholdBytes();
+    StringBuilder out = new StringBuilder("Transfer policy (").append(direction).append("): presign from ") //
+      .append(threshold < 0 ? "never" : formatBytes(threshold));
+    choices.forEach((method, count) -> out.append(" | ").append(method).append(": ").append(count.sum()));
+    return out.append(" | explored: ").append(explorations.sum()).toString();
+  }
+
+  // Bucket i starts at 64 KB * 4^i; smaller objects fall into bucket 0
+  private static int bucketIndex(long bytes) {
+    if (bytes < FIRST_BUCKET_BYTES * 4) {
+      return 0;
+    }
+    int log2 = 63 - Long.numberOfLeadingZeros(bytes / FIRST_BUCKET_BYTES);
+    return Math.min(BUCKETS - 1, log2 / 2);
+  }
+
+  private static long bucketBytes(int index) {
+    return FIRST_BUCKET_BYTES << (2 * index);
+  }
+
+  private static String formatBytes(long bytes) {
+    return bytes >= 1024L * 1024 * 1024 ? bytes / (1024L * 1024 * 1024) + " GB" : bytes >= 1024 * 1024 ? bytes / (1024 * 1024) + " MB" : bytes / 1024 + " KB";
+  }
+}
@@ -0,0 +1,110 @@
+package com.example.server.presignUtil;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Supplier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import software.amazon.awssdk.services.s3.presigner.model.PresignedRequest;
+
+/**
+ * Bounded, concurrent cache of presigned URLs.
+ *
+ * Clients re-request the same keys in bursts while a signed URL stays valid for 10 minutes.
+ * An already signed URL is handed out again as long as it has at least {@code minRemainingLifetime}
+ * left, so the client still gets a usable window. After that the entry expires and the next request
+ * signs a fresh URL. Size-based eviction keeps memory bounded.
+ */
+public class PresignedUrlCache {
+
+  /**
+   * The presign operations whose URLs are cached.
+   */
+  public enum Operation {
+    GET_OBJECT, PUT_OBJECT, UPLOAD_PART
+  }
+
+  /**
+   * Cache key. uploadId and partNumber are only set for UPLOAD_PART.
+   */
+  private record Key(Operation operation, String bucketName, String keyName, String uploadId, int partNumber) {
+  }
+
+  private record Entry(String url, Instant expiration) {
+  }
+
+  private final Cache<Key, Entry> cache;
+  private final Duration minRemainingLifetime;
+
+  /**
+   * @param maximumSize          maximum number of cached URLs
+   * @param minRemainingLifetime lifetime a cached URL must still have to be handed out
+   */
+  public PresignedUrlCache(long maximumSize, Duration minRemainingLifetime) {
+    this.minRemainingLifetime = minRemainingLifetime;
+    this.cache = Caffeine.newBuilder() //
+      .maximumSize(maximumSize) //
+      .expireAfter(new Expiry<Key, Entry>() {
+        @Override
+        public long expireAfterCreate(Key key, Entry entry, long currentTime) {
+          return usableNanos(entry);
+        }
+
+        @Override
+        public long expireAfterUpdate(Key key, Entry entry, long currentTime, long currentDuration) {
+          return usableNanos(entry);
+        }
+
+        @Override
+        public long expireAfterRead(Key key, Entry entry, long currentTime, long currentDuration) {
+          return currentDuration;
+        }
+      }) //
+      .recordStats() //
+      .build();
+  }
+
+  /**
+   * Returns a cached URL for the operation, or signs and caches a new one.
+   *
+   * @param operation  the presign operation
+   * @param bucketName the name of the S3 bucket
+   * @param keyName    the key (object name)
+   * @param uploadId   the multipart upload ID, or null
+   * @param partNumber the part number, or 0
+   * @param signer     signs a new request on a cache miss
+   * @return a presigned URL with at least {@code minRemainingLifetime} left
+   */
+  public String get(Operation operation, String bucketName, String keyName, String uploadId, int partNumber, Supplier<? extends PresignedRequest> signer) {
+    Key key = new Key(operation, bucketName, keyName, uploadId, partNumber);
+
+    return cache.get(key, k -> {
+      PresignedRequest presignedRequest = signer.get();
+      return new Entry(presignedRequest.url().toString(), presignedRequest.expiration());
+    }).url();
+  }
+
+  /**
+   * @return hit/miss/eviction counters of the cache
+   */
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * @return current number of cached URLs
+   */
+  public long size() {
+    return cache.estimatedSize();
+  }
+
+  // Time until the URL no longer has enough lifetime left to be handed out
+  private long usableNanos(Entry entry) {
+    Duration usable = Duration.between(Instant.now(), entry.expiration()).minus(minRemainingLifetime);
+    return usable.isNegative() ? 0 : usable.toNanos();
+  }
+}
@@ -0,0 +1,226 @@
+package com.example.server.presignUtil;
+
+import java.time.Duration;
+import java.util.List;
+
+import com.example.server.presignUtil.PresignedUrlCache.Operation;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.AbortMultipartUploadPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.CompleteMultipartUploadPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.CreateMultipartUploadPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedAbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedCompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedCreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedUploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
+
+/**
+ * Shared presigning service used by every presign endpoint.
+ *
+ * One instance is created in {@code Main} at startup and closed by the shutdown hook.
+ * It wraps a single long-lived S3Presigner bound to one credentials provider, so a presign
+ * request never pays for client construction or credential-chain resolution.
+ *
+ * Because every signature is made with the same credentials identity, the SDK's SigV4 signer
+ * reuses its cached derived signing key (kept per secret key, date, region and service) instead
+ * of recomputing the HMAC chain on each request.
+ *
+ * The *Url methods additionally go through a {@link PresignedUrlCache}, so bursts of requests for
+ * the same key reuse a URL that is still valid instead of signing a new one.
+ */
+public class PresignerService implements AutoCloseable {
+  // All presigned URLs handed out by the server are valid for 10 minutes
+  public static final Duration SIGNATURE_DURATION = Duration.ofMinutes(10);
+
+  private final S3Presigner s3Presigner;
+  private final PresignedUrlCache urlCache;
+
+  /**
+   * @param region              AWS region of the target bucket
+   * @param credentialsProvider credentials used for every signature
+   * @param urlCache            cache of already signed URLs
+   */
+  public PresignerService(Region region, AwsCredentialsProvider credentialsProvider, PresignedUrlCache urlCache) {
+    this.s3Presigner = S3Presigner.builder() //
+      .region(region) //
+      .credentialsProvider(credentialsProvider) //
+      .build();
+    this.urlCache = urlCache;
+  }
+
+  /**
+   * Returns a presigned download URL, reusing a cached one while it has enough lifetime left.
+   */
+  public String getObjectUrl(String bucketName, String keyName) {
+    return urlCache.get(Operation.GET_OBJECT, bucketName, keyName, null, 0, () -> presignGetObject(bucketName, keyName));
+  }
+
+  /**
+   * Returns a presigned upload URL, reusing a cached one while it has enough lifetime left.
+   */
+  public String putObjectUrl(String bucketName, String keyName) {
+    return urlCache.get(Operation.PUT_OBJECT, bucketName, keyName, null, 0, () -> presignPutObject(bucketName, keyName));
+  }
+
+  /**
+   * Returns a presigned part upload URL, reusing a cached one while it has enough lifetime left.
+   */
+  public String uploadPartUrl(String bucketName, String keyName, String uploadId, int partNumber) {
+    return urlCache.get(Operation.UPLOAD_PART, bucketName, keyName, uploadId, partNumber, () -> presignUploadPart(bucketName, keyName, uploadId, partNumber));
+  }
+
+  /**
+   * @return hit/miss counters of the presigned URL cache
+   */
+  public CacheStats urlCacheStats() {
+    return urlCache.stats();
+  }
+
+  /**
+   * Presigns a GetObjectRequest used by clients to download an object directly from S3.
+   *
+   * @param bucketName the name of the S3 bucket
+   * @param keyName    the key (object name) of the file
+   * @return the presigned request
+   */
+  public PresignedGetObjectRequest presignGetObject(String bucketName, String keyName) {
+    GetObjectRequest getObjectRequest = GetObjectRequest.builder() //
+      .bucket(bucketName) //
+      .key(keyName) //
+      .build();
+
+    return s3Presigner.presignGetObject(GetObjectPresignRequest.builder() //
+      .signatureDuration(SIGNATURE_DURATION) //
+      .getObjectRequest(getObjectRequest) //
+      .build());
+  }
+
+  /**
+   * Presigns a PutObjectRequest used by clients to upload an object directly to S3.
+   *
+   * @param bucketName the name of the S3 bucket
+   * @param keyName    the key (object name) of the file
+   * @return the presigned request
+   */
+  public PresignedPutObjectRequest presignPutObject(String bucketName, String keyName) {
+    PutObjectRequest putObjectRequest = PutObjectRequest.builder() //
+      .bucket(bucketName) //
+      .key(keyName) //
+      .build();
+
+    return s3Presigner.presignPutObject(PutObjectPresignRequest.builder() //
+      .signatureDuration(SIGNATURE_DURATION) //
+      .putObjectRequest(putObjectRequest) //
+      .build());
+  }
+
+  /**
+   * Presigns a CreateMultipartUploadRequest. The client sends a POST with no body to the URL.
+   *
+   * @param bucketName the name of the S3 bucket
+   * @param keyName    the key (object name) for the upload
+   * @return the presigned request
+   */
+  public PresignedCreateMultipartUploadRequest presignCreateMultipartUpload(String bucketName, String keyName) {
+    CreateMultipartUploadRequest createRequest = CreateMultipartUploadRequest.builder() //
+      .bucket(bucketName) //
+      .key(keyName) //
+      .build();
+
+    return s3Presigner.presignCreateMultipartUpload(CreateMultipartUploadPresignRequest.builder() //
+      .signatureDuration(SIGNATURE_DURATION) //
+      .createMultipartUploadRequest(createRequest) //
+      .build());
+  }
+
+  /**
+   * Presigns an UploadPartRequest for a single part of a multipart upload.
+   *
+   * @param bucketName the name of the S3 bucket
+   * @param keyName    the key (file name) being uploaded
+   * @param uploadId   the multipart upload ID
+   * @param partNumber the part index (1-based)
+   * @return the presigned request
+   */
+  public PresignedUploadPartRequest presignUploadPart(String bucketName, String keyName, String uploadId, int partNumber) {
+    UploadPartRequest uploadPartRequest = UploadPartRequest.builder() //
+      .bucket(bucketName) //
+      .key(keyName) //
+      .uploadId(uploadId) //
+      .partNumber(partNumber) //
+      .build();
+
+    return s3Presigner.presignUploadPart(UploadPartPresignRequest.builder() //
+      .signatureDuration(SIGNATURE_DURATION) //
+      .uploadPartRequest(uploadPartRequest) //
+      .build());
+  }
+
+  /**
+   * Presigns a CompleteMultipartUploadRequest. The signed payload holds the XML list of parts.
+   *
+   * @param bucketName the name of the S3 bucket
+   * @param keyName    the key (file name) of the object being uploaded
+   * @param uploadId   the multipart upload ID
+   * @param parts      the uploaded parts (part number + ETag)
+   * @return the presigned request, including its signed payload
+   */
+  public PresignedCompleteMultipartUploadRequest presignCompleteMultipartUpload(String bucketName, String keyName, String uploadId, List<CompletedPart> parts) {
+    CompleteMultipartUploadRequest completeRequest = CompleteMultipartUploadRequest.builder() //
+      .bucket(bucketName) //
+      .key(keyName) //
+      .uploadId(uploadId) //
+      .multipartUpload(CompletedMultipartUpload.builder().parts(parts).build()) //
+      .build();
+
+    return s3Presigner.presignCompleteMultipartUpload(CompleteMultipartUploadPresignRequest.builder() //
+      .signatureDuration(SIGNATURE_DURATION) //
+      .completeMultipartUploadRequest(completeRequest) //
+      .build());
+  }
+
+  /**
+   * Presigns an AbortMultipartUploadRequest.
+   *
+   * @param bucketName the name of the S3 bucket
+   * @param keyName    the key (file name) associated with the upload
+   * @param uploadId   the multipart upload ID to abort
+   * @return the presigned request
+   */
+  public PresignedAbortMultipartUploadRequest presignAbortMultipartUpload(String bucketName, String keyName, String uploadId) {
+    AbortMultipartUploadRequest abortRequest = AbortMultipartUploadRequest.builder() //
+      .bucket(bucketName) //
+      .key(keyName) //
+      .uploadId(uploadId) //
+      .build();
+
+    return s3Presigner.presignAbortMultipartUpload(AbortMultipartUploadPresignRequest.builder() //
+      .signatureDuration(SIGNATURE_DURATION) //
+      .abortMultipartUploadRequest(abortRequest) //
+      .build());
+  }
+
+  /**
+   * Releases the underlying presigner. Called once from the server shutdown hook.
+   */
+  @Override
+  public void close() {
+    s3Presigner.close();
+  }
+}
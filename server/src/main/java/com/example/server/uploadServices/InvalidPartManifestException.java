@@ -0,0 +1,35 @@
+package com.example.server.uploadServices;
+
+import java.util.List;
+
+/**
+ * Thrown (or used to fail a future) when the part manifest a client sent to complete a multipart upload does not match
+ * the parts S3 holds for it. Mapped to 409 Conflict with the problems listed; the upload is left open, so the client
+ * can upload the missing parts again and retry.
+ */
+public class InvalidPartManifestException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  private final List<String> problems;
+
+  public InvalidPartManifestException(List<String> problems) {
+    super("Part manifest does not match the upload: " + String.join("; ", problems));
+    this.problems = List.copyOf(problems);
+  }
+
+  public List<String> problems() {
+    return problems;
+  }
+
+  /**
+   * @return the InvalidPartManifestException in the cause chain (futures wrap it), or null if there is none
+   */
+  public static InvalidPartManifestException find(Throwable throwable) {
+    for(Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      if (cause instanceof InvalidPartManifestException invalidManifest) {
+        return invalidManifest;
+      }
+    }
+    return null;
+  }
+}
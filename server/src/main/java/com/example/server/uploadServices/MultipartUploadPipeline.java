@@ -0,0 +1,400 @@
+package com.example.server.uploadServices;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.server.bufferUtil.DirectBufferPool;
+import com.example.server.limitUtil.OperationLimiters;
+
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+/**
+ * Uploads stream-via-server request bodies to S3 as pipelined multipart uploads.
+ *
+ * The body is read into {@code partSize} direct ByteBuffers from the shared buffer pool, and each full buffer
+ * is sent as an UploadPart while the next one is read. At most {@code partsInFlight} parts per upload are buffered or
+ * uploading at once: when the window is full, reading stops until a part finishes, so memory stays around
+ * {@code partsInFlight * partSize} per upload and the client is slowed down by TCP instead.
+ *
+ * All uploads together hold at most {@code memoryBudget} bytes of part buffers. A buffer is only taken from the pool
+ * once the budget has room for it, so under many concurrent uploads reads wait (and clients are slowed down the same
+ * way) instead of running the server out of direct memory.
+ *
+ * The first read goes into a small buffer, which is only grown to a full part once the body turns out to be larger.
+ * A body that fits in the first part is sent as a single PutObject. The length does not need to be known up front,
+ * so chunked bodies use the same path. When it is known, a body that ends early (e.g. the client disconnected) is
+ * aborted instead of stored truncated.
+ *
+ * {@link #upload} blocks while it reads, so it runs on the upload I/O pool.
+ */
+public class MultipartUploadPipeline {
+  // S3 rejects parts below 5 MB, except the last one
+  private static final long MIN_PART_SIZE = 5 * 1024 * 1024;
+  // Size of the first read; a small body holds no more direct memory than this
+  private static final int FIRST_READ_SIZE = 64 * 1024;
+
+  private static final Logger logger = LoggerFactory.getLogger(MultipartUploadPipeline.class);
+
+  private final S3AsyncClient s3AsyncClient;
+  private final OperationLimiters s3Limiters;
+  private final int partSize;
+  private final int partsInFlight;
+  private final DirectBufferPool bufferPool;
+  private final Semaphore memoryBudget; // In KB of buffer capacity, fair so that full parts are not starved by small reads
+  private final int memoryBudgetKb;
+
+  private final LongAdder uploads = new LongAdder();
+  private final LongAdder partsUploaded = new LongAdder();
+  private final LongAdder bytesUploaded = new LongAdder();
+  private final LongAdder partLatencyNanos = new LongAdder();
+  private final LongAccumulator maxPartLatencyNanos = new LongAccumulator(Math::max, 0);
+  private final LongAdder backpressureNanos = new LongAdder();
+  private final LongAdder memoryWaitNanos = new LongAdder();
+  private final LongAdder uploadNanos = new LongAdder();
+
+  /**
+   * @param s3AsyncClient  client used for the upload (without the SDK's own multipart handling)
+   * @param s3Limiters     concurrency limits the S3 calls are admitted and counted against
+   * @param partSize       bytes per part, at least 5 MB
+   * @param partsInFlight  parts buffered or uploading at once per upload
+   * @param bufferPool     pool the part buffers are taken from
+   * @param memoryBudget   bytes of part buffers all uploads may hold at once, raised to two parts if lower
+   */
+  public MultipartUploadPipeline(S3AsyncClient s3AsyncClient, OperationLimiters s3Limiters, long partSize, int partsInFlight, DirectBufferPool bufferPool, long memoryBudget) {
+    this.s3AsyncClient = s3AsyncClient;
+    this.s3Limiters = s3Limiters;
+    this.partSize = (int)Math.min(Math.max(partSize, MIN_PART_SIZE), Integer.MAX_VALUE - 8);
+    this.partsInFlight = Math.max(1, partsInFlight);
+    this.bufferPool = bufferPool;
+    this.memoryBudgetKb = (int)Math.min(Math.max(memoryBudget, 2L * bufferPool.capacityFor(this.partSize)) / 1024, Integer.MAX_VALUE);
+    this.memoryBudget = new Semaphore(memoryBudgetKb, true);
+  }
+
+  /**
+   * Reads the stream to its end and uploads it.
+   *
+   * @param bucketName    the name of the S3 bucket
+   * @param fileName      the key (object name)
+   * @param in            the request body
+   * @param contentLength the declared Content-Length, or -1 for a chunked body
+   * @return the number of bytes uploaded
+   * @throws EOFException if the body ended before {@code contentLength} bytes; nothing is stored
+   */
+  public long upload(String bucketName, String fileName, InputStream in, long contentLength) throws IOException, InterruptedException {
+    return new Upload(bucketName, fileName, in, contentLength).run();
+  }
+
+  /**
+   * @return a one-line summary of the pipeline metrics, for logging
+   */
+  public String summary() {
+    long parts = partsUploaded.sum();
+    long nanos = uploadNanos.sum();
+    return String.format("Uploads: %d | Parts: %d | Avg part: %.1f ms (max %.1f ms) | Throughput: %.1f MB/s | Backpressure: %.1f s | Memory: %d/%d MB (waited %.1f s)", //
+      uploads.sum(), parts, parts == 0 ? 0.0 : partLatencyNanos.sum() / 1e6 / parts, maxPartLatencyNanos.get() / 1e6, //
+      nanos == 0 ? 0.0 : bytesUploaded.sum() / 1e6 / (nanos / 1e9), backpressureNanos.sum() / 1e9, //
+      memoryInUseBytes() / (1024 * 1024), memoryBudgetBytes() / (1024 * 1024), memoryWaitNanos.sum() / 1e9);
+  }
+
+  public long uploads() {
+    return uploads.sum();
+  }
+
+  public long partsUploaded() {
+    return partsUploaded.sum();
+  }
+
+  public long bytesUploaded() {
+    return bytesUploaded.sum();
+  }
+
+  /**
+   * @return total time UploadPart calls took, for the average part latency
+   */
+  public long partLatencyNanos() {
+    return partLatencyNanos.sum();
+  }
+
+  /**
+   * @return total time uploads waited for a free slot in their window
+   */
+  public long backpressureNanos() {
+    return backpressureNanos.sum();
+  }
+
+  /**
+   * @return total time finished uploads took, from the first read to the last part; bytes over this is the throughput
+   */
+  public long uploadNanos() {
+    return uploadNanos.sum();
+  }
+
+  /**
+   * @return total time reads waited for the shared memory budget
+   */
+  public long memoryWaitNanos() {
+    return memoryWaitNanos.sum();
+  }
+
+  /**
+   * @return bytes of part buffers currently held by all uploads
+   */
+  public long memoryInUseBytes() {
+    return (long)(memoryBudgetKb - memoryBudget.availablePermits()) * 1024;
+  }
+
+  public long memoryBudgetBytes() {
+    return (long)memoryBudgetKb * 1024;
+  }
+
+  // Waits until the budget has room for a buffer of the given capacity
+  private void reserve(int capacity) throws InterruptedException {
+    long waitStart = System.nanoTime();
+    memoryBudget.acquire(kilobytes(capacity));
+    memoryWaitNanos.add(System.nanoTime() - waitStart);
+  }
+
+  private ByteBuffer acquireBuffer(int size, String owner) throws InterruptedException {
+    int capacity = bufferPool.capacityFor(size);
+    reserve(capacity);
+    try {
+      return bufferPool.acquire(size, owner);
+    } catch (RuntimeException | Error e) {
+      // E.g. out of direct memory: the reservation is not held by any buffer
+      memoryBudget.release(kilobytes(capacity));
+      throw e;
+    }
+  }
+
+  private void releaseBuffer(ByteBuffer buffer) {
+    bufferPool.release(buffer);
+    memoryBudget.release(kilobytes(buffer.capacity()));
+  }
+
+  private static int kilobytes(int bytes) {
+    return (bytes + 1023) / 1024;
+  }
+
+  // State of one upload
+  private class Upload {
+    private final String bucketName;
+    private final String fileName;
+    private final ReadableByteChannel channel;
+    private final long contentLength;
+    private final Semaphore window = new Semaphore(partsInFlight);
+    private final List<CompletableFuture<CompletedPart>> parts = new ArrayList<>();
+    private volatile Throwable partFailure;
+
+    Upload(String bucketName, String fileName, InputStream in, long contentLength) {
+      this.bucketName = bucketName;
+      this.fileName = fileName;
+      this.channel = Channels.newChannel(in);
+      this.contentLength = contentLength;
+    }
+
+    long run() throws IOException, InterruptedException {
+      long startTime = System.nanoTime();
+
+      ByteBuffer firstPart = readFirstPart();
+      int firstLength = firstPart.limit();
+      if (firstLength < partSize) {
+        try {
+          checkLength(firstLength);
+          s3Limiters.callTransfer("PutObject", () -> s3AsyncClient.putObject(b -> b.bucket(bucketName).key(fileName), AsyncRequestBody.fromRemainingByteBufferUnsafe(firstPart))).join();
+        } finally {
+          releaseBuffer(firstPart);
+          window.release();
+        }
+        finished(firstLength, 1, startTime);
+        return firstLength;
+      }
+
+      String uploadId;
+      try {
+        uploadId = s3Limiters.call("CreateMultipartUpload", () -> s3AsyncClient.createMultipartUpload(b -> b.bucket(bucketName).key(fileName))).join().uploadId();
+      } catch (RuntimeException e) {
+        releaseBuffer(firstPart);
+        window.release();
+        throw e;
+      }
+
+      try {
+        long total = 0;
+        ByteBuffer part = firstPart;
+        while (true) {
+          int length = part.limit();
+          if (length == 0) {
+            releaseBuffer(part);
+            window.release();
+            break;
+          }
+          total += length;
+          uploadPart(uploadId, parts.size() + 1, part);
+          if (length < partSize || partFailure != null) {
+            break;
+          }
+          part = readPart();
+        }
+
+        List<CompletedPart> completedParts = new ArrayList<>();
+        for(CompletableFuture<CompletedPart> completedPart : parts) {
+          completedParts.add(completedPart.join());
+        }
+        // Checked once the parts are done, so a failed part is reported as itself
+        checkLength(total);
+
+        s3Limiters.track("CompleteMultipartUpload", () -> s3AsyncClient.completeMultipartUpload(b -> b //
+          .bucket(bucketName) //
+          .key(fileName) //
+          .uploadId(uploadId) //
+          .multipartUpload(m -> m.parts(completedParts)))) //
+          .join();
+
+        finished(total, completedParts.size(), startTime);
+        return total;
+      } catch (IOException | InterruptedException | RuntimeException e) {
+        abort(uploadId);
+        throw e;
+      }
+    }
+
+    // A body shorter than its Content-Length was cut off and must not be stored
+    private void checkLength(long total) throws EOFException {
+      if (contentLength >= 0 && total != contentLength) {
+        throw new EOFException("Body ended after " + total + " of " + contentLength + " bytes");
+      }
+    }
+
+    // Reads the start of the body into a small buffer, and moves it into a full part buffer only if there is more
+    private ByteBuffer readFirstPart() throws IOException, InterruptedException {
+      window.acquire();
+      ByteBuffer buffer = null;
+      try {
+        buffer = acquireBuffer(FIRST_READ_SIZE, "upload first read");
+        if (!fill(buffer)) {
+          return buffer.flip();
+        }
+
+        // The small buffer's share of the budget is given back before waiting for a full part, so uploads waiting on
+        // the budget hold none of it. The buffer itself is kept until its bytes are copied over: at most one per upload
+        // I/O thread is outside the budget.
+        ByteBuffer small = buffer.flip();
+        buffer = null;
+        memoryBudget.release(kilobytes(small.capacity()));
+        try {
+          buffer = acquireBuffer(partSize, "upload part");
+          buffer.put(small);
+        } finally {
+          bufferPool.release(small);
+        }
+        fill(buffer);
+        return buffer.flip();
+      } catch (IOException | InterruptedException | RuntimeException e) {
+        if (buffer != null) {
+          releaseBuffer(buffer);
+        }
+        window.release();
+        throw e;
+      }
+    }
+
+    // Waits for a free slot in the window and for room in the memory budget, then reads until a full part is buffered or the stream ends
+    private ByteBuffer readPart() throws IOException, InterruptedException {
+      long waitStart = System.nanoTime();
+      window.acquire();
+      backpressureNanos.add(System.nanoTime() - waitStart);
+
+      ByteBuffer buffer;
+      try {
+        buffer = acquireBuffer(partSize, "upload part");
+      } catch (InterruptedException e) {
+        window.release();
+        throw e;
+      }
+      try {
+        fill(buffer);
+      } catch (IOException e) {
+        releaseBuffer(buffer);
+        window.release();
+        throw e;
+      }
+      return buffer.flip();
+    }
+
+    // Reads until the buffer is full or the stream ends; returns false if it ended
+    private boolean fill(ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void uploadPart(String uploadId, int partNumber, ByteBuffer data) {
+      long partStart = System.nanoTime();
+      long length = data.remaining();
+
+      // The part is sent straight from the pooled buffer; it is only reused once the part is done
+      // Parts of an admitted upload are counted by the S3 limiter but never rejected, and their time is not a latency sample
+      CompletableFuture<CompletedPart> part = s3Limiters.trackTransfer("UploadPart", () -> s3AsyncClient.uploadPart(b -> b //
+        .bucket(bucketName) //
+        .key(fileName) //
+        .uploadId(uploadId) //
+        .partNumber(partNumber) //
+        .contentLength(length), //
+        AsyncRequestBody.fromRemainingByteBufferUnsafe(data))) //
+        .thenApply(response -> CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build());
+
+      part.whenComplete((completed, err) -> {
+        if (err != null) {
+          partFailure = err;
+        } else {
+          long latency = System.nanoTime() - partStart;
+          partLatencyNanos.add(latency);
+          maxPartLatencyNanos.accumulate(latency);
+          partsUploaded.increment();
+        }
+        releaseBuffer(data);
+        window.release();
+      });
+      parts.add(part);
+    }
+
+    private void finished(long bytes, int partCount, long startTime) {
+      long nanos = System.nanoTime() - startTime;
+      double seconds = nanos / 1e9;
+      uploads.increment();
+      bytesUploaded.add(bytes);
+      uploadNanos.add(nanos);
+      if (logger.isDebugEnabled()) {
+        logger.debug("Upload pipeline: {} | {} bytes in {} parts | {} MB/s", fileName, bytes, partCount, String.format("%.1f", bytes / 1e6 / seconds));
+      }
+    }
+
+    private void abort(String uploadId) {
+      // Parts are not cancelled: their buffers are only safe to reuse once the SDK is done with them
+      s3Limiters.track("AbortMultipartUpload", () -> s3AsyncClient.abortMultipartUpload(b -> b.bucket(bucketName).key(fileName).uploadId(uploadId))) //
+        .whenComplete((resp, err) -> {
+          if (err != null) {
+            logger.error("Failed to abort multipart upload {} for {}", uploadId, fileName, err);
+          }
+        });
+    }
+  }
+}
@@ -0,0 +1,292 @@
+package com.example.server.uploadServices;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.example.server.Main;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.ListPartsResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import software.amazon.awssdk.services.s3.model.Part;
+
+/**
+ * Presigned multipart uploads that the server initiated itself (POST /files/multipart-session/{fileName}).
+ *
+ * The server calls CreateMultipartUpload with its own credentials, so a client gets its uploadId and first part URLs
+ * in one request instead of fetching a presigned create URL, POSTing it to S3 and parsing the XML answer.
+ * Every session is remembered until it is finished or expires. A session that expires was abandoned by its client:
+ * its upload is aborted, so the parts uploaded so far stop taking up storage.
+ *
+ * {@link #complete} finishes an upload from the client's part manifest (POST /files/multipart-complete/...), which
+ * is checked against ListParts first, so a lost or replaced part fails with the parts named instead of
+ * completing a wrong object. It works for any presigned upload, also those started with /multipart-initiate.
+ */
+public class MultipartUploadSessions {
+  private static final Logger logger = LoggerFactory.getLogger(MultipartUploadSessions.class);
+
+  /**
+   * One initiated upload.
+   *
+   * @param key        the object key
+   * @param uploadId   the S3 upload ID
+   * @param totalParts the number of parts the client announced, 0 if unknown
+   * @param createdAt  when the upload was initiated
+   */
+  public record Session(String key, String uploadId, int totalParts, Instant createdAt) {
+  }
+
+  /**
+   * A part as the client reports it when completing an upload.
+   *
+   * @param size the part's size in bytes, or -1 if the client did not send it
+   */
+  public record ManifestPart(int partNumber, String eTag, long size) {
+  }
+
+  /**
+   * A completed upload.
+   *
+   * @param size      the object size, the sum of its parts
+   * @param versionId the object version, null if the bucket is not versioned
+   */
+  public record Completion(String key, String eTag, long size, int parts, String versionId, String location) {
+  }
+
+  private static final int MAX_PART_NUMBER = 10000; // S3 limit for parts in a multipart upload
+  private static final long MIN_PART_SIZE = 5 * 1024 * 1024; // S3 rejects smaller parts, except the last one
+
+  private final S3AsyncClient s3AsyncClient;
+  private final String bucketName;
+  private final Duration ttl;
+  private final Cache<String, Session> sessions;
+
+  private final LongAdder started = new LongAdder();
+  private final LongAdder finished = new LongAdder();
+  private final LongAdder completed = new LongAdder();
+  private final LongAdder rejectedManifests = new LongAdder();
+  private final LongAdder abandoned = new LongAdder();
+
+  /**
+   * @param s3AsyncClient client used to initiate and abort uploads
+   * @param bucketName    the bucket of the uploads
+   * @param ttl           how long a client has to finish its upload before it is aborted
+   */
+  public MultipartUploadSessions(S3AsyncClient s3AsyncClient, String bucketName, Duration ttl) {
+    this.s3AsyncClient = s3AsyncClient;
+    this.bucketName = bucketName;
+    this.ttl = ttl;
+    this.sessions = Caffeine.newBuilder() //
+      .expireAfterWrite(ttl) //
+      .scheduler(Scheduler.systemScheduler()) // expire on time even when no uploads come in
+      .removalListener((String uploadId, Session session, RemovalCause cause) -> {
+        if (cause == RemovalCause.EXPIRED && session != null) {
+          abortAbandoned(session);
+        }
+      }) //
+      .build();
+  }
+
+  /**
+   * Initiates a multipart upload and remembers it.
+   *
+   * @param totalParts the number of parts the client will upload, 0 if unknown
+   * @return a future with the new session; it fails with the S3 error (or a LimitExceededException) if the upload could not be initiated
+   */
+  public CompletableFuture<Session> start(String key, int totalParts) {
+    return Main.getS3Limiters().call("CreateMultipartUpload", () -> s3AsyncClient.createMultipartUpload(b -> b.bucket(bucketName).key(key))) //
+      .thenApply(response -> {
+        Session session = new Session(key, response.uploadId(), totalParts, Instant.now());
+        sessions.put(session.uploadId(), session);
+        started.increment();
+        return session;
+      });
+  }
+
+  /**
+   * Completes an upload from the client's part manifest. The manifest is checked against the parts S3 lists for
+   * the upload: every part must be there with the same ETag (and size, if given), no uploaded part may be left
+   * out, every part but the last must be at least 5 MB, and a session's announced part count must match.
+   *
+   * @return a future with the completed object; it fails with {@link InvalidPartManifestException} if the manifest
+   *         does not match (the upload stays open), or with the S3 error or a LimitExceededException
+   */
+  public CompletableFuture<Completion> complete(String key, String uploadId, List<ManifestPart> manifest) {
+    List<ManifestPart> sorted = new ArrayList<>(manifest);
+    sorted.sort(Comparator.comparingInt(ManifestPart::partNumber));
+
+    List<String> problems = checkPartNumbers(sorted);
+    Session session = get(uploadId);
+    if (session != null && !session.key().equals(key)) {
+      problems.add("the upload was started for key " + session.key());
+    }
+    if (session != null && session.totalParts() > 0 && session.totalParts() != sorted.size()) {
+      problems.add(session.totalParts() + " parts were announced, the manifest has " + sorted.size());
+    }
+    if (!problems.isEmpty()) {
+      rejectedManifests.increment();
+      return CompletableFuture.failedFuture(new InvalidPartManifestException(problems));
+    }
+
+    return Main.getS3Limiters().call("ListParts", () -> s3AsyncClient.listParts(b -> b.bucket(bucketName).key(key).uploadId(uploadId))) //
+      .thenCompose(firstPage -> remainingParts(key, uploadId, firstPage, new ArrayList<>())) //
+      .thenCompose(uploaded -> {
+        List<CompletedPart> parts = verify(sorted, uploaded);
+        long size = uploaded.stream().mapToLong(Part::size).sum();
+
+        // Admitted with ListParts, so completion is not rejected after the manifest was checked
+        return Main.getS3Limiters().track("CompleteMultipartUpload", () -> s3AsyncClient.completeMultipartUpload(b -> b //
+          .bucket(bucketName) //
+          .key(key) //
+          .uploadId(uploadId) //
+          .multipartUpload(m -> m.parts(parts)))) //
+          .thenApply(response -> {
+            finish(uploadId);
+            completed.increment();
+            return new Completion(key, response.eTag(), size, parts.size(), response.versionId(), response.location());
+          });
+      });
+  }
+
+  /**
+   * @return the session of this upload, or null if the server did not initiate it or it already finished or expired
+   */
+  public Session get(String uploadId) {
+    return sessions.getIfPresent(uploadId);
+  }
+
+  /**
+   * Forgets a session that was completed or aborted, so it is not aborted on expiry.
+   */
+  public void finish(String uploadId) {
+    if (sessions.asMap().remove(uploadId) != null) {
+      finished.increment();
+    }
+  }
+
+  public Instant expiresAt(Session session) {
+    return session.createdAt().plus(ttl);
+  }
+
+  public long activeCount() {
+    return sessions.estimatedSize();
+  }
+
+  public long startedCount() {
+    return started.sum();
+  }
+
+  public long abandonedCount() {
+    return abandoned.sum();
+  }
+
+  public long completedCount() {
+    return completed.sum();
+  }
+
+  public long rejectedManifestCount() {
+    return rejectedManifests.sum();
+  }
+
+  public String summary() {
+    return "Multipart sessions: " + activeCount() + " active | started: " + started.sum() + " | finished: " + finished.sum() + " | completed by server: " + completed.sum() + " | rejected manifests: " + rejectedManifests.sum() + " | aborted after " + ttl.toMinutes() + " min: " + abandoned.sum();
+  }
+
+  // Follows ListParts pages; the pages after the first are part of an admitted request and are not rejected
+  private CompletableFuture<List<Part>> remainingParts(String key, String uploadId, ListPartsResponse page, List<Part> parts) {
+    parts.addAll(page.parts());
+    if (!Boolean.TRUE.equals(page.isTruncated())) {
+      return CompletableFuture.completedFuture(parts);
+    }
+    return Main.getS3Limiters().track("ListParts", () -> s3AsyncClient.listParts(b -> b.bucket(bucketName).key(key).uploadId(uploadId).partNumberMarker(page.nextPartNumberMarker()))) //
+      .thenCompose(next -> remainingParts(key, uploadId, next, parts));
+  }
+
+  // Part numbers in range and unique; the manifest is sorted
+  private static List<String> checkPartNumbers(List<ManifestPart> manifest) {
+    List<String> problems = new ArrayList<>();
+    if (manifest.isEmpty()) {
+      problems.add("the manifest has no parts");
+    }
+    for(int i = 0; i < manifest.size(); i++) {
+      int partNumber = manifest.get(i).partNumber();
+      if (partNumber < 1 || partNumber > MAX_PART_NUMBER) {
+        problems.add("part number " + partNumber + " is not between 1 and " + MAX_PART_NUMBER);
+      } else if (i > 0 && manifest.get(i - 1).partNumber() == partNumber) {
+        problems.add("part " + partNumber + " is listed twice");
+      }
+      if (manifest.get(i).eTag() == null || manifest.get(i).eTag().isBlank()) {
+        problems.add("part " + partNumber + " has no ETag");
+      }
+    }
+    return problems;
+  }
+
+  // Compares the manifest with the uploaded parts; returns the parts to complete with, as S3 listed them
+  private List<CompletedPart> verify(List<ManifestPart> manifest, List<Part> uploaded) {
+    Map<Integer, Part> uploadedByNumber = new HashMap<>();
+    uploaded.forEach(part -> uploadedByNumber.put(part.partNumber(), part));
+
+    List<String> problems = new ArrayList<>();
+    List<CompletedPart> parts = new ArrayList<>(manifest.size());
+    for(int i = 0; i < manifest.size(); i++) {
+      ManifestPart expected = manifest.get(i);
+      Part actual = uploadedByNumber.remove(expected.partNumber());
+      if (actual == null) {
+        problems.add("part " + expected.partNumber() + " was not uploaded");
+        continue;
+      }
+      if (!unquote(expected.eTag()).equals(unquote(actual.eTag()))) {
+        problems.add("part " + expected.partNumber() + " has ETag " + unquote(expected.eTag()) + ", S3 has " + unquote(actual.eTag()));
+      }
+      if (expected.size() >= 0 && expected.size() != actual.size()) {
+        problems.add("part " + expected.partNumber() + " has " + expected.size() + " bytes, S3 has " + actual.size());
+      }
+      if (i < manifest.size() - 1 && actual.size() < MIN_PART_SIZE) {
+        problems.add("part " + expected.partNumber() + " is " + actual.size() + " bytes, only the last part may be under 5 MB");
+      }
+      parts.add(CompletedPart.builder().partNumber(actual.partNumber()).eTag(actual.eTag()).build());
+    }
+    uploadedByNumber.keySet().stream().sorted().forEach(partNumber -> problems.add("part " + partNumber + " was uploaded but is not in the manifest"));
+
+    if (!problems.isEmpty()) {
+      rejectedManifests.increment();
+      throw new InvalidPartManifestException(problems);
+    }
+    return parts;
+  }
+
+  private static String unquote(String eTag) {
+    return eTag.length() >= 2 && eTag.startsWith("\"") && eTag.endsWith("\"") ? eTag.substring(1, eTag.length() - 1) : eTag;
+  }
+
+  private void abortAbandoned(Session session) {
+    Main.getS3Limiters().call("AbortMultipartUpload", () -> s3AsyncClient.abortMultipartUpload(b -> b.bucket(bucketName).key(session.key()).uploadId(session.uploadId()))) //
+      .whenComplete((response, ex) -> {
+        if (ex == null) {
+          abandoned.increment();
+          logger.info("[MultipartSession]  Aborted abandoned upload | Key: {} | Started: {}", session.key(), session.createdAt());
+        } else if (ex instanceof NoSuchUploadException || ex.getCause() instanceof NoSuchUploadException) {
+          // Completed or aborted with a presigned URL, which the server does not see
+          logger.debug("[MultipartSession]  Expired upload no longer exists | Key: {}", session.key());
+        } else {
+          logger.warn("[MultipartSession]  Failed to abort abandoned upload | Key: {} | Error: {}", session.key(), ex.getMessage());
+        }
+      });
+  }
+}
@@ -1,14 +1,19 @@
 package com.example.server.uploadServices;
 
-import java.io.BufferedInputStream;
+import java.io.EOFException;
 import java.io.InputStream;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.example.server.Main;
+import com.example.server.limitUtil.BandwidthScheduler;
+import com.example.server.limitUtil.LimitExceededException;
+import com.example.server.metricsUtil.RequestTiming;
+
 import jakarta.ws.rs.container.AsyncResponse;
 import jakarta.ws.rs.core.Response;
 import software.amazon.awssdk.core.async.AsyncRequestBody;
@@ -19,32 +24,124 @@ import software.amazon.awssdk.services.s3.model.PutObjectResponse;
 public class StreamServerUploadService {
   private static final Logger logger = LoggerFactory.getLogger(StreamServerUploadService.class);
 
-  public static void asyncMultipartUpload(S3AsyncClient s3AsyncClient, String bucketName, String fileName, InputStream uploadedInputStream, long contentLength, AsyncResponse asyncResponse) {
+  public static void asyncMultipartUpload(S3AsyncClient s3AsyncClient, String bucketName, String fileName, InputStream uploadedInputStream, long contentLength, String clientId, RequestTiming timing, AsyncResponse asyncResponse) {
+
+    // The request body is read on the shared upload I/O pool, not on a pool per upload
+    // The SDK reads it in chunks itself, so it is not wrapped in a BufferedInputStream (another heap buffer per upload)
+    UploadIoScheduler uploadIoScheduler = Main.getUploadIoScheduler();
 
-    ExecutorService executor = Executors.newFixedThreadPool(10);
+    // Reads are paced to the client's share of the upload bandwidth
+    BandwidthScheduler.Transfer transfer = Main.getUploadBandwidth().open(clientId);
+    InputStream pacedInputStream = transfer.pace(uploadedInputStream);
 
     PutObjectRequest putObjectRequest = PutObjectRequest.builder().bucket(bucketName) //
       .key(fileName) //
       .build();
 
-    InputStream buffered = new BufferedInputStream(uploadedInputStream);
-
-    logger.info("Uploading file: {} (Size: {})", fileName, contentLength);
+    timing.detail(logger, "Uploading file: {} (Size: {})", fileName, contentLength);
 
-    CompletableFuture<PutObjectResponse> future = s3AsyncClient.putObject(putObjectRequest, AsyncRequestBody.fromInputStream(buffered, contentLength, executor));
+    CompletableFuture<PutObjectResponse> future;
+    try {
+      // The upload phase covers reading the body from the client and sending it to S3, which overlap
+      future = timing.time("upload", Main.getS3Limiters().callTransfer("PutObject", () -> s3AsyncClient.putObject(putObjectRequest, AsyncRequestBody.fromInputStream(pacedInputStream, contentLength, uploadIoScheduler.executor()))));
+    } catch (RejectedExecutionException e) {
+      future = CompletableFuture.failedFuture(e);
+    }
 
     future.whenComplete((resp, err) -> {
-      try {
-        if (err != null) {
-          logger.error("Upload failed", err);
-          asyncResponse.resume(Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity("Upload failed: " + err.getMessage()).build());
-        } else {
-          logger.info("Upload successful: {}", resp);
-          asyncResponse.resume(Response.ok("Upload successful").build());
+      transfer.close();
+      if (err != null) {
+        resumeWithError(asyncResponse, err, uploadIoScheduler, timing);
+      } else {
+        if (timing.sampled() || logger.isDebugEnabled()) {
+          timing.detail(logger, "Upload successful: {} | {} | {}", resp, uploadIoScheduler.summary(), Main.getUploadBandwidth().summary());
+        }
+        asyncResponse.resume(Response.ok("Upload successful").header(RequestTiming.HEADER, timing.header()).build());
+      }
+    });
+  }
+
+  /**
+   * Uploads the body through the pipelined multipart upload, cutting parts from the stream as data arrives.
+   * Works with and without Content-Length (Transfer-Encoding: chunked, passed as -1).
+   */
+  public static void asyncPipelinedUpload(MultipartUploadPipeline uploadPipeline, String bucketName, String fileName, InputStream uploadedInputStream, long contentLength, String clientId, RequestTiming timing, AsyncResponse asyncResponse) {
+    UploadIoScheduler uploadIoScheduler = Main.getUploadIoScheduler();
+    BandwidthScheduler.Transfer transfer = Main.getUploadBandwidth().open(clientId);
+
+    timing.detail(logger, "Uploading file: {} (pipelined)", fileName);
+
+    CompletableFuture<Long> future;
+    try {
+      timing.begin("queue");
+      future = CompletableFuture.supplyAsync(() -> {
+        timing.end("queue");
+        long uploadStart = System.nanoTime();
+        try {
+          return uploadPipeline.upload(bucketName, fileName, transfer.pace(uploadedInputStream), contentLength);
+        } catch (Exception e) {
+          throw new CompletionException(e);
+        } finally {
+          timing.record("upload", System.nanoTime() - uploadStart);
         }
-      } finally {
-        executor.shutdown(); // Clean up the executor
+      }, uploadIoScheduler.executor());
+    } catch (RejectedExecutionException e) {
+      future = CompletableFuture.failedFuture(e);
+    }
+
+    future.whenComplete((bytes, err) -> {
+      transfer.close();
+      if (err != null) {
+        resumeWithError(asyncResponse, err, uploadIoScheduler, timing);
+      } else {
+        if (timing.sampled() || logger.isDebugEnabled()) {
+          timing.detail(logger, "Upload successful: {} ({} bytes) | {} | {} | {} | {}", fileName, bytes, uploadPipeline.summary(), uploadIoScheduler.summary(), Main.getBufferPool().summary(), Main.getUploadBandwidth().summary());
+        }
+        asyncResponse.resume(Response.ok("Upload successful").header(RequestTiming.HEADER, timing.header()).build());
       }
     });
   }
+
+  // Overload (full upload I/O queue or S3 concurrency limit) is answered with 503 so the client retries later
+  private static void resumeWithError(AsyncResponse asyncResponse, Throwable err, UploadIoScheduler uploadIoScheduler, RequestTiming timing) {
+    LimitExceededException limitExceeded = LimitExceededException.find(err);
+    if (limitExceeded != null) {
+      logger.warn("Upload rejected: {} | {}", limitExceeded.getMessage(), Main.getS3Limiters().summary());
+      asyncResponse.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", limitExceeded.retryAfterSeconds()).header(RequestTiming.HEADER, timing.header()).entity("Server busy, retry later").build());
+      return;
+    }
+    if (isRejected(err)) {
+      logger.warn("Upload rejected, upload I/O pool is saturated | {}", uploadIoScheduler.summary());
+      asyncResponse.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", "1").header(RequestTiming.HEADER, timing.header()).entity("Server busy, retry later").build());
+      return;
+    }
+    EOFException truncated = truncatedBody(err);
+    if (truncated != null) {
+      logger.warn("Upload aborted, body shorter than its Content-Length: {}", truncated.getMessage());
+      asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).header(RequestTiming.HEADER, timing.header()).entity("Incomplete body: " + truncated.getMessage()).build());
+      return;
+    }
+    logger.error("Upload failed", err);
+    asyncResponse.resume(Response.status(Response.Status.INTERNAL_SERVER_ERROR).header(RequestTiming.HEADER, timing.header()).entity("Upload failed: " + err.getMessage()).build());
+  }
+
+  // The SDK may wrap the RejectedExecutionException from the upload I/O pool
+  private static boolean isRejected(Throwable err) {
+    for(Throwable cause = err; cause != null; cause = cause.getCause()) {
+      if (cause instanceof RejectedExecutionException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // The pipeline's EOFException for a body that ended before its Content-Length, possibly wrapped
+  private static EOFException truncatedBody(Throwable err) {
+    for(Throwable cause = err; cause != null; cause = cause.getCause()) {
+      if (cause instanceof EOFException truncated) {
+        return truncated;
+      }
+    }
+    return null;
+  }
 }
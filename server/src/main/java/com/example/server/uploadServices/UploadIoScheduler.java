@@ -0,0 +1,112 @@
+package com.example.server.uploadServices;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide executor for the blocking reads of stream-through uploads.
+ *
+ * {@code AsyncRequestBody.fromInputStream} needs a thread that blocks on the request InputStream while the
+ * SDK sends the data to S3. All uploads share this one bounded pool instead of creating a pool per request,
+ * so the thread count stays fixed however many uploads are running. Uploads beyond the pool size wait in a
+ * bounded queue; when that is full too, the upload is rejected instead of creating more threads.
+ */
+public class UploadIoScheduler {
+  private final ThreadPoolExecutor executor;
+
+  private final LongAdder submitted = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  private final LongAdder queueWaitNanos = new LongAdder();
+  private final LongAccumulator maxQueueWaitNanos = new LongAccumulator(Math::max, 0);
+  private final LongAccumulator maxQueueDepth = new LongAccumulator(Math::max, 0);
+
+  /**
+   * @param threads       number of upload I/O threads, i.e. uploads reading their request body at once
+   * @param queueCapacity uploads that may wait for a thread before new ones are rejected
+   * @param threadFactory creates the upload I/O threads (platform or virtual)
+   */
+  public UploadIoScheduler(int threads, int queueCapacity, ThreadFactory threadFactory) {
+    executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), threadFactory) {
+      @Override
+      public void execute(Runnable command) {
+        long enqueuedAt = System.nanoTime();
+        submitted.increment();
+        try {
+          super.execute(() -> {
+            long waited = System.nanoTime() - enqueuedAt;
+            queueWaitNanos.add(waited);
+            maxQueueWaitNanos.accumulate(waited);
+            command.run();
+          });
+        } catch (RejectedExecutionException e) {
+          rejected.increment();
+          throw e;
+        }
+        maxQueueDepth.accumulate(getQueue().size());
+      }
+    };
+    // Idle threads are released, so a quiet server does not keep the whole pool alive
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * @return the shared executor for InputStream-backed request bodies
+   */
+  public ExecutorService executor() {
+    return executor;
+  }
+
+  /**
+   * @return a one-line summary of the pool and queue metrics, for logging
+   */
+  public String summary() {
+    long tasks = submitted.sum();
+    return String.format("Threads: %d active / %d | Queued: %d (max %d) | Avg wait: %.1f ms (max %.1f ms) | Submitted: %d | Rejected: %d", //
+      activeThreads(), maxThreads(), queueDepth(), maxQueueDepth.get(), //
+      tasks == 0 ? 0.0 : queueWaitNanos.sum() / 1e6 / tasks, maxQueueWaitNanos.get() / 1e6, tasks, rejected.sum());
+  }
+
+  public int queueDepth() {
+    return executor.getQueue().size();
+  }
+
+  public int activeThreads() {
+    return executor.getActiveCount();
+  }
+
+  public int poolSize() {
+    return executor.getPoolSize();
+  }
+
+  /**
+   * @return the configured number of upload I/O threads the pool never grows beyond
+   */
+  public int maxThreads() {
+    return executor.getMaximumPoolSize();
+  }
+
+  public long submittedCount() {
+    return submitted.sum();
+  }
+
+  public long rejectedCount() {
+    return rejected.sum();
+  }
+
+  /**
+   * @return total time uploads spent waiting in the queue for a thread
+   */
+  public long queueWaitNanos() {
+    return queueWaitNanos.sum();
+  }
+
+  public void close() {
+    executor.shutdownNow();
+  }
+}
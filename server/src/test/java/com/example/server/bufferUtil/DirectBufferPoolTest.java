@@ -0,0 +1,215 @@
+package com.example.server.bufferUtil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.server.limitUtil.OperationLimiters;
+import com.example.server.uploadServices.MultipartUploadPipeline;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+public class DirectBufferPoolTest {
+  private static final int PART_SIZE = 8 * 1024 * 1024;
+  private static final int UPLOADS = 1000;
+
+  // Heap bytes one upload of three parts may allocate (request objects, futures and the stream's copy buffer);
+  // copying the parts onto the heap, as AsyncRequestBody.fromBytes does, would be three orders of magnitude above this
+  private static final long ALLOCATION_BUDGET_PER_UPLOAD = 64 * 1024;
+
+  @Test
+  public void releasedBuffersAreReused() {
+    DirectBufferPool pool = new DirectBufferPool(64 * 1024, 16 * 1024 * 1024, 64 * 1024 * 1024, 60_000);
+
+    ByteBuffer first = pool.acquire(PART_SIZE - 100, "test");
+    assertTrue(first.isDirect());
+    assertEquals(PART_SIZE - 100, first.limit());
+    assertEquals(PART_SIZE, first.capacity());
+    pool.release(first);
+
+    ByteBuffer second = pool.acquire(PART_SIZE, "test");
+    assertSame(first, second);
+    assertEquals(1, pool.allocations());
+    assertEquals(1, pool.reuses());
+    pool.release(second);
+    pool.release(second); // Double release is ignored
+    assertEquals(0, pool.inUseBytes());
+    assertEquals(PART_SIZE, pool.idleBytes());
+  }
+
+  @Test
+  public void unreleasedBuffersAreReportedAsLeaks() {
+    DirectBufferPool pool = new DirectBufferPool(64 * 1024, 16 * 1024 * 1024, 64 * 1024 * 1024, 0);
+
+    ByteBuffer leaked = pool.acquire(128 * 1024, "leaking test");
+    assertEquals(1, pool.detectLeaks());
+    assertEquals(1, pool.leaks());
+    assertEquals(0, pool.inUseBytes());
+
+    // A late release of a reported buffer does not put it back into the pool
+    pool.release(leaked);
+    assertEquals(0, pool.idleBytes());
+  }
+
+  /**
+   * Records heap allocations with JFR while the upload pipeline sends bodies from an in-memory stream to a stubbed
+   * S3 client, and asserts that, once the pool is warm, uploads allocate no direct memory and stay under the heap
+   * budget per upload.
+   */
+  @Test
+  public void pipelinedUploadsStayUnderAllocationBudget() throws Exception {
+    DirectBufferPool pool = new DirectBufferPool(64 * 1024, 16 * 1024 * 1024, 64 * 1024 * 1024, 60_000);
+    MultipartUploadPipeline pipeline = new MultipartUploadPipeline(new StubS3AsyncClient(), new OperationLimiters("S3", 64, 8, 2048, 1.5), //
+      PART_SIZE, 4, pool, 64 * 1024 * 1024);
+    byte[] body = new byte[2 * PART_SIZE + 1024 * 1024]; // Two full parts and a short last one
+    runUploads(pipeline, body, 20);
+
+    long allocations = pool.allocations();
+    long allocatedBytes = pool.allocatedBytes();
+    long reuses = pool.reuses();
+    long allocated;
+    try (Recording recording = new Recording()) {
+      recording.enable("jdk.ObjectAllocationInNewTLAB");
+      recording.enable("jdk.ObjectAllocationOutsideTLAB");
+      recording.start();
+      runUploads(pipeline, body, UPLOADS);
+      recording.stop();
+
+      Path dump = Files.createTempFile("buffer-pool-allocations", ".jfr");
+      try {
+        recording.dump(dump);
+        allocated = allocatedByCurrentThread(dump);
+      } finally {
+        Files.deleteIfExists(dump);
+      }
+    }
+
+    long perUpload = allocated / UPLOADS;
+    assertTrue(perUpload < ALLOCATION_BUDGET_PER_UPLOAD, "Allocated " + perUpload + " heap bytes per upload");
+    assertEquals(allocations, pool.allocations(), "Direct buffers allocated by a warm pool");
+    assertEquals(allocatedBytes, pool.allocatedBytes());
+    assertEquals(reuses + UPLOADS * 4L, pool.reuses()); // First read and three parts per upload
+    assertEquals(0, pool.inUseBytes());
+    assertEquals(0, pipeline.memoryInUseBytes());
+  }
+
+  @Test
+  public void truncatedBodiesAreAbortedInsteadOfStored() throws Exception {
+    DirectBufferPool pool = new DirectBufferPool(64 * 1024, 16 * 1024 * 1024, 64 * 1024 * 1024, 60_000);
+    StubS3AsyncClient s3 = new StubS3AsyncClient();
+    MultipartUploadPipeline pipeline = new MultipartUploadPipeline(s3, new OperationLimiters("S3", 64, 8, 2048, 1.5), PART_SIZE, 4, pool, 64 * 1024 * 1024);
+
+    // The client declared one byte more than it sent, e.g. because it disconnected
+    byte[] small = new byte[1024];
+    assertThrows(EOFException.class, () -> pipeline.upload("bucket", "key", new ByteArrayInputStream(small), small.length + 1));
+    assertEquals(0, s3.puts.get(), "A truncated single-part body is not stored");
+
+    byte[] large = new byte[2 * PART_SIZE + 1024 * 1024];
+    assertThrows(EOFException.class, () -> pipeline.upload("bucket", "key", new ByteArrayInputStream(large), large.length + 1));
+    assertEquals(0, s3.completes.get(), "A truncated multipart body is not completed");
+    assertEquals(1, s3.aborts.get());
+
+    assertEquals(0, pool.inUseBytes());
+    assertEquals(0, pipeline.memoryInUseBytes());
+  }
+
+  private static void runUploads(MultipartUploadPipeline pipeline, byte[] body, int uploads) throws Exception {
+    for(int i = 0; i < uploads; i++) {
+      assertEquals(body.length, pipeline.upload("bucket", "key", new ByteArrayInputStream(body), body.length));
+    }
+  }
+
+  // Answers every call at once, without reading the body
+  private static class StubS3AsyncClient implements S3AsyncClient {
+    private static final CreateMultipartUploadResponse CREATED = CreateMultipartUploadResponse.builder().uploadId("upload").build();
+    private static final UploadPartResponse PART = UploadPartResponse.builder().eTag("etag").build();
+    private static final CompleteMultipartUploadResponse COMPLETED = CompleteMultipartUploadResponse.builder().build();
+    private static final PutObjectResponse PUT = PutObjectResponse.builder().build();
+    private static final AbortMultipartUploadResponse ABORTED = AbortMultipartUploadResponse.builder().build();
+
+    private final AtomicInteger puts = new AtomicInteger();
+    private final AtomicInteger completes = new AtomicInteger();
+    private final AtomicInteger aborts = new AtomicInteger();
+
+    @Override
+    public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(CreateMultipartUploadRequest request) {
+      return CompletableFuture.completedFuture(CREATED);
+    }
+
+    @Override
+    public CompletableFuture<UploadPartResponse> uploadPart(UploadPartRequest request, AsyncRequestBody body) {
+      return CompletableFuture.completedFuture(PART);
+    }
+
+    @Override
+    public CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(CompleteMultipartUploadRequest request) {
+      completes.incrementAndGet();
+      return CompletableFuture.completedFuture(COMPLETED);
+    }
+
+    @Override
+    public CompletableFuture<PutObjectResponse> putObject(PutObjectRequest request, AsyncRequestBody body) {
+      puts.incrementAndGet();
+      return CompletableFuture.completedFuture(PUT);
+    }
+
+    @Override
+    public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(AbortMultipartUploadRequest request) {
+      aborts.incrementAndGet();
+      return CompletableFuture.completedFuture(ABORTED);
+    }
+
+    @Override
+    public String serviceName() {
+      return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  // New TLABs approximate the allocations made inside TLABs; large objects are recorded individually
+  private static long allocatedByCurrentThread(Path dump) throws Exception {
+    long threadId = Thread.currentThread().getId();
+    long allocated = 0;
+    for(RecordedEvent event : RecordingFile.readAllEvents(dump)) {
+      RecordedThread thread = event.getThread();
+      if (thread == null || thread.getJavaThreadId() != threadId) {
+        continue;
+      }
+      if ("jdk.ObjectAllocationInNewTLAB".equals(event.getEventType().getName())) {
+        allocated += event.getLong("tlabSize");
+      } else {
+        allocated += event.getLong("allocationSize");
+      }
+    }
+    return allocated;
+  }
+}
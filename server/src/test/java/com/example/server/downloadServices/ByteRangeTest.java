@@ -0,0 +1,82 @@
+package com.example.server.downloadServices;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class ByteRangeTest {
+  private static final long SIZE = 1000;
+
+  @Test
+  public void suffixRangeCoversTheLastBytes() {
+    assertEquals(List.of(new ByteRange.Spec(-1, 100)), ByteRange.parse("bytes=-100"));
+    assertEquals(List.of(new ByteRange(900, 999)), resolve("bytes=-100"));
+    // A suffix longer than the object is the whole object
+    assertEquals(List.of(new ByteRange(0, 999)), resolve("bytes=-5000"));
+    assertEquals("bytes=-100", new ByteRange.Spec(-1, 100).toHeaderValue());
+  }
+
+  @Test
+  public void openEndedRangeRunsToTheEnd() {
+    assertEquals(List.of(new ByteRange.Spec(100, -1)), ByteRange.parse("bytes=100-"));
+    assertEquals(List.of(new ByteRange(100, 999)), resolve("bytes=100-"));
+    assertEquals("bytes=100-", new ByteRange.Spec(100, -1).toHeaderValue());
+  }
+
+  @Test
+  public void overlappingAndAdjacentRangesAreMergedInOrder() {
+    assertEquals(List.of(new ByteRange(0, 299), new ByteRange(500, 599)), resolve("bytes=500-599,100-299,0-150"));
+    // 0-99 and 100-199 touch, so they become one range
+    assertEquals(List.of(new ByteRange(0, 199)), resolve("bytes=100-199,0-99"));
+    assertEquals(List.of(new ByteRange(0, 999)), resolve("bytes=0-,-100,200-300"));
+  }
+
+  @Test
+  public void rangesPastTheEndAreClampedOrDropped() {
+    assertEquals(List.of(new ByteRange(900, 999)), resolve("bytes=900-5000"));
+    assertEquals(List.of(new ByteRange(0, 9)), resolve("bytes=0-9,1000-1099,2000-"));
+  }
+
+  @Test
+  public void malformedHeadersAreIgnored() {
+    assertNull(ByteRange.parse(null));
+    assertNull(ByteRange.parse("items=0-99"));
+    assertNull(ByteRange.parse("bytes=100"));
+    assertNull(ByteRange.parse("bytes=-"));
+    assertNull(ByteRange.parse("bytes=abc-def"));
+    assertNull(ByteRange.parse("bytes=+1-5"));
+    assertNull(ByteRange.parse("bytes=200-100"));
+    assertNull(ByteRange.parse("bytes=0-99,junk"));
+    assertNull(ByteRange.parse("bytes=" + "0-0,".repeat(33)), "More than 32 ranges");
+  }
+
+  @Test
+  public void headerIsCaseInsensitiveAndToleratesSpaces() {
+    assertEquals(List.of(new ByteRange.Spec(0, 99), new ByteRange.Spec(200, 299)), ByteRange.parse("Bytes=0-99, 200-299"));
+  }
+
+  @Test
+  public void allUnsatisfiableRangesResolveToNothing() {
+    // An empty result is answered with 416 Range Not Satisfiable
+    assertTrue(resolve("bytes=1000-").isEmpty());
+    assertTrue(resolve("bytes=1000-1999,5000-").isEmpty());
+    assertTrue(resolve("bytes=-0").isEmpty());
+    assertTrue(ByteRange.resolve(ByteRange.parse("bytes=0-99"), 0).isEmpty(), "Nothing is satisfiable in an empty object");
+  }
+
+  @Test
+  public void resolvedRangeReportsItsHeaders() {
+    ByteRange range = new ByteRange(100, 199);
+    assertEquals(100, range.length());
+    assertEquals("bytes=100-199", range.toHeaderValue());
+    assertEquals("bytes 100-199/1000", range.contentRange(SIZE));
+  }
+
+  private static List<ByteRange> resolve(String header) {
+    return ByteRange.resolve(ByteRange.parse(header), SIZE);
+  }
+}
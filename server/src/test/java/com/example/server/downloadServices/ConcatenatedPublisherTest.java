@@ -0,0 +1,121 @@
+package com.example.server.downloadServices;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+
+import com.example.server.downloadServices.InMemoryPublishers.ManualPublisher;
+import com.example.server.downloadServices.InMemoryPublishers.RecordingSubscriber;
+
+public class ConcatenatedPublisherTest {
+  private final byte[] object = InMemoryPublishers.object(40);
+
+  @Test
+  public void demandCarriesOverToTheNextSource() {
+    AtomicInteger opened = new AtomicInteger();
+    ConcatenatedPublisher publisher = new ConcatenatedPublisher(List.of( //
+      counted(opened, () -> CompletableFuture.completedFuture(ConcatenatedPublisher.buffers(List.of(chunk(0), chunk(1))))), //
+      counted(opened, () -> CompletableFuture.completedFuture(ConcatenatedPublisher.singleBuffer(chunk(2)))), //
+      counted(opened, ConcatenatedPublisher.ofBytes(new byte[] { 30 }))));
+
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    assertEquals(0, opened.get(), "Sources are opened on the first request");
+
+    // Two buffers of the first source, and the third from the second source with the demand left over
+    subscriber.request(3);
+    assertEquals(3, subscriber.buffers());
+    assertEquals(3, opened.get());
+    assertFalse(subscriber.completed());
+
+    subscriber.request(1);
+    assertEquals(4, subscriber.buffers());
+    assertTrue(subscriber.completed());
+    assertNull(subscriber.error());
+  }
+
+  @Test
+  public void nextSourceIsOpenedOnlyAfterThePreviousCompletes() {
+    ManualPublisher first = new ManualPublisher();
+    AtomicInteger secondOpened = new AtomicInteger();
+    ConcatenatedPublisher publisher = new ConcatenatedPublisher(List.of( //
+      () -> CompletableFuture.completedFuture(first), //
+      counted(secondOpened, () -> CompletableFuture.completedFuture(ConcatenatedPublisher.singleBuffer(chunk(1))))));
+
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.request(5);
+    assertEquals(5, first.requested(), "The whole downstream demand is passed to the current source");
+
+    first.emit(chunk(0));
+    assertEquals(0, secondOpened.get());
+    first.complete();
+    assertEquals(1, secondOpened.get());
+
+    assertArrayEquals(Arrays.copyOfRange(object, 0, 20), subscriber.bytes());
+    assertTrue(subscriber.completed());
+  }
+
+  @Test
+  public void cancelStopsTheCurrentSourceAndOpensNoMore() {
+    ManualPublisher first = new ManualPublisher();
+    AtomicInteger secondOpened = new AtomicInteger();
+    ConcatenatedPublisher publisher = new ConcatenatedPublisher(List.of( //
+      () -> CompletableFuture.completedFuture(first), //
+      counted(secondOpened, () -> CompletableFuture.completedFuture(ConcatenatedPublisher.singleBuffer(chunk(1))))));
+
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.request(2);
+    first.emit(chunk(0));
+    subscriber.cancel();
+    assertTrue(first.cancelled());
+
+    // A source that completes anyway after the cancel does not start the next one
+    first.complete();
+    assertEquals(0, secondOpened.get());
+    assertEquals(1, subscriber.buffers());
+    assertFalse(subscriber.completed());
+  }
+
+  @Test
+  public void failingSourceFailsTheStream() {
+    IllegalStateException failure = new IllegalStateException("GET failed");
+    ConcatenatedPublisher publisher = new ConcatenatedPublisher(List.of( //
+      () -> CompletableFuture.completedFuture(ConcatenatedPublisher.singleBuffer(chunk(0))), //
+      () -> CompletableFuture.failedFuture(failure)));
+
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    publisher.subscribe(subscriber);
+    subscriber.request(Long.MAX_VALUE);
+
+    assertEquals(1, subscriber.buffers());
+    assertSame(failure, subscriber.error());
+    assertFalse(subscriber.completed());
+  }
+
+  // Chunk i is bytes 10*i..10*i+9 of the test object
+  private ByteBuffer chunk(int i) {
+    return InMemoryPublishers.slice(object, i * 10, 10);
+  }
+
+  private static Supplier<CompletableFuture<? extends Publisher<ByteBuffer>>> counted(AtomicInteger opened, Supplier<CompletableFuture<? extends Publisher<ByteBuffer>>> source) {
+    return () -> {
+      opened.incrementAndGet();
+      return source.get();
+    };
+  }
+}
@@ -0,0 +1,187 @@
+package com.example.server.downloadServices;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+
+import com.example.server.downloadServices.InMemoryPublishers.ManualPublisher;
+import com.example.server.downloadServices.InMemoryPublishers.RecordingSubscriber;
+
+public class DownloadCoalescerTest {
+  private static final String KEY = "object";
+  private static final String ETAG = "\"etag\"";
+  private static final int CHUNK_SIZE = 100;
+
+  private final byte[] object = InMemoryPublishers.object(5 * CHUNK_SIZE);
+  private final StubSource source = new StubSource();
+
+  @Test
+  public void lateJoinerWithinTheReplayBufferSharesTheUpstreamRead() {
+    DownloadCoalescer coalescer = new DownloadCoalescer(10 * CHUNK_SIZE, source);
+    RecordingSubscriber first = open(coalescer);
+    first.request(Long.MAX_VALUE);
+    ManualPublisher upstream = source.upstream(0);
+    upstream.emit(chunk(0));
+    upstream.emit(chunk(1));
+
+    // Joins after two chunks and still starts at byte 0
+    RecordingSubscriber late = open(coalescer);
+    late.request(Long.MAX_VALUE);
+    assertEquals(2 * CHUNK_SIZE, late.bytes().length);
+
+    for(int i = 2; i < 5; i++) {
+      upstream.emit(chunk(i));
+    }
+    upstream.complete();
+
+    assertArrayEquals(object, first.bytes());
+    assertArrayEquals(object, late.bytes());
+    assertTrue(first.completed());
+    assertTrue(late.completed());
+    assertEquals(1, coalescer.upstreamDownloads());
+    assertEquals(1, coalescer.coalescedDownloads());
+  }
+
+  @Test
+  public void trimmedDownloadIsNotJoined() {
+    DownloadCoalescer coalescer = new DownloadCoalescer((long)(1.5 * CHUNK_SIZE), source);
+    RecordingSubscriber first = open(coalescer);
+    first.request(Long.MAX_VALUE);
+    ManualPublisher upstream = source.upstream(0);
+    upstream.emit(chunk(0));
+    upstream.emit(chunk(1)); // Over the replay budget: the consumed first chunk is dropped
+
+    RecordingSubscriber late = open(coalescer);
+    late.request(Long.MAX_VALUE);
+    assertEquals(2, coalescer.upstreamDownloads(), "The start of the object is gone, so the late client reads it again");
+    assertEquals(0, coalescer.coalescedDownloads());
+
+    ManualPublisher second = source.upstream(1);
+    second.emit(chunk(0));
+    assertArrayEquals(Arrays.copyOfRange(object, 0, CHUNK_SIZE), late.bytes());
+    assertEquals(2 * CHUNK_SIZE, first.bytes().length);
+  }
+
+  @Test
+  public void upstreamIsReadNoFurtherThanTheReplayBufferAheadOfTheSlowestClient() {
+    DownloadCoalescer coalescer = new DownloadCoalescer(2 * CHUNK_SIZE, source);
+    RecordingSubscriber fast = open(coalescer);
+    RecordingSubscriber slow = open(coalescer);
+    fast.request(1);
+    ManualPublisher upstream = source.upstream(0);
+
+    upstream.emit(chunk(0));
+    assertEquals(1, upstream.requested(), "One chunk buffered for the slow client");
+    upstream.emit(chunk(1));
+    assertEquals(0, upstream.requested(), "The slow client is a whole buffer behind and nobody has caught up");
+
+    slow.request(1);
+    assertEquals(1, upstream.requested());
+    assertEquals(0, coalescer.laggardFallbacks());
+  }
+
+  @Test
+  public void laggardLeavesAndContinuesWithItsOwnGetFromItsOffset() {
+    DownloadCoalescer coalescer = new DownloadCoalescer(2 * CHUNK_SIZE, source);
+    RecordingSubscriber fast = open(coalescer);
+    RecordingSubscriber slow = open(coalescer);
+    fast.request(Long.MAX_VALUE);
+    slow.request(2);
+    ManualPublisher upstream = source.upstream(0);
+
+    upstream.emit(chunk(0));
+    upstream.emit(chunk(1));
+    upstream.emit(chunk(2));
+    assertEquals(0, coalescer.laggardFallbacks());
+    upstream.emit(chunk(3));
+
+    // The fast client waits for data while the slow one is a whole buffer behind: the slow one leaves
+    assertEquals(1, coalescer.laggardFallbacks());
+    assertEquals(List.of(2L * CHUNK_SIZE), source.fallbackOffsets);
+    assertEquals(List.of(ETAG), source.fallbackETags);
+
+    slow.request(Long.MAX_VALUE);
+    assertArrayEquals(object, slow.bytes());
+    assertTrue(slow.completed());
+
+    upstream.emit(chunk(4));
+    upstream.complete();
+    assertArrayEquals(object, fast.bytes());
+    assertTrue(fast.completed());
+    assertEquals(1, coalescer.upstreamDownloads());
+  }
+
+  @Test
+  public void cancelledClientLeavesOthersRunningAndTheLastOneCancelsTheUpstream() {
+    DownloadCoalescer coalescer = new DownloadCoalescer(10 * CHUNK_SIZE, source);
+    RecordingSubscriber first = open(coalescer);
+    RecordingSubscriber second = open(coalescer);
+    first.request(Long.MAX_VALUE);
+    second.request(Long.MAX_VALUE);
+    ManualPublisher upstream = source.upstream(0);
+
+    upstream.emit(chunk(0));
+    first.cancel();
+    upstream.emit(chunk(1));
+    assertEquals(CHUNK_SIZE, first.bytes().length);
+    assertEquals(2 * CHUNK_SIZE, second.bytes().length);
+    assertFalse(upstream.cancelled());
+
+    second.cancel();
+    assertTrue(upstream.cancelled());
+    assertEquals(1, source.aborts.get());
+
+    // Nothing is left to join: the next download reads the object again
+    open(coalescer);
+    assertEquals(2, coalescer.upstreamDownloads());
+  }
+
+  private RecordingSubscriber open(DownloadCoalescer coalescer) {
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    ObjectBody body = coalescer.open(KEY).join();
+    assertEquals(object.length, body.size());
+    body.body().subscribe(subscriber);
+    return subscriber;
+  }
+
+  private ByteBuffer chunk(int i) {
+    return InMemoryPublishers.slice(object, i * CHUNK_SIZE, CHUNK_SIZE);
+  }
+
+  // Serves the test object from hand-driven publishers; own GETs of laggards get the rest of the object at once
+  private final class StubSource implements DownloadCoalescer.ObjectSource {
+    private final List<ManualPublisher> upstreams = new ArrayList<>();
+    private final List<Long> fallbackOffsets = new ArrayList<>();
+    private final List<String> fallbackETags = new ArrayList<>();
+    private final AtomicInteger aborts = new AtomicInteger();
+
+    @Override
+    public CompletableFuture<ObjectBody> openFullObject(String fileName) {
+      ManualPublisher upstream = new ManualPublisher();
+      upstreams.add(upstream);
+      return CompletableFuture.completedFuture(new ObjectBody(object.length, ETAG, upstream, aborts::incrementAndGet));
+    }
+
+    @Override
+    public CompletableFuture<? extends Publisher<ByteBuffer>> openFrom(String fileName, long offset, String eTag) {
+      fallbackOffsets.add(offset);
+      fallbackETags.add(eTag);
+      return CompletableFuture.completedFuture(ConcatenatedPublisher.singleBuffer(InMemoryPublishers.slice(object, (int)offset, object.length - (int)offset)));
+    }
+
+    ManualPublisher upstream(int i) {
+      return upstreams.get(i);
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package com.example.server.downloadServices;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.server.downloadServices.InMemoryPublishers.ManualPublisher;
+import com.example.server.downloadServices.InMemoryPublishers.RecordingSubscriber;
+
+public class FileTeePublisherTest {
+  private static final int CHUNK_SIZE = 100;
+
+  private final byte[] object = InMemoryPublishers.object(5 * CHUNK_SIZE);
+  private final CompletableFuture<String> filledOn = new CompletableFuture<>();
+  private final CompletableFuture<Boolean> abandoned = new CompletableFuture<>();
+
+  @Test
+  public void completeBodyIsWrittenOnTheWriterThread() throws Exception {
+    Path file = Files.createTempFile("file-tee", ".tmp");
+    FileTeePublisher.Writer writer = new FileTeePublisher.Writer(object.length);
+    try {
+      RecordingSubscriber client = new RecordingSubscriber();
+      ManualPublisher upstream = subscribe(file, writer, client);
+      client.request(Long.MAX_VALUE);
+      for(int i = 0; i < 5; i++) {
+        upstream.emit(chunk(i));
+      }
+      upstream.complete();
+
+      assertEquals("cache-fill-writer", filledOn.get(5, TimeUnit.SECONDS));
+      assertArrayEquals(object, Files.readAllBytes(file));
+      assertArrayEquals(object, client.bytes());
+      assertTrue(client.completed());
+      assertEquals(0, writer.queuedBytes());
+    } finally {
+      writer.close();
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void fillIsDroppedWhenTheWriterQueueIsFull() throws Exception {
+    Path file = Files.createTempFile("file-tee", ".tmp");
+    // Not even one chunk fits in the queue
+    FileTeePublisher.Writer writer = new FileTeePublisher.Writer(CHUNK_SIZE - 1);
+    try {
+      RecordingSubscriber client = new RecordingSubscriber();
+      ManualPublisher upstream = subscribe(file, writer, client);
+      client.request(Long.MAX_VALUE);
+      for(int i = 0; i < 5; i++) {
+        upstream.emit(chunk(i));
+      }
+      upstream.complete();
+
+      assertTrue(abandoned.get(5, TimeUnit.SECONDS));
+      assertFalse(Files.exists(file));
+      assertFalse(filledOn.isDone());
+      assertEquals(1, writer.droppedFills());
+      // The client stream is not affected
+      assertArrayEquals(object, client.bytes());
+      assertTrue(client.completed());
+    } finally {
+      writer.close();
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void shortBodyIsDeleted() throws Exception {
+    Path file = Files.createTempFile("file-tee", ".tmp");
+    FileTeePublisher.Writer writer = new FileTeePublisher.Writer(object.length);
+    try {
+      RecordingSubscriber client = new RecordingSubscriber();
+      ManualPublisher upstream = subscribe(file, writer, client);
+      client.request(Long.MAX_VALUE);
+      upstream.emit(chunk(0));
+      upstream.complete(); // Ends after the first chunk of five
+
+      assertTrue(abandoned.get(5, TimeUnit.SECONDS));
+      assertFalse(Files.exists(file));
+      assertFalse(filledOn.isDone());
+      assertEquals(0, writer.droppedFills());
+    } finally {
+      writer.close();
+      Files.deleteIfExists(file);
+    }
+  }
+
+  private ManualPublisher subscribe(Path file, FileTeePublisher.Writer writer, RecordingSubscriber client) {
+    ManualPublisher upstream = new ManualPublisher();
+    new FileTeePublisher(upstream, file, object.length, writer, //
+      filled -> filledOn.complete(Thread.currentThread().getName()), //
+      () -> abandoned.complete(true)).subscribe(client);
+    return upstream;
+  }
+
+  private ByteBuffer chunk(int i) {
+    return InMemoryPublishers.slice(object, i * CHUNK_SIZE, CHUNK_SIZE);
+  }
+}
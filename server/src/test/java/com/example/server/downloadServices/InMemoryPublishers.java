@@ -0,0 +1,144 @@
+package com.example.server.downloadServices;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Publishers and subscribers driven by hand from a test, so every signal happens on the test thread in a known order.
+ */
+final class InMemoryPublishers {
+  private InMemoryPublishers() {
+  }
+
+  /**
+   * @return bytes 0..size-1 of a test object, with a pattern that shows misplaced or repeated chunks
+   */
+  static byte[] object(int size) {
+    byte[] bytes = new byte[size];
+    for(int i = 0; i < size; i++) {
+      bytes[i] = (byte)(i % 251);
+    }
+    return bytes;
+  }
+
+  static ByteBuffer slice(byte[] bytes, int from, int length) {
+    return ByteBuffer.wrap(bytes, from, length).slice();
+  }
+
+  /**
+   * Single-subscriber publisher that emits only when the test says so, and fails the test if it is asked to emit
+   * more than was requested.
+   */
+  static final class ManualPublisher implements Publisher<ByteBuffer> {
+    private Subscriber<? super ByteBuffer> subscriber;
+    private long requested;
+    private boolean cancelled;
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+      this.subscriber = subscriber;
+      subscriber.onSubscribe(new Subscription() {
+        @Override
+        public void request(long n) {
+          requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+        }
+
+        @Override
+        public void cancel() {
+          cancelled = true;
+        }
+      });
+    }
+
+    void emit(ByteBuffer byteBuffer) {
+      if (requested == 0) {
+        throw new IllegalStateException("Emitting without demand");
+      }
+      requested--;
+      subscriber.onNext(byteBuffer);
+    }
+
+    void complete() {
+      subscriber.onComplete();
+    }
+
+    void fail(Throwable error) {
+      subscriber.onError(error);
+    }
+
+    boolean subscribed() {
+      return subscriber != null;
+    }
+
+    long requested() {
+      return requested;
+    }
+
+    boolean cancelled() {
+      return cancelled;
+    }
+  }
+
+  /**
+   * Collects what it receives and requests only what the test asks for.
+   */
+  static final class RecordingSubscriber implements Subscriber<ByteBuffer> {
+    private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    private Subscription subscription;
+    private int buffers;
+    private boolean completed;
+    private Throwable error;
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+      this.subscription = subscription;
+    }
+
+    @Override
+    public void onNext(ByteBuffer byteBuffer) {
+      ByteBuffer copy = byteBuffer.duplicate();
+      byte[] bytes = new byte[copy.remaining()];
+      copy.get(bytes);
+      received.writeBytes(bytes);
+      buffers++;
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+    }
+
+    @Override
+    public void onComplete() {
+      completed = true;
+    }
+
+    void request(long n) {
+      subscription.request(n);
+    }
+
+    void cancel() {
+      subscription.cancel();
+    }
+
+    byte[] bytes() {
+      return received.toByteArray();
+    }
+
+    int buffers() {
+      return buffers;
+    }
+
+    boolean completed() {
+      return completed;
+    }
+
+    Throwable error() {
+      return error;
+    }
+  }
+}
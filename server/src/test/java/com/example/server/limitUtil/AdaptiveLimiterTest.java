@@ -0,0 +1,112 @@
+package com.example.server.limitUtil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+public class AdaptiveLimiterTest {
+  private static final int INITIAL_LIMIT = 64;
+  private static final int MIN_LIMIT = 8;
+
+  @Test
+  public void droppedCallsBackTheLimitOffToTheMinimum() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter("PutObject", INITIAL_LIMIT, MIN_LIMIT, 2048, 1.5);
+    for(int round = 0; round < 10; round++) {
+      int admitted = fillToLimit(limiter);
+      for(int i = 0; i < admitted; i++) {
+        limiter.onDropped();
+      }
+    }
+    assertEquals(MIN_LIMIT, limiter.limit());
+    assertEquals(0, limiter.inFlight());
+  }
+
+  @Test
+  public void transferSuccessesRecoverTheLimitAfterDrops() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter("PutObject", INITIAL_LIMIT, MIN_LIMIT, 2048, 1.5);
+    for(int cycle = 0; cycle < 3; cycle++) {
+      // A burst of throttling, then transfers that succeed with the limit in use
+      for(int round = 0; round < 10; round++) {
+        int admitted = fillToLimit(limiter);
+        for(int i = 0; i < admitted; i++) {
+          limiter.onDropped();
+        }
+      }
+      assertEquals(MIN_LIMIT, limiter.limit());
+
+      for(int round = 0; round < 20 && limiter.limit() < INITIAL_LIMIT; round++) {
+        int admitted = fillToLimit(limiter);
+        for(int i = 0; i < admitted; i++) {
+          limiter.onTransferSuccess();
+        }
+      }
+      assertTrue(limiter.limit() >= INITIAL_LIMIT, "Limit recovered to " + limiter.limit() + " in cycle " + cycle);
+      assertEquals(0, limiter.inFlight());
+    }
+  }
+
+  @Test
+  public void transferSuccessDoesNotRaiseAnUnusedLimit() {
+    AdaptiveLimiter limiter = new AdaptiveLimiter("PutObject", INITIAL_LIMIT, MIN_LIMIT, 2048, 1.5);
+    for(int i = 0; i < 1000; i++) {
+      assertTrue(limiter.tryAcquire());
+      limiter.onTransferSuccess();
+    }
+    assertEquals(INITIAL_LIMIT, limiter.limit());
+    assertEquals(1000, limiter.completedCount());
+  }
+
+  @Test
+  public void callTransferRecoversAfterServerErrors() {
+    OperationLimiters limiters = new OperationLimiters("S3", 16, 2, 256, 1.5);
+
+    // Every transfer fails with 503 until the limit is at its minimum, and calls above it are rejected
+    for(int round = 0; round < 20; round++) {
+      for(CompletableFuture<String> transfer : startToLimit(limiters)) {
+        transfer.completeExceptionally(SdkServiceException.builder().statusCode(503).message("Slow Down").build());
+      }
+    }
+    assertEquals(2, limiters.limiter("PutObject").limit());
+    List<CompletableFuture<String>> held = startToLimit(limiters);
+    assertTrue(limiters.callTransfer("PutObject", CompletableFuture<String>::new).isCompletedExceptionally());
+    held.forEach(transfer -> transfer.complete("ok"));
+
+    // Once S3 accepts the transfers again, the limit grows back
+    for(int round = 0; round < 50 && limiters.limiter("PutObject").limit() < 16; round++) {
+      startToLimit(limiters).forEach(transfer -> transfer.complete("ok"));
+    }
+    assertTrue(limiters.limiter("PutObject").limit() >= 16, "Limit recovered to " + limiters.limiter("PutObject").limit());
+    assertFalse(limiters.callTransfer("PutObject", () -> CompletableFuture.completedFuture("ok")).isCompletedExceptionally());
+    assertEquals(0, limiters.limiter("PutObject").inFlight());
+  }
+
+  // Takes slots until the limit rejects one; returns how many were taken
+  private static int fillToLimit(AdaptiveLimiter limiter) {
+    int admitted = 0;
+    while (limiter.tryAcquire()) {
+      admitted++;
+    }
+    return admitted;
+  }
+
+  // Starts PutObject transfers until the limit rejects one; returns the admitted ones, still running
+  private static List<CompletableFuture<String>> startToLimit(OperationLimiters limiters) {
+    List<CompletableFuture<String>> transfers = new ArrayList<>();
+    while (true) {
+      CompletableFuture<String> transfer = new CompletableFuture<>();
+      CompletableFuture<String> admitted = limiters.callTransfer("PutObject", () -> transfer);
+      if (admitted.isCompletedExceptionally()) {
+        return transfers;
+      }
+      transfers.add(transfer);
+    }
+  }
+}
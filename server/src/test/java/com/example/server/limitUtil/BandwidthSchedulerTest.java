@@ -0,0 +1,53 @@
+package com.example.server.limitUtil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class BandwidthSchedulerTest {
+  private static final String ADDRESS = "10.0.0.7";
+
+  @Test
+  public void onlyListedClientIdsAreHonoured() {
+    BandwidthScheduler bandwidth = scheduler();
+    try {
+      assertEquals("dashboard", bandwidth.clientId(" dashboard ", ADDRESS));
+      // An unknown id, e.g. a new one per transfer, is scheduled under the address like no id at all
+      assertEquals(ADDRESS, bandwidth.clientId("heavy-client-42", ADDRESS));
+      assertEquals(ADDRESS, bandwidth.clientId(null, ADDRESS));
+      assertEquals(ADDRESS, bandwidth.clientId("", ADDRESS));
+      assertEquals("anonymous", bandwidth.clientId("unknown", null));
+    } finally {
+      bandwidth.close();
+    }
+  }
+
+  @Test
+  public void transfersUnderRotatingIdsShareOneFairShare() {
+    BandwidthScheduler bandwidth = scheduler();
+    try {
+      for(int i = 0; i < 3; i++) {
+        bandwidth.open(bandwidth.clientId("rotating-" + i, ADDRESS));
+      }
+      bandwidth.open(bandwidth.clientId("dashboard", "10.0.0.8"));
+
+      List<BandwidthScheduler.ClientStats> stats = bandwidth.clientStats();
+      assertEquals(2, stats.size());
+      for(BandwidthScheduler.ClientStats client : stats) {
+        // Premium has weight 4 of 5, the address the default weight 1
+        long expected = "dashboard".equals(client.clientId()) ? 80 * 1024 * 1024 : 20 * 1024 * 1024;
+        assertEquals(expected, client.allocatedBytesPerSecond(), client.clientId());
+      }
+    } finally {
+      bandwidth.close();
+    }
+  }
+
+  private static BandwidthScheduler scheduler() {
+    return new BandwidthScheduler("download", 100L * 1024 * 1024, BandwidthScheduler.Tier.parse("standard=1:0,premium=4:0"), //
+      BandwidthScheduler.parseClientTiers("dashboard=premium"), "standard");
+  }
+}